@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Single file which holds all assets of the distribution, so they are read without opening a file per asset.
+ *
+ * The archive starts with an index of all entries: name, offset, stored and original size, compression and the SHA-256
+ * hash of the original content. The entries follow aligned to {@link #ALIGNMENT ALIGNMENT} bytes. Entries are stored
+ * uncompressed or as an LZ4 block if that saves at least an eighth, so already compressed images are stored as they
+ * are.
+ *
+ * The file is memory-mapped once when the archive is opened. {@link #get(String) get} returns uncompressed entries as
+ * slices of the mapping without copying them, and it may be called from any thread, so assets can be decoded in
+ * parallel. Archives are written with {@link #pack(Path, Path) pack} (the packAssets task of the build).
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class AssetArchive implements Closeable {
+    /**
+     * Alignment of the entries in bytes
+     */
+    public static final int ALIGNMENT = 64;
+
+    /**
+     * Statistics of {@link #pack(Path, Path) pack}
+     */
+    public static class PackResult {
+        /**
+         * @param entries number of entries
+         * @param compressed number of entries stored as LZ4 block
+         * @param originalSize size of all files
+         * @param archiveSize size of the archive
+         */
+        public PackResult(int entries, int compressed, long originalSize, long archiveSize) {
+            this.entries = entries;
+            this.compressed = compressed;
+            this.originalSize = originalSize;
+            this.archiveSize = archiveSize;
+        }
+
+        /**
+         * @return number of entries
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return number of entries stored as LZ4 block
+         */
+        public int getCompressed() {
+            return compressed;
+        }
+
+        /**
+         * @return size of all files in bytes
+         */
+        public long getOriginalSize() {
+            return originalSize;
+        }
+
+        /**
+         * @return size of the archive in bytes
+         */
+        public long getArchiveSize() {
+            return archiveSize;
+        }
+
+        private final int entries;
+        private final int compressed;
+        private final long originalSize;
+        private final long archiveSize;
+    }
+
+    /**
+     * Opens an archive and maps it into memory
+     *
+     * @param path path of the archive
+     * @throws IOException if the archive cannot be read or is corrupt
+     */
+    public AssetArchive(Path path) throws IOException {
+        this.path = path.toAbsolutePath().normalize();
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Asset archive too large: " + path);
+
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer header = mapping.duplicate();
+
+            if (header.remaining() < 12 || header.getInt() != MAGIC)
+                throw new IOException("Not an asset archive: " + path);
+
+            if (header.getInt() != VERSION)
+                throw new IOException("Unsupported asset archive version: " + path);
+
+            int count = header.getInt();
+
+            for (int i = 0; i < count; ++i) {
+                byte[] name = new byte[header.getShort() & 0xFFFF];
+                header.get(name);
+
+                Entry entry = new Entry(
+                    header.getInt(), header.getInt(), header.getInt(), header.get(), new byte[HASH_SIZE]
+                );
+                header.get(entry.hash);
+
+                if ((long) entry.offset + entry.storedSize > mapping.capacity())
+                    throw new IOException("Asset archive is truncated: " + path);
+
+                entries.put(new String(name, StandardCharsets.UTF_8), entry);
+            }
+        } catch (Throwable th) {
+            channel.close();
+            throw th;
+        }
+    }
+
+    /**
+     * @return absolute path of the archive
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @param name name of an entry
+     * @return if the archive contains the entry
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return names of all entries, which are paths relative to the packed directory separated by '/'
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Returns the content of an entry. Uncompressed entries are read-only slices of the mapping, compressed entries are
+     * decompressed into a new direct buffer. Neither has to be freed.
+     *
+     * @param name name of the entry
+     * @return content between position 0 and the limit
+     * @throws IOException if the archive doesn't contain the entry or it is corrupt
+     */
+    public ByteBuffer get(String name) throws IOException {
+        Entry entry = getEntry(name);
+        ByteBuffer stored = slice(entry);
+
+        if (entry.compression == STORED)
+            return stored;
+
+        ByteBuffer content = ByteBuffer.allocateDirect(entry.size);
+        Lz4.decompress(stored, content);
+
+        if (content.hasRemaining())
+            throw new IOException("Corrupt asset archive entry: " + name);
+
+        content.flip();
+        return content;
+    }
+
+    /**
+     * @param name name of an entry
+     * @return SHA-256 hash of the original content, which identifies copies of the same file
+     * @throws IOException if the archive doesn't contain the entry
+     */
+    public byte[] getHash(String name) throws IOException {
+        return getEntry(name).hash.clone();
+    }
+
+    /**
+     * @param name name of an entry
+     * @return size of the original content in bytes
+     * @throws IOException if the archive doesn't contain the entry
+     */
+    public int getSize(String name) throws IOException {
+        return getEntry(name).size;
+    }
+
+    /**
+     * Checks the hashes of all entries, which reads the whole archive
+     *
+     * @return names of the entries whose content doesn't match its hash or cannot be decompressed
+     */
+    public List<String> verify() {
+        List<String> corrupt = new ArrayList<>();
+
+        for (String name : entries.keySet()) {
+            try {
+                if (!Arrays.equals(hash(get(name)), entries.get(name).hash))
+                    corrupt.add(name);
+            } catch (IOException ex) {
+                corrupt.add(name);
+            }
+        }
+
+        return corrupt;
+    }
+
+    /**
+     * Closes the file. The mapping and the slices which were returned remain valid until they are garbage collected.
+     *
+     * @throws IOException if closing the file fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes all files of a directory and its subdirectories into an archive
+     *
+     * @param directory directory to pack
+     * @param file path of the archive; It is skipped if it lies inside the directory.
+     * @return statistics
+     * @throws IOException if a file cannot be read or the archive cannot be written
+     */
+    public static PackResult pack(Path directory, Path file) throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> walk = Files.walk(directory)) {
+            Path archive = file.toAbsolutePath().normalize();
+
+            files = walk
+                .filter(Files::isRegularFile)
+                .filter(p -> !p.toAbsolutePath().normalize().equals(archive))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        // The entries are compressed first, so the size of the index and the offsets are known
+        List<byte[]> names = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        List<Entry> index = new ArrayList<>();
+        int indexSize = 12;
+        int compressed = 0;
+        long originalSize = 0;
+
+        for (Path path : files) {
+            String name = directory.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+            byte[] original = Files.readAllBytes(path);
+            byte[] packed = Lz4.compress(original);
+            boolean compress = packed.length <= original.length - original.length / 8;
+            byte[] content = compress ? packed : original;
+
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+            contents.add(content);
+            index.add(new Entry(
+                0, content.length, original.length, compress ? LZ4 : STORED, hash(ByteBuffer.wrap(original))
+            ));
+
+            indexSize += 2 + names.get(names.size() - 1).length + 13 + HASH_SIZE;
+            compressed += compress ? 1 : 0;
+            originalSize += original.length;
+        }
+
+        long offset = indexSize;
+
+        for (int i = 0; i < index.size(); ++i) {
+            offset = align(offset);
+
+            if (offset + contents.get(i).length > Integer.MAX_VALUE)
+                throw new IOException("Asset archive too large: " + file);
+
+            Entry entry = index.get(i);
+            index.set(i, new Entry((int) offset, entry.storedSize, entry.size, entry.compression, entry.hash));
+            offset += entry.storedSize;
+        }
+
+        try (OutputStream stream = Files.newOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(index.size());
+
+            for (int i = 0; i < index.size(); ++i) {
+                Entry entry = index.get(i);
+                out.writeShort(names.get(i).length);
+                out.write(names.get(i));
+                out.writeInt(entry.offset);
+                out.writeInt(entry.storedSize);
+                out.writeInt(entry.size);
+                out.writeByte(entry.compression);
+                out.write(entry.hash);
+            }
+
+            for (int i = 0; i < index.size(); ++i) {
+                for (int pad = index.get(i).offset - out.size(); pad > 0; --pad)
+                    out.writeByte(0);
+
+                out.write(contents.get(i));
+            }
+        }
+
+        return new PackResult(index.size(), compressed, originalSize, offset);
+    }
+
+    /**
+     * Location and properties of an entry
+     */
+    private static class Entry {
+        /**
+         * @param offset offset of the stored content in the archive
+         * @param storedSize size of the stored content
+         * @param size size of the original content
+         * @param compression {@link #STORED STORED} or {@link #LZ4 LZ4}
+         * @param hash SHA-256 hash of the original content
+         */
+        Entry(int offset, int storedSize, int size, byte compression, byte[] hash) {
+            this.offset = offset;
+            this.storedSize = storedSize;
+            this.size = size;
+            this.compression = compression;
+            this.hash = hash;
+        }
+
+        final int offset;
+        final int storedSize;
+        final int size;
+        final byte compression;
+        final byte[] hash;
+    }
+
+    /**
+     * @param name name of an entry
+     * @return entry
+     * @throws IOException if the archive doesn't contain the entry
+     */
+    private Entry getEntry(String name) throws IOException {
+        Entry entry = entries.get(name);
+
+        if (entry == null)
+            throw new IOException("Asset archive doesn't contain " + name);
+
+        return entry;
+    }
+
+    /**
+     * @param entry entry
+     * @return read-only slice of the stored content
+     */
+    private ByteBuffer slice(Entry entry) {
+        ByteBuffer slice = mapping.asReadOnlyBuffer();
+        slice.position(entry.offset).limit(entry.offset + entry.storedSize);
+        return slice.slice();
+    }
+
+    /**
+     * @param offset offset in the archive
+     * @return offset rounded up to the {@link #ALIGNMENT ALIGNMENT}
+     */
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * @param content content between its position and limit
+     * @return SHA-256 hash of the content
+     */
+    private static byte[] hash(ByteBuffer content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * "PBRA"
+     */
+    private static final int MAGIC = 0x50425241;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Entry is stored as it is
+     */
+    private static final byte STORED = 0;
+
+    /**
+     * Entry is stored as LZ4 block
+     */
+    private static final byte LZ4 = 1;
+
+    /**
+     * Size of a SHA-256 hash in bytes
+     */
+    private static final int HASH_SIZE = 32;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final Map<String, Entry> entries = new HashMap<>();
+}
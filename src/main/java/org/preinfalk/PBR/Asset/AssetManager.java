@@ -0,0 +1,654 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.preinfalk.PBR.GL.FramePipeline;
+import org.preinfalk.PBR.GL.IndexedMesh;
+import org.preinfalk.PBR.GL.MaterialLibrary;
+import org.preinfalk.PBR.GL.ResourceStack;
+import org.preinfalk.PBR.GL.Shader;
+import org.preinfalk.PBR.GL.Texture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Loads textures, images, shaders and meshes once and shares them between everyone who requests them.
+ *
+ * Assets are looked up by their path first. Unknown paths are read and hashed (SHA-256) on worker threads, and the
+ * hash is looked up next, so copies of the same file under different names are decoded and uploaded only once. Entries
+ * of an {@link AssetArchive AssetArchive} aren't hashed again, the hash stored in the archive is used. Meshes are
+ * imported through a {@link MeshCache MeshCache} keyed by the same hash, so only the first run parses them.
+ * Requests for an asset which is still loading receive the same future, so concurrent requests never load twice.
+ *
+ * Files are read and decoded on the worker threads. Images stay decoded in memory, e.g. for the layers of a
+ * {@link MaterialLibrary MaterialLibrary} ({@link #loadMaterial(MaterialLibrary, Path...) loadMaterial}). The uploads
+ * are queued and run on the thread which owns the OpenGL context, either by {@link #synchronize() synchronize} (the
+ * manager can be added to a {@link FramePipeline FramePipeline}) or while waiting with
+ * {@link #await(CompletableFuture) await}.
+ *
+ * The manager holds one reference of every asset in a {@link ResourceStack ResourceStack}. Objects which keep an asset
+ * after the manager was closed have to increase its reference counter. Shaders are shared as well, so all users see the
+ * uniforms set by any of them.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class AssetManager implements FramePipeline.Resource, Closeable {
+    /**
+     * Creates a manager which loads on the common fork join pool
+     */
+    public AssetManager() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a manager which caches meshes in the {@link #MESH_CACHE MESH_CACHE} directory
+     *
+     * @param loaders executor which reads and decodes the files
+     */
+    public AssetManager(Executor loaders) {
+        this(loaders, new MeshCache(Paths.get(MESH_CACHE)));
+    }
+
+    /**
+     * Creates a manager
+     *
+     * @param loaders executor which reads and decodes the files
+     * @param meshCache cache of the imported meshes
+     */
+    public AssetManager(Executor loaders, MeshCache meshCache) {
+        this.loaders = loaders;
+        this.meshCache = meshCache;
+    }
+
+    /**
+     * Default directory of the mesh cache relative to the working directory
+     */
+    public static final String MESH_CACHE = "cache";
+
+    /**
+     * Requests a texture from an image file
+     *
+     * @param path path of the image file
+     * @return future which completes once the texture is uploaded
+     */
+    public CompletableFuture<Texture> loadTexture(Path path) {
+        return request(
+            "texture:" + path.toAbsolutePath().normalize(), () -> read(path), null,
+            (content, hash) -> decodeTexture(content)
+        );
+    }
+
+    /**
+     * Requests a decoded image from an image file
+     *
+     * @param path path of the image file
+     * @return future which completes once the image is decoded
+     */
+    public CompletableFuture<ImageData> loadImage(Path path) {
+        return request(
+            "image:" + path.toAbsolutePath().normalize(), () -> read(path), null,
+            (content, hash) -> decodeImage(content)
+        );
+    }
+
+    /**
+     * Requests a decoded image from an image file in an asset archive
+     *
+     * @param archive archive which contains the file
+     * @param name name of the entry
+     * @return future which completes once the image is decoded
+     */
+    public CompletableFuture<ImageData> loadImage(AssetArchive archive, String name) {
+        return request(
+            "image:" + archive.getPath() + "!" + name, () -> read(archive, name), () -> archive.getHash(name),
+            (content, hash) -> decodeImage(content)
+        );
+    }
+
+    /**
+     * Requests the maps of a material and adds it to a library once all of them are decoded. Maps which several
+     * materials share are decoded once.
+     *
+     * @param library library which receives the material
+     * @param maps paths of the image files in the order of {@link MaterialLibrary#SAMPLERS MaterialLibrary.SAMPLERS}
+     * @return future which completes with the handle of the material once it is added
+     */
+    public CompletableFuture<Integer> loadMaterial(MaterialLibrary library, Path... maps) {
+        List<CompletableFuture<ImageData>> images = new ArrayList<>();
+
+        for (Path map : maps)
+            images.add(loadImage(map));
+
+        return addMaterial(library, images);
+    }
+
+    /**
+     * Requests the maps of a material from an asset archive and adds it to a library once all of them are decoded
+     *
+     * @param library library which receives the material
+     * @param archive archive which contains the maps
+     * @param maps names of the entries in the order of {@link MaterialLibrary#SAMPLERS MaterialLibrary.SAMPLERS}
+     * @return future which completes with the handle of the material once it is added
+     */
+    public CompletableFuture<Integer> loadMaterial(MaterialLibrary library, AssetArchive archive, String... maps) {
+        List<CompletableFuture<ImageData>> images = new ArrayList<>();
+
+        for (String map : maps)
+            images.add(loadImage(archive, map));
+
+        return addMaterial(library, images);
+    }
+
+    /**
+     * Requests a shader compiled from class path resources
+     *
+     * @param vert name of the vertex shader resource
+     * @param frag name of the fragment shader resource
+     * @param defines names which are defined (see {@link Shader#Shader(String, String, String...) Shader})
+     * @return future which completes once the shader is linked
+     */
+    public CompletableFuture<Shader> loadShader(String vert, String frag, String... defines) {
+        String key = "shader:" + vert + "|" + frag + "|" + String.join(",", defines);
+
+        return request(key, () -> readShader(vert, frag, defines), null, (source, hash) -> {
+            String[] parts = new String(source, StandardCharsets.UTF_8).split("\0", -1);
+            return () -> new Shader(parts[0], parts[1], defines);
+        });
+    }
+
+    /**
+     * Requests a mesh from a mesh file (see {@link MeshImporter MeshImporter})
+     *
+     * @param path path of the mesh file
+     * @return future which completes once the mesh is uploaded
+     */
+    public CompletableFuture<IndexedMesh> loadMesh(Path path) {
+        String name = path.getFileName().toString();
+
+        return request(
+            "mesh:" + path.toAbsolutePath().normalize(), () -> read(path), null,
+            (content, hash) -> decodeMesh(name, content, hash)
+        );
+    }
+
+    /**
+     * Requests a mesh from a mesh file in an asset archive (see {@link MeshImporter MeshImporter})
+     *
+     * @param archive archive which contains the file
+     * @param name name of the entry
+     * @return future which completes once the mesh is uploaded
+     */
+    public CompletableFuture<IndexedMesh> loadMesh(AssetArchive archive, String name) {
+        return request(
+            "mesh:" + archive.getPath() + "!" + name, () -> read(archive, name), () -> archive.getHash(name),
+            (content, hash) -> decodeMesh(name, content, hash)
+        );
+    }
+
+    /**
+     * Waits for an asset and runs the uploads in the meantime. Must be called on the thread which owns the OpenGL
+     * context.
+     *
+     * @param future future returned by one of the load methods
+     * @param <T> type of the asset
+     * @return asset
+     */
+    public <T> T await(CompletableFuture<T> future) {
+        try {
+            while (!future.isDone()) {
+                Runnable upload = uploads.poll(1, TimeUnit.MILLISECONDS);
+
+                if (upload != null)
+                    upload.run();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Runs the queued uploads. Must be called on the thread which owns the OpenGL context.
+     */
+    @Override
+    public void synchronize() {
+        for (Runnable upload; (upload = uploads.poll()) != null; )
+            upload.run();
+    }
+
+    /**
+     * @return if assets are being read, decoded or waiting for their upload
+     */
+    public boolean isLoading() {
+        return inFlight.get() > 0;
+    }
+
+    /**
+     * @return number of load requests
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of requests which were answered by an asset with the same path
+     */
+    public int getPathHits() {
+        return pathHits.get();
+    }
+
+    /**
+     * @return number of requests which were answered by an asset with the same content but a different path
+     */
+    public int getContentHits() {
+        return contentHits.get();
+    }
+
+    /**
+     * @return number of assets which were decoded and uploaded
+     */
+    public int getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return number of bytes read from files and resources
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return time spent reading and decoding on the worker threads in nanoseconds
+     */
+    public long getDecodeTime() {
+        return decodeTime.get();
+    }
+
+    /**
+     * @return time spent uploading on the thread which owns the OpenGL context in nanoseconds
+     */
+    public long getUploadTime() {
+        return uploadTime.get();
+    }
+
+    /**
+     * Releases the references of the manager to all assets which were uploaded
+     *
+     * @throws IOException if releasing an asset fails
+     */
+    @Override
+    public void close() throws IOException {
+        synchronize();
+
+        synchronized (assets) {
+            assets.close();
+        }
+
+        byPath.clear();
+        byContent.clear();
+    }
+
+    /**
+     * Reads the content of an asset
+     */
+    private interface Reader {
+        byte[] read() throws IOException;
+    }
+
+    /**
+     * Decodes the content of an asset on a worker thread
+     */
+    private interface Decoder<T> {
+        /**
+         * @param content content of the asset
+         * @param hash SHA-256 hash of the content
+         * @return function which creates the OpenGL resource on the thread which owns the context
+         * @throws IOException if the content cannot be decoded
+         */
+        Supplier<T> decode(byte[] content, byte[] hash) throws IOException;
+    }
+
+    /**
+     * Looks up an asset by its key and its content and loads it if both are unknown
+     *
+     * @param key unique name of the asset
+     * @param reader function which reads the content
+     * @param storedHash function which reads the known SHA-256 hash of the content or null to hash the content
+     * @param decoder function which decodes the content
+     * @param <T> type of the asset
+     * @return future of the shared asset
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Closeable> CompletableFuture<T> request(
+        String key, Reader reader, Reader storedHash, Decoder<T> decoder
+    ) {
+        requests.incrementAndGet();
+
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> existing = byPath.putIfAbsent(key, created);
+
+        if (existing != null) {
+            pathHits.incrementAndGet();
+            return (CompletableFuture<T>) (CompletableFuture<?>) existing;
+        }
+
+        inFlight.incrementAndGet();
+        created.whenComplete((asset, th) -> inFlight.decrementAndGet());
+
+        loaders.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                byte[] content = reader.read();
+                bytesRead.addAndGet(content.length);
+
+                byte[] digest = storedHash != null ? storedHash.read() : hash(content);
+                String hash = contentKey(key, digest);
+                CompletableFuture<Object> loading = new CompletableFuture<>();
+                CompletableFuture<Object> same = byContent.putIfAbsent(hash, loading);
+
+                if (same != null) {
+                    contentHits.incrementAndGet();
+                    forward(same, created);
+                    return;
+                }
+
+                loading.whenComplete((asset, th) -> {
+                    if (th != null)
+                        byContent.remove(hash, loading);
+                });
+
+                forward(loading, created);
+
+                Supplier<T> upload;
+
+                try {
+                    upload = decoder.decode(content, digest);
+                } catch (Throwable th) {
+                    loading.completeExceptionally(th);
+                    return;
+                }
+
+                decodeTime.addAndGet(System.nanoTime() - start);
+
+                uploads.add(() -> {
+                    try {
+                        long begin = System.nanoTime();
+                        T asset = upload.get();
+
+                        synchronized (assets) {
+                            assets.add(asset);
+                        }
+
+                        uploadTime.addAndGet(System.nanoTime() - begin);
+                        loads.incrementAndGet();
+                        loading.complete(asset);
+                    } catch (Throwable th) {
+                        loading.completeExceptionally(th);
+                    }
+                });
+            } catch (Throwable th) {
+                created.completeExceptionally(th);
+            }
+        });
+
+        // Failed assets are forgotten, so they can be requested again
+        created.whenComplete((asset, th) -> {
+            if (th != null)
+                byPath.remove(key, created);
+        });
+
+        return (CompletableFuture<T>) (CompletableFuture<?>) created;
+    }
+
+    /**
+     * Adds a material to a library on the thread which owns the OpenGL context once its maps are decoded
+     *
+     * @param library library which receives the material
+     * @param maps futures of the maps
+     * @return future of the handle of the material
+     */
+    private CompletableFuture<Integer> addMaterial(MaterialLibrary library, List<CompletableFuture<ImageData>> maps) {
+        inFlight.incrementAndGet();
+
+        CompletableFuture<Integer> material = CompletableFuture.allOf(maps.toArray(new CompletableFuture<?>[0]))
+            .thenApplyAsync(done -> {
+                long begin = System.nanoTime();
+                int handle = library.add(maps.stream().map(CompletableFuture::join).toArray(ImageData[]::new));
+
+                uploadTime.addAndGet(System.nanoTime() - begin);
+                return handle;
+            }, uploads::add);
+
+        material.whenComplete((handle, th) -> inFlight.decrementAndGet());
+        return material;
+    }
+
+    /**
+     * Completes a future with the result of another one
+     *
+     * @param source future to wait for
+     * @param target future to complete
+     */
+    private static void forward(CompletableFuture<Object> source, CompletableFuture<Object> target) {
+        source.whenComplete((asset, th) -> {
+            if (th != null)
+                target.completeExceptionally(th);
+            else
+                target.complete(asset);
+        });
+    }
+
+    /**
+     * Decodes an image file into RGBA pixels
+     *
+     * @param content content of the image file
+     * @return function which uploads the pixels into a texture and frees them
+     */
+    private Supplier<Texture> decodeTexture(byte[] content) {
+        ImageData image = decode(content);
+
+        return () -> {
+            Texture texture = new Texture();
+
+            try {
+                texture.loadRaw(image.getPixels(), image.getWidth(), image.getHeight());
+            } catch (Throwable th) {
+                texture.close();
+                throw th;
+            } finally {
+                image.close();
+            }
+
+            return texture;
+        };
+    }
+
+    /**
+     * Imports a mesh file through the mesh cache
+     *
+     * @param name name of the mesh file, whose extension selects the importer
+     * @param content content of the mesh file
+     * @param hash SHA-256 hash of the content, which is the key of the cache entry
+     * @return function which uploads the mesh
+     * @throws IOException if the cache cannot be written
+     */
+    private Supplier<IndexedMesh> decodeMesh(String name, byte[] content, byte[] hash) throws IOException {
+        // The hashed bytes are decoded, so the file is read once and the asset matches its hash
+        MeshData data = meshCache.load(name, ByteBuffer.wrap(content), hash);
+        return () -> new IndexedMesh(data);
+    }
+
+    /**
+     * Decodes an image file into RGBA pixels which are kept
+     *
+     * @param content content of the image file
+     * @return function which returns the image
+     */
+    private Supplier<ImageData> decodeImage(byte[] content) {
+        ImageData image = decode(content);
+        return () -> image;
+    }
+
+    /**
+     * @param content content of an image file
+     * @return decoded image
+     */
+    private static ImageData decode(byte[] content) {
+        ByteBuffer file = memAlloc(content.length);
+
+        try {
+            file.put(content).flip();
+            return ImageData.decode(file);
+        } finally {
+            memFree(file);
+        }
+    }
+
+    /**
+     * Reads a file
+     *
+     * @param path path of the file
+     * @return content
+     * @throws IOException if the file cannot be read
+     */
+    private static byte[] read(Path path) throws IOException {
+        return Files.readAllBytes(path);
+    }
+
+    /**
+     * Reads an entry of an asset archive
+     *
+     * @param archive archive which contains the entry
+     * @param name name of the entry
+     * @return content
+     * @throws IOException if the entry cannot be read
+     */
+    private static byte[] read(AssetArchive archive, String name) throws IOException {
+        ByteBuffer entry = archive.get(name);
+        byte[] content = new byte[entry.remaining()];
+
+        entry.get(content);
+        return content;
+    }
+
+    /**
+     * Reads the sources of a shader. Both sources are joined with a null character, so identical programs share a
+     * hash.
+     *
+     * @param vert name of the vertex shader resource
+     * @param frag name of the fragment shader resource
+     * @param defines names which are defined
+     * @return sources and definitions
+     * @throws IOException if a resource cannot be read
+     */
+    private static byte[] readShader(String vert, String frag, String... defines) throws IOException {
+        String source = readResource(vert) + "\0" + readResource(frag) + "\0" + String.join(",", defines);
+        return source.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a class path resource as text
+     *
+     * @param name name of the resource
+     * @return content
+     * @throws IOException if the resource cannot be read
+     */
+    private static String readResource(String name) throws IOException {
+        try (InputStream stream = AssetManager.class.getResourceAsStream(name)) {
+            if (stream == null)
+                throw new IOException("Resource not found: " + name);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[65536];
+
+            for (int n; (n = stream.read(chunk)) > 0; )
+                bytes.write(chunk, 0, n);
+
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param content content of an asset
+     * @return SHA-256 hash of the content
+     */
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns the key of an asset by its content. The kind of the asset (prefix of the key) is included, so e.g. a mesh
+     * and a texture of the same file are different assets.
+     *
+     * @param key key of the asset
+     * @param hash SHA-256 hash of the content
+     * @return kind and hexadecimal hash
+     */
+    private static String contentKey(String key, byte[] hash) {
+        StringBuilder hex = new StringBuilder(key.substring(0, key.indexOf(':') + 1));
+
+        for (byte b : hash)
+            hex.append(String.format("%02x", b));
+
+        return hex.toString();
+    }
+
+    private final Executor loaders;
+    private final MeshCache meshCache;
+    private final Map<String, CompletableFuture<Object>> byPath = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Object>> byContent = new ConcurrentHashMap<>();
+    private final BlockingQueue<Runnable> uploads = new LinkedBlockingQueue<>();
+    private final ResourceStack assets = new ResourceStack();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger pathHits = new AtomicInteger();
+    private final AtomicInteger contentHits = new AtomicInteger();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong decodeTime = new AtomicLong();
+    private final AtomicLong uploadTime = new AtomicLong();
+}
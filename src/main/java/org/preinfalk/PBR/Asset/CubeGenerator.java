@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Procedural cube whose six faces are subdivided into grids
+ */
+public class CubeGenerator extends ShapeGenerator {
+    /**
+     * @param pos position of the center
+     * @param radius half of the cubes size
+     * @param divisions number of quads along each edge of a face
+     */
+    public CubeGenerator(Vector3fc pos, Vector3fc radius, int divisions) {
+        super(6, divisions, divisions);
+
+        this.pos = new Vector3f(pos);
+        this.radius = new Vector3f(radius);
+    }
+
+    @Override
+    public Bounds getBounds() {
+        return new Bounds(new Vector3f(pos).sub(radius), new Vector3f(pos).add(radius), pos, radius.length());
+    }
+
+    @Override
+    protected void evaluate(FloatBuffer out, int offset, int patch, int column, int row) {
+        int a = patch * 9;
+        float s = 2 * (float) column / columns - 1, t = 2 * (float) row / rows - 1;
+
+        float x = FACES[a] + s * FACES[a + 3] + t * FACES[a + 6];
+        float y = FACES[a + 1] + s * FACES[a + 4] + t * FACES[a + 7];
+        float z = FACES[a + 2] + s * FACES[a + 5] + t * FACES[a + 8];
+
+        putVertex(
+            out, offset, pos.x + radius.x * x, pos.y + radius.y * y, pos.z + radius.z * z,
+            FACES[a + 3], FACES[a + 4], FACES[a + 5], FACES[a + 6], FACES[a + 7], FACES[a + 8], column, row
+        );
+    }
+
+    // Normal, u axis and v axis of each face; The cross product of the axes is the normal.
+    private static final float[] FACES = {
+         1,  0,  0,   0, 1, 0,   0, 0, 1,
+        -1,  0,  0,   0, 0, 1,   0, 1, 0,
+         0,  1,  0,   0, 0, 1,   1, 0, 0,
+         0, -1,  0,   1, 0, 0,   0, 0, 1,
+         0,  0,  1,   1, 0, 0,   0, 1, 0,
+         0,  0, -1,   0, 1, 0,   1, 0, 0,
+    };
+
+    private final Vector3f pos;
+    private final Vector3f radius;
+}
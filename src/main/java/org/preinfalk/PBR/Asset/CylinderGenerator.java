@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Procedural closed cylinder along the z axis. It consists of three patches: the side, the top cap and the bottom cap.
+ * The caps are discs whose rows are concentric rings.
+ */
+public class CylinderGenerator extends ShapeGenerator {
+    /**
+     * @param pos position of the center
+     * @param radius radius of the cylinder
+     * @param height height of the cylinder
+     * @param segments number of segments around the z axis
+     * @param rows number of subdivisions of the side along the z axis and of the caps towards the center
+     */
+    public CylinderGenerator(Vector3fc pos, float radius, float height, int segments, int rows) {
+        super(3, segments, rows);
+
+        this.pos = new Vector3f(pos);
+        this.radius = radius;
+        this.height = height;
+
+        cosU = cosTable(columns, 0, 2 * Math.PI);
+        sinU = sinTable(columns, 0, 2 * Math.PI);
+    }
+
+    @Override
+    public Bounds getBounds() {
+        Vector3f extent = new Vector3f(radius, radius, height / 2);
+        return new Bounds(new Vector3f(pos).sub(extent), new Vector3f(pos).add(extent), pos, extent.length());
+    }
+
+    @Override
+    protected void evaluate(FloatBuffer out, int offset, int patch, int column, int row) {
+        float cu = cosU[column], su = sinU[column];
+        float t = (float) row / rows;
+
+        if (patch == SIDE) {
+            float z = pos.z + height * (t - 0.5f);
+            putVertex(out, offset, pos.x + radius * cu, pos.y + radius * su, z, -su, cu, 0, 0, 0, 1, column, row);
+        } else {
+            // The top cap shrinks towards the center, the bottom cap grows from it, so both normals point outwards
+            boolean top = patch == TOP;
+            float r = radius * (top ? 1 - t : t), z = pos.z + (top ? height : -height) / 2;
+            float dr = top ? -1 : 1;
+
+            putVertex(out, offset, pos.x + r * cu, pos.y + r * su, z, -su, cu, 0, dr * cu, dr * su, 0, column, row);
+        }
+    }
+
+    private static final int SIDE = 0;
+    private static final int TOP = 1;
+
+    private final Vector3f pos;
+    private final float radius;
+    private final float height;
+    private final float[] cosU;
+    private final float[] sinU;
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Importer for binary glTF 2.0 files (.glb).
+ *
+ * The file is memory-mapped. Only the JSON chunk is parsed into objects, the vertex attributes and indices are copied
+ * directly from the accessors in the binary chunk into the interleaved {@link MeshData MeshData}. All triangle
+ * primitives of all meshes are merged into one mesh; node transforms, materials and skins are ignored. If any primitive
+ * lacks normals or tangents, they are generated for the whole mesh.
+ */
+public class GltfImporter {
+    /**
+     * Imports a binary glTF file
+     *
+     * @param path path of the file
+     * @return indexed mesh data
+     * @throws IOException if the file cannot be read
+     */
+    public static MeshData load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Parses the content of a binary glTF file
+     *
+     * @param file content of the file
+     * @return indexed mesh data
+     */
+    public static MeshData parse(ByteBuffer file) {
+        file = file.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (file.remaining() < 20 || file.getInt(0) != MAGIC)
+            throw new RuntimeException("Not a binary glTF file");
+
+        if (file.getInt(4) != 2)
+            throw new RuntimeException("Unsupported glTF version " + file.getInt(4));
+
+        // Read the chunks
+        String json = null;
+        ByteBuffer bin = null;
+
+        for (int pos = 12; pos + 8 <= file.limit(); ) {
+            int length = file.getInt(pos);
+            int type = file.getInt(pos + 4);
+
+            ByteBuffer chunk = slice(file, pos + 8, length);
+
+            if (type == CHUNK_JSON) {
+                byte[] bytes = new byte[length];
+                chunk.get(bytes);
+                json = new String(bytes, StandardCharsets.UTF_8);
+            } else if (type == CHUNK_BIN && bin == null)
+                bin = chunk;
+
+            pos += 8 + ((length + 3) & ~3);
+        }
+
+        if (json == null)
+            throw new RuntimeException("glTF file doesn't contain a JSON chunk");
+
+        return new GltfImporter(Json.parse(json), bin).read();
+    }
+
+    /**
+     * @param document parsed JSON chunk
+     * @param bin binary chunk or null
+     */
+    private GltfImporter(Object document, ByteBuffer bin) {
+        this.bin = bin;
+        accessors = Json.getArray(document, "accessors");
+        bufferViews = Json.getArray(document, "bufferViews");
+        meshes = Json.getArray(document, "meshes");
+    }
+
+    /**
+     * Copies all triangle primitives into mesh data
+     *
+     * @return indexed mesh data
+     */
+    private MeshData read() {
+        if (meshes == null)
+            throw new RuntimeException("glTF file doesn't contain any meshes");
+
+        // Count the vertices and indices first, so the mesh can be allocated at once
+        int numVertices = 0, numIndices = 0;
+
+        for (Object mesh : meshes) {
+            for (Object primitive : Json.getArray(mesh, "primitives")) {
+                if (Json.getInt(primitive, "mode", MODE_TRIANGLES) != MODE_TRIANGLES)
+                    continue;
+
+                int count = getCount(Json.getInt(Json.getObject(primitive, "attributes"), "POSITION", -1));
+                numVertices += count;
+                numIndices += ((Map<?, ?>) primitive).containsKey("indices")
+                    ? getCount(Json.getInt(primitive, "indices", -1)) : count;
+            }
+        }
+
+        MeshData data = MeshData.allocate(numVertices, numIndices);
+        FloatBuffer vertices = data.getVertexFloats();
+        IntBuffer indices = data.getIndexInts();
+
+        boolean hasNormals = true, hasTangents = true;
+        int baseVertex = 0, baseIndex = 0;
+
+        for (Object mesh : meshes) {
+            for (Object primitive : Json.getArray(mesh, "primitives")) {
+                if (Json.getInt(primitive, "mode", MODE_TRIANGLES) != MODE_TRIANGLES)
+                    continue;
+
+                Map<String, Object> attributes = Json.getObject(primitive, "attributes");
+                int count = getCount(Json.getInt(attributes, "POSITION", -1));
+
+                readAttribute(Json.getInt(attributes, "POSITION", -1), 3, vertices, baseVertex, 0);
+                hasNormals &= readAttribute(
+                    Json.getInt(attributes, "NORMAL", -1), 3, vertices, baseVertex, MeshData.NORMAL_OFFSET / 4
+                );
+                boolean hasTexCoords = readAttribute(
+                    Json.getInt(attributes, "TEXCOORD_0", -1), 2, vertices, baseVertex, MeshData.TEXCOORD_OFFSET / 4
+                );
+                boolean primitiveTangents = readAttribute(
+                    Json.getInt(attributes, "TANGENT", -1), 4, vertices, baseVertex, MeshData.TANGENT_OFFSET / 4
+                );
+                hasTangents &= primitiveTangents;
+
+                // glTF has the origin of the texture coordinates at the top left, the textures are loaded bottom up.
+                // Flipping v mirrors the bitangent, so the handedness of the tangents flips as well.
+                for (int i = 0; i < count; ++i) {
+                    int v = (baseVertex + i) * MeshData.VERTEX_FLOATS;
+
+                    if (hasTexCoords) {
+                        int t = v + MeshData.TEXCOORD_OFFSET / 4 + 1;
+                        vertices.put(t, 1 - vertices.get(t));
+                    }
+
+                    if (primitiveTangents) {
+                        int w = v + MeshData.TANGENT_OFFSET / 4 + 3;
+                        vertices.put(w, -vertices.get(w));
+                    }
+                }
+
+                int indexAccessor = Json.getInt(primitive, "indices", -1);
+
+                if (indexAccessor >= 0)
+                    baseIndex += readIndices(indexAccessor, indices, baseIndex, baseVertex);
+                else {
+                    for (int i = 0; i < count; ++i)
+                        indices.put(baseIndex++, baseVertex + i);
+                }
+
+                baseVertex += count;
+            }
+        }
+
+        if (!hasNormals)
+            data.generateNormals();
+
+        if (!hasTangents)
+            data.generateTangents();
+
+        data.calculateBounds();
+        return data;
+    }
+
+    /**
+     * Copies a float vertex attribute into the interleaved vertices
+     *
+     * @param accessor index of the accessor or -1
+     * @param components number of components to copy
+     * @param vertices interleaved vertex data
+     * @param baseVertex index of the first vertex to write
+     * @param offset offset of the attribute in a vertex in floats
+     * @return if the attribute exists
+     */
+    private boolean readAttribute(int accessor, int components, FloatBuffer vertices, int baseVertex, int offset) {
+        if (accessor < 0)
+            return false;
+
+        Object acc = accessors.get(accessor);
+
+        if (Json.getInt(acc, "componentType", 0) != COMPONENT_FLOAT)
+            throw new RuntimeException("Only float vertex attributes are supported");
+
+        ByteBuffer view = getData(acc);
+        int stride = getStride(acc, components * 4);
+        int count = getCount(accessor);
+
+        for (int i = 0; i < count; ++i) {
+            int src = i * stride;
+            int dst = (baseVertex + i) * MeshData.VERTEX_FLOATS + offset;
+
+            for (int c = 0; c < components; ++c)
+                vertices.put(dst + c, view.getFloat(src + c * 4));
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the indices of a primitive and offsets them by the base vertex
+     *
+     * @param accessor index of the accessor
+     * @param indices index data
+     * @param baseIndex index of the first index to write
+     * @param baseVertex value to add to every index
+     * @return number of indices
+     */
+    private int readIndices(int accessor, IntBuffer indices, int baseIndex, int baseVertex) {
+        Object acc = accessors.get(accessor);
+        int type = Json.getInt(acc, "componentType", 0);
+        int size = type == COMPONENT_UNSIGNED_BYTE ? 1 : type == COMPONENT_UNSIGNED_SHORT ? 2 : 4;
+
+        ByteBuffer view = getData(acc);
+        int stride = getStride(acc, size);
+        int count = getCount(accessor);
+
+        for (int i = 0; i < count; ++i) {
+            int index;
+
+            switch (type) {
+            case COMPONENT_UNSIGNED_BYTE: index = view.get(i * stride) & 0xFF; break;
+            case COMPONENT_UNSIGNED_SHORT: index = view.getShort(i * stride) & 0xFFFF; break;
+            case COMPONENT_UNSIGNED_INT: index = view.getInt(i * stride); break;
+            default: throw new RuntimeException("Unsupported index type " + type);
+            }
+
+            indices.put(baseIndex + i, baseVertex + index);
+        }
+
+        return count;
+    }
+
+    /**
+     * @param accessor index of the accessor
+     * @return number of elements of the accessor
+     */
+    private int getCount(int accessor) {
+        if (accessor < 0)
+            throw new RuntimeException("glTF primitive doesn't have positions");
+
+        return Json.getInt(accessors.get(accessor), "count", 0);
+    }
+
+    /**
+     * Returns the binary data of an accessor starting at its first element
+     *
+     * @param accessor accessor object
+     * @return little endian buffer containing the data
+     */
+    private ByteBuffer getData(Object accessor) {
+        if (bin == null)
+            throw new RuntimeException("glTF files with external buffers are not supported");
+
+        Object view = bufferViews.get(Json.getInt(accessor, "bufferView", -1));
+
+        if (Json.getInt(view, "buffer", 0) != 0)
+            throw new RuntimeException("glTF files with external buffers are not supported");
+
+        int offset = Json.getInt(view, "byteOffset", 0) + Json.getInt(accessor, "byteOffset", 0);
+        int length = Json.getInt(view, "byteLength", 0) - Json.getInt(accessor, "byteOffset", 0);
+
+        return slice(bin, offset, length);
+    }
+
+    /**
+     * @param accessor accessor object
+     * @param elementSize size of an element in bytes
+     * @return distance between two elements in bytes
+     */
+    private int getStride(Object accessor, int elementSize) {
+        Object view = bufferViews.get(Json.getInt(accessor, "bufferView", -1));
+        return Json.getInt(view, "byteStride", elementSize);
+    }
+
+    /**
+     * @param buffer buffer to slice
+     * @param offset start of the slice
+     * @param length length of the slice
+     * @return little endian slice
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static final int MAGIC = 0x46546C67;
+    private static final int CHUNK_JSON = 0x4E4F534A;
+    private static final int CHUNK_BIN = 0x004E4942;
+    private static final int MODE_TRIANGLES = 4;
+    private static final int COMPONENT_UNSIGNED_BYTE = 5121;
+    private static final int COMPONENT_UNSIGNED_SHORT = 5123;
+    private static final int COMPONENT_UNSIGNED_INT = 5125;
+    private static final int COMPONENT_FLOAT = 5126;
+
+    private final ByteBuffer bin;
+    private final List<Object> accessors;
+    private final List<Object> bufferViews;
+    private final List<Object> meshes;
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.lwjgl.system.MemoryStack;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.stb.STBImage.*;
+
+/**
+ * Image decoded into RGBA pixels (unsigned bytes), which can be uploaded without further processing. The rows go from
+ * the bottom to the top like OpenGL expects them.
+ *
+ * Images are decoded by {@link AssetManager AssetManager} on its worker threads and shared by everyone who requests the
+ * same file. It must be closed with {@link #close() close} when done working with it, which frees the pixels.
+ */
+public class ImageData implements Closeable {
+    /**
+     * Decodes an image file
+     *
+     * @param file content of the image file between its position and limit; It has to be a direct buffer.
+     * @return decoded image
+     */
+    public static ImageData decode(ByteBuffer file) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer w = stack.mallocInt(1);
+            IntBuffer h = stack.mallocInt(1);
+            IntBuffer comp = stack.mallocInt(1);
+
+            stbi_set_flip_vertically_on_load(true);
+            ByteBuffer pixels = stbi_load_from_memory(file, w, h, comp, 4);
+
+            if (pixels == null)
+                throw new RuntimeException("Failed to load a texture file\n" + stbi_failure_reason());
+
+            return new ImageData(pixels, w.get(0), h.get(0));
+        }
+    }
+
+    /**
+     * @return RGBA pixels
+     */
+    public ByteBuffer getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Frees the pixels
+     */
+    @Override
+    public void close() {
+        if (pixels != null)
+            stbi_image_free(pixels);
+
+        pixels = null;
+    }
+
+    /**
+     * @param pixels pixels allocated by stb_image
+     * @param width width in pixels
+     * @param height height in pixels
+     */
+    private ImageData(ByteBuffer pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+
+    private ByteBuffer pixels;
+    private final int width;
+    private final int height;
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser for the small metadata documents of asset files.
+ *
+ * Objects are returned as {@link Map Maps}, arrays as {@link List Lists}, numbers as {@link Double Doubles}, strings as
+ * {@link String Strings} and booleans as {@link Boolean Booleans}.
+ */
+class Json {
+    /**
+     * Parses a JSON document
+     *
+     * @param text JSON text
+     * @return parsed value
+     */
+    static Object parse(String text) {
+        Json json = new Json(text);
+        json.skipWhitespace();
+        Object value = json.parseValue();
+        json.skipWhitespace();
+
+        if (json.pos != text.length())
+            throw json.error("unexpected trailing characters");
+
+        return value;
+    }
+
+    /**
+     * @param value JSON object
+     * @param name name of the member
+     * @return member as object or null if it doesn't exist
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> getObject(Object value, String name) {
+        return (Map<String, Object>) ((Map<?, ?>) value).get(name);
+    }
+
+    /**
+     * @param value JSON object
+     * @param name name of the member
+     * @return member as array or null if it doesn't exist
+     */
+    @SuppressWarnings("unchecked")
+    static List<Object> getArray(Object value, String name) {
+        return (List<Object>) ((Map<?, ?>) value).get(name);
+    }
+
+    /**
+     * @param value JSON object
+     * @param name name of the member
+     * @param defaultValue value which is returned if the member doesn't exist
+     * @return member as int
+     */
+    static int getInt(Object value, String name, int defaultValue) {
+        Object member = ((Map<?, ?>) value).get(name);
+        return member != null ? ((Number) member).intValue() : defaultValue;
+    }
+
+    /**
+     * @param text JSON text
+     */
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @return value at the current position
+     */
+    private Object parseValue() {
+        if (pos >= text.length())
+            throw error("unexpected end");
+
+        char c = text.charAt(pos);
+
+        switch (c) {
+        case '{': return parseObject();
+        case '[': return parseArray();
+        case '"': return parseString();
+        case 't': expect("true"); return Boolean.TRUE;
+        case 'f': expect("false"); return Boolean.FALSE;
+        case 'n': expect("null"); return null;
+        default: return parseNumber();
+        }
+    }
+
+    /**
+     * @return object at the current position
+     */
+    private Map<String, Object> parseObject() {
+        Map<String, Object> map = new HashMap<>();
+        ++pos;
+        skipWhitespace();
+
+        if (peek() == '}') {
+            ++pos;
+            return map;
+        }
+
+        while (true) {
+            skipWhitespace();
+            String key = parseString();
+            skipWhitespace();
+            expect(":");
+            skipWhitespace();
+            map.put(key, parseValue());
+            skipWhitespace();
+
+            char c = text.charAt(pos++);
+
+            if (c == '}')
+                return map;
+
+            if (c != ',')
+                throw error("expected ',' or '}'");
+        }
+    }
+
+    /**
+     * @return array at the current position
+     */
+    private List<Object> parseArray() {
+        List<Object> list = new ArrayList<>();
+        ++pos;
+        skipWhitespace();
+
+        if (peek() == ']') {
+            ++pos;
+            return list;
+        }
+
+        while (true) {
+            skipWhitespace();
+            list.add(parseValue());
+            skipWhitespace();
+
+            char c = text.charAt(pos++);
+
+            if (c == ']')
+                return list;
+
+            if (c != ',')
+                throw error("expected ',' or ']'");
+        }
+    }
+
+    /**
+     * @return string at the current position
+     */
+    private String parseString() {
+        if (peek() != '"')
+            throw error("expected string");
+
+        StringBuilder builder = new StringBuilder();
+        ++pos;
+
+        while (true) {
+            if (pos >= text.length())
+                throw error("unterminated string");
+
+            char c = text.charAt(pos++);
+
+            if (c == '"')
+                return builder.toString();
+
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+
+            c = text.charAt(pos++);
+
+            switch (c) {
+            case 'b': builder.append('\b'); break;
+            case 'f': builder.append('\f'); break;
+            case 'n': builder.append('\n'); break;
+            case 'r': builder.append('\r'); break;
+            case 't': builder.append('\t'); break;
+            case 'u':
+                builder.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                pos += 4;
+                break;
+            default: builder.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return number at the current position
+     */
+    private Double parseNumber() {
+        int start = pos;
+
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+            ++pos;
+
+        if (start == pos)
+            throw error("unexpected character");
+
+        return Double.valueOf(text.substring(start, pos));
+    }
+
+    /**
+     * Skips the given literal or throws if it doesn't match
+     *
+     * @param literal expected text
+     */
+    private void expect(String literal) {
+        if (!text.startsWith(literal, pos))
+            throw error("expected '" + literal + "'");
+
+        pos += literal.length();
+    }
+
+    /**
+     * Skips spaces, tabs and line breaks
+     */
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            ++pos;
+    }
+
+    /**
+     * @return character at the current position or 0 at the end
+     */
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    /**
+     * @param message description of the error
+     * @return exception containing the position
+     */
+    private RuntimeException error(String message) {
+        return new RuntimeException("Failed to parse JSON at " + pos + ": " + message);
+    }
+
+    private final String text;
+    private int pos = 0;
+}
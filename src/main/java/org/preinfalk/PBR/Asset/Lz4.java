@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compressor and decompressor for the LZ4 block format, which is used for the entries of {@link AssetArchive
+ * AssetArchives}.
+ *
+ * A block is a sequence of literal runs and back references into the last 64 KiB of the output. The compressor is the
+ * greedy one of the reference implementation: 4 byte sequences are looked up in a hash table of their last position,
+ * and every match is extended as far as possible. Decompression is a single pass of copies without any tables.
+ */
+class Lz4 {
+    /**
+     * Compresses a block
+     *
+     * @param src data to compress
+     * @return compressed block
+     */
+    static byte[] compress(byte[] src) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(src.length / 2 + 16);
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        // The last match has to start 12 bytes and end 5 bytes before the end of the block
+        int anchor = 0;
+        int matchLimit = src.length - LAST_LITERALS;
+
+        for (int i = 0; i < src.length - MATCH_START_LIMIT; ) {
+            int sequence = readInt(src, i);
+            int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int candidate = table[h];
+            table[h] = i;
+
+            if (candidate < 0 || i - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                ++i;
+                continue;
+            }
+
+            int length = MIN_MATCH;
+
+            while (i + length < matchLimit && src[candidate + length] == src[i + length])
+                ++length;
+
+            writeSequence(out, src, anchor, i - anchor, i - candidate, length);
+            i += length;
+            anchor = i;
+        }
+
+        writeSequence(out, src, anchor, src.length - anchor, 0, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a block
+     *
+     * @param src compressed block between its position and limit
+     * @param dst buffer which receives the data at its position; It must have room for all of it.
+     * @throws IOException if the block is corrupt
+     */
+    static void decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        src = src.slice();
+        int start = dst.position();
+
+        try {
+            while (src.hasRemaining()) {
+                int token = src.get() & 0xFF;
+                int literals = token >>> 4;
+
+                if (literals == 15)
+                    literals += readLength(src);
+
+                ByteBuffer run = src.duplicate();
+                run.limit(src.position() + literals);
+                dst.put(run);
+                src.position(src.position() + literals);
+
+                // The last sequence has no match
+                if (!src.hasRemaining())
+                    break;
+
+                int offset = (src.get() & 0xFF) | (src.get() & 0xFF) << 8;
+                int length = token & 15;
+
+                if (length == 15)
+                    length += readLength(src);
+
+                length += MIN_MATCH;
+
+                if (offset == 0 || offset > dst.position() - start)
+                    throw new IOException("Corrupt LZ4 block: offset " + offset + " out of range");
+
+                // Matches may overlap the bytes they produce, so they are copied byte by byte
+                for (int from = dst.position() - offset, i = 0; i < length; ++i)
+                    dst.put(dst.get(from + i));
+            }
+        } catch (RuntimeException ex) {
+            // Buffer under- and overflows
+            throw new IOException("Corrupt LZ4 block", ex);
+        }
+    }
+
+    /**
+     * Writes a literal run followed by a match
+     *
+     * @param out compressed block
+     * @param src uncompressed data
+     * @param start start of the literal run
+     * @param literals length of the literal run
+     * @param offset distance of the match; 0 for the last sequence which has no match
+     * @param length length of the match
+     */
+    private static void writeSequence(
+        ByteArrayOutputStream out, byte[] src, int start, int literals, int offset, int length
+    ) {
+        int matchLength = offset > 0 ? length - MIN_MATCH : 0;
+        out.write(Math.min(literals, 15) << 4 | Math.min(matchLength, 15));
+
+        if (literals >= 15)
+            writeLength(out, literals - 15);
+
+        out.write(src, start, literals);
+
+        if (offset == 0)
+            return;
+
+        out.write(offset & 0xFF);
+        out.write(offset >>> 8);
+
+        if (matchLength >= 15)
+            writeLength(out, matchLength - 15);
+    }
+
+    /**
+     * Writes the remainder of a length as bytes of 255 and a final byte below 255
+     *
+     * @param out compressed block
+     * @param length remainder of the length
+     */
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        for (; length >= 255; length -= 255)
+            out.write(255);
+
+        out.write(length);
+    }
+
+    /**
+     * @param src compressed block
+     * @return remainder of a length written by {@link #writeLength(ByteArrayOutputStream, int) writeLength}
+     */
+    private static int readLength(ByteBuffer src) {
+        int length = 0;
+
+        for (int b = 255; b == 255; length += b)
+            b = src.get() & 0xFF;
+
+        return length;
+    }
+
+    /**
+     * @param src data
+     * @param i index
+     * @return 4 bytes at the index
+     */
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF) << 16 | src[i + 3] << 24;
+    }
+
+    /**
+     * Shortest match which is encoded
+     */
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * Largest distance of a match
+     */
+    private static final int MAX_OFFSET = 65535;
+
+    /**
+     * Number of bytes at the end of a block which are always literals
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * Number of bytes at the end of a block in which no match starts
+     */
+    private static final int MATCH_START_LIMIT = 12;
+
+    /**
+     * Size of the hash table of the compressor as power of 2
+     */
+    private static final int HASH_BITS = 16;
+}
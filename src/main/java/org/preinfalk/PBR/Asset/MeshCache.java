@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.joml.Vector3f;
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Cache which stores imported meshes in a binary format that can be memory-mapped and uploaded without parsing.
+ *
+ * A cache file consists of a header, the index ranges and errors of the levels of detail and the vertex and index
+ * data exactly as they are stored in {@link MeshData MeshData}. The header contains the size and modification time of
+ * the source file, so outdated entries are detected and imported again. It also keeps the vertex cache statistics of
+ * the optimization.
+ *
+ * Meshes whose content hash is known, e.g. entries of an {@link AssetArchive AssetArchive} or files loaded by the
+ * {@link AssetManager AssetManager}, are cached by the SHA-256 hash instead ({@link #load(String, ByteBuffer, byte[])
+ * load}). Such entries never become outdated, and copies of a file under different names share one entry.
+ */
+public class MeshCache {
+    /**
+     * Creates a cache which stores its files in a directory
+     *
+     * @param directory directory of the cache files; It is created when the first file is written.
+     */
+    public MeshCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads a mesh from the cache or imports it with {@link MeshImporter MeshImporter} and stores it in the cache
+     *
+     * @param source path of the mesh file
+     * @return indexed mesh data
+     * @throws IOException if the source cannot be read or the cache cannot be written
+     */
+    public MeshData load(Path source) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        Path file = getCacheFile(source);
+
+        if (Files.exists(file)) {
+            MeshData mesh = read(file, size, modified);
+
+            if (mesh != null)
+                return mesh;
+        }
+
+        MeshData mesh = MeshImporter.load(source);
+        Files.createDirectories(directory);
+        write(mesh, file, size, modified);
+        return mesh;
+    }
+
+    /**
+     * Loads a mesh from the cache by the hash of its content or imports it with {@link MeshImporter MeshImporter} and
+     * stores it in the cache
+     *
+     * @param name name of the mesh file, whose extension selects the importer
+     * @param file content of the mesh file
+     * @param hash SHA-256 hash of the content
+     * @return indexed mesh data
+     * @throws IOException if the cache cannot be written
+     */
+    public MeshData load(String name, ByteBuffer file, byte[] hash) throws IOException {
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : hash)
+            hex.append(String.format("%02x", b));
+
+        Path cacheFile = directory.resolve(hex + ".mesh");
+        long size = file.remaining();
+
+        if (Files.exists(cacheFile)) {
+            MeshData mesh = read(cacheFile, size, -1);
+
+            if (mesh != null)
+                return mesh;
+        }
+
+        MeshData mesh = MeshImporter.load(name, file);
+        Files.createDirectories(directory);
+        write(mesh, cacheFile, size, -1);
+        return mesh;
+    }
+
+    /**
+     * Writes a mesh into a cache file. The file is written next to the target and then moved, so concurrent readers
+     * never see a partially written file.
+     *
+     * @param mesh mesh to write
+     * @param file path of the cache file
+     * @param sourceSize size of the source file
+     * @param sourceModified modification time of the source file in milliseconds
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(MeshData mesh, Path file, long sourceSize, long sourceModified) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        Bounds bounds = mesh.getBounds();
+
+        header.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(sourceModified);
+        header.putInt(mesh.getNumVertices()).putInt(mesh.getNumIndices());
+        header.putFloat(bounds.getMin().x()).putFloat(bounds.getMin().y()).putFloat(bounds.getMin().z());
+        header.putFloat(bounds.getMax().x()).putFloat(bounds.getMax().y()).putFloat(bounds.getMax().z());
+        header.putFloat(bounds.getCenter().x()).putFloat(bounds.getCenter().y()).putFloat(bounds.getCenter().z());
+        header.putFloat(bounds.getRadius());
+        header.putInt(mesh.getNumLods());
+
+        // The statistics of the optimization; 0 if the mesh wasn't optimized
+        MeshOptimizer.Statistics before = mesh.getCacheBefore(), after = mesh.getCacheAfter();
+        header.putFloat(before != null ? before.getAcmr() : 0).putFloat(before != null ? before.getAtvr() : 0);
+        header.putFloat(after != null ? after.getAcmr() : 0).putFloat(after != null ? after.getAtvr() : 0);
+        header.rewind();
+
+        ByteBuffer lods = ByteBuffer.allocate(mesh.getNumLods() * LOD_SIZE).order(ByteOrder.nativeOrder());
+
+        for (int i = 0; i < mesh.getNumLods(); ++i)
+            lods.putInt(mesh.getLodFirst(i)).putInt(mesh.getLodCount(i)).putFloat(mesh.getLodError(i));
+
+        lods.rewind();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(
+            temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            ByteBuffer[] buffers = { header, lods, mesh.getVertices(), mesh.getIndices() };
+
+            while (buffers[3].hasRemaining())
+                channel.write(buffers);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Memory-maps a cache file
+     *
+     * @param file path of the cache file
+     * @param sourceSize expected size of the source file or -1 to skip the check
+     * @param sourceModified expected modification time of the source file or -1 to skip the check
+     * @return mesh data referencing the mapped file or null if the file is invalid or outdated
+     * @throws IOException if the file cannot be read
+     */
+    public static MeshData read(Path file, long sourceSize, long sourceModified) throws IOException {
+        MappedByteBuffer mapped;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        mapped.order(ByteOrder.nativeOrder());
+
+        // The magic doesn't match if the file was written with a different byte order
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION)
+            return null;
+
+        if (sourceSize >= 0 && mapped.getLong(8) != sourceSize)
+            return null;
+
+        if (sourceModified >= 0 && mapped.getLong(16) != sourceModified)
+            return null;
+
+        int numVertices = mapped.getInt(24);
+        int numIndices = mapped.getInt(28);
+        int numLods = mapped.getInt(72);
+        long vertexBytes = (long) numVertices * MeshData.VERTEX_SIZE;
+        long indexBytes = (long) numIndices * 4;
+        int vertexStart = HEADER_SIZE + numLods * LOD_SIZE;
+
+        if (numLods < 1 || vertexStart + vertexBytes + indexBytes != mapped.capacity())
+            return null;
+
+        Bounds bounds = new Bounds(
+            new Vector3f(mapped.getFloat(32), mapped.getFloat(36), mapped.getFloat(40)),
+            new Vector3f(mapped.getFloat(44), mapped.getFloat(48), mapped.getFloat(52)),
+            new Vector3f(mapped.getFloat(56), mapped.getFloat(60), mapped.getFloat(64)),
+            mapped.getFloat(68)
+        );
+
+        ByteBuffer vertices = mapped.duplicate();
+        vertices.position(vertexStart).limit(vertexStart + (int) vertexBytes);
+
+        ByteBuffer indices = mapped.duplicate();
+        indices.position(vertexStart + (int) vertexBytes);
+
+        MeshData mesh = new MeshData(vertices, indices, bounds);
+        int[] first = new int[numLods];
+        int[] count = new int[numLods];
+        float[] error = new float[numLods];
+
+        for (int i = 0; i < numLods; ++i) {
+            first[i] = mapped.getInt(HEADER_SIZE + i * LOD_SIZE);
+            count[i] = mapped.getInt(HEADER_SIZE + i * LOD_SIZE + 4);
+            error[i] = mapped.getFloat(HEADER_SIZE + i * LOD_SIZE + 8);
+        }
+
+        mesh.setLods(first, count, error);
+
+        if (mapped.getFloat(76) > 0) {
+            mesh.setCacheStatistics(
+                new MeshOptimizer.Statistics(mapped.getFloat(76), mapped.getFloat(80)),
+                new MeshOptimizer.Statistics(mapped.getFloat(84), mapped.getFloat(88))
+            );
+        }
+
+        return mesh;
+    }
+
+    /**
+     * @param source path of the mesh file
+     * @return path of the cache file of the mesh
+     */
+    private Path getCacheFile(Path source) {
+        Path absolute = source.toAbsolutePath().normalize();
+        String name = absolute.getFileName().toString();
+        return directory.resolve(name + "." + Integer.toHexString(absolute.toString().hashCode()) + ".mesh");
+    }
+
+    private static final int MAGIC = 0x4D524250; // "PBRM" in little endian
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 96;
+    private static final int LOD_SIZE = 12;
+
+    private final Path directory;
+}
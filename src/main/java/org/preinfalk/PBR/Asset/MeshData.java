@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Indexed triangle mesh stored in direct buffers, which can be uploaded without further processing.
+ *
+ * Each vertex consists of {@link #VERTEX_FLOATS VERTEX_FLOATS} floats: position (xyz), normal (xyz), texture coordinate
+ * (uv) and tangent (xyz and the handedness in w). The indices are unsigned ints. The buffers are either allocated or
+ * slices of a memory-mapped {@link MeshCache cache file}.
+ *
+ * The index data may contain several levels of detail, which are stored one after another and share the vertices. By
+ * default there is a single level covering all indices.
+ */
+public class MeshData {
+    /**
+     * Number of floats per vertex
+     */
+    public static final int VERTEX_FLOATS = 12;
+
+    /**
+     * Size of a vertex in bytes
+     */
+    public static final int VERTEX_SIZE = VERTEX_FLOATS * 4;
+
+    /**
+     * Offset of the normal in a vertex in bytes
+     */
+    public static final int NORMAL_OFFSET = 12;
+
+    /**
+     * Offset of the texture coordinate in a vertex in bytes
+     */
+    public static final int TEXCOORD_OFFSET = 24;
+
+    /**
+     * Offset of the tangent in a vertex in bytes
+     */
+    public static final int TANGENT_OFFSET = 32;
+
+    /**
+     * Creates mesh data from existing buffers
+     *
+     * @param vertices vertex data in native byte order
+     * @param indices index data in native byte order
+     * @param bounds bounds of the vertices or null to calculate them
+     */
+    public MeshData(ByteBuffer vertices, ByteBuffer indices, Bounds bounds) {
+        this.vertices = vertices.slice().order(ByteOrder.nativeOrder());
+        this.indices = indices.slice().order(ByteOrder.nativeOrder());
+        this.bounds = bounds;
+
+        if (bounds == null)
+            calculateBounds();
+
+        setLods(new int[] { 0 }, new int[] { getNumIndices() }, new float[] { 0 });
+    }
+
+    /**
+     * Allocates zeroed mesh data
+     *
+     * @param numVertices number of vertices
+     * @param numIndices number of indices
+     * @return mesh data; The bounds have to be calculated after filling it.
+     */
+    public static MeshData allocate(int numVertices, int numIndices) {
+        return new MeshData(
+            ByteBuffer.allocateDirect(numVertices * VERTEX_SIZE), ByteBuffer.allocateDirect(numIndices * 4), null
+        );
+    }
+
+    /**
+     * @return vertex data; The returned buffer shares the content, but has its own position.
+     */
+    public ByteBuffer getVertices() {
+        return vertices.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return index data; The returned buffer shares the content, but has its own position.
+     */
+    public ByteBuffer getIndices() {
+        return indices.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return vertex data as floats for absolute access
+     */
+    public FloatBuffer getVertexFloats() {
+        return getVertices().asFloatBuffer();
+    }
+
+    /**
+     * @return index data as ints for absolute access
+     */
+    public IntBuffer getIndexInts() {
+        return getIndices().asIntBuffer();
+    }
+
+    /**
+     * @return number of vertices
+     */
+    public int getNumVertices() {
+        return vertices.capacity() / VERTEX_SIZE;
+    }
+
+    /**
+     * @return number of indices
+     */
+    public int getNumIndices() {
+        return indices.capacity() / 4;
+    }
+
+    /**
+     * @return bounds of the vertices
+     */
+    public Bounds getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return number of levels of detail
+     */
+    public int getNumLods() {
+        return lodFirst.length;
+    }
+
+    /**
+     * @param lod level of detail, 0 is the most detailed one
+     * @return index of the first index of the level
+     */
+    public int getLodFirst(int lod) {
+        return lodFirst[lod];
+    }
+
+    /**
+     * @param lod level of detail, 0 is the most detailed one
+     * @return number of indices of the level
+     */
+    public int getLodCount(int lod) {
+        return lodCount[lod];
+    }
+
+    /**
+     * @param lod level of detail, 0 is the most detailed one
+     * @return geometric error of the level compared to the first level in object space units
+     */
+    public float getLodError(int lod) {
+        return lodError[lod];
+    }
+
+    /**
+     * Sets the index ranges of the levels of detail
+     *
+     * @param first index of the first index of each level
+     * @param count number of indices of each level
+     * @param error geometric error of each level in object space units; It should increase with the level.
+     */
+    public void setLods(int[] first, int[] count, float[] error) {
+        if (first.length == 0 || first.length != count.length || first.length != error.length)
+            throw new IllegalArgumentException("Invalid number of levels of detail");
+
+        for (int i = 0; i < first.length; ++i) {
+            if (first[i] < 0 || count[i] < 0 || first[i] + count[i] > getNumIndices())
+                throw new IllegalArgumentException("Level of detail " + i + " exceeds the indices");
+        }
+
+        lodFirst = first.clone();
+        lodCount = count.clone();
+        lodError = error.clone();
+    }
+
+    /**
+     * Sets the vertex cache statistics of the most detailed level which {@link MeshOptimizer MeshOptimizer} measured
+     *
+     * @param before statistics before the optimization
+     * @param after statistics after the optimization
+     */
+    public void setCacheStatistics(MeshOptimizer.Statistics before, MeshOptimizer.Statistics after) {
+        cacheBefore = before;
+        cacheAfter = after;
+    }
+
+    /**
+     * @return vertex cache statistics of the most detailed level before the optimization or null if the data wasn't
+     * optimized
+     */
+    public MeshOptimizer.Statistics getCacheBefore() {
+        return cacheBefore;
+    }
+
+    /**
+     * @return vertex cache statistics of the most detailed level after the optimization or null if the data wasn't
+     * optimized
+     */
+    public MeshOptimizer.Statistics getCacheAfter() {
+        return cacheAfter;
+    }
+
+    /**
+     * Recalculates the bounds from the vertex positions
+     */
+    public void calculateBounds() {
+        FloatBuffer v = getVertexFloats();
+        float[] positions = new float[getNumVertices() * 3];
+
+        for (int i = 0; i < getNumVertices(); ++i) {
+            positions[i * 3] = v.get(i * VERTEX_FLOATS);
+            positions[i * 3 + 1] = v.get(i * VERTEX_FLOATS + 1);
+            positions[i * 3 + 2] = v.get(i * VERTEX_FLOATS + 2);
+        }
+
+        bounds = Bounds.fromPositions(positions, 0, 3, getNumVertices());
+    }
+
+    /**
+     * Calculates smooth vertex normals by summing up the area weighted normals of the adjacent triangles
+     */
+    public void generateNormals() {
+        FloatBuffer v = getVertexFloats();
+        IntBuffer idx = getIndexInts();
+        int numVertices = getNumVertices();
+        float[] normals = new float[numVertices * 3];
+
+        for (int i = 0; i + 2 < getNumIndices(); i += 3) {
+            int a = idx.get(i), b = idx.get(i + 1), c = idx.get(i + 2);
+            int pa = a * VERTEX_FLOATS, pb = b * VERTEX_FLOATS, pc = c * VERTEX_FLOATS;
+
+            float ax = v.get(pa), ay = v.get(pa + 1), az = v.get(pa + 2);
+            float e1x = v.get(pb) - ax, e1y = v.get(pb + 1) - ay, e1z = v.get(pb + 2) - az;
+            float e2x = v.get(pc) - ax, e2y = v.get(pc + 1) - ay, e2z = v.get(pc + 2) - az;
+
+            // The length of the cross product is twice the area of the triangle
+            float nx = e1y * e2z - e1z * e2y;
+            float ny = e1z * e2x - e1x * e2z;
+            float nz = e1x * e2y - e1y * e2x;
+
+            for (int k = 0; k < 3; ++k) {
+                int o = idx.get(i + k) * 3;
+                normals[o] += nx;
+                normals[o + 1] += ny;
+                normals[o + 2] += nz;
+            }
+        }
+
+        for (int i = 0; i < numVertices; ++i) {
+            float nx = normals[i * 3], ny = normals[i * 3 + 1], nz = normals[i * 3 + 2];
+            float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            float inv = len > 0 ? 1 / len : 0;
+            int o = i * VERTEX_FLOATS + NORMAL_OFFSET / 4;
+
+            v.put(o, nx * inv);
+            v.put(o + 1, ny * inv);
+            v.put(o + 2, nz * inv);
+        }
+    }
+
+    /**
+     * Calculates per vertex tangents from the texture coordinates (Lengyel's method). The tangents are
+     * orthogonalized against the normals, so the normals must be valid.
+     */
+    public void generateTangents() {
+        FloatBuffer v = getVertexFloats();
+        IntBuffer idx = getIndexInts();
+        int numVertices = getNumVertices();
+        float[] tangents = new float[numVertices * 3];
+        float[] bitangents = new float[numVertices * 3];
+
+        int uv = TEXCOORD_OFFSET / 4;
+
+        for (int i = 0; i + 2 < getNumIndices(); i += 3) {
+            int a = idx.get(i), b = idx.get(i + 1), c = idx.get(i + 2);
+            int pa = a * VERTEX_FLOATS, pb = b * VERTEX_FLOATS, pc = c * VERTEX_FLOATS;
+
+            float ax = v.get(pa), ay = v.get(pa + 1), az = v.get(pa + 2);
+            float e1x = v.get(pb) - ax, e1y = v.get(pb + 1) - ay, e1z = v.get(pb + 2) - az;
+            float e2x = v.get(pc) - ax, e2y = v.get(pc + 1) - ay, e2z = v.get(pc + 2) - az;
+
+            float s1 = v.get(pb + uv) - v.get(pa + uv), t1 = v.get(pb + uv + 1) - v.get(pa + uv + 1);
+            float s2 = v.get(pc + uv) - v.get(pa + uv), t2 = v.get(pc + uv + 1) - v.get(pa + uv + 1);
+
+            float det = s1 * t2 - s2 * t1;
+
+            if (det == 0)
+                continue;
+
+            float r = 1 / det;
+            float tx = (t2 * e1x - t1 * e2x) * r, ty = (t2 * e1y - t1 * e2y) * r, tz = (t2 * e1z - t1 * e2z) * r;
+            float bx = (s1 * e2x - s2 * e1x) * r, by = (s1 * e2y - s2 * e1y) * r, bz = (s1 * e2z - s2 * e1z) * r;
+
+            for (int k = 0; k < 3; ++k) {
+                int o = idx.get(i + k) * 3;
+                tangents[o] += tx;
+                tangents[o + 1] += ty;
+                tangents[o + 2] += tz;
+                bitangents[o] += bx;
+                bitangents[o + 1] += by;
+                bitangents[o + 2] += bz;
+            }
+        }
+
+        for (int i = 0; i < numVertices; ++i) {
+            int n = i * VERTEX_FLOATS + NORMAL_OFFSET / 4;
+            float nx = v.get(n), ny = v.get(n + 1), nz = v.get(n + 2);
+            float tx = tangents[i * 3], ty = tangents[i * 3 + 1], tz = tangents[i * 3 + 2];
+
+            // Gram-Schmidt orthogonalize
+            float dot = nx * tx + ny * ty + nz * tz;
+            tx -= nx * dot;
+            ty -= ny * dot;
+            tz -= nz * dot;
+
+            float len = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+
+            if (len == 0) {
+                // Pick any vector orthogonal to the normal
+                if (Math.abs(nx) < 0.9f) {
+                    tx = 0; ty = -nz; tz = ny;
+                } else {
+                    tx = nz; ty = 0; tz = -nx;
+                }
+
+                len = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+            }
+
+            tx /= len;
+            ty /= len;
+            tz /= len;
+
+            // Handedness: Does cross(n, t) point in the same direction as the bitangent?
+            float cx = ny * tz - nz * ty, cy = nz * tx - nx * tz, cz = nx * ty - ny * tx;
+            float w = cx * bitangents[i * 3] + cy * bitangents[i * 3 + 1] + cz * bitangents[i * 3 + 2] < 0 ? -1 : 1;
+
+            int t = i * VERTEX_FLOATS + TANGENT_OFFSET / 4;
+            v.put(t, tx);
+            v.put(t + 1, ty);
+            v.put(t + 2, tz);
+            v.put(t + 3, w);
+        }
+    }
+
+    private ByteBuffer vertices;
+    private ByteBuffer indices;
+    private Bounds bounds;
+    private int[] lodFirst;
+    private int[] lodCount;
+    private float[] lodError;
+    private MeshOptimizer.Statistics cacheBefore = null;
+    private MeshOptimizer.Statistics cacheAfter = null;
+}
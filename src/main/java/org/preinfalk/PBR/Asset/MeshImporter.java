@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Imports meshes from files, choosing the importer by the file extension. Levels of detail are generated for the
+ * imported meshes with {@link MeshSimplifier MeshSimplifier} and the result is reordered for the GPU with
+ * {@link MeshOptimizer MeshOptimizer}.
+ */
+public class MeshImporter {
+    /**
+     * Imports a mesh file. Supported are Wavefront OBJ (.obj) and binary glTF 2.0 (.glb).
+     *
+     * @param path path of the file
+     * @return optimized indexed mesh data with levels of detail
+     * @throws IOException if the file cannot be read
+     */
+    public static MeshData load(Path path) throws IOException {
+        MeshData data = MeshSimplifier.generateLods(loadBase(path), MAX_LODS, MeshSimplifier.DEFAULT_RATIO);
+        return MeshOptimizer.optimize(data);
+    }
+
+    /**
+     * Imports a mesh file in memory, e.g. an entry of an {@link AssetArchive AssetArchive}
+     *
+     * @param name name of the file, whose extension selects the importer
+     * @param file content of the file
+     * @return optimized indexed mesh data with levels of detail
+     */
+    public static MeshData load(String name, ByteBuffer file) {
+        MeshData data = MeshSimplifier.generateLods(loadBase(name, file), MAX_LODS, MeshSimplifier.DEFAULT_RATIO);
+        return MeshOptimizer.optimize(data);
+    }
+
+    /**
+     * Imports a mesh file without generating levels of detail
+     *
+     * @param path path of the file
+     * @return indexed mesh data
+     * @throws IOException if the file cannot be read
+     */
+    public static MeshData loadBase(Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase();
+
+        if (name.endsWith(".obj"))
+            return ObjImporter.load(path);
+
+        if (name.endsWith(".glb"))
+            return GltfImporter.load(path);
+
+        throw new RuntimeException("Unsupported mesh format: " + path);
+    }
+
+    /**
+     * Imports a mesh file in memory without generating levels of detail
+     *
+     * @param name name of the file, whose extension selects the importer
+     * @param file content of the file
+     * @return indexed mesh data
+     */
+    public static MeshData loadBase(String name, ByteBuffer file) {
+        String lower = name.toLowerCase();
+
+        if (lower.endsWith(".obj"))
+            return new ObjImporter().parse(file.duplicate());
+
+        if (lower.endsWith(".glb"))
+            return GltfImporter.parse(file);
+
+        throw new RuntimeException("Unsupported mesh format: " + name);
+    }
+
+    /**
+     * Maximum number of levels of detail including the imported mesh
+     */
+    public static final int MAX_LODS = 6;
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Reorders indexed meshes for the GPU (Sander et al., "Fast Triangle Reordering for Vertex Locality and Reduced
+ * Overdraw").
+ *
+ * The triangles of each level of detail are reordered with Tipsify for post-transform vertex cache locality. The
+ * resulting sequence is split into clusters where Tipsify had to jump to a distant part of the mesh. The clusters are
+ * sorted so that those facing away from the center of the mesh are drawn first, which reduces overdraw. At last the
+ * vertices are sorted by their first use, so vertex fetches become sequential.
+ *
+ * The efficiency of the cache is measured with the average cache miss ratio (ACMR, transformed vertices per triangle)
+ * and the average transform to vertex ratio (ATVR, transformed vertices per vertex) of a FIFO cache.
+ */
+public class MeshOptimizer {
+    /**
+     * Size of the simulated post-transform cache
+     */
+    public static final int CACHE_SIZE = 16;
+
+    /**
+     * Cache statistics of a level of detail
+     */
+    public static class Statistics {
+        /**
+         * @param acmr average cache miss ratio
+         * @param atvr average transform to vertex ratio
+         */
+        public Statistics(float acmr, float atvr) {
+            this.acmr = acmr;
+            this.atvr = atvr;
+        }
+
+        /**
+         * @return transformed vertices per triangle; 0.5 is the optimum for large regular meshes, 3 the worst case.
+         */
+        public float getAcmr() {
+            return acmr;
+        }
+
+        /**
+         * @return transformed vertices per referenced vertex; 1 is the optimum.
+         */
+        public float getAtvr() {
+            return atvr;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ACMR %.3f, ATVR %.3f", acmr, atvr);
+        }
+
+        private final float acmr;
+        private final float atvr;
+    }
+
+    /**
+     * Optimizes a mesh
+     *
+     * @param data mesh to optimize
+     * @return optimized mesh data with the same levels of detail and the statistics of the optimization (see {@link
+     * MeshData#getCacheBefore() getCacheBefore} and {@link MeshData#getCacheAfter() getCacheAfter})
+     */
+    public static MeshData optimize(MeshData data) {
+        return new MeshOptimizer().run(data);
+    }
+
+    /**
+     * Simulates a FIFO post-transform cache for a level of detail
+     *
+     * @param data indexed mesh
+     * @param lod level of detail
+     * @return cache statistics
+     */
+    public static Statistics analyze(MeshData data, int lod) {
+        int[] indices = new int[data.getLodCount(lod)];
+        IntBuffer ints = data.getIndexInts();
+        ints.position(data.getLodFirst(lod));
+        ints.get(indices);
+
+        return analyze(indices, data.getNumVertices());
+    }
+
+    /**
+     * Optimizes a mesh and keeps the statistics of the most detailed level before and after the optimization
+     *
+     * @param data mesh to optimize
+     * @return optimized mesh data with the same levels of detail
+     */
+    public MeshData run(MeshData data) {
+        int numVertices = data.getNumVertices();
+        int[] indices = new int[data.getNumIndices()];
+        data.getIndexInts().get(indices);
+
+        positions = new float[numVertices * 3];
+        FloatBuffer v = data.getVertexFloats();
+
+        for (int i = 0; i < numVertices; ++i) {
+            positions[i * 3] = v.get(i * MeshData.VERTEX_FLOATS);
+            positions[i * 3 + 1] = v.get(i * MeshData.VERTEX_FLOATS + 1);
+            positions[i * 3 + 2] = v.get(i * MeshData.VERTEX_FLOATS + 2);
+        }
+
+        int lodEnd = data.getLodFirst(0) + data.getLodCount(0);
+        before = analyze(Arrays.copyOfRange(indices, data.getLodFirst(0), lodEnd), numVertices);
+
+        int numLods = data.getNumLods();
+        int[] first = new int[numLods], count = new int[numLods];
+        float[] error = new float[numLods];
+
+        for (int lod = 0; lod < numLods; ++lod) {
+            first[lod] = data.getLodFirst(lod);
+            count[lod] = data.getLodCount(lod);
+            error[lod] = data.getLodError(lod);
+
+            int[] range = Arrays.copyOfRange(indices, first[lod], first[lod] + count[lod]);
+            int numClusters = tipsify(range, numVertices);
+            sortClusters(range, numClusters);
+            System.arraycopy(range, 0, indices, first[lod], range.length);
+        }
+
+        // Order the vertices by their first use
+        int[] remap = new int[numVertices];
+        Arrays.fill(remap, -1);
+        int next = 0;
+
+        for (int i = 0; i < indices.length; ++i) {
+            if (remap[indices[i]] < 0)
+                remap[indices[i]] = next++;
+
+            indices[i] = remap[indices[i]];
+        }
+
+        for (int i = 0; i < numVertices; ++i) {
+            if (remap[i] < 0)
+                remap[i] = next++;
+        }
+
+        ByteBuffer src = data.getVertices();
+        ByteBuffer vertices = ByteBuffer.allocateDirect(numVertices * MeshData.VERTEX_SIZE);
+        ByteBuffer indexBytes = ByteBuffer.allocateDirect(indices.length * 4);
+
+        for (int i = 0; i < numVertices; ++i) {
+            src.limit((i + 1) * MeshData.VERTEX_SIZE).position(i * MeshData.VERTEX_SIZE);
+            vertices.position(remap[i] * MeshData.VERTEX_SIZE);
+            vertices.put(src);
+        }
+
+        vertices.clear();
+        indexBytes.order(ByteOrder.nativeOrder()).asIntBuffer().put(indices);
+
+        MeshData result = new MeshData(vertices, indexBytes, data.getBounds());
+        result.setLods(first, count, error);
+
+        after = analyze(Arrays.copyOfRange(indices, first[0], first[0] + count[0]), numVertices);
+        result.setCacheStatistics(before, after);
+
+        return result;
+    }
+
+    /**
+     * @return statistics of the most detailed level before the last optimization
+     */
+    public Statistics getBefore() {
+        return before;
+    }
+
+    /**
+     * @return statistics of the most detailed level after the last optimization
+     */
+    public Statistics getAfter() {
+        return after;
+    }
+
+    /**
+     * Reorders triangles for vertex cache locality. The start of each cluster is recorded in clusterStart.
+     *
+     * @param indices triangle indices which are reordered in place
+     * @param numVertices number of vertices
+     * @return number of clusters
+     */
+    private int tipsify(int[] indices, int numVertices) {
+        int numTriangles = indices.length / 3;
+
+        // Triangles adjacent to each vertex (compressed rows)
+        int[] start = new int[numVertices + 1];
+        int[] adjacency = new int[numTriangles * 3];
+
+        for (int i = 0; i < numTriangles * 3; ++i)
+            ++start[indices[i] + 1];
+
+        for (int i = 0; i < numVertices; ++i)
+            start[i + 1] += start[i];
+
+        int[] live = new int[numVertices];
+        int[] fill = Arrays.copyOf(start, numVertices);
+
+        for (int i = 0; i < numTriangles * 3; ++i) {
+            adjacency[fill[indices[i]]++] = i / 3;
+            ++live[indices[i]];
+        }
+
+        int[] cacheTime = new int[numVertices];
+        int[] deadEnd = new int[numTriangles * 3];
+        int[] candidates = new int[numTriangles * 3];
+        boolean[] emitted = new boolean[numTriangles];
+        int[] output = new int[numTriangles * 3];
+        clusterStart = new int[numTriangles + 1];
+
+        int numOutput = 0, numDeadEnd = 0, numClusters = 0;
+        int time = CACHE_SIZE + 1, cursor = 0;
+        int fan = nextUnused(live, 0);
+        boolean jumped = true;
+
+        while (fan >= 0) {
+            if (jumped && (numClusters == 0 || numOutput - clusterStart[numClusters - 1] >= MIN_CLUSTER_SIZE * 3))
+                clusterStart[numClusters++] = numOutput;
+
+            int numCandidates = 0;
+
+            for (int j = start[fan]; j < start[fan + 1]; ++j) {
+                int t = adjacency[j];
+
+                if (emitted[t])
+                    continue;
+
+                for (int k = 0; k < 3; ++k) {
+                    int vertex = indices[t * 3 + k];
+
+                    output[numOutput++] = vertex;
+                    deadEnd[numDeadEnd++] = vertex;
+                    candidates[numCandidates++] = vertex;
+                    --live[vertex];
+
+                    if (time - cacheTime[vertex] > CACHE_SIZE)
+                        cacheTime[vertex] = time++;
+                }
+
+                emitted[t] = true;
+            }
+
+            // Prefer the candidate which stays longest in the cache, but is still in it after emitting its fan
+            int best = -1, bestPriority = -1;
+
+            for (int j = 0; j < numCandidates; ++j) {
+                int vertex = candidates[j];
+
+                if (live[vertex] <= 0)
+                    continue;
+
+                int priority = time - cacheTime[vertex] + 2 * live[vertex] <= CACHE_SIZE ? time - cacheTime[vertex] : 0;
+
+                if (priority > bestPriority) {
+                    best = vertex;
+                    bestPriority = priority;
+                }
+            }
+
+            jumped = best < 0;
+
+            if (jumped) {
+                while (numDeadEnd > 0 && best < 0) {
+                    int vertex = deadEnd[--numDeadEnd];
+
+                    if (live[vertex] > 0)
+                        best = vertex;
+                }
+
+                if (best < 0) {
+                    cursor = nextUnused(live, cursor);
+                    best = cursor;
+                }
+            }
+
+            fan = best;
+        }
+
+        System.arraycopy(output, 0, indices, 0, numOutput);
+        clusterStart[numClusters] = numOutput;
+        return numClusters;
+    }
+
+    /**
+     * Sorts the clusters by the angle between their normal and the direction from the center of the mesh, so
+     * clusters on the outside, which may occlude others, are drawn first
+     *
+     * @param indices triangle indices
+     * @param numClusters number of clusters in clusterStart
+     */
+    private void sortClusters(int[] indices, int numClusters) {
+        if (numClusters < 2)
+            return;
+
+        // Area weighted center of the whole range
+        float[] cluster = new float[numClusters * 6];
+        double mx = 0, my = 0, mz = 0, total = 0;
+
+        for (int c = 0; c < numClusters; ++c) {
+            float cx = 0, cy = 0, cz = 0, nx = 0, ny = 0, nz = 0, area = 0;
+
+            for (int i = clusterStart[c]; i < clusterStart[c + 1]; i += 3) {
+                int a = indices[i] * 3, b = indices[i + 1] * 3, d = indices[i + 2] * 3;
+
+                float e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1];
+                float e1z = positions[b + 2] - positions[a + 2];
+                float e2x = positions[d] - positions[a], e2y = positions[d + 1] - positions[a + 1];
+                float e2z = positions[d + 2] - positions[a + 2];
+
+                float tx = e1y * e2z - e1z * e2y, ty = e1z * e2x - e1x * e2z, tz = e1x * e2y - e1y * e2x;
+                float w = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+
+                cx += w * (positions[a] + positions[b] + positions[d]) / 3;
+                cy += w * (positions[a + 1] + positions[b + 1] + positions[d + 1]) / 3;
+                cz += w * (positions[a + 2] + positions[b + 2] + positions[d + 2]) / 3;
+                nx += tx;
+                ny += ty;
+                nz += tz;
+                area += w;
+            }
+
+            mx += cx;
+            my += cy;
+            mz += cz;
+            total += area;
+
+            float inv = area > 0 ? 1 / area : 0;
+            float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            float invLen = len > 0 ? 1 / len : 0;
+
+            cluster[c * 6] = cx * inv;
+            cluster[c * 6 + 1] = cy * inv;
+            cluster[c * 6 + 2] = cz * inv;
+            cluster[c * 6 + 3] = nx * invLen;
+            cluster[c * 6 + 4] = ny * invLen;
+            cluster[c * 6 + 5] = nz * invLen;
+        }
+
+        if (total > 0) {
+            mx /= total;
+            my /= total;
+            mz /= total;
+        }
+
+        // Sort by descending dot product; Flipping the magnitude bits of negative floats makes them sort like ints
+        long[] keys = new long[numClusters];
+
+        for (int c = 0; c < numClusters; ++c) {
+            float dot = (float) ((cluster[c * 6] - mx) * cluster[c * 6 + 3] + (cluster[c * 6 + 1] - my)
+                * cluster[c * 6 + 4] + (cluster[c * 6 + 2] - mz) * cluster[c * 6 + 5]);
+            int bits = Float.floatToIntBits(-dot);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            keys[c] = (long) bits << 32 | c;
+        }
+
+        Arrays.sort(keys);
+
+        int[] sorted = new int[indices.length];
+        int pos = 0;
+
+        for (long key : keys) {
+            int c = (int) key;
+            int length = clusterStart[c + 1] - clusterStart[c];
+            System.arraycopy(indices, clusterStart[c], sorted, pos, length);
+            pos += length;
+        }
+
+        System.arraycopy(sorted, 0, indices, 0, pos);
+    }
+
+    /**
+     * @param live number of remaining triangles per vertex
+     * @param cursor first vertex to check
+     * @return first vertex from the cursor on which still has triangles or -1
+     */
+    private static int nextUnused(int[] live, int cursor) {
+        while (cursor < live.length && live[cursor] <= 0)
+            ++cursor;
+
+        return cursor < live.length ? cursor : -1;
+    }
+
+    /**
+     * @param indices triangle indices
+     * @param numVertices number of vertices
+     * @return statistics of a FIFO cache with {@link #CACHE_SIZE CACHE_SIZE} entries
+     */
+    private static Statistics analyze(int[] indices, int numVertices) {
+        int[] stamp = new int[numVertices];
+        boolean[] used = new boolean[numVertices];
+        Arrays.fill(stamp, Integer.MIN_VALUE / 2);
+
+        int misses = 0, unique = 0;
+
+        for (int index : indices) {
+            // Entries leave the FIFO in the order in which they were inserted
+            if (misses - stamp[index] >= CACHE_SIZE)
+                stamp[index] = misses++;
+
+            if (!used[index]) {
+                used[index] = true;
+                ++unique;
+            }
+        }
+
+        int triangles = indices.length / 3;
+        return new Statistics(
+            triangles > 0 ? (float) misses / triangles : 0, unique > 0 ? (float) misses / unique : 0
+        );
+    }
+
+    private static final int MIN_CLUSTER_SIZE = 64;
+
+    private float[] positions;
+    private int[] clusterStart;
+    private Statistics before;
+    private Statistics after;
+}
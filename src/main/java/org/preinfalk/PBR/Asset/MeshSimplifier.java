@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Generates levels of detail for indexed meshes with quadric error edge collapses (Garland and Heckbert).
+ *
+ * Edges are collapsed onto one of their existing vertices, so all levels share the vertex data and only differ in their
+ * indices. Vertices on open borders and on attribute seams (several vertices with the same position) are never moved,
+ * which keeps the outline and the texture mapping intact. Each pass collapses the cheapest independent edges, until the
+ * target number of triangles is reached.
+ */
+public class MeshSimplifier {
+    /**
+     * Default ratio of triangles between two successive levels
+     */
+    public static final float DEFAULT_RATIO = 0.5f;
+
+    /**
+     * Generates a chain of levels of detail. Generation stops when the maximum number of levels is reached, the mesh
+     * becomes too small or it cannot be simplified any further.
+     *
+     * @param data mesh with a single level of detail
+     * @param maxLods maximum number of levels including the original one
+     * @param ratio ratio of triangles between two successive levels
+     * @return mesh data sharing the vertices of the input and containing the indices of all levels
+     */
+    public static MeshData generateLods(MeshData data, int maxLods, float ratio) {
+        MeshSimplifier simplifier = new MeshSimplifier(data);
+
+        int[][] levels = new int[maxLods][];
+        float[] errors = new float[maxLods];
+        int numLods = 1;
+
+        levels[0] = new int[data.getNumIndices()];
+        data.getIndexInts().get(levels[0]);
+
+        while (numLods < maxLods) {
+            int[] previous = levels[numLods - 1];
+            int target = (int) (previous.length / 3 * ratio) * 3;
+
+            if (target < MIN_TRIANGLES * 3)
+                break;
+
+            int[] next = simplifier.simplify(previous, target);
+
+            // Stop if the mesh is mostly locked
+            if (next.length > previous.length * MIN_REDUCTION)
+                break;
+
+            levels[numLods] = next;
+            errors[numLods] = (float) Math.sqrt(simplifier.error);
+            ++numLods;
+        }
+
+        int numIndices = 0;
+
+        for (int i = 0; i < numLods; ++i)
+            numIndices += levels[i].length;
+
+        ByteBuffer indices = ByteBuffer.allocateDirect(numIndices * 4);
+        IntBuffer ints = indices.order(ByteOrder.nativeOrder()).asIntBuffer();
+        int[] first = new int[numLods];
+        int[] count = new int[numLods];
+
+        for (int i = 0; i < numLods; ++i) {
+            first[i] = ints.position();
+            count[i] = levels[i].length;
+            ints.put(levels[i]);
+        }
+
+        MeshData result = new MeshData(data.getVertices(), indices, data.getBounds());
+        result.setLods(first, count, Arrays.copyOf(errors, numLods));
+        return result;
+    }
+
+    /**
+     * Prepares the simplification by calculating the quadrics and locked vertices of the mesh
+     *
+     * @param data mesh to simplify
+     */
+    private MeshSimplifier(MeshData data) {
+        numVertices = data.getNumVertices();
+        positions = new float[numVertices * 3];
+        FloatBuffer v = data.getVertexFloats();
+
+        for (int i = 0; i < numVertices; ++i) {
+            positions[i * 3] = v.get(i * MeshData.VERTEX_FLOATS);
+            positions[i * 3 + 1] = v.get(i * MeshData.VERTEX_FLOATS + 1);
+            positions[i * 3 + 2] = v.get(i * MeshData.VERTEX_FLOATS + 2);
+        }
+
+        int[] indices = new int[data.getNumIndices()];
+        data.getIndexInts().get(indices);
+
+        remap = new int[numVertices];
+        touched = new boolean[numVertices];
+        locked = new boolean[numVertices];
+        quadrics = new double[numVertices * QUADRIC_SIZE];
+
+        for (int i = 0; i < numVertices; ++i)
+            remap[i] = i;
+
+        lockSeams();
+        buildAdjacency(indices, indices.length);
+        lockBorders(indices, indices.length);
+
+        for (int i = 0; i + 2 < indices.length; i += 3)
+            addPlane(indices[i], indices[i + 1], indices[i + 2]);
+    }
+
+    /**
+     * Collapses edges until the number of indices drops to the target or no edge can be collapsed any more. The
+     * quadrics and the error are carried over to the next call, so levels can be simplified one after another.
+     *
+     * @param input indices of the current level
+     * @param target desired number of indices
+     * @return indices of the simplified level
+     */
+    private int[] simplify(int[] input, int target) {
+        int[] indices = input.clone();
+        int numIndices = indices.length;
+
+        while (numIndices > target) {
+            buildAdjacency(indices, numIndices);
+
+            int numCandidates = collectCandidates(indices, numIndices);
+            int goal = (numIndices - target) / 3;
+            int removed = 0;
+
+            Arrays.fill(touched, false);
+
+            for (int i = 0; i < numCandidates && removed < goal; ++i) {
+                int candidate = (int) candidateKeys[i];
+                int a = candidateFrom[candidate], b = candidateTo[candidate];
+
+                if (touched[a] || touched[b] || flips(indices, a, b))
+                    continue;
+
+                removed += collapse(indices, a, b);
+                error = Math.max(error, Float.intBitsToFloat((int) (candidateKeys[i] >>> 32)));
+            }
+
+            if (removed == 0)
+                break;
+
+            // Apply the collapses and remove the degenerated triangles
+            int count = 0;
+
+            for (int i = 0; i + 2 < numIndices; i += 3) {
+                int a = remap[indices[i]], b = remap[indices[i + 1]], c = remap[indices[i + 2]];
+
+                if (a == b || b == c || c == a)
+                    continue;
+
+                indices[count++] = a;
+                indices[count++] = b;
+                indices[count++] = c;
+            }
+
+            numIndices = count;
+
+            for (int i = 0; i < numVertices; ++i)
+                remap[i] = i;
+        }
+
+        return Arrays.copyOf(indices, numIndices);
+    }
+
+    /**
+     * Collects all directed edges whose start vertex may be moved and sorts them by their cost
+     *
+     * @param indices triangle indices
+     * @param numIndices number of valid indices
+     * @return number of candidates
+     */
+    private int collectCandidates(int[] indices, int numIndices) {
+        if (candidateKeys.length < numIndices * 2) {
+            candidateKeys = new long[numIndices * 2];
+            candidateFrom = new int[numIndices * 2];
+            candidateTo = new int[numIndices * 2];
+        }
+
+        int count = 0;
+
+        for (int i = 0; i + 2 < numIndices; i += 3) {
+            for (int k = 0; k < 3; ++k) {
+                int a = indices[i + k], b = indices[i + (k + 1) % 3];
+
+                for (int d = 0; d < 2; ++d) {
+                    int from = d == 0 ? a : b, to = d == 0 ? b : a;
+
+                    if (locked[from])
+                        continue;
+
+                    // The cost is non-negative, so its bits sort like the float
+                    float cost = (float) Math.max(0, getCost(from, to));
+                    candidateFrom[count] = from;
+                    candidateTo[count] = to;
+                    candidateKeys[count] = (long) Float.floatToRawIntBits(cost) << 32 | count;
+                    ++count;
+                }
+            }
+        }
+
+        Arrays.sort(candidateKeys, 0, count);
+        return count;
+    }
+
+    /**
+     * Moves vertex a onto vertex b
+     *
+     * @param indices triangle indices
+     * @param a vertex to remove
+     * @param b vertex to keep
+     * @return number of triangles which degenerate
+     */
+    private int collapse(int[] indices, int a, int b) {
+        remap[a] = b;
+
+        for (int k = 0; k < QUADRIC_SIZE; ++k)
+            quadrics[b * QUADRIC_SIZE + k] += quadrics[a * QUADRIC_SIZE + k];
+
+        // Neighbours of a can't take part in further collapses of this pass, as the adjacency is outdated
+        int removed = 0;
+
+        for (int j = adjacencyStart[a]; j < adjacencyStart[a + 1]; ++j) {
+            int t = adjacency[j] * 3;
+
+            touched[indices[t]] = true;
+            touched[indices[t + 1]] = true;
+            touched[indices[t + 2]] = true;
+
+            if (indices[t] == b || indices[t + 1] == b || indices[t + 2] == b)
+                ++removed;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Checks if moving vertex a onto vertex b flips or strongly tilts any of the remaining triangles of a
+     *
+     * @param indices triangle indices
+     * @param a vertex to remove
+     * @param b vertex to keep
+     * @return if the collapse must be rejected
+     */
+    private boolean flips(int[] indices, int a, int b) {
+        for (int j = adjacencyStart[a]; j < adjacencyStart[a + 1]; ++j) {
+            int t = adjacency[j] * 3;
+            int i0 = indices[t], i1 = indices[t + 1], i2 = indices[t + 2];
+
+            if (i0 == b || i1 == b || i2 == b)
+                continue;
+
+            // Rotate the triangle, so a comes first
+            int p = i0 == a ? i1 : i1 == a ? i2 : i0;
+            int q = i0 == a ? i2 : i1 == a ? i0 : i1;
+
+            float px = positions[p * 3], py = positions[p * 3 + 1], pz = positions[p * 3 + 2];
+            float e1x = positions[q * 3] - px, e1y = positions[q * 3 + 1] - py, e1z = positions[q * 3 + 2] - pz;
+            float e2x = positions[a * 3] - px, e2y = positions[a * 3 + 1] - py, e2z = positions[a * 3 + 2] - pz;
+            float e3x = positions[b * 3] - px, e3y = positions[b * 3 + 1] - py, e3z = positions[b * 3 + 2] - pz;
+
+            float n1x = e1y * e2z - e1z * e2y, n1y = e1z * e2x - e1x * e2z, n1z = e1x * e2y - e1y * e2x;
+            float n2x = e1y * e3z - e1z * e3y, n2y = e1z * e3x - e1x * e3z, n2z = e1x * e3y - e1y * e3x;
+
+            float dot = n1x * n2x + n1y * n2y + n1z * n2z;
+            float len1 = n1x * n1x + n1y * n1y + n1z * n1z;
+            float len2 = n2x * n2x + n2y * n2y + n2z * n2z;
+
+            if (dot <= 0 || dot * dot < MIN_NORMAL_COS * MIN_NORMAL_COS * len1 * len2)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param a vertex to remove
+     * @param b vertex to keep
+     * @return mean squared distance of b to the planes of both vertices
+     */
+    private double getCost(int a, int b) {
+        int qa = a * QUADRIC_SIZE, qb = b * QUADRIC_SIZE;
+        double[] q = quadrics;
+
+        double xx = q[qa] + q[qb], xy = q[qa + 1] + q[qb + 1], xz = q[qa + 2] + q[qb + 2];
+        double yy = q[qa + 3] + q[qb + 3], yz = q[qa + 4] + q[qb + 4], zz = q[qa + 5] + q[qb + 5];
+        double dx = q[qa + 6] + q[qb + 6], dy = q[qa + 7] + q[qb + 7], dz = q[qa + 8] + q[qb + 8];
+        double dd = q[qa + 9] + q[qb + 9], weight = q[qa + 10] + q[qb + 10];
+
+        double x = positions[b * 3], y = positions[b * 3 + 1], z = positions[b * 3 + 2];
+        double value = x * x * xx + y * y * yy + z * z * zz + 2 * (x * y * xy + x * z * xz + y * z * yz)
+            + 2 * (x * dx + y * dy + z * dz) + dd;
+
+        return weight > 0 ? value / weight : 0;
+    }
+
+    /**
+     * Adds the area weighted plane quadric of a triangle to its vertices
+     *
+     * @param a first vertex
+     * @param b second vertex
+     * @param c third vertex
+     */
+    private void addPlane(int a, int b, int c) {
+        float ax = positions[a * 3], ay = positions[a * 3 + 1], az = positions[a * 3 + 2];
+        float e1x = positions[b * 3] - ax, e1y = positions[b * 3 + 1] - ay, e1z = positions[b * 3 + 2] - az;
+        float e2x = positions[c * 3] - ax, e2y = positions[c * 3 + 1] - ay, e2z = positions[c * 3 + 2] - az;
+
+        double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+        if (len == 0)
+            return;
+
+        nx /= len;
+        ny /= len;
+        nz /= len;
+
+        double d = -(nx * ax + ny * ay + nz * az);
+        double area = len / 2;
+
+        for (int k = 0; k < 3; ++k) {
+            int o = (k == 0 ? a : k == 1 ? b : c) * QUADRIC_SIZE;
+
+            quadrics[o] += area * nx * nx;
+            quadrics[o + 1] += area * nx * ny;
+            quadrics[o + 2] += area * nx * nz;
+            quadrics[o + 3] += area * ny * ny;
+            quadrics[o + 4] += area * ny * nz;
+            quadrics[o + 5] += area * nz * nz;
+            quadrics[o + 6] += area * nx * d;
+            quadrics[o + 7] += area * ny * d;
+            quadrics[o + 8] += area * nz * d;
+            quadrics[o + 9] += area * d * d;
+            quadrics[o + 10] += area;
+        }
+    }
+
+    /**
+     * Builds the list of triangles adjacent to each vertex (compressed rows)
+     *
+     * @param indices triangle indices
+     * @param numIndices number of valid indices
+     */
+    private void buildAdjacency(int[] indices, int numIndices) {
+        if (adjacencyStart.length < numVertices + 1)
+            adjacencyStart = new int[numVertices + 1];
+
+        if (adjacency.length < numIndices)
+            adjacency = new int[numIndices];
+
+        Arrays.fill(adjacencyStart, 0);
+
+        for (int i = 0; i < numIndices; ++i)
+            ++adjacencyStart[indices[i] + 1];
+
+        for (int i = 0; i < numVertices; ++i)
+            adjacencyStart[i + 1] += adjacencyStart[i];
+
+        // Use the end of each row as the write cursor, then shift the rows back
+        for (int i = 0; i < numIndices; ++i)
+            adjacency[adjacencyStart[indices[i]]++] = i / 3;
+
+        for (int i = numVertices; i > 0; --i)
+            adjacencyStart[i] = adjacencyStart[i - 1];
+
+        adjacencyStart[0] = 0;
+    }
+
+    /**
+     * Locks all vertices which share their position with another vertex
+     */
+    private void lockSeams() {
+        int capacity = Integer.highestOneBit(Math.max(1, numVertices) * 2) * 2;
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+
+        for (int i = 0; i < numVertices; ++i) {
+            int h = Float.floatToIntBits(positions[i * 3]) * 0x9E3779B1
+                + Float.floatToIntBits(positions[i * 3 + 1]) * 0x85EBCA77
+                + Float.floatToIntBits(positions[i * 3 + 2]) * 0xC2B2AE3D;
+            int slot = (h ^ (h >>> 16)) & (capacity - 1);
+
+            while (table[slot] >= 0) {
+                int other = table[slot];
+
+                if (positions[other * 3] == positions[i * 3] && positions[other * 3 + 1] == positions[i * 3 + 1]
+                    && positions[other * 3 + 2] == positions[i * 3 + 2]) {
+                    locked[other] = true;
+                    locked[i] = true;
+                    break;
+                }
+
+                slot = (slot + 1) & (capacity - 1);
+            }
+
+            if (table[slot] < 0)
+                table[slot] = i;
+        }
+    }
+
+    /**
+     * Locks the vertices of edges which belong to only one triangle. Requires the adjacency.
+     *
+     * @param indices triangle indices
+     * @param numIndices number of valid indices
+     */
+    private void lockBorders(int[] indices, int numIndices) {
+        for (int i = 0; i + 2 < numIndices; i += 3) {
+            for (int k = 0; k < 3; ++k) {
+                int a = indices[i + k], b = indices[i + (k + 1) % 3];
+                boolean shared = false;
+
+                // Look for a triangle containing the opposite edge b -> a
+                for (int j = adjacencyStart[b]; j < adjacencyStart[b + 1] && !shared; ++j) {
+                    int t = adjacency[j] * 3;
+
+                    for (int m = 0; m < 3; ++m) {
+                        if (indices[t + m] == b && indices[t + (m + 1) % 3] == a)
+                            shared = true;
+                    }
+                }
+
+                if (!shared) {
+                    locked[a] = true;
+                    locked[b] = true;
+                }
+            }
+        }
+    }
+
+    private static final int QUADRIC_SIZE = 11;
+    private static final int MIN_TRIANGLES = 16;
+    private static final float MIN_REDUCTION = 0.9f;
+    private static final float MIN_NORMAL_COS = 0.25f;
+
+    private final int numVertices;
+    private final float[] positions;
+    private final boolean[] locked;
+    private final boolean[] touched;
+    private final int[] remap;
+
+    // Symmetric 3x3 matrix, linear part, constant part and the sum of the area weights per vertex
+    private final double[] quadrics;
+
+    // Largest squared error of all collapses so far
+    private double error = 0;
+
+    private int[] adjacencyStart = new int[0];
+    private int[] adjacency = new int[0];
+
+    private long[] candidateKeys = new long[0];
+    private int[] candidateFrom = new int[0];
+    private int[] candidateTo = new int[0];
+}
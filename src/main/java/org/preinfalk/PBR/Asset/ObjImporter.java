@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Importer for Wavefront OBJ files.
+ *
+ * The file is memory-mapped and parsed byte by byte. Positions, texture coordinates, normals and the resulting vertices
+ * are stored in primitive arrays, so no objects are created per vertex or face. Faces with more than three vertices are
+ * triangulated as fans. Vertices which share the same position, texture coordinate and normal are merged. Missing
+ * normals and all tangents are generated. Only the geometry is read, materials and groups are ignored.
+ */
+public class ObjImporter {
+    /**
+     * Imports an OBJ file
+     *
+     * @param path path of the file
+     * @return indexed mesh data
+     * @throws IOException if the file cannot be read
+     */
+    public static MeshData load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ObjImporter().parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Parses the content of an OBJ file
+     *
+     * @param data content of the file
+     * @return indexed mesh data
+     */
+    public MeshData parse(ByteBuffer data) {
+        this.data = data;
+        pos = data.position();
+        end = data.limit();
+
+        while (pos < end) {
+            skipSpaces();
+
+            if (pos >= end)
+                break;
+
+            byte c = data.get(pos);
+            byte next = pos + 1 < end ? data.get(pos + 1) : 0;
+
+            if (c == 'v' && isSpace(next)) {
+                ++pos;
+                positions = append(positions, numPositions++ * 3, 3);
+                parseFloats(positions, numPositions * 3 - 3, 3);
+            } else if (c == 'v' && next == 't') {
+                pos += 2;
+                texCoords = append(texCoords, numTexCoords++ * 2, 2);
+                parseFloats(texCoords, numTexCoords * 2 - 2, 2);
+            } else if (c == 'v' && next == 'n') {
+                pos += 2;
+                normals = append(normals, numNormals++ * 3, 3);
+                parseFloats(normals, numNormals * 3 - 3, 3);
+            } else if (c == 'f' && isSpace(next)) {
+                ++pos;
+                parseFace();
+            }
+
+            skipLine();
+        }
+
+        MeshData mesh = MeshData.allocate(numVertices, numIndices);
+        mesh.getVertexFloats().put(vertices, 0, numVertices * MeshData.VERTEX_FLOATS);
+        mesh.getIndexInts().put(indices, 0, numIndices);
+
+        if (numNormals == 0)
+            mesh.generateNormals();
+
+        mesh.generateTangents();
+        mesh.calculateBounds();
+        return mesh;
+    }
+
+    /**
+     * Parses the vertices of a face and adds its triangles
+     */
+    private void parseFace() {
+        int first = -1, previous = -1, count = 0;
+
+        while (true) {
+            skipSpaces();
+
+            if (pos >= end || isLineEnd(data.get(pos)))
+                break;
+
+            int p = parseIndex(numPositions), t = -1, n = -1;
+
+            if (pos < end && data.get(pos) == '/') {
+                ++pos;
+
+                if (pos < end && data.get(pos) != '/')
+                    t = parseIndex(numTexCoords);
+
+                if (pos < end && data.get(pos) == '/') {
+                    ++pos;
+                    n = parseIndex(numNormals);
+                }
+            }
+
+            int vertex = getVertex(p, t, n);
+
+            if (count == 0)
+                first = vertex;
+            else if (count >= 2) {
+                indices = append(indices, numIndices, first, previous, vertex);
+                numIndices += 3;
+            }
+
+            previous = vertex;
+            ++count;
+        }
+    }
+
+    /**
+     * Looks up the vertex for a combination of indices and adds it if it doesn't exist yet
+     *
+     * @param p position index
+     * @param t texture coordinate index or -1
+     * @param n normal index or -1
+     * @return index of the vertex
+     */
+    private int getVertex(int p, int t, int n) {
+        if (numVertices * 2 >= cacheValues.length)
+            growCache();
+
+        int mask = cacheValues.length - 1;
+        int slot = hash(p, t, n) & mask;
+
+        while (cacheValues[slot] >= 0) {
+            if (cacheKeys[slot * 3] == p && cacheKeys[slot * 3 + 1] == t && cacheKeys[slot * 3 + 2] == n)
+                return cacheValues[slot];
+
+            slot = (slot + 1) & mask;
+        }
+
+        int vertex = numVertices++;
+        cacheKeys[slot * 3] = p;
+        cacheKeys[slot * 3 + 1] = t;
+        cacheKeys[slot * 3 + 2] = n;
+        cacheValues[slot] = vertex;
+
+        if (vertices.length < numVertices * MeshData.VERTEX_FLOATS)
+            vertices = Arrays.copyOf(vertices, Math.max(1024, vertices.length * 2));
+
+        int o = vertex * MeshData.VERTEX_FLOATS;
+        vertices[o] = positions[p * 3];
+        vertices[o + 1] = positions[p * 3 + 1];
+        vertices[o + 2] = positions[p * 3 + 2];
+
+        if (n >= 0) {
+            vertices[o + 3] = normals[n * 3];
+            vertices[o + 4] = normals[n * 3 + 1];
+            vertices[o + 5] = normals[n * 3 + 2];
+        }
+
+        if (t >= 0) {
+            vertices[o + 6] = texCoords[t * 2];
+            vertices[o + 7] = texCoords[t * 2 + 1];
+        }
+
+        return vertex;
+    }
+
+    /**
+     * Doubles the size of the vertex cache and reinserts all entries
+     */
+    private void growCache() {
+        int[] oldKeys = cacheKeys;
+        int[] oldValues = cacheValues;
+        int capacity = Math.max(1024, oldValues.length * 2);
+
+        cacheKeys = new int[capacity * 3];
+        cacheValues = new int[capacity];
+        Arrays.fill(cacheValues, -1);
+
+        int mask = capacity - 1;
+
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] < 0)
+                continue;
+
+            int p = oldKeys[i * 3], t = oldKeys[i * 3 + 1], n = oldKeys[i * 3 + 2];
+            int slot = hash(p, t, n) & mask;
+
+            while (cacheValues[slot] >= 0)
+                slot = (slot + 1) & mask;
+
+            cacheKeys[slot * 3] = p;
+            cacheKeys[slot * 3 + 1] = t;
+            cacheKeys[slot * 3 + 2] = n;
+            cacheValues[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * @param p position index
+     * @param t texture coordinate index
+     * @param n normal index
+     * @return hash of the combination
+     */
+    private static int hash(int p, int t, int n) {
+        int h = p * 0x9E3779B1 + t * 0x85EBCA77 + n * 0xC2B2AE3D;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Parses a one based (or negative relative) index and converts it to a zero based index
+     *
+     * @param count number of elements defined so far
+     * @return zero based index
+     */
+    private int parseIndex(int count) {
+        boolean negative = false;
+
+        if (pos < end && data.get(pos) == '-') {
+            negative = true;
+            ++pos;
+        }
+
+        int value = 0;
+
+        while (pos < end) {
+            byte c = data.get(pos);
+
+            if (c < '0' || c > '9')
+                break;
+
+            value = value * 10 + (c - '0');
+            ++pos;
+        }
+
+        int index = negative ? count - value : value - 1;
+
+        if (index < 0 || index >= count)
+            throw new RuntimeException("Invalid index in OBJ file: " + (negative ? -value : value));
+
+        return index;
+    }
+
+    /**
+     * Parses a floating point number after skipping spaces
+     *
+     * @return parsed number
+     */
+    private float parseFloat() {
+        skipSpaces();
+
+        boolean negative = false;
+
+        if (pos < end && (data.get(pos) == '-' || data.get(pos) == '+'))
+            negative = data.get(pos++) == '-';
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        byte c;
+
+        while (pos < end && (c = data.get(pos)) >= '0' && c <= '9') {
+            // Digits which don't fit into the mantissa only change the magnitude
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                ++digits;
+            } else
+                ++exponent;
+
+            ++pos;
+        }
+
+        if (pos < end && data.get(pos) == '.') {
+            ++pos;
+
+            while (pos < end && (c = data.get(pos)) >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    ++digits;
+                    --exponent;
+                }
+
+                ++pos;
+            }
+        }
+
+        if (pos < end && (data.get(pos) == 'e' || data.get(pos) == 'E')) {
+            ++pos;
+
+            boolean negativeExponent = false;
+
+            if (pos < end && (data.get(pos) == '-' || data.get(pos) == '+'))
+                negativeExponent = data.get(pos++) == '-';
+
+            int value = 0;
+
+            while (pos < end && (c = data.get(pos)) >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                ++pos;
+            }
+
+            exponent += negativeExponent ? -value : value;
+        }
+
+        double result = exponent == 0 ? mantissa : mantissa * Math.pow(10, exponent);
+        return (float) (negative ? -result : result);
+    }
+
+    /**
+     * Skips spaces and tabs
+     */
+    private void skipSpaces() {
+        while (pos < end && isSpace(data.get(pos)))
+            ++pos;
+    }
+
+    /**
+     * Skips everything up to and including the next line break
+     */
+    private void skipLine() {
+        while (pos < end && data.get(pos) != '\n')
+            ++pos;
+
+        ++pos;
+    }
+
+    /**
+     * @param c character
+     * @return if the character is a space or tab
+     */
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * @param c character
+     * @return if the character ends a line or starts a comment
+     */
+    private static boolean isLineEnd(byte c) {
+        return c == '\n' || c == '\r' || c == '#';
+    }
+
+    /**
+     * Parses floating point numbers into an array
+     *
+     * @param array array which receives the numbers
+     * @param offset index of the first number
+     * @param count number of numbers
+     */
+    private void parseFloats(float[] array, int offset, int count) {
+        for (int i = 0; i < count; ++i)
+            array[offset + i] = parseFloat();
+    }
+
+    /**
+     * Grows an array if the given number of values doesn't fit at the offset
+     *
+     * @param array array to append to
+     * @param offset index of the first new value
+     * @param count number of new values
+     * @return array which is large enough
+     */
+    private static float[] append(float[] array, int offset, int count) {
+        if (offset + count > array.length)
+            array = Arrays.copyOf(array, Math.max(1024, array.length * 2));
+
+        return array;
+    }
+
+    /**
+     * Appends three values to an array and grows it if necessary
+     *
+     * @param array array to append to
+     * @param offset index of the first new value
+     * @param a first value
+     * @param b second value
+     * @param c third value
+     * @return array containing the values
+     */
+    private static int[] append(int[] array, int offset, int a, int b, int c) {
+        if (offset + 3 > array.length)
+            array = Arrays.copyOf(array, Math.max(1024, array.length * 2));
+
+        array[offset] = a;
+        array[offset + 1] = b;
+        array[offset + 2] = c;
+        return array;
+    }
+
+    private ByteBuffer data;
+    private int pos;
+    private int end;
+
+    private float[] positions = new float[0];
+    private float[] texCoords = new float[0];
+    private float[] normals = new float[0];
+    private int numPositions = 0;
+    private int numTexCoords = 0;
+    private int numNormals = 0;
+
+    private float[] vertices = new float[0];
+    private int[] indices = new int[0];
+    private int numVertices = 0;
+    private int numIndices = 0;
+
+    // Open addressing hash table from (position, texture coordinate, normal) to vertex index
+    private int[] cacheKeys = new int[0];
+    private int[] cacheValues = new int[0];
+}
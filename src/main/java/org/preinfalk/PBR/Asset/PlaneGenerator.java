@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Procedural grid in the xy plane, facing in z direction
+ */
+public class PlaneGenerator extends ShapeGenerator {
+    /**
+     * @param pos position of the center
+     * @param width size in x direction
+     * @param depth size in y direction
+     * @param columns number of quads in x direction
+     * @param rows number of quads in y direction
+     */
+    public PlaneGenerator(Vector3fc pos, float width, float depth, int columns, int rows) {
+        super(1, columns, rows);
+
+        this.pos = new Vector3f(pos);
+        this.width = width;
+        this.depth = depth;
+    }
+
+    @Override
+    public Bounds getBounds() {
+        Vector3f extent = new Vector3f(width / 2, depth / 2, 0);
+        return new Bounds(new Vector3f(pos).sub(extent), new Vector3f(pos).add(extent), pos, extent.length());
+    }
+
+    @Override
+    protected void evaluate(FloatBuffer out, int offset, int patch, int column, int row) {
+        float x = pos.x + width * ((float) column / columns - 0.5f);
+        float y = pos.y + depth * ((float) row / rows - 0.5f);
+
+        putVertex(out, offset, x, y, pos.z, 1, 0, 0, 0, 1, 0, column, row);
+    }
+
+    private final Vector3f pos;
+    private final float width;
+    private final float depth;
+}
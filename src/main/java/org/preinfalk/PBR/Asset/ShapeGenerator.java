@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Base class for procedural shapes which consist of one or more parametric patches.
+ *
+ * Each patch is a grid of (columns + 1) x (rows + 1) vertices in the {@link MeshData MeshData} layout. The texture
+ * coordinate u follows the columns and v follows the rows. Subclasses evaluate the surface and its two derivatives, the
+ * normal is their cross product, so the derivatives have to be oriented such that it points outwards. Angles should be
+ * taken from precomputed tables (see {@link #cosTable(int, double, double) cosTable}).
+ *
+ * The rows of all patches are generated in parallel. Every row writes its vertices and the triangles to the next row
+ * into its own range of the output, so no synchronization is needed.
+ *
+ * Coarser levels of detail are tessellations of the same vertices with half the columns and rows of the previous level,
+ * so they only add indices. The borders of the patches are kept, which keeps shapes with several patches closed. The
+ * error of a level is the largest distance of a skipped vertex from the coarse quad it lies in.
+ */
+public abstract class ShapeGenerator {
+    /**
+     * @param numPatches number of patches
+     * @param columns number of quads of a patch in u direction
+     * @param rows number of quads of a patch in v direction
+     */
+    protected ShapeGenerator(int numPatches, int columns, int rows) {
+        if (numPatches < 1 || columns < 1 || rows < 1)
+            throw new IllegalArgumentException("A shape needs at least one patch with one quad");
+
+        this.numPatches = numPatches;
+        this.columns = columns;
+        this.rows = rows;
+
+        int numLods = 1;
+
+        while (numLods < MeshImporter.MAX_LODS && (lodQuads(columns, numLods) < lodQuads(columns, numLods - 1)
+            || lodQuads(rows, numLods) < lodQuads(rows, numLods - 1)))
+            ++numLods;
+
+        lodFirst = new int[numLods];
+        lodCount = new int[numLods];
+
+        for (int lod = 0, first = 0; lod < numLods; first += lodCount[lod++]) {
+            lodFirst[lod] = first;
+            lodCount[lod] = numPatches * lodQuads(columns, lod) * lodQuads(rows, lod) * 6;
+        }
+    }
+
+    /**
+     * @return number of vertices of the shape
+     */
+    public int getNumVertices() {
+        return numPatches * (columns + 1) * (rows + 1);
+    }
+
+    /**
+     * @return number of indices of all levels of detail of the shape
+     */
+    public int getNumIndices() {
+        return lodFirst[lodFirst.length - 1] + lodCount[lodCount.length - 1];
+    }
+
+    /**
+     * @return number of levels of detail
+     */
+    public int getNumLods() {
+        return lodFirst.length;
+    }
+
+    /**
+     * @param lod level of detail
+     * @return index of the first index of the level
+     */
+    public int getLodFirst(int lod) {
+        return lodFirst[lod];
+    }
+
+    /**
+     * @param lod level of detail
+     * @return number of indices of the level
+     */
+    public int getLodCount(int lod) {
+        return lodCount[lod];
+    }
+
+    /**
+     * @return bounds of the shape
+     */
+    public abstract Bounds getBounds();
+
+    /**
+     * Generates the shape with all levels of detail into newly allocated mesh data
+     *
+     * @return indexed mesh data
+     */
+    public MeshData generate() {
+        ByteBuffer vertices = ByteBuffer.allocateDirect(getNumVertices() * MeshData.VERTEX_SIZE);
+        ByteBuffer indices = ByteBuffer.allocateDirect(getNumIndices() * 4);
+
+        MeshData data = new MeshData(vertices, indices, getBounds());
+        data.setLods(lodFirst, lodCount, generate(vertices, indices));
+        return data;
+    }
+
+    /**
+     * Generates the shape with all levels of detail into existing memory, e.g. the memory of a
+     * {@link org.preinfalk.PBR.GL.Buffer Buffer}
+     *
+     * @param vertices memory for {@link #getNumVertices() getNumVertices} vertices starting at its position
+     * @param indices memory for {@link #getNumIndices() getNumIndices} indices starting at its position
+     * @return geometric error of each level of detail in object space units
+     */
+    public float[] generate(ByteBuffer vertices, ByteBuffer indices) {
+        FloatBuffer v = vertices.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        IntBuffer i = indices.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+
+        if (v.capacity() < getNumVertices() * MeshData.VERTEX_FLOATS || i.capacity() < getNumIndices())
+            throw new IllegalArgumentException("Buffers are too small for the shape");
+
+        int numRows = numPatches * (rows + 1);
+
+        float[] errors = new float[getNumLods()];
+
+        if (getNumVertices() < PARALLEL_THRESHOLD) {
+            for (int row = 0; row < numRows; ++row)
+                generateRow(row, v, i);
+
+            for (int lod = 1; lod < errors.length; ++lod)
+                errors[lod] = generateLod(lod, v, i);
+        } else {
+            IntStream.range(0, numRows).parallel().forEach(row -> generateRow(row, v, i));
+            IntStream.range(1, errors.length).parallel().forEach(lod -> errors[lod] = generateLod(lod, v, i));
+        }
+
+        // A coarser level never has a smaller error
+        for (int lod = 1; lod < errors.length; ++lod)
+            errors[lod] = Math.max(errors[lod], errors[lod - 1]);
+
+        return errors;
+    }
+
+    /**
+     * Evaluates a vertex of the surface and writes it with {@link #putVertex putVertex}
+     *
+     * @param out vertex data
+     * @param offset index of the first float of the vertex
+     * @param patch index of the patch
+     * @param column column of the vertex from 0 to columns
+     * @param row row of the vertex from 0 to rows
+     */
+    protected abstract void evaluate(FloatBuffer out, int offset, int patch, int column, int row);
+
+    /**
+     * Writes a vertex. The normal is the normalized cross product of the derivatives and the tangent the normalized
+     * derivative in u direction. Degenerated derivatives (e.g. at a pole) can be replaced by any vector pointing in the
+     * right direction, as only the direction is used.
+     *
+     * @param out vertex data
+     * @param offset index of the first float of the vertex
+     * @param px x position
+     * @param py y position
+     * @param pz z position
+     * @param ux x derivative in u direction
+     * @param uy y derivative in u direction
+     * @param uz z derivative in u direction
+     * @param vx x derivative in v direction
+     * @param vy y derivative in v direction
+     * @param vz z derivative in v direction
+     * @param column column of the vertex
+     * @param row row of the vertex
+     */
+    protected void putVertex(
+        FloatBuffer out, int offset, float px, float py, float pz, float ux, float uy, float uz, float vx, float vy,
+        float vz, int column, int row
+    ) {
+        float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        float n = invLength(nx, ny, nz), t = invLength(ux, uy, uz);
+
+        out.put(offset, px);
+        out.put(offset + 1, py);
+        out.put(offset + 2, pz);
+        out.put(offset + 3, nx * n);
+        out.put(offset + 4, ny * n);
+        out.put(offset + 5, nz * n);
+        out.put(offset + 6, (float) column / columns);
+        out.put(offset + 7, (float) row / rows);
+        out.put(offset + 8, ux * t);
+        out.put(offset + 9, uy * t);
+        out.put(offset + 10, uz * t);
+        out.put(offset + 11, 1);
+    }
+
+    /**
+     * Calculates the cosines of evenly spaced angles
+     *
+     * @param steps number of steps; The table has steps + 1 entries.
+     * @param start first angle in radians
+     * @param range difference between the last and the first angle in radians
+     * @return table of cosines
+     */
+    protected static float[] cosTable(int steps, double start, double range) {
+        float[] table = new float[steps + 1];
+
+        for (int i = 0; i <= steps; ++i)
+            table[i] = (float) Math.cos(start + range * i / steps);
+
+        return table;
+    }
+
+    /**
+     * Calculates the sines of evenly spaced angles
+     *
+     * @param steps number of steps; The table has steps + 1 entries.
+     * @param start first angle in radians
+     * @param range difference between the last and the first angle in radians
+     * @return table of sines
+     */
+    protected static float[] sinTable(int steps, double start, double range) {
+        float[] table = new float[steps + 1];
+
+        for (int i = 0; i <= steps; ++i)
+            table[i] = (float) Math.sin(start + range * i / steps);
+
+        return table;
+    }
+
+    /**
+     * Generates the vertices of a row and the triangles between it and the next row of the same patch
+     *
+     * @param index index of the row over all patches
+     * @param vertices vertex data
+     * @param indices index data
+     */
+    private void generateRow(int index, FloatBuffer vertices, IntBuffer indices) {
+        int patch = index / (rows + 1), row = index % (rows + 1);
+        int first = index * (columns + 1);
+
+        for (int column = 0; column <= columns; ++column)
+            evaluate(vertices, (first + column) * MeshData.VERTEX_FLOATS, patch, column, row);
+
+        if (row == rows)
+            return;
+
+        int o = (patch * rows + row) * columns * 6;
+
+        for (int column = 0; column < columns; ++column, o += 6) {
+            int a = first + column, b = a + 1, c = b + columns + 1, d = a + columns + 1;
+
+            indices.put(o, a);
+            indices.put(o + 1, b);
+            indices.put(o + 2, c);
+            indices.put(o + 3, a);
+            indices.put(o + 4, c);
+            indices.put(o + 5, d);
+        }
+    }
+
+    /**
+     * Generates the indices of a coarser level of detail, whose quads span several quads of the vertex grid, and
+     * measures how far the skipped vertices lie from them
+     *
+     * @param lod level of detail greater than 0
+     * @param vertices generated vertex data
+     * @param indices index data
+     * @return largest distance of a vertex from the bilinear interpolation of the corners of its coarse quad
+     */
+    private float generateLod(int lod, FloatBuffer vertices, IntBuffer indices) {
+        int lodColumns = lodQuads(columns, lod), lodRows = lodQuads(rows, lod);
+        int o = lodFirst[lod];
+        float error = 0;
+
+        for (int patch = 0; patch < numPatches; ++patch) {
+            int base = patch * (rows + 1) * (columns + 1);
+
+            for (int r = 0; r < lodRows; ++r) {
+                int r0 = r * rows / lodRows, r1 = (r + 1) * rows / lodRows;
+
+                for (int c = 0; c < lodColumns; ++c, o += 6) {
+                    int c0 = c * columns / lodColumns, c1 = (c + 1) * columns / lodColumns;
+                    int a = base + r0 * (columns + 1) + c0, b = base + r0 * (columns + 1) + c1;
+                    int d = base + r1 * (columns + 1) + c0, e = base + r1 * (columns + 1) + c1;
+
+                    indices.put(o, a);
+                    indices.put(o + 1, b);
+                    indices.put(o + 2, e);
+                    indices.put(o + 3, a);
+                    indices.put(o + 4, e);
+                    indices.put(o + 5, d);
+
+                    for (int row = r0; row <= r1; ++row) {
+                        float t = (float) (row - r0) / (r1 - r0);
+
+                        for (int column = c0; column <= c1; ++column) {
+                            float s = (float) (column - c0) / (c1 - c0);
+                            int vertex = base + row * (columns + 1) + column;
+                            float distance = 0;
+
+                            for (int axis = 0; axis < 3; ++axis) {
+                                float p0 = (1 - s) * position(vertices, a, axis) + s * position(vertices, b, axis);
+                                float p1 = (1 - s) * position(vertices, d, axis) + s * position(vertices, e, axis);
+                                float p = (1 - t) * p0 + t * p1 - position(vertices, vertex, axis);
+
+                                distance += p * p;
+                            }
+
+                            error = Math.max(error, distance);
+                        }
+                    }
+                }
+            }
+        }
+
+        return (float) Math.sqrt(error);
+    }
+
+    /**
+     * @param size number of quads of a patch in one direction
+     * @param lod level of detail
+     * @return number of quads of the level in that direction; The size is halved per level down to 2.
+     */
+    private static int lodQuads(int size, int lod) {
+        return Math.max(size >> lod, Math.min(size, MIN_LOD_QUADS));
+    }
+
+    /**
+     * @param vertices vertex data
+     * @param vertex index of a vertex
+     * @param axis 0 for x, 1 for y and 2 for z
+     * @return coordinate of the position of the vertex
+     */
+    private static float position(FloatBuffer vertices, int vertex, int axis) {
+        return vertices.get(vertex * MeshData.VERTEX_FLOATS + axis);
+    }
+
+    /**
+     * @param x x component
+     * @param y y component
+     * @param z z component
+     * @return inverse length of the vector or 0 for the null vector
+     */
+    private static float invLength(float x, float y, float z) {
+        float len = x * x + y * y + z * z;
+        return len > 0 ? 1 / (float) Math.sqrt(len) : 0;
+    }
+
+    private static final int PARALLEL_THRESHOLD = 16384;
+
+    /**
+     * Smallest number of quads of a patch in one direction of a coarser level of detail
+     */
+    private static final int MIN_LOD_QUADS = 2;
+
+    protected final int numPatches;
+    protected final int columns;
+    protected final int rows;
+    private final int[] lodFirst;
+    private final int[] lodCount;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Procedural UV sphere (or ellipsoid) around the z axis. The rows go from the bottom to the top pole.
+ */
+public class SphereGenerator extends ShapeGenerator {
+    /**
+     * @param pos position of the center
+     * @param radius radius of the sphere in each direction
+     * @param steps number of segments around the z axis; The number of rings is half of it.
+     */
+    public SphereGenerator(Vector3fc pos, Vector3fc radius, int steps) {
+        super(1, steps, (steps + 1) / 2);
+
+        this.pos = new Vector3f(pos);
+        this.radius = new Vector3f(radius);
+
+        cosU = cosTable(columns, 0, 2 * Math.PI);
+        sinU = sinTable(columns, 0, 2 * Math.PI);
+        cosV = cosTable(rows, 0, Math.PI);
+        sinV = sinTable(rows, 0, Math.PI);
+    }
+
+    @Override
+    public Bounds getBounds() {
+        return new Bounds(
+            new Vector3f(pos).sub(radius), new Vector3f(pos).add(radius), pos,
+            Math.max(radius.x, Math.max(radius.y, radius.z))
+        );
+    }
+
+    @Override
+    protected void evaluate(FloatBuffer out, int offset, int patch, int column, int row) {
+        float cu = cosU[column], su = sinU[column], cv = cosV[row], sv = sinV[row];
+
+        // The derivative in u direction is divided by sin(v), so it doesn't vanish at the poles
+        putVertex(
+            out, offset, pos.x + radius.x * cu * sv, pos.y + radius.y * su * sv, pos.z - radius.z * cv,
+            -radius.x * su, radius.y * cu, 0, radius.x * cu * cv, radius.y * su * cv, radius.z * sv, column, row
+        );
+    }
+
+    private final Vector3f pos;
+    private final Vector3f radius;
+    private final float[] cosU;
+    private final float[] sinU;
+    private final float[] cosV;
+    private final float[] sinV;
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Asset;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Procedural torus around the z axis. The columns go around the z axis, the rows around the tube.
+ */
+public class TorusGenerator extends ShapeGenerator {
+    /**
+     * @param pos position of the center
+     * @param majorRadius distance from the center to the middle of the tube
+     * @param minorRadius radius of the tube
+     * @param segments number of segments around the z axis
+     * @param sides number of segments around the tube
+     */
+    public TorusGenerator(Vector3fc pos, float majorRadius, float minorRadius, int segments, int sides) {
+        super(1, segments, sides);
+
+        this.pos = new Vector3f(pos);
+        this.majorRadius = majorRadius;
+        this.minorRadius = minorRadius;
+
+        cosU = cosTable(columns, 0, 2 * Math.PI);
+        sinU = sinTable(columns, 0, 2 * Math.PI);
+        cosV = cosTable(rows, 0, 2 * Math.PI);
+        sinV = sinTable(rows, 0, 2 * Math.PI);
+    }
+
+    @Override
+    public Bounds getBounds() {
+        float r = majorRadius + minorRadius;
+        Vector3f extent = new Vector3f(r, r, minorRadius);
+        return new Bounds(new Vector3f(pos).sub(extent), new Vector3f(pos).add(extent), pos, r);
+    }
+
+    @Override
+    protected void evaluate(FloatBuffer out, int offset, int patch, int column, int row) {
+        float cu = cosU[column], su = sinU[column], cv = cosV[row], sv = sinV[row];
+        float ring = majorRadius + minorRadius * cv;
+
+        putVertex(
+            out, offset, pos.x + ring * cu, pos.y + ring * su, pos.z + minorRadius * sv,
+            -su, cu, 0, -sv * cu, -sv * su, cv, column, row
+        );
+    }
+
+    private final Vector3f pos;
+    private final float majorRadius;
+    private final float minorRadius;
+    private final float[] cosU;
+    private final float[] sinU;
+    private final float[] cosV;
+    private final float[] sinV;
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL45.glCreateBuffers;
+import static org.lwjgl.opengl.GL45.glDeleteBuffers;
+import static org.lwjgl.opengl.GL45.glNamedBufferStorage;
+import static org.lwjgl.system.MemoryUtil.memAllocInt;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Selects between the OpenGL 3.3 code paths and the OpenGL 4.5 paths with direct state access, immutable storage,
+ * persistently mapped buffers and multi-draw indirect.
+ *
+ * The 4.5 paths are used when the current context supports OpenGL 4.5, unless the system property pbr.gl33=true forces
+ * the 3.3 paths.
+ */
+final class Backend {
+    /**
+     * @param capabilities capabilities of a context
+     * @return if the OpenGL 4.5 paths can be used with the context
+     */
+    static boolean isModern(GLCapabilities capabilities) {
+        return capabilities.OpenGL45 && !FORCE_GL33;
+    }
+
+    /**
+     * @return if the OpenGL 4.5 paths can be used with the current context
+     */
+    static boolean isModern() {
+        GLCapabilities capabilities = GL.getCapabilities();
+
+        if (capabilities != cachedCapabilities) {
+            cachedModern = isModern(capabilities);
+            cachedCapabilities = capabilities;
+        }
+
+        return cachedModern;
+    }
+
+    /**
+     * Returns a buffer containing the unsigned ints 0 to {@link #MAX_DRAW_IDS MAX_DRAW_IDS} - 1. Bound as an instanced
+     * attribute, it passes the base instance of an indirect draw to the vertex shader.
+     *
+     * @return OpenGL name of the buffer
+     */
+    static int getDrawIds() {
+        if (drawIds == 0) {
+            drawIds = glCreateBuffers();
+
+            IntBuffer ids = memAllocInt(MAX_DRAW_IDS);
+
+            try {
+                for (int i = 0; i < MAX_DRAW_IDS; ++i)
+                    ids.put(i, i);
+
+                glNamedBufferStorage(drawIds, ids, 0);
+            } finally {
+                memFree(ids);
+            }
+        }
+
+        return drawIds;
+    }
+
+    /**
+     * Frees the shared buffers. Must be called before the context is destroyed.
+     */
+    static void release() {
+        if (drawIds != 0) {
+            glDeleteBuffers(drawIds);
+            drawIds = 0;
+        }
+    }
+
+    private Backend() {
+    }
+
+    /**
+     * Maximum number of draws in one command list which can be drawn indirectly
+     */
+    static final int MAX_DRAW_IDS = 16384;
+
+    private static final boolean FORCE_GL33 = Boolean.getBoolean("pbr.gl33");
+
+    private static GLCapabilities cachedCapabilities;
+    private static boolean cachedModern;
+    private static int drawIds = 0;
+}
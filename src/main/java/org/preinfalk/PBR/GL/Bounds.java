@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * Immutable bounding volume of a mesh, which consists of an axis aligned bounding box and a bounding sphere.
+ */
+public class Bounds {
+    /**
+     * Creates the bounds from a box. The sphere encloses the box.
+     *
+     * @param min minimum corner of the box
+     * @param max maximum corner of the box
+     */
+    public Bounds(Vector3fc min, Vector3fc max) {
+        this.min = new Vector3f(min);
+        this.max = new Vector3f(max);
+        center = new Vector3f(min).add(max).mul(0.5f);
+        radius = center.distance(max);
+    }
+
+    /**
+     * Creates the bounds from a box and a sphere
+     *
+     * @param min minimum corner of the box
+     * @param max maximum corner of the box
+     * @param center center of the sphere
+     * @param radius radius of the sphere
+     */
+    public Bounds(Vector3fc min, Vector3fc max, Vector3fc center, float radius) {
+        this.min = new Vector3f(min);
+        this.max = new Vector3f(max);
+        this.center = new Vector3f(center);
+        this.radius = radius;
+    }
+
+    /**
+     * Calculates the bounds of interleaved vertex positions. The sphere is centered at the center of the box and its
+     * radius is the distance to the farthest vertex.
+     *
+     * @param data vertex data
+     * @param offset index of the first position
+     * @param stride number of floats between two positions
+     * @param count number of vertices
+     * @return bounds of the vertices
+     */
+    public static Bounds fromPositions(float[] data, int offset, int stride, int count) {
+        if (count == 0)
+            return new Bounds(new Vector3f(), new Vector3f());
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0, p = offset; i < count; ++i, p += stride) {
+            minX = Math.min(minX, data[p]);
+            minY = Math.min(minY, data[p + 1]);
+            minZ = Math.min(minZ, data[p + 2]);
+            maxX = Math.max(maxX, data[p]);
+            maxY = Math.max(maxY, data[p + 1]);
+            maxZ = Math.max(maxZ, data[p + 2]);
+        }
+
+        float cx = (minX + maxX) * 0.5f, cy = (minY + maxY) * 0.5f, cz = (minZ + maxZ) * 0.5f;
+        float radiusSquared = 0;
+
+        for (int i = 0, p = offset; i < count; ++i, p += stride) {
+            float dx = data[p] - cx, dy = data[p + 1] - cy, dz = data[p + 2] - cz;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+
+        return new Bounds(
+            new Vector3f(minX, minY, minZ), new Vector3f(maxX, maxY, maxZ), new Vector3f(cx, cy, cz),
+            (float) Math.sqrt(radiusSquared)
+        );
+    }
+
+    /**
+     * @return minimum corner of the box
+     */
+    public Vector3fc getMin() {
+        return min;
+    }
+
+    /**
+     * @return maximum corner of the box
+     */
+    public Vector3fc getMax() {
+        return max;
+    }
+
+    /**
+     * @return center of the sphere
+     */
+    public Vector3fc getCenter() {
+        return center;
+    }
+
+    /**
+     * @return radius of the sphere
+     */
+    public float getRadius() {
+        return radius;
+    }
+
+    private final Vector3f min;
+    private final Vector3f max;
+    private final Vector3f center;
+    private final float radius;
+}
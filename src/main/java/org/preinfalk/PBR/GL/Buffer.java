@@ -10,12 +10,17 @@ import java.io.Closeable;
 import java.nio.*;
 
 import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL45.GL_DYNAMIC_STORAGE_BIT;
+import static org.lwjgl.opengl.GL45.glCreateBuffers;
+import static org.lwjgl.opengl.GL45.glNamedBufferStorage;
+import static org.lwjgl.opengl.GL45.glNamedBufferSubData;
 import static org.lwjgl.system.MemoryUtil.*;
 
 /**
  * Buffer, which contains the vertices to be drawn.
  *
- * It has a fixed size. When the size is exceeded the class throws an exception.
+ * It has a fixed size. When the size is exceeded the class throws an exception. With OpenGL 4.5 the buffer has
+ * immutable storage of this size, which is updated with direct state access.
  *
  * It contains a reference counter which can be in/decreased. When the resource hits 0 it is freed. To increase it call
  * {@link #addRef() addRef}, to decrease it {@link #close() close}. If the object is stored in a class, the reference
@@ -38,9 +43,16 @@ public class Buffer implements Closeable {
      * @param usage usage of the buffer; This should be one of the GL_STATIC_*, GL_DYNAMIC_* or GL_STREAM_* constants.
      */
     public Buffer(int size, int usage) {
-        buffer = glGenBuffers();
+        modern = Backend.isModern();
         data = memAlloc(size);
         this.usage = usage;
+
+        // Immutable storage of the full size, which is updated without binding
+        if (modern) {
+            buffer = glCreateBuffers();
+            glNamedBufferStorage(buffer, Math.max(size, 1), GL_DYNAMIC_STORAGE_BIT);
+        } else
+            buffer = glGenBuffers();
     }
 
     /**
@@ -55,6 +67,41 @@ public class Buffer implements Closeable {
         return this;
     }
 
+    /**
+     * Writes a value into the buffer and increases the position.
+     *
+     * @param value Value to store in the buffer
+     * @return itself
+     */
+    public Buffer putInt(int value) {
+        changed = true;
+        data.putInt(value);
+        return this;
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into this buffer and increases the position.
+     *
+     * @param src buffer to copy from; Its position is increased as well.
+     * @return itself
+     */
+    public Buffer put(ByteBuffer src) {
+        changed = true;
+        data.put(src);
+        return this;
+    }
+
+    /**
+     * Returns the memory of the buffer for absolute writes. Several threads may write into disjoint ranges at the same
+     * time. The whole buffer is uploaded on the next bind, so it shouldn't be mixed with the relative put methods.
+     *
+     * @return view of the memory in native byte order
+     */
+    public ByteBuffer getData() {
+        changed = true;
+        return data.duplicate().order(ByteOrder.nativeOrder());
+    }
+
     /**
      * Sets the buffer's position to zero
      *
@@ -67,25 +114,29 @@ public class Buffer implements Closeable {
     }
 
     /**
-     * Decreases the reference count and destroys the resource when it hits zero
+     * Decreases the reference count and schedules the destruction of the resource on the {@link DeletionQueue
+     * DeletionQueue} when it hits zero. Can be called on any thread.
      */
     @Override
     public void close() {
-        if (references == 0) {
-            glDeleteBuffers(buffer);
-            memFree(data);
+        if (references.release()) {
+            int name = buffer;
+            ByteBuffer memory = data;
             buffer = 0;
             data = null;
-        }
 
-        --references;
+            DeletionQueue.enqueue(() -> {
+                glDeleteBuffers(name);
+                memFree(memory);
+            });
+        }
     }
 
     /**
      * Increases the reference count
      */
     public void addRef() {
-        ++references;
+        references.addRef();
     }
 
     /**
@@ -100,13 +151,53 @@ public class Buffer implements Closeable {
 
         if (changed) {
             changed = false;
-            glBufferData(target, data, usage);
+
+            if (FrameCapture.isActive())
+                FrameCapture.upload(this, data);
+
+            if (modern)
+                glNamedBufferSubData(buffer, 0, data);
+            else
+                glBufferData(target, data, usage);
         }
     }
 
-    private int references = 0;
+    /**
+     * @return OpenGL name of the buffer
+     */
+    protected int getId() {
+        return buffer;
+    }
+
+    /**
+     * @return view of the bytes which are uploaded by {@link #bind(int) bind}
+     */
+    ByteBuffer getUploadRange() {
+        return data.duplicate();
+    }
+
+    /**
+     * @return size of the buffer in bytes
+     */
+    int getSize() {
+        return data.capacity();
+    }
+
+    /**
+     * Replaces the content with the remaining bytes of a buffer, which are uploaded on the next bind
+     *
+     * @param src buffer to copy from; Its position is increased.
+     */
+    void replace(ByteBuffer src) {
+        changed = true;
+        data.clear();
+        data.put(src).flip();
+    }
+
+    private final RefCount references = new RefCount(this);
     private int buffer;
     private int usage;
+    private final boolean modern;
     private boolean changed = false;
     private ByteBuffer data;
 }
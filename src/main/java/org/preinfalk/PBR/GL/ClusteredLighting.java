@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Vector2f;
+import org.preinfalk.PBR.Scene.ClusterGrid;
+import org.preinfalk.PBR.Scene.LightList;
+
+import java.io.Closeable;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Provides the lights and the light lists of a {@link ClusterGrid ClusterGrid} to shaders which were created with the
+ * CLUSTERED_LIGHTS definition.
+ *
+ * The data is stored in three buffer textures: uLights (three RGBA32F texels per light), uClusters (offset and count
+ * per cluster as RG32UI) and uLightIndices (R32UI). The grid is built by a {@link FramePipeline.Stage Stage}, so this
+ * is a {@link FramePipeline.Resource Resource} which copies the data into the textures when the stage is done.
+ * Lights and indices beyond the capacity are dropped.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class ClusteredLighting implements FramePipeline.Resource, Closeable {
+    /**
+     * Creates the textures
+     *
+     * @param grid grid which assigns the lights to the clusters
+     * @param lights lights of the scene
+     * @param maxLights maximum number of lights
+     * @param maxIndices maximum number of light indices of all clusters together
+     */
+    public ClusteredLighting(ClusterGrid grid, LightList lights, int maxLights, int maxIndices) {
+        this.grid = grid;
+        this.lights = lights;
+        this.maxLights = maxLights;
+        this.maxIndices = maxIndices;
+
+        lightData = new TextureBuffer(maxLights * LIGHT_SIZE, GL_RGBA32F);
+
+        try {
+            clusterData = new TextureBuffer(grid.getNumClusters() * 8, GL_RG32UI);
+
+            try {
+                indexData = new TextureBuffer(maxIndices * 4, GL_R32UI);
+            } catch (Throwable th) {
+                clusterData.close();
+                throw th;
+            }
+        } catch (Throwable th) {
+            lightData.close();
+            throw th;
+        }
+    }
+
+    /**
+     * Assigns the textures to a shader and sets the uniforms of the grid
+     *
+     * @param shader shader which was created with the CLUSTERED_LIGHTS definition
+     */
+    public void addShader(Shader shader) {
+        shader.setTexture("uLights", lightData, GL_TEXTURE_BUFFER);
+        shader.setTexture("uClusters", clusterData, GL_TEXTURE_BUFFER);
+        shader.setTexture("uLightIndices", indexData, GL_TEXTURE_BUFFER);
+        shader.setInt("uClusterCount", grid.getTilesX(), grid.getTilesY(), grid.getSlices());
+        shader.setVec2("uClusterSlice", new Vector2f(grid.getSliceScale(), grid.getSliceBias()));
+        shader.setInt("uNumLights", numLights);
+        shaders.add(shader);
+
+        setUniforms(shader);
+    }
+
+    /**
+     * Sets the size of the viewport, which is needed to find the tile of a fragment
+     *
+     * @param width width of the viewport in pixels
+     * @param height height of the viewport in pixels
+     */
+    public void setViewport(int width, int height) {
+        this.width = Math.max(width, 1);
+        this.height = Math.max(height, 1);
+
+        for (Shader shader : shaders)
+            setUniforms(shader);
+    }
+
+    /**
+     * Copies the lights and the light lists into the textures
+     */
+    @Override
+    public void synchronize() {
+        int numLights = Math.min(lights.size(), maxLights);
+        FloatBuffer l = lightData.getData().asFloatBuffer();
+        float[] positions = lights.getPositions(), colors = lights.getColors(), directions = lights.getDirections();
+
+        for (int i = 0; i < numLights; ++i) {
+            l.put(positions, i * 4, 4);
+            l.put(colors, i * 4, 4);
+            l.put(directions, i * 4, 4);
+        }
+
+        int[] offsets = grid.getOffsets(), counts = grid.getCounts();
+        IntBuffer c = clusterData.getData().asIntBuffer();
+
+        for (int i = 0; i < grid.getNumClusters(); ++i) {
+            int offset = Math.min(offsets[i], maxIndices);
+
+            c.put(offset);
+            c.put(Math.min(counts[i], maxIndices - offset));
+        }
+
+        indexData.getData().asIntBuffer().put(grid.getIndices(), 0, Math.min(grid.getNumIndices(), maxIndices));
+
+        if (numLights != this.numLights) {
+            this.numLights = numLights;
+
+            for (Shader shader : shaders)
+                shader.setInt("uNumLights", numLights);
+        }
+    }
+
+    /**
+     * Frees the textures
+     */
+    @Override
+    public void close() {
+        lightData.close();
+        clusterData.close();
+        indexData.close();
+    }
+
+    /**
+     * @param shader shader to set the viewport dependent uniforms of
+     */
+    private void setUniforms(Shader shader) {
+        float scaleX = (float) grid.getTilesX() / width, scaleY = (float) grid.getTilesY() / height;
+        shader.setVec2("uClusterScale", new Vector2f(scaleX, scaleY));
+    }
+
+    /**
+     * Size of a light in bytes
+     */
+    private static final int LIGHT_SIZE = 48;
+
+    private final ClusterGrid grid;
+    private final LightList lights;
+    private final int maxLights;
+    private final int maxIndices;
+    private final List<Shader> shaders = new ArrayList<>();
+    private final TextureBuffer lightData;
+    private final TextureBuffer clusterData;
+    private final TextureBuffer indexData;
+    private int width = 1;
+    private int height = 1;
+    private int numLights = 0;
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4fc;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Sorted list of draws with pre-packed uniform data, which is built by {@link RenderQueue#build(CommandList)
+ * RenderQueue.build}.
+ *
+ * Building doesn't touch OpenGL, so it can happen on any thread. Once built, the list isn't modified until it is built
+ * again, so it can be handed to the thread which owns the OpenGL context and replayed there with
+ * {@link #execute() execute}. The buffers are reused between builds.
+ *
+ * With OpenGL 4.5 the transforms are written into a persistently mapped buffer, which shaders with the
+ * INDIRECT_TRANSFORMS definition read through the samplerBuffer uTransforms. Consecutive draws of such vertex arrays
+ * (see {@link VAO#supportsIndirect() VAO.supportsIndirect}) with the same material are then issued as one
+ * multi-draw indirect call, even if their transforms differ.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class CommandList implements Closeable {
+    /**
+     * Sets the uniforms and issues the draw calls. Must be called on the thread which owns the OpenGL context.
+     */
+    public void execute() {
+        execute(null);
+    }
+
+    /**
+     * Sets the uniforms and issues the draw calls, optionally after filling the depth buffer in a depth-only pass.
+     * Must be called on the thread which owns the OpenGL context.
+     *
+     * @param prepass pre-pass to draw first or null
+     */
+    public void execute(DepthPrepass prepass) {
+        numDrawCalls = 0;
+        numProgramChanges = 0;
+        numMaterialChanges = 0;
+        indirect = beginIndirect(prepass);
+
+        for (int i = 0; i < numUniforms; ++i) {
+            uniformShaders[i].setUniform(
+                uniformNames[i], uniformValues, uniformOffsets[i], uniformOffsets[i + 1] - uniformOffsets[i]
+            );
+        }
+
+        if (prepass != null) {
+            prepass.beginDepthPass();
+            executeDepth(prepass);
+            prepass.beginMainPass();
+        }
+
+        Shader currentShader = null;
+        Material currentMaterial = null;
+        VAO currentVao = null;
+        int currentTransform = -1;
+
+        for (int i = 0; i < size; ) {
+            int draw = values[i];
+            VAO vao = vaos[draw];
+            Shader shader = vao.getShader();
+            Material material = materials[draw];
+
+            // Binding all textures of the program restores samplers which aren't part of a material
+            if (shader != currentShader) {
+                if (indirect)
+                    shader.setTexture(TRANSFORMS_NAME, transformTexture, GL_TEXTURE_BUFFER);
+
+                shader.use();
+                currentShader = shader;
+                currentMaterial = null;
+                currentTransform = -1;
+                ++numProgramChanges;
+            }
+
+            if (material != currentMaterial && material != null) {
+                material.bind(shader);
+                currentMaterial = material;
+                ++numMaterialChanges;
+            }
+
+            if (vao != currentVao) {
+                vao.bind();
+                currentVao = vao;
+            }
+
+            // The shader reads the transforms, so all following draws with the same state form one call
+            if (indirect && hasTransform[draw] && vao.supportsIndirect()) {
+                int mode = modes[draw];
+                long offset = commandOffset;
+                putCommand(draw);
+
+                for (++i; i < size; ++i) {
+                    int next = values[i];
+
+                    if (vaos[next] != vao || materials[next] != material || modes[next] != mode || !hasTransform[next])
+                        break;
+
+                    putCommand(next);
+                }
+
+                drawIndirect(vao, mode, offset);
+                continue;
+            }
+
+            if (instances[draw] > 0) {
+                vao.drawBoundInstanced(modes[draw], firsts[draw], counts[draw], instances[draw]);
+                ++numDrawCalls;
+                ++i;
+                continue;
+            }
+
+            if (hasTransform[draw] && (currentTransform < 0 || !sameTransform(currentTransform, draw))) {
+                shader.setMat4(modelName, transforms, draw * TRANSFORM_SIZE);
+                shader.setMat3(normalName, transforms, draw * TRANSFORM_SIZE + 16);
+                currentTransform = draw;
+            }
+
+            // Merge following draws which continue the vertex range with the same state
+            int mode = modes[draw];
+            int first = firsts[draw];
+            int count = counts[draw];
+
+            for (++i; i < size; ++i) {
+                int next = values[i];
+
+                if (
+                    vaos[next] != vao || materials[next] != material || modes[next] != mode ||
+                    firsts[next] != first + count || hasTransform[next] != hasTransform[draw] || instances[next] > 0 ||
+                    (hasTransform[draw] && !sameTransform(draw, next))
+                )
+                    break;
+
+                count += counts[next];
+            }
+
+            vao.drawBound(mode, first, count);
+            ++numDrawCalls;
+        }
+
+        if (prepass != null)
+            prepass.end();
+
+        if (indirect)
+            endIndirect();
+    }
+
+    /**
+     * Multiplies a matrix in front of the model matrices of all draws with a transform, and its normal matrix in front
+     * of their normal matrices. This moves the draws by changes which happened after the list was built, e.g. input
+     * which arrived in the meantime (late latching). Must be called between building and executing the list, like
+     * {@link #execute() execute} on the thread which owns the OpenGL context.
+     *
+     * @param matrix matrix to multiply in front of the model matrices
+     */
+    public void premultiplyTransforms(Matrix4fc matrix) {
+        float[] model = matrix.get(new float[16]);
+        float[] normal = matrix.normal(new Matrix3f()).get(new float[9]);
+        float[] result = new float[16];
+
+        for (int draw = 0; draw < size; ++draw) {
+            if (!hasTransform[draw])
+                continue;
+
+            premultiply(model, transforms, draw * TRANSFORM_SIZE, 4, result);
+            premultiply(normal, transforms, draw * TRANSFORM_SIZE + 16, 3, result);
+        }
+    }
+
+    /**
+     * Removes all draws and uniforms, so the list doesn't keep the resources reachable
+     */
+    public void clear() {
+        Arrays.fill(vaos, 0, size, null);
+        Arrays.fill(materials, 0, size, null);
+        Arrays.fill(uniformShaders, 0, numUniforms, null);
+        Arrays.fill(uniformNames, 0, numUniforms, null);
+        size = 0;
+        numUniforms = 0;
+    }
+
+    /**
+     * Clears the list and schedules the destruction of the buffers of the indirect draws on the {@link DeletionQueue
+     * DeletionQueue}
+     */
+    @Override
+    public void close() {
+        clear();
+        freeIndirect();
+    }
+
+    /**
+     * @return number of draws in the list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of draw calls issued by the last execution
+     */
+    public int getNumDrawCalls() {
+        return numDrawCalls;
+    }
+
+    /**
+     * @return number of program changes in the last execution
+     */
+    public int getNumProgramChanges() {
+        return numProgramChanges;
+    }
+
+    /**
+     * @return number of material changes in the last execution
+     */
+    public int getNumMaterialChanges() {
+        return numMaterialChanges;
+    }
+
+    /**
+     * Prepares the list for new data. Called by the render queue before copying the recorders into the list.
+     *
+     * @param modelName name of the mat4 uniform which receives the model matrix
+     * @param normalName name of the mat3 uniform which receives the normal matrix
+     * @param numDraws number of draws which will be added
+     * @param numUniforms number of uniforms which will be added
+     * @param numUniformValues number of uniform values which will be added
+     */
+    void reset(String modelName, String normalName, int numDraws, int numUniforms, int numUniformValues) {
+        clear();
+
+        this.modelName = modelName;
+        this.normalName = normalName;
+
+        if (keys.length < numDraws)
+            allocate(numDraws);
+
+        if (uniformShaders.length < numUniforms) {
+            uniformShaders = new Shader[numUniforms];
+            uniformNames = new String[numUniforms];
+            uniformOffsets = new int[numUniforms + 1];
+        }
+
+        if (uniformValues.length < numUniformValues)
+            uniformValues = new float[numUniformValues];
+    }
+
+    /**
+     * Sorts the keys and the draw indices with a least significant digit radix sort. Bytes which are equal for all keys
+     * are skipped. The draws are additionally sorted front to back for a depth pre-pass.
+     */
+    void sort() {
+        for (int i = 0; i < size; ++i)
+            values[i] = i;
+
+        sortByDepth();
+
+        if (size < 2)
+            return;
+
+        Arrays.fill(histograms, 0);
+
+        for (int i = 0; i < size; ++i) {
+            long key = keys[i];
+
+            for (int b = 0; b < 8; ++b)
+                ++histograms[b * 256 + (int) (key >>> (b * 8) & 0xFF)];
+        }
+
+        long[] srcKeys = keys, dstKeys = tmpKeys;
+        int[] srcValues = values, dstValues = tmpValues;
+
+        for (int b = 0; b < 8; ++b) {
+            int base = b * 256;
+            int shift = b * 8;
+
+            if (histograms[base + (int) (srcKeys[0] >>> shift & 0xFF)] == size)
+                continue;
+
+            int sum = 0;
+
+            for (int j = 0; j < 256; ++j) {
+                int c = histograms[base + j];
+                histograms[base + j] = sum;
+                sum += c;
+            }
+
+            for (int i = 0; i < size; ++i) {
+                int pos = histograms[base + (int) (srcKeys[i] >>> shift & 0xFF)]++;
+                dstKeys[pos] = srcKeys[i];
+                dstValues[pos] = srcValues[i];
+            }
+
+            long[] t = srcKeys; srcKeys = dstKeys; dstKeys = t;
+            int[] v = srcValues; srcValues = dstValues; dstValues = v;
+        }
+
+        keys = srcKeys;
+        tmpKeys = dstKeys;
+        values = srcValues;
+        tmpValues = dstValues;
+    }
+
+    /**
+     * Draws the depth of all draws front to back. Draws with the same transform and vertex array as the previous one
+     * only issue the draw call. Draws of vertex arrays which support indirect draws are merged as in the main pass.
+     *
+     * @param prepass pre-pass which provides the vertex arrays
+     */
+    private void executeDepth(DepthPrepass prepass) {
+        Shader currentShader = null;
+        VAO currentVao = null;
+        int currentTransform = -1;
+
+        for (int i = 0; i < size; ) {
+            int draw = (int) (depthOrder[i] & DEPTH_DRAW_MASK);
+            VAO vao = getDepthVao(prepass, draw);
+            Shader shader = vao.getShader();
+
+            if (shader != currentShader) {
+                if (indirect)
+                    shader.setTexture(TRANSFORMS_NAME, transformTexture, GL_TEXTURE_BUFFER);
+
+                shader.use();
+                currentShader = shader;
+                currentTransform = -1;
+                ++numProgramChanges;
+            }
+
+            if (vao != currentVao) {
+                vao.bind();
+                currentVao = vao;
+            }
+
+            if (indirect && hasTransform[draw] && vao.supportsIndirect()) {
+                int mode = modes[draw];
+                long offset = commandOffset;
+                putCommand(draw);
+
+                for (++i; i < size; ++i) {
+                    int next = (int) (depthOrder[i] & DEPTH_DRAW_MASK);
+
+                    if (getDepthVao(prepass, next) != vao || modes[next] != mode || !hasTransform[next])
+                        break;
+
+                    putCommand(next);
+                }
+
+                drawIndirect(vao, mode, offset);
+                continue;
+            }
+
+            if (hasTransform[draw] && (currentTransform < 0 || !sameTransform(currentTransform, draw))) {
+                shader.setMat4(modelName, transforms, draw * TRANSFORM_SIZE);
+                currentTransform = draw;
+            }
+
+            if (instances[draw] > 0)
+                vao.drawBoundInstanced(modes[draw], firsts[draw], counts[draw], instances[draw]);
+            else
+                vao.drawBound(modes[draw], firsts[draw], counts[draw]);
+
+            ++numDrawCalls;
+            ++i;
+        }
+    }
+
+    /**
+     * @param prepass pre-pass which provides the vertex arrays
+     * @param draw index of the draw
+     * @return vertex array which draws the depth of the draw
+     */
+    private VAO getDepthVao(DepthPrepass prepass, int draw) {
+        VAO vao = prepass.getDepthVao(vaos[draw]);
+        return vao != null ? vao : vaos[draw];
+    }
+
+    /**
+     * Prepares the indirect draws if OpenGL 4.5 is available and any draw can be drawn indirectly. Waits until the GPU
+     * finished reading the next regions of the buffers, copies the transforms into them and binds the command buffer.
+     *
+     * @param prepass pre-pass to draw first or null
+     * @return if draws are issued indirectly in this execution
+     */
+    private boolean beginIndirect(DepthPrepass prepass) {
+        if (size == 0 || size > Backend.MAX_DRAW_IDS || !Backend.isModern())
+            return false;
+
+        if (!hasIndirectDraws(prepass))
+            return false;
+
+        if (size > indirectCapacity)
+            allocateIndirect(Math.min(Math.max(size * 2, MIN_INDIRECT_CAPACITY), Backend.MAX_DRAW_IDS));
+
+        commandOffset = commandBuffer.begin();
+        long offset = transformBuffer.begin();
+
+        // Texels 0 to 3 contain the columns of the model matrix, texels 4 to 6 the columns of the normal matrix
+        for (int draw = 0; draw < size; ++draw) {
+            if (!hasTransform[draw])
+                continue;
+
+            int src = draw * TRANSFORM_SIZE;
+            int dst = (int) (offset / 4) + draw * INDIRECT_TRANSFORM_SIZE;
+
+            transformData.position(dst);
+            transformData.put(transforms, src, 16);
+
+            for (int c = 0; c < 3; ++c) {
+                transformData.position(dst + 16 + c * 4);
+                transformData.put(transforms, src + 16 + c * 3, 3);
+            }
+        }
+
+        glTextureBufferRange(
+            transformTexture.getId(), GL_RGBA32F, transformBuffer.getId(), offset, size * INDIRECT_TRANSFORM_SIZE * 4L
+        );
+
+        if (FrameCapture.isActive()) {
+            ByteBuffer data = transformBuffer.getMemory().duplicate();
+            data.position((int) offset).limit((int) offset + size * INDIRECT_TRANSFORM_SIZE * 4);
+            FrameCapture.transforms(transformTexture, GL_RGBA32F, indirectCapacity * INDIRECT_TRANSFORM_SIZE * 4, data);
+        }
+
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer.getId());
+
+        return true;
+    }
+
+    /**
+     * Fences the regions which were used by the indirect draws
+     */
+    private void endIndirect() {
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        commandBuffer.end();
+        transformBuffer.end();
+        indirect = false;
+    }
+
+    /**
+     * @param prepass pre-pass to draw first or null
+     * @return if any draw with a transform can be drawn indirectly in the main or the depth pass
+     */
+    private boolean hasIndirectDraws(DepthPrepass prepass) {
+        for (int draw = 0; draw < size; ++draw) {
+            if (hasTransform[draw] && (
+                vaos[draw].supportsIndirect() || (prepass != null && getDepthVao(prepass, draw).supportsIndirect())
+            ))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Multiplies a column-major matrix in front of another one
+     *
+     * @param a matrix in front
+     * @param b array which contains the other matrix and receives the product
+     * @param offset offset of the other matrix in the array
+     * @param n number of rows and columns of both matrices
+     * @param result temporary array with room for n * n values
+     */
+    private static void premultiply(float[] a, float[] b, int offset, int n, float[] result) {
+        for (int column = 0; column < n; ++column) {
+            for (int row = 0; row < n; ++row) {
+                float sum = 0;
+
+                for (int k = 0; k < n; ++k)
+                    sum += a[k * n + row] * b[offset + column * n + k];
+
+                result[column * n + row] = sum;
+            }
+        }
+
+        System.arraycopy(result, 0, b, offset, n * n);
+    }
+
+    /**
+     * Issues the commands which were written since an offset as one multi-draw indirect call
+     *
+     * @param vao bound vertex array
+     * @param mode GL_TRIANGLES, GL_LINES, etc.
+     * @param offset offset of the first command in the command buffer
+     */
+    private void drawIndirect(VAO vao, int mode, long offset) {
+        int count = (int) ((commandOffset - offset) / COMMAND_SIZE);
+
+        if (FrameCapture.isActive()) {
+            ByteBuffer commands = commandBuffer.getMemory().duplicate();
+            commands.position((int) offset).limit((int) commandOffset);
+            FrameCapture.drawIndirect(vao, mode, count, commands);
+        }
+
+        vao.drawIndirect(mode, offset, count);
+        ++numDrawCalls;
+    }
+
+    /**
+     * Writes the command of a draw into the command buffer. The base instance selects the transform of the draw.
+     *
+     * @param draw index of the draw
+     */
+    private void putCommand(int draw) {
+        int offset = (int) commandOffset;
+
+        commandBuffer.getMemory()
+            .putInt(offset, counts[draw])
+            .putInt(offset + 4, 1)
+            .putInt(offset + 8, firsts[draw])
+            .putInt(offset + 12, 0)
+            .putInt(offset + 16, draw);
+
+        commandOffset += COMMAND_SIZE;
+    }
+
+    /**
+     * Replaces the buffers of the indirect draws
+     *
+     * @param capacity number of draws
+     */
+    private void allocateIndirect(int capacity) {
+        freeIndirect();
+
+        // The commands of the depth and the main pass share a region
+        commandBuffer = new PersistentBuffer(alignRegion(2L * capacity * COMMAND_SIZE), NUM_REGIONS);
+        transformBuffer = new PersistentBuffer(alignRegion(capacity * INDIRECT_TRANSFORM_SIZE * 4L), NUM_REGIONS);
+        transformData = transformBuffer.getMemory().asFloatBuffer();
+
+        if (transformTexture == null) {
+            transformTexture = new Texture();
+            transformTexture.bind(GL_TEXTURE_BUFFER);
+        }
+
+        indirectCapacity = capacity;
+    }
+
+    /**
+     * Schedules the destruction of the buffers of the indirect draws
+     */
+    private void freeIndirect() {
+        if (commandBuffer != null) {
+            DeletionQueue.enqueue(commandBuffer::close);
+            DeletionQueue.enqueue(transformBuffer::close);
+            commandBuffer = null;
+            transformBuffer = null;
+            transformData = null;
+        }
+
+        if (transformTexture != null) {
+            transformTexture.close();
+            transformTexture = null;
+        }
+
+        indirectCapacity = 0;
+    }
+
+    /**
+     * @param size size of a region in bytes
+     * @return size rounded up to the alignment of texture buffer offsets
+     */
+    private static long alignRegion(long size) {
+        return (size + REGION_ALIGNMENT - 1) / REGION_ALIGNMENT * REGION_ALIGNMENT;
+    }
+
+    /**
+     * Orders the draws by the depth stored in the lowest bits of their keys. The vertex array is used as secondary key,
+     * so draws at the same depth don't switch back and forth. The index of the draw is packed into the lowest bits.
+     */
+    private void sortByDepth() {
+        if (depthOrder.length < size)
+            depthOrder = new long[keys.length];
+
+        for (int i = 0; i < size; ++i)
+            depthOrder[i] = depthOrderKey(keys[i], i);
+
+        Arrays.sort(depthOrder, 0, size);
+    }
+
+    /**
+     * Packs the depth (24 bits), the vertex array (12 bits) and the index of a draw (27 bits) into a key for the depth
+     * order. The sign bit stays clear, so the keys compare like unsigned integers.
+     *
+     * @param key sort key of the draw (see {@link RenderQueue RenderQueue})
+     * @param draw index of the draw
+     * @return key which orders the draws front to back
+     */
+    static long depthOrderKey(long key, int draw) {
+        return (key & 0xFFFFFF) << 39 | (key >>> 24 & 0xFFF) << 27 | draw;
+    }
+
+    /**
+     * Compares the transforms of two draws
+     *
+     * @param a first draw
+     * @param b second draw
+     * @return if both matrices are equal
+     */
+    private boolean sameTransform(int a, int b) {
+        if (a == b)
+            return true;
+
+        for (int i = 0, oa = a * TRANSFORM_SIZE, ob = b * TRANSFORM_SIZE; i < TRANSFORM_SIZE; ++i) {
+            if (transforms[oa + i] != transforms[ob + i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Grows the draw buffers
+     *
+     * @param capacity new number of draws
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        tmpKeys = new long[capacity];
+        values = new int[capacity];
+        tmpValues = new int[capacity];
+        vaos = new VAO[capacity];
+        materials = new Material[capacity];
+        modes = new int[capacity];
+        firsts = new int[capacity];
+        counts = new int[capacity];
+        instances = new int[capacity];
+        hasTransform = new boolean[capacity];
+        transforms = new float[capacity * TRANSFORM_SIZE];
+    }
+
+    static final int TRANSFORM_SIZE = 16 + 9;
+
+    private static final long DEPTH_DRAW_MASK = (1 << 27) - 1;
+
+    /**
+     * Name of the samplerBuffer which receives the transforms of indirect draws
+     */
+    private static final String TRANSFORMS_NAME = "uTransforms";
+
+    // Indirect draws; A command has 5 uints, a transform 7 vec4.
+    private static final int COMMAND_SIZE = 20;
+    private static final int INDIRECT_TRANSFORM_SIZE = 7 * 4;
+    private static final int MIN_INDIRECT_CAPACITY = 64;
+    private static final int NUM_REGIONS = 3;
+    private static final long REGION_ALIGNMENT = 256;
+
+    private String modelName;
+    private String normalName;
+
+    // Draws; They are filled by the render queue
+    int size = 0;
+    long[] keys = new long[0];
+    VAO[] vaos = new VAO[0];
+    Material[] materials = new Material[0];
+    int[] modes = new int[0];
+    int[] firsts = new int[0];
+    int[] counts = new int[0];
+    int[] instances = new int[0];
+    boolean[] hasTransform = new boolean[0];
+    float[] transforms = new float[0];
+
+    // Uniforms which are set before drawing; The values of uniform i are stored in the range given by uniformOffsets[i]
+    // and uniformOffsets[i + 1].
+    int numUniforms = 0;
+    Shader[] uniformShaders = new Shader[0];
+    String[] uniformNames = new String[0];
+    int[] uniformOffsets = new int[1];
+    float[] uniformValues = new float[0];
+
+    private long[] tmpKeys = new long[0];
+    private int[] values = new int[0];
+    private int[] tmpValues = new int[0];
+    private int[] histograms = new int[8 * 256];
+    private long[] depthOrder = new long[0];
+
+    private int numDrawCalls = 0;
+    private int numProgramChanges = 0;
+    private int numMaterialChanges = 0;
+
+    private PersistentBuffer commandBuffer = null;
+    private PersistentBuffer transformBuffer = null;
+    private FloatBuffer transformData = null;
+    private Texture transformTexture = null;
+    private int indirectCapacity = 0;
+    private long commandOffset = 0;
+    private boolean indirect = false;
+}
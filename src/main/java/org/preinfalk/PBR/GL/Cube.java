@@ -31,6 +31,8 @@ public class Cube extends Mesh {
         Vector3f p1 = new Vector3f(pos).sub(radius);
         Vector3f p2 = new Vector3f(pos).add(radius);
 
+        bounds = new Bounds(p1, p2, pos, radius.length());
+
         buffer = new Buffer(getVertexSize() * 36);
 
         try {
@@ -160,6 +162,11 @@ public class Cube extends Mesh {
         return 36;
     }
 
+    @Override
+    public Bounds getBounds() {
+        return bounds;
+    }
+
     /**
      * Close internal buffer
      */
@@ -169,6 +176,7 @@ public class Cube extends Mesh {
     }
 
     private Buffer buffer;
+    private Bounds bounds;
     private boolean hasNormals;
     private boolean hasTexCoords;
 }
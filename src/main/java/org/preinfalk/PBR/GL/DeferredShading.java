@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Vector2f;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Deferred alternative to shading the scene while it is drawn. The geometry pass writes the surface into a G-buffer,
+ * and the lighting pass shades every pixel of it exactly once, so the cost of the lights doesn't grow with the
+ * overdraw.
+ *
+ * The geometry is drawn between {@link #bind() bind} and {@link #draw() draw} with vertex arrays of a shader created
+ * with the GBUFFER definition (PBR.vert and PBR.frag), which writes the albedo as stored in the map, the octahedral
+ * normal, metallic and roughness. The lighting pass (Fullscreen.vert and PBR.frag with the DEFERRED definition)
+ * evaluates the same BRDF with the same lights and shadows as the forward shader, so it has to be added to {@link
+ * ClusteredLighting ClusteredLighting} and {@link ShadowMap ShadowMap} like a forward shader. It needs the inverse of
+ * the view projection matrix of the frame in uInvViewProjection, which should be recorded together with the draws.
+ *
+ * The G-buffer isn't multisampled. The lighting pass writes the depth of the G-buffer into the target, so later passes
+ * can test against it, and leaves the pixels without geometry untouched. Resources which read the depth while the
+ * geometry is replayed, like {@link OcclusionDepth OcclusionDepth}, have to read it from the G-buffer ({@link
+ * #getFramebuffer() getFramebuffer}), since the target only receives it in {@link #draw() draw}. The size of the G-buffer follows the render
+ * size of the target.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class DeferredShading implements Closeable {
+    /**
+     * Creates the G-buffer with the size of the target
+     *
+     * @param target framebuffer which receives the shaded scene
+     * @param lightingShader shader which shades the G-buffer (Fullscreen.vert and PBR.frag with the DEFERRED
+     *                       definition)
+     */
+    public DeferredShading(HdrFramebuffer target, Shader lightingShader) {
+        this.target = target;
+        this.lightingShader = lightingShader;
+
+        int width = target.getWidth(), height = target.getHeight();
+
+        albedo = new Texture();
+        normal = new Texture();
+        material = new Texture();
+        depth = new Texture();
+
+        try {
+            allocate(albedo, GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE, width, height);
+            allocate(normal, GL_RG16, GL_RG, GL_UNSIGNED_SHORT, width, height);
+            allocate(material, GL_RG8, GL_RG, GL_UNSIGNED_BYTE, width, height);
+            allocate(depth, GL_DEPTH_COMPONENT24, GL_DEPTH_COMPONENT, GL_FLOAT, width, height);
+
+            framebuffer = glGenFramebuffers();
+            glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, albedo.getId(), 0);
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT1, GL_TEXTURE_2D, normal.getId(), 0);
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT2, GL_TEXTURE_2D, material.getId(), 0);
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depth.getId(), 0);
+            glDrawBuffers(new int[] { GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1, GL_COLOR_ATTACHMENT2 });
+
+            int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+
+            if (status != GL_FRAMEBUFFER_COMPLETE)
+                throw new RuntimeException("G-buffer is incomplete: " + status);
+
+            lightingShader.setTexture("uGAlbedo", albedo);
+            lightingShader.setTexture("uGNormal", normal);
+            lightingShader.setTexture("uGMaterial", material);
+            lightingShader.setTexture("uGDepth", depth);
+
+            // The full screen triangle is generated from gl_VertexID, so the vertex array has no buffers
+            lightingVao = new VAO(lightingShader);
+        } catch (Throwable th) {
+            close();
+            throw th;
+        }
+    }
+
+    /**
+     * Binds the G-buffer for the geometry pass, sets the viewport to the render size of the target and clears it
+     */
+    public void bind() {
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glViewport(0, 0, target.getRenderWidth(), target.getRenderHeight());
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+    }
+
+    /**
+     * Shades the G-buffer into the target. The target keeps its content where no geometry was drawn.
+     */
+    public void draw() {
+        target.bind();
+
+        float scaleX = 1.0f / target.getRenderWidth(), scaleY = 1.0f / target.getRenderHeight();
+
+        if (scaleX != invViewport.x || scaleY != invViewport.y) {
+            invViewport.set(scaleX, scaleY);
+            lightingShader.setVec2("uInvViewport", invViewport);
+        }
+
+        // Every pixel passes and takes the depth of the G-buffer
+        glDepthFunc(GL_ALWAYS);
+        lightingVao.draw(GL_TRIANGLES, 0, 3);
+        glDepthFunc(GL_LESS);
+    }
+
+    /**
+     * @return name of the G-buffer framebuffer, whose depth is complete once the geometry pass was drawn
+     */
+    public int getFramebuffer() {
+        return framebuffer;
+    }
+
+    /**
+     * Frees the framebuffer, the textures and the vertex array
+     */
+    @Override
+    public void close() {
+        glDeleteFramebuffers(framebuffer);
+        albedo.close();
+        normal.close();
+        material.close();
+        depth.close();
+
+        if (lightingVao != null)
+            lightingVao.close();
+    }
+
+    /**
+     * Allocates the storage of a G-buffer texture, which is read with texelFetch
+     *
+     * @param texture texture to allocate
+     * @param internalFormat format of the texels
+     * @param format format of the (absent) pixel data
+     * @param type type of the (absent) pixel data
+     * @param width width in pixels
+     * @param height height in pixels
+     */
+    private static void allocate(Texture texture, int internalFormat, int format, int type, int width, int height) {
+        texture.bind(GL_TEXTURE_2D);
+        glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    }
+
+    private final HdrFramebuffer target;
+    private final Shader lightingShader;
+    private final Vector2f invViewport = new Vector2f();
+    private final Texture albedo;
+    private final Texture normal;
+    private final Texture material;
+    private final Texture depth;
+    private int framebuffer = 0;
+    private VAO lightingVao = null;
+}
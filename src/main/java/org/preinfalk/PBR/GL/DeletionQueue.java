@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Queue of OpenGL deletions, which allows resources to be released on any thread.
+ *
+ * OpenGL objects may only be deleted on the thread which owns the context. When the last reference of a resource is
+ * closed, its deletion is pushed onto this queue, and the thread which owns the context runs the pending deletions with
+ * {@link #drain() drain} at the end of every frame ({@link FramePipeline#render FramePipeline.render}) and before the
+ * window is destroyed.
+ *
+ * Any number of threads may push without locks: The queue is a linked stack whose head is replaced with a
+ * compare-and-set. The single consumer takes the whole stack at once and runs it in the order of the pushes.
+ */
+public final class DeletionQueue {
+    /**
+     * Schedules a deletion. Can be called on any thread.
+     *
+     * @param deletion function which deletes the OpenGL objects; It must not reference the released resource.
+     */
+    public static void enqueue(Runnable deletion) {
+        Node node = new Node(deletion);
+
+        do {
+            node.next = head.get();
+        } while (!head.compareAndSet(node.next, node));
+    }
+
+    /**
+     * Runs all pending deletions. Must be called on the thread which owns the OpenGL context.
+     *
+     * @return number of deletions which were run
+     */
+    public static int drain() {
+        Node node = head.getAndSet(null);
+        Node reversed = null;
+
+        // The stack contains the newest deletion first
+        while (node != null) {
+            Node next = node.next;
+            node.next = reversed;
+            reversed = node;
+            node = next;
+        }
+
+        int count = 0;
+
+        for (; reversed != null; reversed = reversed.next, ++count)
+            reversed.deletion.run();
+
+        return count;
+    }
+
+    /**
+     * @return if deletions are waiting for the next {@link #drain() drain}
+     */
+    public static boolean isPending() {
+        return head.get() != null;
+    }
+
+    private DeletionQueue() {
+    }
+
+    private static final class Node {
+        Node(Runnable deletion) {
+            this.deletion = deletion;
+        }
+
+        final Runnable deletion;
+        Node next;
+    }
+
+    private static final AtomicReference<Node> head = new AtomicReference<>();
+}
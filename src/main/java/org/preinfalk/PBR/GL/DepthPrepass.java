@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Depth-only pass which is drawn before the draws of a {@link CommandList CommandList}, so the expensive fragment
+ * shaders only run once per pixel.
+ *
+ * The pre-pass draws front to back into the depth buffer with color writes disabled. Afterwards the draws are replayed
+ * in their usual order with GL_EQUAL and depth writes disabled. Every vertex array can be paired with a vertex array
+ * for a cheap position-only shader with {@link #add(VAO, VAO) add}; Draws of other vertex arrays use their own shader
+ * in the pre-pass. Both vertex shaders have to calculate gl_Position with the same operations and declare it invariant.
+ * The pre-pass shader receives the model matrix through the same uniform as the main shader.
+ *
+ * The samples which pass the depth test in both passes are counted with occlusion queries. The results are read one
+ * frame later to avoid stalling.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class DepthPrepass implements Closeable {
+    /**
+     * Creates the occlusion queries
+     */
+    public DepthPrepass() {
+        for (int[] frame : queries)
+            glGenQueries(frame);
+    }
+
+    /**
+     * Uses a vertex array in the pre-pass instead of another one
+     *
+     * @param vao vertex array of the main pass
+     * @param depthVao vertex array with a position-only shader which binds the same vertices and indices
+     */
+    public void add(VAO vao, VAO depthVao) {
+        depthVao.addRef();
+
+        VAO previous = depthVaos.put(vao, depthVao);
+
+        if (previous != null)
+            previous.close();
+    }
+
+    /**
+     * @return number of samples which passed the depth test in the pre-pass
+     */
+    public long getDepthSamples() {
+        return depthSamples;
+    }
+
+    /**
+     * @return number of samples which were shaded in the main pass
+     */
+    public long getShadedSamples() {
+        return shadedSamples;
+    }
+
+    /**
+     * Returns the number of samples which were written by the pre-pass and later covered by closer geometry. Without
+     * the pre-pass at least these samples would have been shaded more than once, even when drawing front to back.
+     *
+     * @return number of samples which weren't shaded thanks to the pre-pass
+     */
+    public long getOverdrawSaved() {
+        return Math.max(depthSamples - shadedSamples, 0);
+    }
+
+    /**
+     * Frees the queries and the vertex arrays
+     */
+    @Override
+    public void close() {
+        for (int[] frame : queries)
+            glDeleteQueries(frame);
+
+        for (VAO depthVao : depthVaos.values())
+            depthVao.close();
+
+        depthVaos.clear();
+    }
+
+    /**
+     * @param vao vertex array of the main pass
+     * @return vertex array to use in the pre-pass or null if the vertex array itself should be used
+     */
+    VAO getDepthVao(VAO vao) {
+        return depthVaos.get(vao);
+    }
+
+    /**
+     * Sets the state of the pre-pass and starts counting its samples
+     */
+    void beginDepthPass() {
+        int[] frame = queries[current];
+
+        if (pending[current] && glGetQueryObjecti(frame[1], GL_QUERY_RESULT_AVAILABLE) != GL_FALSE) {
+            depthSamples = glGetQueryObjectui64(frame[0], GL_QUERY_RESULT);
+            shadedSamples = glGetQueryObjectui64(frame[1], GL_QUERY_RESULT);
+        }
+
+        glDepthFunc(GL_LESS);
+        glDepthMask(true);
+        glColorMask(false, false, false, false);
+        glBeginQuery(GL_SAMPLES_PASSED, frame[0]);
+    }
+
+    /**
+     * Sets the state of the main pass and starts counting its samples
+     */
+    void beginMainPass() {
+        glEndQuery(GL_SAMPLES_PASSED);
+
+        glColorMask(true, true, true, true);
+        glDepthMask(false);
+        glDepthFunc(GL_EQUAL);
+        glBeginQuery(GL_SAMPLES_PASSED, queries[current][1]);
+    }
+
+    /**
+     * Restores the default depth state
+     */
+    void end() {
+        glEndQuery(GL_SAMPLES_PASSED);
+
+        glDepthMask(true);
+        glDepthFunc(GL_LESS);
+
+        pending[current] = true;
+        current = (current + 1) % queries.length;
+    }
+
+    private final Map<VAO, VAO> depthVaos = new IdentityHashMap<>();
+
+    // Queries of the pre-pass and the main pass of the last two frames
+    private final int[][] queries = new int[2][2];
+    private final boolean[] pending = new boolean[2];
+    private int current = 0;
+    private long depthSamples = 0;
+    private long shadedSamples = 0;
+}
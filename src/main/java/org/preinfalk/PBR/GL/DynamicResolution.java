@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+
+/**
+ * Adapts the render size of a {@link HdrFramebuffer HdrFramebuffer} to keep the GPU time of the scene within a budget.
+ *
+ * The scene is enclosed in {@link #begin() begin} and {@link #end() end}, which measure it with a {@link GpuTimer
+ * GpuTimer}. Every few frames the average time is compared to the budget. The cost of the shading grows with the
+ * number of pixels, i.e. the square of the scale, so the scale is multiplied with the square root of the ratio. The
+ * time aims slightly below the budget and small changes are ignored, so the resolution doesn't oscillate. The scale is
+ * rounded to steps of 1/32, and it drops quickly but rises only a bit per step.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class DynamicResolution implements Closeable {
+    /**
+     * Creates a controller which starts at the full size
+     *
+     * @param target framebuffer whose render size is adapted
+     * @param budget GPU time of the scene in milliseconds which should not be exceeded
+     */
+    public DynamicResolution(HdrFramebuffer target, float budget) {
+        this.target = target;
+        this.budget = budget * 1e6f;
+    }
+
+    /**
+     * Sets the range of the scale
+     *
+     * @param minScale smallest fraction of the width and height of the framebuffer which is drawn
+     * @param maxScale largest fraction; at most 1
+     * @return itself
+     */
+    public DynamicResolution setScaleRange(float minScale, float maxScale) {
+        this.maxScale = Math.min(maxScale, 1);
+        this.minScale = Math.min(minScale, this.maxScale);
+        return this;
+    }
+
+    /**
+     * Starts measuring the scene
+     */
+    public void begin() {
+        timer.begin();
+    }
+
+    /**
+     * Stops measuring the scene
+     */
+    public void end() {
+        timer.end();
+    }
+
+    /**
+     * Adapts the render size to the measurements. Should be called once per frame before the scene is drawn.
+     *
+     * @return true if the render size changed, e.g. the viewport of {@link ClusteredLighting ClusteredLighting} has to
+     *         be updated
+     */
+    public boolean update() {
+        if (timer.getCount() != lastCount) {
+            lastCount = timer.getCount();
+            total += timer.getTime();
+            ++samples;
+        }
+
+        if (samples < INTERVAL)
+            return false;
+
+        float time = (float) total / samples;
+        total = 0;
+        samples = 0;
+
+        float ratio = budget * HEADROOM / Math.max(time, 1);
+
+        if (Math.abs(ratio - 1) < TOLERANCE)
+            return false;
+
+        float wanted = scale * (float) Math.sqrt(Math.min(ratio, MAX_GROWTH));
+        wanted = Math.max(minScale, Math.min(Math.round(wanted * STEPS) / (float) STEPS, maxScale));
+
+        if (wanted == scale)
+            return false;
+
+        scale = wanted;
+        target.setRenderSize(Math.round(target.getWidth() * scale), Math.round(target.getHeight() * scale));
+        return true;
+    }
+
+    /**
+     * @return current fraction of the width and height which is drawn
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return GPU time of the scene in the last measured frame in milliseconds
+     */
+    public float getTime() {
+        return timer.getTime() * 1e-6f;
+    }
+
+    /**
+     * Frees the timer
+     */
+    @Override
+    public void close() {
+        timer.close();
+    }
+
+    /**
+     * Number of measurements which are averaged before the scale changes
+     */
+    private static final int INTERVAL = 8;
+
+    /**
+     * Fraction of the budget which is aimed for
+     */
+    private static final float HEADROOM = 0.9f;
+
+    /**
+     * Relative deviation from the aimed time which is ignored
+     */
+    private static final float TOLERANCE = 0.1f;
+
+    /**
+     * Largest factor by which the number of pixels grows in one step
+     */
+    private static final float MAX_GROWTH = 1.25f;
+
+    private static final int STEPS = 32;
+
+    private final HdrFramebuffer target;
+    private final float budget;
+    private final GpuTimer timer = new GpuTimer();
+    private float minScale = 0.5f;
+    private float maxScale = 1;
+    private float scale = 1;
+    private long lastCount = 0;
+    private long total = 0;
+    private int samples = 0;
+}
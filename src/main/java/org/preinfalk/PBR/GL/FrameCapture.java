@@ -0,0 +1,812 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.lwjgl.system.MemoryStack;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Records the calls of a range of frames on the OpenGL wrappers into a compressed binary file, which {@link FrameReplay
+ * FrameReplay} executes again without the application.
+ *
+ * {@link #start(Path, int) start} requests a capture, which begins with the next {@link #beginFrame() beginFrame}
+ * and ends after the requested number of {@link #endFrame() endFrame} calls. Meanwhile the wrappers report uniform
+ * and texture assignments, program changes, draws, buffer uploads and texture loads. A resource is written the first
+ * time it is referenced: shaders with their code, the current values of their uniforms and their textures, vertex
+ * arrays with their attributes, buffers with their content and textures with their format and sampling parameters.
+ * The content of RGBA8 textures is read back, other 2D textures (e.g. render targets) are only allocated, and textures
+ * of other targets (e.g. cube maps) are replaced by empty textures.
+ *
+ * Framebuffers and fixed function state aren't recorded. The multi-draw indirect calls of command lists are recorded
+ * with their commands, and the transforms which their shaders (INDIRECT_TRANSFORMS) read from a buffer texture are
+ * recorded every time a command list uploads them, so captures of the OpenGL 4.5 path are replayed with the same calls.
+ * Replaying them needs OpenGL 4.5 as well.
+ *
+ * Everything runs on the thread which owns the OpenGL context.
+ */
+public final class FrameCapture {
+    /**
+     * Requests a capture of the next frames. The file is written when the last frame ended.
+     *
+     * @param file file to write
+     * @param frames number of frames to record
+     */
+    public static void start(Path file, int frames) {
+        if (out != null || pendingFile != null)
+            throw new IllegalStateException("A capture is already running");
+
+        pendingFile = file;
+        remainingFrames = Math.max(frames, 1);
+    }
+
+    /**
+     * Marks the start of a frame and opens the file if a capture was requested
+     */
+    public static void beginFrame() {
+        if (pendingFile != null) {
+            open(pendingFile);
+            pendingFile = null;
+        }
+
+        if (out != null)
+            write(FRAME_BEGIN);
+    }
+
+    /**
+     * Marks the end of a frame and closes the file after the last requested frame
+     */
+    public static void endFrame() {
+        if (out == null)
+            return;
+
+        write(FRAME_END);
+
+        if (--remainingFrames == 0)
+            finish();
+    }
+
+    /**
+     * @return if calls are recorded right now
+     */
+    public static boolean isActive() {
+        return out != null;
+    }
+
+    /**
+     * Records a float, vector or matrix uniform
+     *
+     * @param shader shader which receives the uniform
+     * @param name name of the uniform
+     * @param type GL_FLOAT, GL_FLOAT_VEC2, GL_FLOAT_VEC3, GL_FLOAT_VEC4, GL_FLOAT_MAT3 or GL_FLOAT_MAT4
+     * @param values values (all remaining floats)
+     * @param transpose if the matrices are transposed
+     */
+    static void uniform(Shader shader, String name, int type, FloatBuffer values, boolean transpose) {
+        int id = define(shader);
+
+        try {
+            out.writeByte(UNIFORM);
+            out.writeInt(id);
+            writeString(name);
+            out.writeInt(type);
+            out.writeBoolean(transpose);
+            out.writeInt(values.remaining());
+
+            for (int i = values.position(); i < values.limit(); ++i)
+                out.writeFloat(values.get(i));
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records a float, vector or matrix uniform from an array
+     *
+     * @param shader shader which receives the uniform
+     * @param name name of the uniform
+     * @param type GL_FLOAT, GL_FLOAT_VEC2, GL_FLOAT_VEC3, GL_FLOAT_VEC4, GL_FLOAT_MAT3 or GL_FLOAT_MAT4
+     * @param values array containing the values
+     * @param offset index of the first value
+     * @param count number of values
+     */
+    static void uniform(Shader shader, String name, int type, float[] values, int offset, int count) {
+        int id = define(shader);
+
+        try {
+            out.writeByte(UNIFORM);
+            out.writeInt(id);
+            writeString(name);
+            out.writeInt(type);
+            out.writeBoolean(false);
+            out.writeInt(count);
+
+            for (int i = 0; i < count; ++i)
+                out.writeFloat(values[offset + i]);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records a single value uniform whose type is given by the number of values
+     *
+     * @param shader shader which receives the uniform
+     * @param name name of the uniform
+     * @param values array containing the values
+     * @param offset index of the first value
+     * @param count 1, 2, 3 or 4 for float and vectors, 9 for mat3 and 16 for mat4
+     */
+    static void uniform(Shader shader, String name, float[] values, int offset, int count) {
+        int type;
+
+        switch (count) {
+        case 1: type = GL_FLOAT; break;
+        case 2: type = GL_FLOAT_VEC2; break;
+        case 3: type = GL_FLOAT_VEC3; break;
+        case 4: type = GL_FLOAT_VEC4; break;
+        case 9: type = GL_FLOAT_MAT3; break;
+        default: type = GL_FLOAT_MAT4; break;
+        }
+
+        uniform(shader, name, type, values, offset, count);
+    }
+
+    /**
+     * Records an int uniform
+     *
+     * @param shader shader which receives the uniform
+     * @param name name of the uniform
+     * @param values values
+     */
+    static void uniform(Shader shader, String name, int[] values) {
+        int id = define(shader);
+
+        try {
+            out.writeByte(UNIFORM_INT);
+            out.writeInt(id);
+            writeString(name);
+            out.writeInt(values.length);
+
+            for (int value : values)
+                out.writeInt(value);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records the assignment of a texture to a sampler
+     *
+     * @param shader shader which receives the texture
+     * @param name name of the sampler
+     * @param texture assigned texture
+     * @param target target the texture is bound to
+     */
+    static void setTexture(Shader shader, String name, Texture texture, int target) {
+        writeTexture(SET_TEXTURE, shader, name, texture, target);
+    }
+
+    /**
+     * Records the assignment of a texture to a sampler, which is bound immediately
+     *
+     * @param shader shader which receives the texture
+     * @param name name of the sampler
+     * @param texture assigned texture
+     * @param target target the texture is bound to
+     */
+    static void bindTexture(Shader shader, String name, Texture texture, int target) {
+        writeTexture(BIND_TEXTURE, shader, name, texture, target);
+    }
+
+    /**
+     * Records that a shader and its textures are bound
+     *
+     * @param shader shader which is used
+     */
+    static void use(Shader shader) {
+        int id = define(shader);
+
+        try {
+            out.writeByte(USE);
+            out.writeInt(id);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records a draw call
+     *
+     * @param vao vertex array which is drawn
+     * @param mode GL_TRIANGLES, GL_LINES, etc.
+     * @param first first vertex or index
+     * @param count number of vertices or indices
+     * @param instances number of instances; 0 for draws which aren't instanced
+     */
+    static void draw(VAO vao, int mode, int first, int count, int instances) {
+        int id = define(vao);
+
+        try {
+            out.writeByte(DRAW);
+            out.writeInt(id);
+            out.writeInt(mode);
+            out.writeInt(first);
+            out.writeInt(count);
+            out.writeInt(instances);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records a multi-draw indirect call of indexed geometry
+     *
+     * @param vao vertex array which is drawn
+     * @param mode GL_TRIANGLES, GL_LINES, etc.
+     * @param count number of commands
+     * @param commands tightly packed commands (all remaining bytes)
+     */
+    static void drawIndirect(VAO vao, int mode, int count, ByteBuffer commands) {
+        int id = define(vao);
+
+        try {
+            out.writeByte(DRAW_INDIRECT);
+            out.writeInt(id);
+            out.writeInt(mode);
+            out.writeInt(count);
+            writeBytes(commands);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records the transforms of a command list, which shaders read from a buffer texture
+     *
+     * @param texture buffer texture which receives the transforms
+     * @param internalFormat format of the texels
+     * @param capacity size of the buffer behind the texture in bytes
+     * @param data transforms starting at the first texel (all remaining bytes)
+     */
+    static void transforms(Texture texture, int internalFormat, int capacity, ByteBuffer data) {
+        Integer id = ids.get(texture);
+
+        // The upload defines the texture, so it isn't read back
+        if (id == null) {
+            id = ids.size();
+            ids.put(texture, id);
+        }
+
+        try {
+            out.writeByte(TRANSFORMS);
+            out.writeInt(id);
+            out.writeInt(internalFormat);
+            out.writeInt(capacity);
+            writeBytes(data);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records the upload of the content of a buffer
+     *
+     * @param buffer buffer which is uploaded
+     * @param data uploaded bytes (all remaining bytes)
+     */
+    static void upload(Buffer buffer, ByteBuffer data) {
+        int id = define(buffer);
+
+        try {
+            out.writeByte(UPLOAD);
+            out.writeInt(id);
+            writeBytes(data);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records that raw image data is loaded into a texture
+     *
+     * @param texture texture which receives the image
+     * @param data RGBA image (unsigned bytes)
+     * @param width width of the image
+     * @param height height of the image
+     */
+    static void loadTexture(Texture texture, ByteBuffer data, int width, int height) {
+        Integer id = ids.get(texture);
+
+        // The load defines the texture, so it isn't read back
+        if (id == null) {
+            id = ids.size();
+            ids.put(texture, id);
+        }
+
+        try {
+            out.writeByte(LOAD_TEXTURE);
+            out.writeInt(id);
+            out.writeInt(width);
+            out.writeInt(height);
+            writeBytes(data);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Writes a texture assignment
+     *
+     * @param op SET_TEXTURE or BIND_TEXTURE
+     * @param shader shader which receives the texture
+     * @param name name of the sampler
+     * @param texture assigned texture
+     * @param target target the texture is bound to
+     */
+    private static void writeTexture(int op, Shader shader, String name, Texture texture, int target) {
+        int shaderId = define(shader);
+        int textureId = define(texture, target);
+
+        try {
+            out.writeByte(op);
+            out.writeInt(shaderId);
+            writeString(name);
+            out.writeInt(textureId);
+            out.writeInt(target);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Writes a shader the first time it is referenced, together with the current values of its uniforms and its
+     * textures
+     *
+     * @param shader shader to write
+     * @return id of the shader in the capture
+     */
+    private static int define(Shader shader) {
+        Integer id = ids.get(shader);
+
+        if (id != null)
+            return id;
+
+        // The textures are written first, so the shader can refer to them
+        int numTextures = shader.getTextureNames().size();
+        String[] names = new String[numTextures];
+        int[] textures = new int[numTextures];
+        int[] targets = new int[numTextures];
+        int n = 0;
+
+        for (String name : shader.getTextureNames()) {
+            names[n] = name;
+            targets[n] = shader.getTextureTarget(name);
+            textures[n] = define(shader.getTexture(name), targets[n]);
+            ++n;
+        }
+
+        id = ids.size();
+        ids.put(shader, id);
+
+        try {
+            out.writeByte(DEFINE_SHADER);
+            out.writeInt(id);
+            writeString(shader.getVertexSource());
+            writeString(shader.getFragmentSource());
+            writeUniforms(shader.getProgram());
+
+            out.writeInt(numTextures);
+
+            for (int i = 0; i < numTextures; ++i) {
+                writeString(names[i]);
+                out.writeInt(textures[i]);
+                out.writeInt(targets[i]);
+            }
+        } catch (IOException ex) {
+            fail(ex);
+        }
+
+        return id;
+    }
+
+    /**
+     * Writes the current values of the float, vector, matrix and int uniforms of a program as a list of UNIFORM
+     * (name, type, count, values) and UNIFORM_INT (name, value) entries ending with END_UNIFORMS. Samplers are
+     * skipped, since the textures are assigned by name.
+     *
+     * @param program OpenGL name of the program
+     * @throws IOException thrown if the file can't be written
+     */
+    private static void writeUniforms(int program) throws IOException {
+        int numUniforms = glGetProgrami(program, GL_ACTIVE_UNIFORMS);
+
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer size = stack.mallocInt(1);
+            IntBuffer type = stack.mallocInt(1);
+            FloatBuffer floats = stack.mallocFloat(16);
+            IntBuffer ints = stack.mallocInt(1);
+
+            for (int i = 0; i < numUniforms; ++i) {
+                String name = glGetActiveUniform(program, i, size, type);
+                int count = getNumValues(type.get(0));
+
+                if (count == 0)
+                    continue;
+
+                // Array elements are read one by one
+                boolean array = name.endsWith("[0]");
+                String base = array ? name.substring(0, name.length() - 3) : name;
+
+                for (int e = 0; e < size.get(0); ++e) {
+                    String element = array ? base + "[" + e + "]" : name;
+                    int loc = glGetUniformLocation(program, element);
+
+                    // Uniforms in blocks have no location
+                    if (loc < 0)
+                        continue;
+
+                    if (type.get(0) == GL_INT) {
+                        glGetUniformiv(program, loc, ints);
+                        out.writeByte(UNIFORM_INT);
+                        writeString(element);
+                        out.writeInt(ints.get(0));
+                    } else {
+                        glGetUniformfv(program, loc, floats);
+                        out.writeByte(UNIFORM);
+                        writeString(element);
+                        out.writeInt(type.get(0));
+                        out.writeInt(count);
+
+                        for (int j = 0; j < count; ++j)
+                            out.writeFloat(floats.get(j));
+                    }
+                }
+            }
+        }
+
+        out.writeByte(END_UNIFORMS);
+    }
+
+    /**
+     * Writes a vertex array the first time it is referenced, after its shader and its buffers
+     *
+     * @param vao vertex array to write
+     * @return id of the vertex array in the capture
+     */
+    private static int define(VAO vao) {
+        Integer id = ids.get(vao);
+
+        if (id != null)
+            return id;
+
+        int shaderId = define(vao.getShader());
+        int[] bufferIds = new int[vao.bindings.size()];
+
+        for (int i = 0; i < bufferIds.length; ++i)
+            bufferIds[i] = define(vao.bindings.get(i).buffer);
+
+        int indexId = vao.indexBuffer != null ? define(vao.indexBuffer) : -1;
+
+        id = ids.size();
+        ids.put(vao, id);
+
+        try {
+            out.writeByte(DEFINE_VAO);
+            out.writeInt(id);
+            out.writeInt(shaderId);
+            out.writeInt(bufferIds.length);
+
+            for (int i = 0; i < bufferIds.length; ++i) {
+                VAO.Binding binding = vao.bindings.get(i);
+                out.writeInt(bufferIds[i]);
+                writeString(binding.name);
+                out.writeInt(binding.size);
+                out.writeInt(binding.type);
+                out.writeBoolean(binding.normalized);
+                out.writeInt(binding.stride);
+                out.writeLong(binding.pointer);
+                out.writeBoolean(binding.instanced);
+            }
+
+            out.writeInt(indexId);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+
+        return id;
+    }
+
+    /**
+     * Writes a buffer with its current content the first time it is referenced
+     *
+     * @param buffer buffer to write
+     * @return id of the buffer in the capture
+     */
+    private static int define(Buffer buffer) {
+        Integer id = ids.get(buffer);
+
+        if (id != null)
+            return id;
+
+        id = ids.size();
+        ids.put(buffer, id);
+
+        try {
+            out.writeByte(DEFINE_BUFFER);
+            out.writeInt(id);
+            out.writeInt(buffer.getSize());
+            writeBytes(buffer.getUploadRange());
+        } catch (IOException ex) {
+            fail(ex);
+        }
+
+        return id;
+    }
+
+    /**
+     * Writes a texture the first time it is referenced. 2D textures and 2D texture arrays are written with their
+     * format, size and sampling parameters and the content of RGBA8 textures, buffer textures with their buffer.
+     *
+     * @param texture texture to write
+     * @param target target the texture is bound to
+     * @return id of the texture in the capture
+     */
+    private static int define(Texture texture, int target) {
+        Integer id = ids.get(texture);
+
+        if (id != null)
+            return id;
+
+        if (texture instanceof TextureBuffer) {
+            TextureBuffer textureBuffer = (TextureBuffer) texture;
+            int bufferId = define(textureBuffer.getBuffer());
+
+            id = ids.size();
+            ids.put(texture, id);
+
+            try {
+                out.writeByte(DEFINE_TEXTURE_BUFFER);
+                out.writeInt(id);
+                out.writeInt(bufferId);
+                out.writeInt(textureBuffer.getInternalFormat());
+            } catch (IOException ex) {
+                fail(ex);
+            }
+
+            return id;
+        }
+
+        id = ids.size();
+        ids.put(texture, id);
+
+        boolean supported = target == GL_TEXTURE_2D || target == GL_TEXTURE_2D_ARRAY;
+        int binding = target == GL_TEXTURE_2D ? GL_TEXTURE_BINDING_2D : GL_TEXTURE_BINDING_2D_ARRAY;
+        int previous = supported ? glGetInteger(binding) : 0;
+
+        try {
+            out.writeByte(DEFINE_TEXTURE);
+            out.writeInt(id);
+            out.writeInt(target);
+
+            if (!supported) {
+                out.writeInt(0);
+                return id;
+            }
+
+            glBindTexture(target, texture.getId());
+
+            int format = glGetTexLevelParameteri(target, 0, GL_TEXTURE_INTERNAL_FORMAT);
+            int width = glGetTexLevelParameteri(target, 0, GL_TEXTURE_WIDTH);
+            int height = glGetTexLevelParameteri(target, 0, GL_TEXTURE_HEIGHT);
+            int depth = glGetTexLevelParameteri(target, 0, GL_TEXTURE_DEPTH);
+
+            out.writeInt(format);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(depth);
+
+            for (int parameter : TEXTURE_PARAMETERS)
+                out.writeInt(glGetTexParameteri(target, parameter));
+
+            boolean content = width > 0 && (format == GL_RGBA8 || format == GL_SRGB8_ALPHA8 || format == GL_RGBA);
+            out.writeBoolean(content);
+
+            if (content) {
+                ByteBuffer pixels = memAlloc(width * height * depth * 4);
+
+                try {
+                    glGetTexImage(target, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+                    writeBytes(pixels);
+                } finally {
+                    memFree(pixels);
+                }
+            }
+        } catch (IOException ex) {
+            fail(ex);
+        } finally {
+            if (supported)
+                glBindTexture(target, previous);
+        }
+
+        return id;
+    }
+
+    /**
+     * @param type type of a uniform
+     * @return number of values of the type or 0 if it isn't captured
+     */
+    private static int getNumValues(int type) {
+        switch (type) {
+        case GL_FLOAT: return 1;
+        case GL_FLOAT_VEC2: return 2;
+        case GL_FLOAT_VEC3: return 3;
+        case GL_FLOAT_VEC4: return 4;
+        case GL_FLOAT_MAT3: return 9;
+        case GL_FLOAT_MAT4: return 16;
+        case GL_INT: return 1;
+        default: return 0;
+        }
+    }
+
+    /**
+     * Writes a string as length and UTF-8 bytes
+     *
+     * @param value string to write
+     * @throws IOException thrown if the file can't be written
+     */
+    private static void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer with their number. The position of the buffer isn't changed.
+     *
+     * @param data bytes to write
+     * @throws IOException thrown if the file can't be written
+     */
+    private static void writeBytes(ByteBuffer data) throws IOException {
+        byte[] chunk = new byte[65536];
+        ByteBuffer src = data.duplicate();
+
+        out.writeInt(src.remaining());
+
+        while (src.hasRemaining()) {
+            int n = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Writes a single byte
+     *
+     * @param op operation to write
+     */
+    private static void write(int op) {
+        try {
+            out.writeByte(op);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Opens the file and writes the header
+     *
+     * @param file file to write
+     */
+    private static void open(Path file) {
+        try (MemoryStack stack = stackPush()) {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))));
+
+            IntBuffer viewport = stack.mallocInt(4);
+            glGetIntegerv(GL_VIEWPORT, viewport);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(viewport.get(2));
+            out.writeInt(viewport.get(3));
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Closes the file and forgets the resources
+     */
+    private static void finish() {
+        DataOutputStream stream = out;
+        out = null;
+        ids.clear();
+
+        try {
+            stream.close();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Aborts the capture after a write failed
+     *
+     * @param ex cause of the failure
+     */
+    private static void fail(IOException ex) {
+        DataOutputStream stream = out;
+        out = null;
+        ids.clear();
+
+        try {
+            if (stream != null)
+                stream.close();
+        } catch (IOException suppressed) {
+            ex.addSuppressed(suppressed);
+        }
+
+        throw new RuntimeException("Failed to write the capture", ex);
+    }
+
+    private FrameCapture() {
+    }
+
+    static final int MAGIC = 0x50425243;
+    static final int VERSION = 1;
+
+    // Operations; Definitions are executed once when the capture is loaded, the others in every replayed frame.
+    static final int FRAME_BEGIN = 1;
+    static final int FRAME_END = 2;
+    static final int DEFINE_SHADER = 3;
+    static final int DEFINE_VAO = 4;
+    static final int DEFINE_BUFFER = 5;
+    static final int DEFINE_TEXTURE = 6;
+    static final int DEFINE_TEXTURE_BUFFER = 7;
+    static final int UNIFORM = 8;
+    static final int UNIFORM_INT = 9;
+    static final int SET_TEXTURE = 10;
+    static final int BIND_TEXTURE = 11;
+    static final int USE = 12;
+    static final int DRAW = 13;
+    static final int UPLOAD = 14;
+    static final int LOAD_TEXTURE = 15;
+    static final int END_UNIFORMS = 16;
+    static final int DRAW_INDIRECT = 17;
+    static final int TRANSFORMS = 18;
+
+    /**
+     * Sampling parameters which are written with a texture
+     */
+    static final int[] TEXTURE_PARAMETERS = {
+        GL_TEXTURE_MIN_FILTER, GL_TEXTURE_MAG_FILTER, GL_TEXTURE_WRAP_S, GL_TEXTURE_WRAP_T, GL_TEXTURE_COMPARE_MODE,
+        GL_TEXTURE_COMPARE_FUNC
+    };
+
+    // Captured resources and their ids
+    private static final Map<Object, Integer> ids = new IdentityHashMap<>();
+
+    private static DataOutputStream out = null;
+    private static Path pendingFile = null;
+    private static int remainingFrames = 0;
+}
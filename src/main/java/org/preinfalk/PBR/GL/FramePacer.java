@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Bounds the number of frames which are queued on the GPU and measures the latency from input to finished frame.
+ *
+ * A fence is inserted after each frame. Before the next frame reads the input, {@link #waitForFrame() waitForFrame}
+ * waits until fewer frames than the limit are in flight, so the input is sampled as late as possible and isn't delayed
+ * by frames queued in the driver. The latency of a frame is measured from its oldest input event to the moment its
+ * fence was found signaled; it excludes the scan out of the display.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class FramePacer implements Closeable {
+    /**
+     * Creates a pacer
+     *
+     * @param maxQueuedFrames maximum number of frames which are in flight on the GPU
+     */
+    public FramePacer(int maxQueuedFrames) {
+        setMaxQueuedFrames(maxQueuedFrames);
+    }
+
+    /**
+     * @param maxQueuedFrames maximum number of frames which are in flight on the GPU; at least 1
+     */
+    public void setMaxQueuedFrames(int maxQueuedFrames) {
+        this.maxQueuedFrames = Math.max(maxQueuedFrames, 1);
+    }
+
+    /**
+     * Collects finished frames and waits until another frame may be queued. Must be called on the thread which owns the
+     * OpenGL context before the input of the next frame is read.
+     */
+    public void waitForFrame() {
+        while (!fences.isEmpty()) {
+            boolean full = fences.size() >= maxQueuedFrames;
+            long timeout = full ? WAIT_TIMEOUT : 0;
+            int status = glClientWaitSync(fences.peekFirst(), GL_SYNC_FLUSH_COMMANDS_BIT, timeout);
+
+            if (status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED)
+                finish();
+            else if (status == GL_WAIT_FAILED)
+                throw new RuntimeException("Failed to wait for a frame");
+            else if (!full)
+                break;
+        }
+    }
+
+    /**
+     * Inserts the fence of a frame. Must be called after the frame was submitted, e.g. after swapping the buffers.
+     *
+     * @param inputTime time ({@link System#nanoTime() nanoTime}) of the oldest input which changed the frame or 0 if
+     *                  no input changed it
+     */
+    public void frameSubmitted(long inputTime) {
+        fences.addLast(glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0));
+        inputTimes.addLast(inputTime);
+    }
+
+    /**
+     * @return latency of the last frame which was changed by input in nanoseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return highest latency measured in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * @return average latency of all frames which were changed by input in nanoseconds
+     */
+    public long getAverageLatency() {
+        return measured > 0 ? totalLatency / measured : 0;
+    }
+
+    /**
+     * Deletes the fences of the frames which are still in flight
+     */
+    @Override
+    public void close() {
+        for (long fence : fences)
+            glDeleteSync(fence);
+
+        fences.clear();
+        inputTimes.clear();
+    }
+
+    /**
+     * Removes the oldest frame after its fence was signaled and records its latency
+     */
+    private void finish() {
+        glDeleteSync(fences.removeFirst());
+        long inputTime = inputTimes.removeFirst();
+
+        if (inputTime == 0)
+            return;
+
+        latency = System.nanoTime() - inputTime;
+        maxLatency = Math.max(maxLatency, latency);
+        totalLatency += latency;
+        ++measured;
+    }
+
+    /**
+     * Time after which waiting for a fence is retried in nanoseconds
+     */
+    private static final long WAIT_TIMEOUT = 100000000;
+
+    private final ArrayDeque<Long> fences = new ArrayDeque<>();
+    private final ArrayDeque<Long> inputTimes = new ArrayDeque<>();
+    private int maxQueuedFrames;
+    private long latency = 0;
+    private long maxLatency = 0;
+    private long totalLatency = 0;
+    private long measured = 0;
+}
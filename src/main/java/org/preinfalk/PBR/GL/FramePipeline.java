@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipeline which prepares the next frame on worker threads while the current one is submitted to OpenGL.
+ *
+ * A frame is prepared by a {@link Stage Stage}, which records draws and uniforms into a {@link RenderQueue
+ * RenderQueue}. The recorded data is built into one of two {@link CommandList CommandLists}, so the thread which owns
+ * the OpenGL context only replays finished lists. Frames are displayed one {@link #render(Stage) render} call after
+ * they were prepared, so a {@link Latch Latch} can update a prepared list with the latest input right before it is
+ * replayed. Resources released on any thread are deleted at the end of each frame (see {@link DeletionQueue
+ * DeletionQueue}).
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class FramePipeline implements Closeable {
+    /**
+     * Prepares a frame on a worker thread
+     */
+    public interface Stage {
+        /**
+         * Records the draws and uniforms of a frame. It must not call OpenGL. Parallel streams started from here run on
+         * the worker threads of the pipeline.
+         *
+         * @param queue queue to record into; Every thread should use its own {@link RenderQueue#getRecorder()
+         *              recorder}.
+         */
+        void prepare(RenderQueue queue);
+    }
+
+    /**
+     * Updates a prepared frame right before it is replayed (late latching), e.g. with input which arrived after the
+     * frame was prepared
+     */
+    public interface Latch {
+        /**
+         * Called on the thread which owns the OpenGL context right before the draws of a prepared frame are issued.
+         * The stage of the next frame runs at this time, so it must not modify data which the stage reads.
+         *
+         * @param list command list which is replayed next; Its draws can be moved with
+         *             {@link CommandList#premultiplyTransforms(org.joml.Matrix4fc) premultiplyTransforms}.
+         */
+        void latch(CommandList list);
+    }
+
+    /**
+     * Resource which receives data written by a stage, e.g. buffers which are filled on a worker thread
+     */
+    public interface Resource {
+        /**
+         * Called on the thread which owns the OpenGL context after a frame was prepared and before it is replayed.
+         * No stage is running at this time, so the data written by the last stage can be copied into OpenGL resources.
+         */
+        void synchronize();
+    }
+
+    /**
+     * Creates a pipeline with one worker thread per processor
+     *
+     * @param queue queue which the stages record into
+     */
+    public FramePipeline(RenderQueue queue) {
+        this(queue, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a pipeline
+     *
+     * @param queue queue which the stages record into
+     * @param numThreads number of worker threads
+     */
+    public FramePipeline(RenderQueue queue, int numThreads) {
+        this.queue = queue;
+        workers = new ForkJoinPool(numThreads);
+    }
+
+    /**
+     * Starts preparing the next frame, replays the previously prepared frame and waits until the preparation is done.
+     * Must be called on the thread which owns the OpenGL context. Data read by the stage must not be modified until
+     * this returns.
+     *
+     * @param stage stage which prepares the next frame
+     */
+    public void render(Stage stage) {
+        CommandList next = lists[(current + 1) % lists.length];
+
+        Future<?> preparation = workers.submit(() -> {
+            stage.prepare(queue);
+            queue.build(next);
+        });
+
+        if (prepared) {
+            if (latch != null)
+                latch.latch(lists[current]);
+
+            lists[current].execute(depthPrepass);
+        }
+
+        try {
+            preparation.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to prepare frame", ex.getCause());
+        }
+
+        for (Resource resource : resources)
+            resource.synchronize();
+
+        // Resources released during the frame, e.g. by the stage, are deleted at the frame boundary
+        DeletionQueue.drain();
+
+        current = (current + 1) % lists.length;
+        prepared = true;
+    }
+
+    /**
+     * Adds a resource which is synchronized after each prepared frame
+     *
+     * @param resource resource to synchronize
+     */
+    public void addResource(Resource resource) {
+        resources.add(resource);
+    }
+
+    /**
+     * Sets the latch which updates each prepared frame before it is replayed
+     *
+     * @param latch latch to call or null to replay the frames as they were prepared
+     */
+    public void setLatch(Latch latch) {
+        this.latch = latch;
+    }
+
+    /**
+     * Enables or disables drawing a depth pre-pass before each frame
+     *
+     * @param prepass pre-pass to draw or null to disable it
+     */
+    public void setDepthPrepass(DepthPrepass prepass) {
+        depthPrepass = prepass;
+    }
+
+    /**
+     * @return command list which was replayed by the last {@link #render(Stage) render} call
+     */
+    public CommandList getLastExecuted() {
+        return lists[(current + 1) % lists.length];
+    }
+
+    /**
+     * Stops the worker threads and frees the command lists
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (CommandList list : lists)
+            list.close();
+    }
+
+    private final RenderQueue queue;
+    private final ForkJoinPool workers;
+    private final List<Resource> resources = new ArrayList<>();
+    private final CommandList[] lists = { new CommandList(), new CommandList() };
+    private DepthPrepass depthPrepass = null;
+    private Latch latch = null;
+    private int current = 0;
+    private boolean prepared = false;
+}
@@ -0,0 +1,779 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Replays the frames written by {@link FrameCapture FrameCapture} as a benchmark, independent of the application, its
+ * scene and its input.
+ *
+ * Loading creates the captured resources, so only the recorded per frame work (uniforms, textures, buffer uploads,
+ * texture loads, transform uploads and draws) is measured by {@link #run(int) run}. The frames are drawn into an
+ * offscreen framebuffer with the captured viewport size, which is cleared before each frame and has depth testing
+ * enabled. Since framebuffers and fixed function state aren't captured, passes which render into other targets (e.g.
+ * shadow maps) draw into the same framebuffer, so the timings are meaningful but the image isn't. Captures with
+ * multi-draw indirect calls need OpenGL 4.5 to be replayed.
+ *
+ * The CPU time of a frame is the time to submit its commands, the GPU time is measured with a timer query, and the GPU
+ * time of each draw call with timestamps around it. Replaying waits for the GPU after every frame, so the frames don't
+ * overlap.
+ *
+ * It needs a current OpenGL context and must be closed with {@link #close() close} when done working with it.
+ */
+public class FrameReplay implements Closeable {
+    /**
+     * Draw call of a frame, whose GPU time is measured separately. The program and its textures are bound by the
+     * recorded USE operations, so only the vertex array is bound, like the captured frame did.
+     */
+    private static class Draw {
+        Draw(VAO vao, int mode, int first, int count, int instances, String description) {
+            this.vao = vao;
+            this.mode = mode;
+            this.first = first;
+            this.count = count;
+            this.instances = instances;
+            this.description = description;
+        }
+
+        void run() {
+            vao.bind();
+
+            if (instances > 0)
+                vao.drawBoundInstanced(mode, first, count, instances);
+            else
+                vao.drawBound(mode, first, count);
+        }
+
+        final VAO vao;
+        final int mode;
+        final int first;
+        final int count;
+        final int instances;
+        final String description;
+    }
+
+    /**
+     * Multi-draw indirect call of a frame, whose commands are stored in a buffer of their own
+     */
+    private static class IndirectDraw extends Draw {
+        IndirectDraw(VAO vao, int mode, int count, Buffer commands, String description) {
+            super(vao, mode, 0, count, 0, description);
+            this.commands = commands;
+        }
+
+        @Override
+        void run() {
+            vao.bind();
+            commands.bind(GL_DRAW_INDIRECT_BUFFER);
+            vao.drawIndirect(mode, 0, count);
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        }
+
+        final Buffer commands;
+    }
+
+    /**
+     * Loads a capture and creates its resources
+     *
+     * @param file file written by {@link FrameCapture FrameCapture}
+     * @throws IOException thrown if the file can't be read or isn't a capture
+     */
+    public FrameReplay(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != FrameCapture.MAGIC || in.readInt() != FrameCapture.VERSION)
+                throw new IOException("Not a supported capture: " + file);
+
+            width = Math.max(in.readInt(), 1);
+            height = Math.max(in.readInt(), 1);
+
+            read(in);
+            createTarget();
+        } catch (Throwable th) {
+            close();
+            throw th;
+        }
+
+        callTimes = new long[calls.size()];
+    }
+
+    /**
+     * Replays all frames several times. The results of earlier runs are replaced.
+     *
+     * @param iterations number of times all frames are replayed
+     */
+    public void run(int iterations) {
+        cpuTimes = new long[iterations][frames.size()];
+        gpuTimes = new long[iterations][frames.size()];
+        Arrays.fill(callTimes, 0);
+        numCallSamples = 0;
+
+        int[] timestamps = new int[calls.size() + 1];
+        int frameQuery = glGenQueries();
+
+        if (!calls.isEmpty())
+            glGenQueries(timestamps);
+
+        try {
+            glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+            glViewport(0, 0, width, height);
+            glEnable(GL_DEPTH_TEST);
+            glDepthFunc(GL_LESS);
+
+            for (int i = 0; i < iterations; ++i) {
+                for (int f = 0; f < frames.size(); ++f) {
+                    List<Object> ops = frames.get(f);
+                    int call = callOffsets.get(f);
+                    int firstCall = call;
+
+                    glBeginQuery(GL_TIME_ELAPSED, frameQuery);
+                    long start = System.nanoTime();
+
+                    glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+
+                    for (Object op : ops) {
+                        if (op instanceof Draw) {
+                            glQueryCounter(timestamps[call - firstCall], GL_TIMESTAMP);
+                            ((Draw) op).run();
+                            ++call;
+                        } else {
+                            ((Runnable) op).run();
+                        }
+                    }
+
+                    if (call > firstCall)
+                        glQueryCounter(timestamps[call - firstCall], GL_TIMESTAMP);
+
+                    long end = System.nanoTime();
+                    glEndQuery(GL_TIME_ELAPSED);
+
+                    // Waits for the GPU, so the next frame starts with an idle GPU
+                    cpuTimes[i][f] = end - start;
+                    gpuTimes[i][f] = glGetQueryObjecti64(frameQuery, GL_QUERY_RESULT);
+
+                    if (call > firstCall) {
+                        long previous = glGetQueryObjecti64(timestamps[0], GL_QUERY_RESULT);
+
+                        for (int c = firstCall; c < call; ++c) {
+                            long next = glGetQueryObjecti64(timestamps[c - firstCall + 1], GL_QUERY_RESULT);
+                            callTimes[c] += next - previous;
+                            previous = next;
+                        }
+                    }
+                }
+
+                ++numCallSamples;
+            }
+        } finally {
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            glDeleteQueries(frameQuery);
+
+            if (!calls.isEmpty())
+                glDeleteQueries(timestamps);
+        }
+    }
+
+    /**
+     * @return number of captured frames
+     */
+    public int getNumFrames() {
+        return frames.size();
+    }
+
+    /**
+     * @return width of the captured viewport
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the captured viewport
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return CPU time to submit each frame in nanoseconds, indexed by iteration and frame
+     */
+    public long[][] getCpuTimes() {
+        return cpuTimes;
+    }
+
+    /**
+     * @return GPU time of each frame in nanoseconds, indexed by iteration and frame
+     */
+    public long[][] getGpuTimes() {
+        return gpuTimes;
+    }
+
+    /**
+     * @return number of draw calls of all frames
+     */
+    public int getNumCalls() {
+        return calls.size();
+    }
+
+    /**
+     * @param call index of the draw call in all frames
+     * @return description of the draw call, e.g. "frame 0 draw 3: GL_TRIANGLES 36 indices, vertex array 5"
+     */
+    public String getCallDescription(int call) {
+        return calls.get(call).description;
+    }
+
+    /**
+     * @param call index of the draw call in all frames
+     * @return average GPU time of the draw call over all iterations in nanoseconds
+     */
+    public long getCallTime(int call) {
+        return numCallSamples > 0 ? callTimes[call] / numCallSamples : 0;
+    }
+
+    /**
+     * Frees the offscreen framebuffer and the created resources
+     */
+    @Override
+    public void close() {
+        glDeleteFramebuffers(framebuffer);
+        glDeleteRenderbuffers(depthbuffer);
+        framebuffer = 0;
+        depthbuffer = 0;
+
+        if (color != null)
+            color.close();
+
+        color = null;
+
+        for (int i = resources.size() - 1; i >= 0; --i) {
+            try {
+                resources.get(i).close();
+            } catch (IOException ignored) {
+                // The wrappers don't throw
+            }
+        }
+
+        resources.clear();
+    }
+
+    /**
+     * Reads the definitions and frames of a capture
+     *
+     * @param in stream positioned after the header
+     * @throws IOException thrown if the file can't be read or is corrupt
+     */
+    private void read(DataInputStream in) throws IOException {
+        List<Object> frame = null;
+        int op;
+
+        while ((op = in.read()) >= 0) {
+            switch (op) {
+            case FrameCapture.FRAME_BEGIN:
+                frame = new ArrayList<>();
+                callOffsets.add(calls.size());
+                break;
+
+            case FrameCapture.FRAME_END:
+                frames.add(check(frame));
+                frame = null;
+                break;
+
+            case FrameCapture.DEFINE_SHADER: readShader(in); break;
+            case FrameCapture.DEFINE_VAO: readVao(in); break;
+            case FrameCapture.DEFINE_BUFFER: readBuffer(in); break;
+            case FrameCapture.DEFINE_TEXTURE: readTexture(in); break;
+            case FrameCapture.DEFINE_TEXTURE_BUFFER: readTextureBuffer(in); break;
+
+            case FrameCapture.UNIFORM: {
+                Shader shader = get(in.readInt(), Shader.class);
+                Runnable uniform = readUniform(in, shader, readString(in), in.readInt(), in.readBoolean());
+                check(frame).add(uniform);
+                break;
+            }
+
+            case FrameCapture.UNIFORM_INT: {
+                Shader shader = get(in.readInt(), Shader.class);
+                String name = readString(in);
+                int[] values = new int[in.readInt()];
+
+                for (int i = 0; i < values.length; ++i)
+                    values[i] = in.readInt();
+
+                check(frame).add((Runnable) () -> shader.setInt(name, values));
+                break;
+            }
+
+            case FrameCapture.SET_TEXTURE:
+            case FrameCapture.BIND_TEXTURE: {
+                Shader shader = get(in.readInt(), Shader.class);
+                String name = readString(in);
+                Texture texture = get(in.readInt(), Texture.class);
+                int target = in.readInt();
+
+                if (op == FrameCapture.SET_TEXTURE) {
+                    check(frame).add((Runnable) () -> shader.setTexture(name, texture, target));
+                } else {
+                    check(frame).add((Runnable) () -> {
+                        shader.useProgram();
+                        shader.bindTexture(name, texture, target);
+                    });
+                }
+                break;
+            }
+
+            case FrameCapture.USE: {
+                Shader shader = get(in.readInt(), Shader.class);
+                check(frame).add((Runnable) shader::use);
+                break;
+            }
+
+            case FrameCapture.DRAW: {
+                int vaoId = in.readInt();
+                VAO vao = get(vaoId, VAO.class);
+                int mode = in.readInt(), first = in.readInt(), count = in.readInt(), instances = in.readInt();
+
+                String description = String.format(
+                    "frame %d draw %d: %s %d %s%s, vertex array %d",
+                    frames.size(), calls.size() - callOffsets.get(callOffsets.size() - 1), getModeName(mode), count,
+                    vao.indexBuffer != null ? "indices" : "vertices",
+                    instances > 0 ? " x " + instances + " instances" : "", vaoId);
+
+                Draw draw = new Draw(vao, mode, first, count, instances, description);
+                check(frame).add(draw);
+                calls.add(draw);
+                break;
+            }
+
+            case FrameCapture.DRAW_INDIRECT: {
+                int vaoId = in.readInt();
+                VAO vao = get(vaoId, VAO.class);
+                int mode = in.readInt(), count = in.readInt();
+                byte[] data = readBytes(in);
+
+                if (!vao.supportsIndirect())
+                    throw new IOException("Replaying multi-draw indirect calls needs OpenGL 4.5");
+
+                Buffer commands = new Buffer(data.length);
+                resources.add(commands);
+                commands.replace(ByteBuffer.wrap(data));
+
+                String description = String.format(
+                    "frame %d draw %d: %s %d commands, vertex array %d",
+                    frames.size(), calls.size() - callOffsets.get(callOffsets.size() - 1), getModeName(mode), count,
+                    vaoId);
+
+                Draw draw = new IndirectDraw(vao, mode, count, commands, description);
+                check(frame).add(draw);
+                calls.add(draw);
+                break;
+            }
+
+            case FrameCapture.TRANSFORMS: {
+                int id = in.readInt();
+                Texture texture = objects.containsKey(id) ? get(id, Texture.class) : add(id, new Texture());
+                int internalFormat = in.readInt(), capacity = in.readInt();
+                byte[] data = readBytes(in);
+
+                // The texture keeps one buffer of the captured capacity, like the command list does
+                if (!transformBuffers.containsKey(texture)) {
+                    Buffer created = new Buffer(capacity);
+                    resources.add(created);
+                    transformBuffers.put(texture, created);
+                }
+
+                Buffer buffer = transformBuffers.get(texture);
+
+                check(frame).add((Runnable) () -> {
+                    buffer.replace(ByteBuffer.wrap(data));
+                    buffer.bind(GL_TEXTURE_BUFFER);
+                    texture.bind(GL_TEXTURE_BUFFER);
+                    glTexBuffer(GL_TEXTURE_BUFFER, internalFormat, buffer.getId());
+                });
+                break;
+            }
+
+            case FrameCapture.UPLOAD: {
+                Buffer buffer = get(in.readInt(), Buffer.class);
+                byte[] data = readBytes(in);
+                check(frame).add((Runnable) () -> buffer.replace(ByteBuffer.wrap(data)));
+                break;
+            }
+
+            case FrameCapture.LOAD_TEXTURE: {
+                int id = in.readInt();
+                Texture texture = objects.containsKey(id) ? get(id, Texture.class) : add(id, new Texture());
+                int width = in.readInt(), height = in.readInt();
+                byte[] data = readBytes(in);
+
+                check(frame).add((Runnable) () -> {
+                    ByteBuffer pixels = memAlloc(data.length);
+
+                    try {
+                        pixels.put(data).flip();
+                        texture.loadRaw(pixels, width, height);
+                    } finally {
+                        memFree(pixels);
+                    }
+                });
+                break;
+            }
+
+            default:
+                throw new IOException("Corrupt capture: unknown operation " + op);
+            }
+        }
+    }
+
+    /**
+     * Creates a shader with its captured uniforms and textures
+     *
+     * @param in stream positioned after the operation
+     * @throws IOException thrown if the file can't be read or is corrupt
+     */
+    private void readShader(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Shader shader = add(id, new Shader(readString(in), readString(in)));
+        int op;
+
+        while ((op = in.readUnsignedByte()) != FrameCapture.END_UNIFORMS) {
+            String name = readString(in);
+
+            if (op == FrameCapture.UNIFORM_INT)
+                shader.setInt(name, in.readInt());
+            else if (op == FrameCapture.UNIFORM)
+                readUniform(in, shader, name, in.readInt(), false).run();
+            else
+                throw new IOException("Corrupt capture: unknown uniform " + op);
+        }
+
+        int numTextures = in.readInt();
+
+        for (int i = 0; i < numTextures; ++i) {
+            String name = readString(in);
+            Texture texture = get(in.readInt(), Texture.class);
+            shader.setTexture(name, texture, in.readInt());
+        }
+    }
+
+    /**
+     * Creates a vertex array with its attributes
+     *
+     * @param in stream positioned after the operation
+     * @throws IOException thrown if the file can't be read or is corrupt
+     */
+    private void readVao(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        VAO vao = add(id, new VAO(get(in.readInt(), Shader.class)));
+        int numBindings = in.readInt();
+
+        for (int i = 0; i < numBindings; ++i) {
+            Buffer buffer = get(in.readInt(), Buffer.class);
+            String name = readString(in);
+            int size = in.readInt(), type = in.readInt();
+            boolean normalized = in.readBoolean();
+            int stride = in.readInt();
+            long pointer = in.readLong();
+
+            if (in.readBoolean())
+                vao.bindInstanceBuffer(buffer, name, size, type, normalized, stride, pointer);
+            else
+                vao.bindBuffer(buffer, name, size, type, normalized, stride, pointer);
+        }
+
+        int indexId = in.readInt();
+
+        if (indexId >= 0)
+            vao.bindIndexBuffer(get(indexId, Buffer.class));
+    }
+
+    /**
+     * Creates a buffer with its captured content
+     *
+     * @param in stream positioned after the operation
+     * @throws IOException thrown if the file can't be read or is corrupt
+     */
+    private void readBuffer(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Buffer buffer = add(id, new Buffer(in.readInt()));
+        buffer.replace(ByteBuffer.wrap(readBytes(in)));
+    }
+
+    /**
+     * Creates a texture with its captured format, size, sampling parameters and content
+     *
+     * @param in stream positioned after the operation
+     * @throws IOException thrown if the file can't be read or is corrupt
+     */
+    private void readTexture(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Texture texture = add(id, new Texture());
+        int target = in.readInt();
+        int internalFormat = in.readInt();
+
+        // Textures of other targets are only placeholders
+        if (internalFormat == 0)
+            return;
+
+        int width = in.readInt(), height = in.readInt(), depth = in.readInt();
+        int[] parameters = new int[FrameCapture.TEXTURE_PARAMETERS.length];
+
+        for (int i = 0; i < parameters.length; ++i)
+            parameters[i] = in.readInt();
+
+        ByteBuffer pixels = null;
+
+        try {
+            if (in.readBoolean()) {
+                byte[] data = readBytes(in);
+                pixels = memAlloc(data.length);
+                pixels.put(data).flip();
+            }
+
+            if (width == 0)
+                return;
+
+            int format = GL_RGBA, type = GL_UNSIGNED_BYTE;
+
+            if (pixels == null) {
+                switch (internalFormat) {
+                case GL_DEPTH_COMPONENT16:
+                case GL_DEPTH_COMPONENT24:
+                case GL_DEPTH_COMPONENT32:
+                case GL_DEPTH_COMPONENT32F:
+                    format = GL_DEPTH_COMPONENT;
+                    type = GL_FLOAT;
+                    break;
+                case GL_DEPTH24_STENCIL8:
+                case GL_DEPTH32F_STENCIL8:
+                    format = GL_DEPTH_STENCIL;
+                    type = GL_UNSIGNED_INT_24_8;
+                    break;
+                case GL_R32UI:
+                case GL_RG32UI:
+                case GL_RGBA32UI:
+                    format = GL_RGBA_INTEGER;
+                    type = GL_UNSIGNED_INT;
+                    break;
+                default:
+                    break;
+                }
+            }
+
+            texture.bind(target);
+
+            if (target == GL_TEXTURE_2D_ARRAY)
+                glTexImage3D(target, 0, internalFormat, width, height, depth, 0, format, type, pixels);
+            else
+                glTexImage2D(target, 0, internalFormat, width, height, 0, format, type, pixels);
+
+            for (int i = 0; i < parameters.length; ++i)
+                glTexParameteri(target, FrameCapture.TEXTURE_PARAMETERS[i], parameters[i]);
+
+            int minFilter = parameters[0];
+
+            if (minFilter != GL_NEAREST && minFilter != GL_LINEAR)
+                glGenerateMipmap(target);
+        } finally {
+            if (pixels != null)
+                memFree(pixels);
+        }
+    }
+
+    /**
+     * Creates a buffer texture for a captured buffer
+     *
+     * @param in stream positioned after the operation
+     * @throws IOException thrown if the file can't be read or is corrupt
+     */
+    private void readTextureBuffer(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Buffer buffer = get(in.readInt(), Buffer.class);
+        int internalFormat = in.readInt();
+
+        // The texture takes over a reference, and the replay keeps its own
+        buffer.addRef();
+        add(id, new TextureBuffer(buffer, internalFormat));
+    }
+
+    /**
+     * Reads the values of a float, vector or matrix uniform. The location is looked up once.
+     *
+     * @param in stream positioned at the number of values
+     * @param shader shader which receives the uniform
+     * @param name name of the uniform
+     * @param type GL_FLOAT, GL_FLOAT_VEC2, GL_FLOAT_VEC3, GL_FLOAT_VEC4, GL_FLOAT_MAT3 or GL_FLOAT_MAT4
+     * @param transpose if the matrices are transposed
+     * @return command which sets the uniform
+     * @throws IOException thrown if the file can't be read or is corrupt
+     */
+    private static Runnable readUniform(
+        DataInputStream in, Shader shader, String name, int type, boolean transpose
+    ) throws IOException {
+        float[] values = new float[in.readInt()];
+
+        for (int i = 0; i < values.length; ++i)
+            values[i] = in.readFloat();
+
+        int loc = glGetUniformLocation(shader.getProgram(), name);
+
+        switch (type) {
+        case GL_FLOAT: return () -> { shader.useProgram(); glUniform1fv(loc, values); };
+        case GL_FLOAT_VEC2: return () -> { shader.useProgram(); glUniform2fv(loc, values); };
+        case GL_FLOAT_VEC3: return () -> { shader.useProgram(); glUniform3fv(loc, values); };
+        case GL_FLOAT_VEC4: return () -> { shader.useProgram(); glUniform4fv(loc, values); };
+        case GL_FLOAT_MAT3: return () -> { shader.useProgram(); glUniformMatrix3fv(loc, transpose, values); };
+        case GL_FLOAT_MAT4: return () -> { shader.useProgram(); glUniformMatrix4fv(loc, transpose, values); };
+        default: throw new IOException("Corrupt capture: unknown uniform type " + type);
+        }
+    }
+
+    /**
+     * Creates the offscreen framebuffer the frames are drawn into
+     */
+    private void createTarget() {
+        color = new Texture();
+        color.bind(GL_TEXTURE_2D);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA16F, width, height, 0, GL_RGBA, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+
+        depthbuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthbuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+
+        framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, color.getId(), 0);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthbuffer);
+
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+
+        if (status != GL_FRAMEBUFFER_COMPLETE)
+            throw new RuntimeException("Replay framebuffer is incomplete: " + status);
+    }
+
+    /**
+     * Registers a created resource
+     *
+     * @param id id of the resource in the capture
+     * @param resource created resource
+     * @return the resource
+     */
+    private <T extends Closeable> T add(int id, T resource) {
+        objects.put(id, resource);
+        resources.add(resource);
+        return resource;
+    }
+
+    /**
+     * Looks up a resource which was defined earlier
+     *
+     * @param id id of the resource in the capture
+     * @param type expected class of the resource
+     * @return the resource
+     * @throws IOException thrown if there is no resource of the type with the id
+     */
+    private <T> T get(int id, Class<T> type) throws IOException {
+        Object resource = objects.get(id);
+
+        if (!type.isInstance(resource))
+            throw new IOException("Corrupt capture: " + type.getSimpleName() + " " + id + " isn't defined");
+
+        return type.cast(resource);
+    }
+
+    /**
+     * @param frame operations of the current frame
+     * @return the operations
+     * @throws IOException thrown if an operation is outside of a frame
+     */
+    private static List<Object> check(List<Object> frame) throws IOException {
+        if (frame == null)
+            throw new IOException("Corrupt capture: operation outside of a frame");
+
+        return frame;
+    }
+
+    /**
+     * @param mode primitive mode of a draw call
+     * @return name of the mode
+     */
+    private static String getModeName(int mode) {
+        switch (mode) {
+        case GL_POINTS: return "GL_POINTS";
+        case GL_LINES: return "GL_LINES";
+        case GL_LINE_STRIP: return "GL_LINE_STRIP";
+        case GL_TRIANGLES: return "GL_TRIANGLES";
+        case GL_TRIANGLE_STRIP: return "GL_TRIANGLE_STRIP";
+        case GL_TRIANGLE_FAN: return "GL_TRIANGLE_FAN";
+        default: return "mode " + mode;
+        }
+    }
+
+    /**
+     * @param in stream positioned at the string
+     * @return string stored as length and UTF-8 bytes
+     * @throws IOException thrown if the file can't be read
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param in stream positioned at the number of bytes
+     * @return bytes
+     * @throws IOException thrown if the file can't be read
+     */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // Resources by their id in the capture, and in the order they were created
+    private final Map<Integer, Object> objects = new HashMap<>();
+    private final List<Closeable> resources = new ArrayList<>();
+
+    // Buffers behind the textures which receive the transforms of command lists
+    private final Map<Texture, Buffer> transformBuffers = new HashMap<>();
+
+    // Operations of each frame (Runnable or Draw), all draw calls and the index of the first call of each frame
+    private final List<List<Object>> frames = new ArrayList<>();
+    private final List<Draw> calls = new ArrayList<>();
+    private final List<Integer> callOffsets = new ArrayList<>();
+
+    private int width = 1;
+    private int height = 1;
+    private int framebuffer = 0;
+    private int depthbuffer = 0;
+    private Texture color = null;
+    private long[][] cpuTimes = new long[0][];
+    private long[][] gpuTimes = new long[0][];
+    private long[] callTimes = new long[0];
+    private int numCallSamples = 0;
+}
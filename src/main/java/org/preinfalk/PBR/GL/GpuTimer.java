@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Measures the GPU time of a sequence of commands with timer queries.
+ *
+ * The queries are used round robin and their results are read a few frames later, once they are available, so
+ * measuring never waits for the GPU. Measurements are skipped while all queries are in flight.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class GpuTimer implements Closeable {
+    /**
+     * Creates a timer
+     */
+    public GpuTimer() {
+        glGenQueries(queries);
+    }
+
+    /**
+     * Starts measuring. Must be followed by {@link #end() end}, and timer queries can't be nested.
+     */
+    public void begin() {
+        collect();
+
+        measuring = !pending[next];
+
+        if (measuring)
+            glBeginQuery(GL_TIME_ELAPSED, queries[next]);
+    }
+
+    /**
+     * Stops measuring
+     */
+    public void end() {
+        if (!measuring)
+            return;
+
+        glEndQuery(GL_TIME_ELAPSED);
+        pending[next] = true;
+        next = (next + 1) % queries.length;
+        measuring = false;
+    }
+
+    /**
+     * @return number of measurements which were read
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return GPU time of the last measurement which was read in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Frees the queries
+     */
+    @Override
+    public void close() {
+        glDeleteQueries(queries);
+    }
+
+    /**
+     * Reads the results of the finished queries in the order they were issued
+     */
+    private void collect() {
+        for (int i = 0; i < queries.length; ++i) {
+            int slot = (next + i) % queries.length;
+
+            if (!pending[slot])
+                continue;
+
+            if (glGetQueryObjecti(queries[slot], GL_QUERY_RESULT_AVAILABLE) == GL_FALSE)
+                break;
+
+            time = glGetQueryObjecti64(queries[slot], GL_QUERY_RESULT);
+            pending[slot] = false;
+            ++count;
+        }
+    }
+
+    private final int[] queries = new int[4];
+    private final boolean[] pending = new boolean[4];
+    private int next = 0;
+    private boolean measuring = false;
+    private long time = 0;
+    private long count = 0;
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Framebuffer with a floating point color buffer and a depth buffer, which receives the linear radiance of the scene.
+ *
+ * The scene is drawn into multisampled renderbuffers, which are resolved into a texture with {@link #resolve()
+ * resolve}. The texture is read by the post processing passes, e.g. {@link ToneMapping ToneMapping}. Without
+ * multisampling the scene is drawn directly into the texture.
+ *
+ * The scene can be drawn into the lower left part of the framebuffer with a smaller render size ({@link
+ * #setRenderSize(int, int) setRenderSize}), e.g. to trade resolution for GPU time. The post processing passes then
+ * scale the part up to the whole screen.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class HdrFramebuffer implements Closeable {
+    /**
+     * Creates the framebuffer
+     *
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param samples number of samples per pixel; 0 disables multisampling
+     * @param internalFormat format of the color buffer; GL_RGBA16F or GL_R11F_G11F_B10F, which needs half the memory
+     *                       bandwidth
+     */
+    public HdrFramebuffer(int width, int height, int samples, int internalFormat) {
+        this.width = width;
+        this.height = height;
+        renderWidth = width;
+        renderHeight = height;
+
+        texture = new Texture();
+
+        try {
+            texture.bind(GL_TEXTURE_2D);
+            glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, GL_RGBA, GL_FLOAT, (ByteBuffer) null);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+
+            resolveFramebuffer = glGenFramebuffers();
+            glBindFramebuffer(GL_FRAMEBUFFER, resolveFramebuffer);
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture.getId(), 0);
+
+            if (samples > 0) {
+                colorBuffer = glGenRenderbuffers();
+                glBindRenderbuffer(GL_RENDERBUFFER, colorBuffer);
+                glRenderbufferStorageMultisample(GL_RENDERBUFFER, samples, internalFormat, width, height);
+
+                framebuffer = glGenFramebuffers();
+                glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+                glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorBuffer);
+            } else
+                framebuffer = resolveFramebuffer;
+
+            depthBuffer = glGenRenderbuffers();
+            glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+            glRenderbufferStorageMultisample(GL_RENDERBUFFER, samples, GL_DEPTH_COMPONENT24, width, height);
+            glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+
+            int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+
+            if (status != GL_FRAMEBUFFER_COMPLETE)
+                throw new RuntimeException("HDR framebuffer is incomplete: " + status);
+        } catch (Throwable th) {
+            close();
+            throw th;
+        }
+    }
+
+    /**
+     * Binds the framebuffer for drawing the scene and sets the viewport to the render size
+     */
+    public void bind() {
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glViewport(0, 0, renderWidth, renderHeight);
+    }
+
+    /**
+     * Sets the size of the part of the framebuffer which the scene is drawn into
+     *
+     * @param width width in pixels; It is clamped to the width of the framebuffer.
+     * @param height height in pixels; It is clamped to the height of the framebuffer.
+     */
+    public void setRenderSize(int width, int height) {
+        renderWidth = Math.max(1, Math.min(width, this.width));
+        renderHeight = Math.max(1, Math.min(height, this.height));
+    }
+
+    /**
+     * Resolves the samples into the texture
+     */
+    public void resolve() {
+        if (framebuffer == resolveFramebuffer)
+            return;
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, framebuffer);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, resolveFramebuffer);
+        glBlitFramebuffer(
+            0, 0, renderWidth, renderHeight, 0, 0, renderWidth, renderHeight, GL_COLOR_BUFFER_BIT, GL_NEAREST
+        );
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * @return texture containing the resolved colors
+     */
+    public Texture getTexture() {
+        return texture;
+    }
+
+    /**
+     * @return width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return width of the part which the scene is drawn into
+     */
+    public int getRenderWidth() {
+        return renderWidth;
+    }
+
+    /**
+     * @return height of the part which the scene is drawn into
+     */
+    public int getRenderHeight() {
+        return renderHeight;
+    }
+
+    /**
+     * @return OpenGL name of the framebuffer which the scene is drawn into
+     */
+    protected int getFramebuffer() {
+        return framebuffer;
+    }
+
+    /**
+     * Frees the framebuffers, the renderbuffers and the texture
+     */
+    @Override
+    public void close() {
+        if (framebuffer != resolveFramebuffer)
+            glDeleteFramebuffers(framebuffer);
+
+        glDeleteFramebuffers(resolveFramebuffer);
+        glDeleteRenderbuffers(colorBuffer);
+        glDeleteRenderbuffers(depthBuffer);
+        texture.close();
+    }
+
+    private final int width;
+    private final int height;
+    private final Texture texture;
+    private int renderWidth;
+    private int renderHeight;
+    private int framebuffer = 0;
+    private int resolveFramebuffer = 0;
+    private int colorBuffer = 0;
+    private int depthBuffer = 0;
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.preinfalk.PBR.Asset.MeshData;
+import org.preinfalk.PBR.Asset.MeshOptimizer;
+import org.preinfalk.PBR.Asset.ShapeGenerator;
+
+import static org.lwjgl.opengl.GL33.GL_FLOAT;
+
+/**
+ * Indexed mesh with positions, normals, texture coordinates and tangents, which is uploaded from
+ * {@link MeshData MeshData}. All levels of detail of the data are stored in the same index buffer.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class IndexedMesh extends Mesh {
+    /**
+     * Creates a mesh by copying the vertex and index data into buffers
+     *
+     * @param data imported or cached mesh data
+     */
+    public IndexedMesh(MeshData data) {
+        numVertices = data.getNumVertices();
+        numIndices = data.getNumIndices();
+        bounds = data.getBounds();
+        cacheBefore = data.getCacheBefore();
+        cacheAfter = data.getCacheAfter();
+
+        lodFirst = new int[data.getNumLods()];
+        lodCount = new int[data.getNumLods()];
+        lodError = new float[data.getNumLods()];
+
+        for (int i = 0; i < lodFirst.length; ++i) {
+            lodFirst[i] = data.getLodFirst(i);
+            lodCount[i] = data.getLodCount(i);
+            lodError[i] = data.getLodError(i);
+        }
+
+        vertices = new Buffer(numVertices * MeshData.VERTEX_SIZE);
+
+        try {
+            indices = new Buffer(numIndices * 4);
+        } catch (Throwable th) {
+            vertices.close();
+            throw th;
+        }
+
+        vertices.put(data.getVertices()).flip();
+        indices.put(data.getIndices()).flip();
+    }
+
+    /**
+     * Creates a mesh by generating a procedural shape and its levels of detail directly into the buffers. The rows of
+     * the generated grids are already in a cache friendly order, so the shape isn't optimized; Shapes which should be
+     * reordered anyway can be created from {@link MeshOptimizer#optimize(MeshData) MeshOptimizer.optimize}({@link
+     * ShapeGenerator#generate() generate()}).
+     *
+     * @param generator generator of the shape
+     */
+    public IndexedMesh(ShapeGenerator generator) {
+        numVertices = generator.getNumVertices();
+        numIndices = generator.getNumIndices();
+        bounds = generator.getBounds();
+
+        lodFirst = new int[generator.getNumLods()];
+        lodCount = new int[generator.getNumLods()];
+
+        for (int i = 0; i < lodFirst.length; ++i) {
+            lodFirst[i] = generator.getLodFirst(i);
+            lodCount[i] = generator.getLodCount(i);
+        }
+
+        vertices = new Buffer(numVertices * MeshData.VERTEX_SIZE);
+
+        try {
+            indices = new Buffer(numIndices * 4);
+        } catch (Throwable th) {
+            vertices.close();
+            throw th;
+        }
+
+        lodError = generator.generate(vertices.getData(), indices.getData());
+    }
+
+    @Override
+    public void bindPosition(VAO vao, String name) {
+        vao.bindBuffer(vertices, name, 3, GL_FLOAT, false, MeshData.VERTEX_SIZE, 0);
+    }
+
+    @Override
+    public void bindNormal(VAO vao, String name) {
+        vao.bindBuffer(vertices, name, 3, GL_FLOAT, false, MeshData.VERTEX_SIZE, MeshData.NORMAL_OFFSET);
+    }
+
+    @Override
+    public void bindTexCoord(VAO vao, String name) {
+        vao.bindBuffer(vertices, name, 2, GL_FLOAT, false, MeshData.VERTEX_SIZE, MeshData.TEXCOORD_OFFSET);
+    }
+
+    @Override
+    public void bindTangent(VAO vao, String name) {
+        vao.bindBuffer(vertices, name, 4, GL_FLOAT, false, MeshData.VERTEX_SIZE, MeshData.TANGENT_OFFSET);
+    }
+
+    @Override
+    public void bindIndices(VAO vao) {
+        vao.bindIndexBuffer(indices);
+    }
+
+    @Override
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    @Override
+    public int getNumElements() {
+        return lodCount[0];
+    }
+
+    @Override
+    public int getNumLods() {
+        return lodFirst.length;
+    }
+
+    @Override
+    public int getLodFirst(int lod) {
+        return lodFirst[lod];
+    }
+
+    @Override
+    public int getLodCount(int lod) {
+        return lodCount[lod];
+    }
+
+    @Override
+    public float getLodError(int lod) {
+        return lodError[lod];
+    }
+
+    @Override
+    public Bounds getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return vertex cache statistics of the most detailed level before the optimization or null if the data wasn't
+     * optimized
+     */
+    public MeshOptimizer.Statistics getCacheBefore() {
+        return cacheBefore;
+    }
+
+    /**
+     * @return vertex cache statistics of the most detailed level after the optimization or null if the data wasn't
+     * optimized
+     */
+    public MeshOptimizer.Statistics getCacheAfter() {
+        return cacheAfter;
+    }
+
+    /**
+     * Close internal buffers
+     */
+    @Override
+    public void close() {
+        vertices.close();
+        indices.close();
+    }
+
+    private Buffer vertices;
+    private Buffer indices;
+    private Bounds bounds;
+    private int numVertices;
+    private int numIndices;
+    private int[] lodFirst;
+    private int[] lodCount;
+    private float[] lodError;
+    private MeshOptimizer.Statistics cacheBefore;
+    private MeshOptimizer.Statistics cacheAfter;
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring of timestamped input events with one producer and one consumer.
+ *
+ * The producer is the thread which receives the events (the GLFW callbacks of a {@link Window Window}), the consumer
+ * is the thread which updates the scene. No event between two frames is lost, so movements are accumulated exactly and
+ * the age of the oldest input of a frame is known. Events which don't fit anymore are dropped and counted.
+ *
+ * The events are read with a cursor: {@link #next() next} moves to the next event, whose fields are returned by the
+ * getters.
+ */
+public class InputRing {
+    /**
+     * The cursor moved to (x, y)
+     */
+    public static final int CURSOR = 0;
+
+    /**
+     * The left mouse button was pressed at (x, y)
+     */
+    public static final int BUTTON_DOWN = 1;
+
+    /**
+     * The left mouse button was released at (x, y)
+     */
+    public static final int BUTTON_UP = 2;
+
+    /**
+     * Creates an empty ring
+     *
+     * @param capacity maximum number of events; It is rounded up to a power of two.
+     */
+    public InputRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+        types = new int[size];
+        positions = new float[size * 2];
+        times = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event. Must only be called by the producer.
+     *
+     * @param type {@link #CURSOR CURSOR}, {@link #BUTTON_DOWN BUTTON_DOWN} or {@link #BUTTON_UP BUTTON_UP}
+     * @param x x coordinate of the cursor
+     * @param y y coordinate of the cursor
+     * @param time time of the event ({@link System#nanoTime() nanoTime})
+     * @return false if the ring is full and the event was dropped
+     */
+    public boolean push(int type, float x, float y, long time) {
+        long h = head.get();
+
+        if (h - tail.get() == types.length) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) h & mask;
+        types[slot] = type;
+        positions[slot * 2] = x;
+        positions[slot * 2 + 1] = y;
+        times[slot] = time;
+
+        // Publishes the slot; The ordered write makes the slot visible before the new head
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    /**
+     * Moves to the next event. Must only be called by the consumer.
+     *
+     * @return false if there are no more events
+     */
+    public boolean next() {
+        long t = tail.get();
+
+        if (t == head.get())
+            return false;
+
+        int slot = (int) t & mask;
+        type = types[slot];
+        x = positions[slot * 2];
+        y = positions[slot * 2 + 1];
+        time = times[slot];
+
+        // Releases the slot to the producer after it was read
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * @return type of the current event
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return x coordinate of the current event
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * @return y coordinate of the current event
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * @return time of the current event ({@link System#nanoTime() nanoTime})
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return number of events which were dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private final int[] types;
+    private final float[] positions;
+    private final long[] times;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Fields of the current event of the consumer
+    private int type;
+    private float x;
+    private float y;
+    private long time;
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.opengl.GL33.GL_TEXTURE_2D;
+
+/**
+ * Set of textures which are bound to the samplers of a shader together.
+ *
+ * It keeps track of the textures, so they can be closed.
+ *
+ * It contains a reference counter which can be in/decreased. When the resource hits 0 it is freed. To increase it call
+ * {@link #addRef() addRef}, to decrease it {@link #close() close}. If the object is stored in a class, the reference
+ * counter should be increased and decreased when destroying said class.
+ */
+public class Material implements Closeable {
+    /**
+     * Creates an empty material
+     */
+    public Material() {
+        id = nextId.getAndIncrement();
+    }
+
+    /**
+     * Sets the texture of a sampler. The textures are bound in the order they were set.
+     *
+     * @param name name of the sampler uniform
+     * @param texture texture to be assigned
+     */
+    public void setTexture(String name, Texture texture) {
+        setTexture(name, texture, GL_TEXTURE_2D);
+    }
+
+    /**
+     * Sets the texture of a sampler which is bound to another target than GL_TEXTURE_2D
+     *
+     * @param name name of the sampler uniform
+     * @param texture texture to be assigned
+     * @param target GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY, etc.
+     */
+    public void setTexture(String name, Texture texture, int target) {
+        texture.addRef();
+
+        int index = names.indexOf(name);
+
+        if (index >= 0) {
+            textures.get(index).close();
+            textures.set(index, texture);
+            targets.set(index, target);
+        } else {
+            names.add(name);
+            textures.add(texture);
+            targets.add(target);
+        }
+    }
+
+    /**
+     * Assigns all textures to the samplers of a shader, so they are bound on the next draw
+     *
+     * @param shader shader which contains the samplers
+     */
+    public void apply(Shader shader) {
+        for (int i = 0; i < names.size(); ++i)
+            shader.setTexture(names.get(i), textures.get(i), targets.get(i));
+    }
+
+    /**
+     * Decreases the reference count and releases the textures when it hits zero. Can be called on any thread.
+     */
+    @Override
+    public void close() {
+        if (references.release()) {
+            for (Texture texture : textures)
+                texture.close();
+
+            names.clear();
+            textures.clear();
+            targets.clear();
+        }
+    }
+
+    /**
+     * Increases the reference count
+     */
+    public void addRef() {
+        references.addRef();
+    }
+
+    /**
+     * Binds all textures to the samplers of a shader. The shader must be in use.
+     *
+     * @param shader shader which contains the samplers
+     */
+    protected void bind(Shader shader) {
+        for (int i = 0; i < names.size(); ++i)
+            shader.bindTexture(names.get(i), textures.get(i), targets.get(i));
+    }
+
+    /**
+     * @return unique identifier of the material, which is used for sorting
+     */
+    protected int getId() {
+        return id;
+    }
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final RefCount references = new RefCount(this);
+    private final int id;
+    private ArrayList<String> names = new ArrayList<>();
+    private ArrayList<Texture> textures = new ArrayList<>();
+    private ArrayList<Integer> targets = new ArrayList<>();
+}
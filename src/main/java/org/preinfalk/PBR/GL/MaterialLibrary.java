@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.preinfalk.PBR.Asset.AssetManager;
+import org.preinfalk.PBR.Asset.ImageData;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL33.GL_TEXTURE_2D_ARRAY;
+
+/**
+ * Library of materials with equally sized maps, which are packed into the layers of one {@link TextureArray
+ * TextureArray} per map.
+ *
+ * All materials share a single {@link Material Material}, so draws with different materials don't change any state.
+ * Shaders created with the MATERIAL_ARRAY definition select the layer with the per-instance attribute inMaterial (see
+ * {@link VAO#bindInstanceBuffer VAO.bindInstanceBuffer}), so instances with different materials can be drawn in one
+ * call.
+ *
+ * Materials are identified by handles which don't change. A material gets the lowest free layer, and the arrays double
+ * in size when they are full. Removing materials leaves holes. {@link #defragment() defragment} fills them with the
+ * highest layers and shrinks the arrays, after which the layers of the handles ({@link #getLayer(int) getLayer}) have
+ * to be read again.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class MaterialLibrary implements Closeable {
+    /**
+     * Names of the sampler uniforms of the maps in the order they are passed to {@link #add(InputStream...) add}
+     */
+    public static final String[] SAMPLERS = { "uAlbedo", "uNormalMap", "uMetallicMap", "uRoughnessMap" };
+
+    /**
+     * Creates an empty library
+     *
+     * @param width width of the maps
+     * @param height height of the maps
+     * @param capacity number of materials which fit before the arrays have to grow
+     */
+    public MaterialLibrary(int width, int height, int capacity) {
+        capacity = Math.max(capacity, 1);
+        maps = new TextureArray[SAMPLERS.length];
+
+        try {
+            for (int i = 0; i < maps.length; ++i) {
+                maps[i] = new TextureArray(width, height, capacity);
+                material.setTexture(SAMPLERS[i], maps[i], GL_TEXTURE_2D_ARRAY);
+            }
+        } catch (Throwable th) {
+            close();
+            throw th;
+        }
+
+        materials = new int[capacity];
+        Arrays.fill(materials, FREE);
+    }
+
+    /**
+     * Adds a material from image files
+     *
+     * @param maps streams of the image files in the order of {@link #SAMPLERS SAMPLERS}
+     * @return handle of the material
+     */
+    public int add(InputStream... maps) {
+        checkMaps(maps.length);
+
+        int handle = allocate();
+
+        try {
+            for (int i = 0; i < maps.length; ++i)
+                this.maps[i].setLayer(layers[handle], maps[i]);
+        } catch (Throwable th) {
+            remove(handle);
+            throw th;
+        }
+
+        return handle;
+    }
+
+    /**
+     * Adds a material from decoded images, e.g. the shared images of an {@link AssetManager AssetManager}. The images
+     * aren't closed.
+     *
+     * @param maps images in the order of {@link #SAMPLERS SAMPLERS}; They must have the size of the maps.
+     * @return handle of the material
+     */
+    public int add(ImageData... maps) {
+        checkMaps(maps.length);
+
+        for (ImageData map : maps) {
+            if (map.getWidth() != this.maps[0].getWidth() || map.getHeight() != this.maps[0].getHeight()) {
+                throw new IllegalArgumentException(
+                    "Image size " + map.getWidth() + "x" + map.getHeight() + " doesn't match the map size "
+                        + this.maps[0].getWidth() + "x" + this.maps[0].getHeight()
+                );
+            }
+        }
+
+        ByteBuffer[] pixels = new ByteBuffer[maps.length];
+
+        for (int i = 0; i < maps.length; ++i)
+            pixels[i] = maps[i].getPixels();
+
+        return add(pixels);
+    }
+
+    /**
+     * Adds a material from raw images
+     *
+     * @param maps RGBA images (unsigned bytes) in the order of {@link #SAMPLERS SAMPLERS}
+     * @return handle of the material
+     */
+    public int add(ByteBuffer... maps) {
+        checkMaps(maps.length);
+
+        int handle = allocate();
+
+        for (int i = 0; i < maps.length; ++i)
+            this.maps[i].setLayer(layers[handle], maps[i]);
+
+        return handle;
+    }
+
+    /**
+     * Removes a material. Its layer is reused by the next material which is added.
+     *
+     * @param handle handle of the material
+     */
+    public void remove(int handle) {
+        materials[layers[handle]] = FREE;
+        layers[handle] = FREE;
+        freeHandles[numFreeHandles++] = handle;
+        --size;
+    }
+
+    /**
+     * @param handle handle of the material
+     * @return layer of the material in the texture arrays
+     */
+    public int getLayer(int handle) {
+        return layers[handle];
+    }
+
+    /**
+     * Returns the material which binds the texture arrays. It is shared by all materials of the library.
+     *
+     * @return material
+     */
+    public Material getMaterial() {
+        return material;
+    }
+
+    /**
+     * @return number of materials
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of layers of the texture arrays
+     */
+    public int getCapacity() {
+        return materials.length;
+    }
+
+    /**
+     * Moves the materials of the highest layers into the free layers below them and shrinks the texture arrays to the
+     * number of materials. Afterwards the layers of the materials have to be read again.
+     *
+     * @return number of materials which were moved
+     */
+    public int defragment() {
+        int moved = 0;
+        int free = 0, last = materials.length - 1;
+
+        while (true) {
+            while (free < materials.length && materials[free] != FREE)
+                ++free;
+
+            while (last >= 0 && materials[last] == FREE)
+                --last;
+
+            if (free > last)
+                break;
+
+            for (TextureArray map : maps)
+                map.copyLayer(last, free);
+
+            int handle = materials[last];
+            materials[free] = handle;
+            materials[last] = FREE;
+            layers[handle] = free;
+            ++moved;
+        }
+
+        resize(Math.max(size, 1));
+        return moved;
+    }
+
+    /**
+     * Frees the texture arrays
+     */
+    @Override
+    public void close() {
+        material.close();
+
+        for (TextureArray map : maps) {
+            if (map != null)
+                map.close();
+        }
+    }
+
+    /**
+     * Assigns a handle and the lowest free layer to a new material, growing the arrays if necessary
+     *
+     * @return handle of the material
+     */
+    private int allocate() {
+        if (size == materials.length)
+            resize(materials.length * 2);
+
+        int layer = 0;
+
+        while (materials[layer] != FREE)
+            ++layer;
+
+        int handle;
+
+        if (numFreeHandles > 0)
+            handle = freeHandles[--numFreeHandles];
+        else {
+            handle = numHandles++;
+
+            if (handle == layers.length) {
+                layers = Arrays.copyOf(layers, Math.max(16, handle * 2));
+                freeHandles = Arrays.copyOf(freeHandles, layers.length);
+            }
+        }
+
+        materials[layer] = handle;
+        layers[handle] = layer;
+        ++size;
+
+        return handle;
+    }
+
+    /**
+     * Changes the number of layers of all arrays. The layers above the new capacity must be free.
+     *
+     * @param capacity new number of layers
+     */
+    private void resize(int capacity) {
+        if (capacity == materials.length)
+            return;
+
+        for (TextureArray map : maps)
+            map.resize(capacity);
+
+        int previous = materials.length;
+        materials = Arrays.copyOf(materials, capacity);
+
+        if (capacity > previous)
+            Arrays.fill(materials, previous, capacity, FREE);
+    }
+
+    /**
+     * @param count number of maps passed to add
+     */
+    private void checkMaps(int count) {
+        if (count != SAMPLERS.length)
+            throw new IllegalArgumentException("A material needs " + SAMPLERS.length + " maps");
+    }
+
+    private static final int FREE = -1;
+
+    private final Material material = new Material();
+    private final TextureArray[] maps;
+
+    // Handle of the material of each layer and layer of each handle
+    private int[] materials;
+    private int[] layers = new int[0];
+    private int[] freeHandles = new int[0];
+    private int numFreeHandles = 0;
+    private int numHandles = 0;
+    private int size = 0;
+}
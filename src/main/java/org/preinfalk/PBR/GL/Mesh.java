@@ -36,8 +36,69 @@ public abstract class Mesh implements Closeable {
      */
     public abstract void bindTexCoord(VAO vao, String name);
 
+    /**
+     * Bind tangent data (xyz and the handedness in w). Meshes without tangents don't bind anything.
+     *
+     * @param vao Vertex Array Object to bind to
+     * @param name Name of the location in the shader
+     */
+    public void bindTangent(VAO vao, String name) {
+    }
+
+    /**
+     * Bind index data. Meshes without indices don't bind anything.
+     *
+     * @param vao Vertex Array Object to bind to
+     */
+    public void bindIndices(VAO vao) {
+    }
+
     /**
      * @return number of vertices in the mesh
      */
     public abstract int getNumVertices();
+
+    /**
+     * @return number of elements to draw; This is the number of indices for indexed meshes and the number of vertices
+     *         otherwise.
+     */
+    public int getNumElements() {
+        return getNumVertices();
+    }
+
+    /**
+     * @return number of levels of detail; Meshes without levels of detail have one.
+     */
+    public int getNumLods() {
+        return 1;
+    }
+
+    /**
+     * @param lod level of detail, 0 is the most detailed one
+     * @return first vertex or index of the level
+     */
+    public int getLodFirst(int lod) {
+        return 0;
+    }
+
+    /**
+     * @param lod level of detail, 0 is the most detailed one
+     * @return number of elements to draw for the level
+     */
+    public int getLodCount(int lod) {
+        return getNumElements();
+    }
+
+    /**
+     * @param lod level of detail, 0 is the most detailed one
+     * @return geometric error of the level in object space units; Coarser levels have larger errors.
+     */
+    public float getLodError(int lod) {
+        return 0;
+    }
+
+    /**
+     * @return bounding box and sphere of the mesh; They are calculated when the mesh is built.
+     */
+    public abstract Bounds getBounds();
 }
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector2f;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryStack;
+import org.preinfalk.PBR.Scene.OcclusionCuller;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.system.MemoryStack.stackPush;
+
+/**
+ * Reads the depth of the drawn frames back into an {@link OcclusionCuller OcclusionCuller}, which the next stages cull
+ * against.
+ *
+ * After a frame was replayed, the depth of the {@link HdrFramebuffer HdrFramebuffer} is copied into a texture and
+ * reduced to a small size by writing the farthest depth of each block. The result is copied into a pixel buffer and
+ * read a few frames later, once its fence is signaled, so the CPU never waits for the GPU. The culler tests with the
+ * view projection matrix of the frame the depth belongs to.
+ *
+ * When objects move, the depth they left is discarded with {@link #invalidate(Vector3fc, Vector3fc) invalidate}, both
+ * in the culler and in the depth which is still read back, so objects which were hidden behind them reappear
+ * immediately instead of a few frames later. The rest of the depth keeps culling. {@link #invalidate() invalidate}
+ * discards all depth, e.g. when the camera jumps.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class OcclusionDepth implements FramePipeline.Resource, Closeable {
+    /**
+     * Creates the read back
+     *
+     * @param source framebuffer which contains the depth of the scene
+     * @param reduceShader shader which writes the farthest depth of a block (Fullscreen.vert and DepthReduce.frag)
+     * @param width width of the reduced depth
+     * @param height height of the reduced depth
+     */
+    public OcclusionDepth(HdrFramebuffer source, Shader reduceShader, int width, int height) {
+        this.source = source;
+        this.reduceShader = reduceShader;
+        this.width = width;
+        this.height = height;
+
+        depth = new float[width * height];
+        depthTexture = new Texture();
+        reduced = new Texture();
+        reduceVao = new VAO(reduceShader);
+
+        depthTexture.bind(GL_TEXTURE_2D);
+        glTexImage2D(
+            GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT24, source.getWidth(), source.getHeight(), 0, GL_DEPTH_COMPONENT,
+            GL_FLOAT, (ByteBuffer) null
+        );
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+
+        reduced.bind(GL_TEXTURE_2D);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_R32F, width, height, 0, GL_RED, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+
+        copyFramebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, copyFramebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depthTexture.getId(), 0);
+
+        reduceFramebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, reduceFramebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, reduced.getId(), 0);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+
+        reduceShader.setTexture("uDepth", depthTexture);
+
+        glGenBuffers(readBuffers);
+
+        for (int buffer : readBuffers) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer);
+            glBufferData(GL_PIXEL_PACK_BUFFER, depth.length * 4, GL_STREAM_READ);
+        }
+
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        for (int i = 0; i < matrices.length; ++i)
+            matrices[i] = new Matrix4f();
+    }
+
+    /**
+     * Sets the view projection matrix of the frame which is prepared. Must be called by the stage.
+     *
+     * @param viewProjection view projection matrix of the camera
+     */
+    public void setViewProjection(Matrix4fc viewProjection) {
+        prepared.set(viewProjection);
+        hasPrepared = true;
+    }
+
+    /**
+     * @return culler which contains the latest depth; It must only be read by the stage.
+     */
+    public OcclusionCuller getCuller() {
+        return culler;
+    }
+
+    /**
+     * Reads the depth from another framebuffer instead of the source, e.g. the G-buffer of {@link DeferredShading
+     * DeferredShading}, which holds the depth of the scene when the resources are synchronized. It must have a depth
+     * attachment of the format GL_DEPTH_COMPONENT24 and the render size of the source.
+     *
+     * @param framebuffer framebuffer to read the depth from; 0 reads the depth of the source again
+     */
+    public void setDepthSource(int framebuffer) {
+        depthSource = framebuffer;
+    }
+
+    /**
+     * Discards all depth which was drawn until now. Must be called between two frames.
+     */
+    public void invalidate() {
+        culler.clear();
+
+        // The next replayed frame was still prepared before the objects moved
+        validFrom = frame + 1;
+        movedBoxes.clear();
+        movedFrames.clear();
+    }
+
+    /**
+     * Discards the depth which was drawn until now in the screen rectangle of a box. Must be called between two frames
+     * with the box which a moved object had in the last prepared frame.
+     *
+     * @param center center of the world space box
+     * @param extent half size of the world space box
+     */
+    public void invalidate(Vector3fc center, Vector3fc extent) {
+        float[] box = { center.x(), center.y(), center.z(), extent.x(), extent.y(), extent.z() };
+        clearBox(box);
+
+        // The depth of frames which were prepared before the move is still read back
+        movedBoxes.add(box);
+        movedFrames.add(frame + 1);
+    }
+
+    /**
+     * Reads finished depth into the culler and copies the depth of the frame which was just replayed
+     */
+    @Override
+    public void synchronize() {
+        read();
+
+        if (hasExecuted)
+            capture();
+
+        // The matrix of the prepared frame belongs to the depth of the next call
+        executed.set(prepared);
+        hasExecuted = hasPrepared;
+        hasPrepared = false;
+        ++frame;
+    }
+
+    /**
+     * Frees the textures, the framebuffers and the pixel buffers
+     */
+    @Override
+    public void close() {
+        for (long fence : fences) {
+            if (fence != 0)
+                glDeleteSync(fence);
+        }
+
+        glDeleteBuffers(readBuffers);
+        glDeleteFramebuffers(copyFramebuffer);
+        glDeleteFramebuffers(reduceFramebuffer);
+        depthTexture.close();
+        reduced.close();
+        reduceVao.close();
+    }
+
+    /**
+     * Copies and reduces the depth of the source and starts reading it, unless all pixel buffers are in flight
+     */
+    private void capture() {
+        if (fences[next] != 0)
+            return;
+
+        int renderWidth = source.getRenderWidth(), renderHeight = source.getRenderHeight();
+        int viewportX, viewportY, viewportWidth, viewportHeight;
+        int previousRead = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+        int previousDraw = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        boolean depthTest = glIsEnabled(GL_DEPTH_TEST);
+
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer viewport = stack.mallocInt(4);
+            glGetIntegerv(GL_VIEWPORT, viewport);
+            viewportX = viewport.get(0);
+            viewportY = viewport.get(1);
+            viewportWidth = viewport.get(2);
+            viewportHeight = viewport.get(3);
+        }
+
+        // Resolves multisampled depth by picking a sample; The dilation of the culler covers the edges.
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, depthSource != 0 ? depthSource : source.getFramebuffer());
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, copyFramebuffer);
+        glBlitFramebuffer(
+            0, 0, renderWidth, renderHeight, 0, 0, renderWidth, renderHeight, GL_DEPTH_BUFFER_BIT, GL_NEAREST
+        );
+
+        reduceShader.setVec2("uRatio", new Vector2f((float) renderWidth / width, (float) renderHeight / height));
+        reduceShader.setVec2("uRenderSize", new Vector2f(renderWidth, renderHeight));
+
+        glDisable(GL_DEPTH_TEST);
+        glBindFramebuffer(GL_FRAMEBUFFER, reduceFramebuffer);
+        glViewport(0, 0, width, height);
+        reduceVao.draw(GL_TRIANGLES, 0, 3);
+
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, readBuffers[next]);
+        glReadPixels(0, 0, width, height, GL_RED, GL_FLOAT, 0L);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        fences[next] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        frames[next] = frame;
+        matrices[next].set(executed);
+        next = (next + 1) % fences.length;
+
+        if (depthTest)
+            glEnable(GL_DEPTH_TEST);
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, previousRead);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, previousDraw);
+        glViewport(viewportX, viewportY, viewportWidth, viewportHeight);
+    }
+
+    /**
+     * Passes the newest finished read back to the culler
+     */
+    private void read() {
+        for (int i = 0; i < fences.length; ++i) {
+            int slot = (next + i) % fences.length;
+
+            if (fences[slot] == 0)
+                continue;
+
+            int status = glClientWaitSync(fences[slot], 0, 0);
+
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED)
+                continue;
+
+            glDeleteSync(fences[slot]);
+            fences[slot] = 0;
+
+            if (frames[slot] < validFrom)
+                continue;
+
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, readBuffers[slot]);
+            ByteBuffer data = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, depth.length * 4, GL_MAP_READ_BIT);
+
+            if (data != null) {
+                data.order(ByteOrder.nativeOrder()).asFloatBuffer().get(depth);
+                glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+                culler.setDepth(depth, width, height, matrices[slot]);
+
+                // Boxes which were left after this frame are still in its depth, older ones never again
+                for (int j = movedBoxes.size() - 1; j >= 0; --j) {
+                    if (movedFrames.get(j) > frames[slot])
+                        clearBox(movedBoxes.get(j));
+                    else {
+                        movedBoxes.remove(j);
+                        movedFrames.remove(j);
+                    }
+                }
+            }
+        }
+
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    /**
+     * @param box center and half size of a box
+     */
+    private void clearBox(float[] box) {
+        culler.clearBox(box[0], box[1], box[2], box[3], box[4], box[5]);
+    }
+
+    private final HdrFramebuffer source;
+    private final Shader reduceShader;
+    private final int width;
+    private final int height;
+    private final float[] depth;
+    private final Texture depthTexture;
+    private final Texture reduced;
+    private final VAO reduceVao;
+    private final int copyFramebuffer;
+    private final int reduceFramebuffer;
+    private final OcclusionCuller culler = new OcclusionCuller();
+    private int depthSource = 0;
+
+    // Pixel buffers in flight with the frame and the matrix of their depth
+    private final int[] readBuffers = new int[3];
+    private final long[] fences = new long[3];
+    private final long[] frames = new long[3];
+    private final Matrix4f[] matrices = new Matrix4f[3];
+    private int next = 0;
+
+    private final Matrix4f prepared = new Matrix4f();
+    private final Matrix4f executed = new Matrix4f();
+    private boolean hasPrepared = false;
+    private boolean hasExecuted = false;
+    private long frame = 0;
+    private long validFrom = 0;
+
+    // Boxes left by moved objects and the first frame which was prepared after the move
+    private final List<float[]> movedBoxes = new ArrayList<>();
+    private final List<Long> movedFrames = new ArrayList<>();
+}
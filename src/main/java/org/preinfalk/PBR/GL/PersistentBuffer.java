@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Buffer with immutable storage which stays mapped, so the CPU writes directly into memory the GPU reads. Requires
+ * OpenGL 4.5.
+ *
+ * The buffer is split into regions which are used round robin, one per frame. {@link #begin() begin} waits until the
+ * GPU finished reading the next region, {@link #end() end} inserts a fence after the commands which read it.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+class PersistentBuffer implements Closeable {
+    /**
+     * Creates and maps the buffer
+     *
+     * @param regionSize size of a region in bytes; It should be a multiple of 256, so regions can be bound as texture
+     *                   buffer ranges.
+     * @param numRegions number of regions
+     */
+    PersistentBuffer(long regionSize, int numRegions) {
+        this.regionSize = regionSize;
+        fences = new long[numRegions];
+
+        buffer = glCreateBuffers();
+        glNamedBufferStorage(buffer, regionSize * numRegions, FLAGS);
+        memory = glMapNamedBufferRange(buffer, 0, regionSize * numRegions, FLAGS).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Waits until the GPU doesn't read the next region anymore
+     *
+     * @return offset of the region in bytes
+     */
+    long begin() {
+        long fence = fences[next];
+
+        if (fence != 0) {
+            while (true) {
+                int status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+
+                if (status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED)
+                    break;
+
+                if (status == GL_WAIT_FAILED)
+                    throw new RuntimeException("Failed to wait for a persistent buffer");
+            }
+
+            glDeleteSync(fence);
+            fences[next] = 0;
+        }
+
+        return next * regionSize;
+    }
+
+    /**
+     * Marks the current region as used by the commands issued until now and moves to the next one
+     */
+    void end() {
+        fences[next] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        next = (next + 1) % fences.length;
+    }
+
+    /**
+     * @return mapped memory of all regions in native byte order
+     */
+    ByteBuffer getMemory() {
+        return memory;
+    }
+
+    /**
+     * @return size of a region in bytes
+     */
+    long getRegionSize() {
+        return regionSize;
+    }
+
+    /**
+     * @return OpenGL name of the buffer
+     */
+    int getId() {
+        return buffer;
+    }
+
+    /**
+     * Unmaps and frees the buffer
+     */
+    @Override
+    public void close() {
+        for (long fence : fences) {
+            if (fence != 0)
+                glDeleteSync(fence);
+        }
+
+        glUnmapNamedBuffer(buffer);
+        glDeleteBuffers(buffer);
+    }
+
+    private static final int FLAGS = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+    private static final long WAIT_TIMEOUT = 100000000;
+
+    private final long regionSize;
+    private final long[] fences;
+    private final int buffer;
+    private final ByteBuffer memory;
+    private int next = 0;
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Vector3f;
+import org.preinfalk.PBR.Scene.ProbeGrid;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Provides the light probes of a {@link ProbeGrid ProbeGrid} to shaders which were created with the LIGHT_PROBES
+ * definition, which replace the constant ambient light with the irradiance of the probes around the fragment.
+ *
+ * The coefficients are stored in the 3D texture uProbes (RGBA16F) with the layout of the grid: 7 blocks along z, which
+ * the shader samples with linear filtering, clamped to the texel centers of a block, so the probes are interpolated
+ * trilinearly without bleeding between blocks. The grid is baked by a {@link FramePipeline.Stage Stage}, so this is a
+ * {@link FramePipeline.Resource Resource} which uploads the coefficients when probes were baked.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class ProbeVolume implements FramePipeline.Resource, Closeable {
+    /**
+     * Creates the texture
+     *
+     * @param grid grid which bakes the probes
+     */
+    public ProbeVolume(ProbeGrid grid) {
+        this.grid = grid;
+
+        texture = new Texture();
+        texture.bind(GL_TEXTURE_3D);
+        glTexImage3D(
+            GL_TEXTURE_3D, 0, GL_RGBA16F, grid.getCountX(), grid.getCountY(), grid.getCountZ() * BLOCKS, 0, GL_RGBA,
+            GL_FLOAT, (ByteBuffer) null
+        );
+        glTexParameteri(GL_TEXTURE_3D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_3D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_3D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_3D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_3D, GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+    }
+
+    /**
+     * Assigns the texture to a shader and sets the uniforms of the grid
+     *
+     * @param shader shader which was created with the LIGHT_PROBES definition
+     */
+    public void addShader(Shader shader) {
+        shader.setTexture("uProbes", texture, GL_TEXTURE_3D);
+        shader.setInt("uProbeCount", grid.getCountX(), grid.getCountY(), grid.getCountZ());
+        shader.setVec3("uProbeMin", new Vector3f(grid.getMin()));
+        shader.setVec3("uProbeScale", new Vector3f(grid.getScale()));
+    }
+
+    /**
+     * Uploads the coefficients if probes were baked since the last upload
+     */
+    @Override
+    public void synchronize() {
+        if (grid.getVersion() == version)
+            return;
+
+        version = grid.getVersion();
+
+        texture.bind(GL_TEXTURE_3D);
+        glTexSubImage3D(
+            GL_TEXTURE_3D, 0, 0, 0, 0, grid.getCountX(), grid.getCountY(), grid.getCountZ() * BLOCKS, GL_RGBA,
+            GL_FLOAT, grid.getCoefficients()
+        );
+    }
+
+    /**
+     * Frees the texture
+     */
+    @Override
+    public void close() {
+        texture.close();
+    }
+
+    /**
+     * Number of RGBA blocks holding the 27 coefficients of a probe
+     */
+    private static final int BLOCKS = 7;
+
+    private final ProbeGrid grid;
+    private final Texture texture;
+    private int version = -1;
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Atomic reference counter of a resource, which can be in/decreased on any thread.
+ *
+ * The counter starts with the reference of the creator. {@link #addRef() addRef} adds a reference, {@link #release()
+ * release} removes one and reports when the last one is gone, which happens exactly once, no matter how many threads
+ * release concurrently.
+ *
+ * With leak tracking enabled (system property pbr.trackLeaks=true or {@link #setLeakTracking(boolean)
+ * setLeakTracking}) every counter created afterwards remembers the stack trace of its allocation until it is released.
+ * {@link #getLeaks() getLeaks} returns the traces of all resources which are still alive, e.g. after everything was
+ * closed on shutdown.
+ */
+public final class RefCount {
+    /**
+     * Creates a counter with one reference
+     *
+     * @param resource resource which owns the counter; It's only used to describe leaks.
+     */
+    public RefCount(Object resource) {
+        if (tracking) {
+            allocation = new Throwable(resource.getClass().getName() + " was allocated here and never released");
+            alive.add(this);
+        } else
+            allocation = null;
+    }
+
+    /**
+     * Adds a reference
+     */
+    public void addRef() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * Removes a reference
+     *
+     * @return true if it was the last reference and the resource has to be freed
+     */
+    public boolean release() {
+        if (count.decrementAndGet() != 0)
+            return false;
+
+        if (allocation != null)
+            alive.remove(this);
+
+        return true;
+    }
+
+    /**
+     * @param enabled if counters created from now on record their allocation
+     */
+    public static void setLeakTracking(boolean enabled) {
+        tracking = enabled;
+    }
+
+    /**
+     * @return allocation traces of the tracked resources which weren't released yet
+     */
+    public static List<Throwable> getLeaks() {
+        List<Throwable> leaks = new ArrayList<>();
+
+        for (RefCount counter : alive)
+            leaks.add(counter.allocation);
+
+        return leaks;
+    }
+
+    private static final Set<RefCount> alive = ConcurrentHashMap.newKeySet();
+    private static volatile boolean tracking = Boolean.getBoolean("pbr.trackLeaks");
+
+    private final AtomicInteger count = new AtomicInteger(1);
+    private final Throwable allocation;
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3fc;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Deferred draw queue, which sorts the draws before executing them to minimize state changes.
+ *
+ * Each draw is recorded as a 64 bit sort key containing the program, the material, the vertex array and the depth (from
+ * most to least significant). Draws can be recorded from multiple threads, since every thread gets its own
+ * {@link Recorder Recorder}. {@link #build(CommandList) build} merges the recorders into a {@link CommandList
+ * CommandList} and radix sorts the keys, which can then be executed on the thread which owns the OpenGL context.
+ * Consecutive draws with the same state, transform and adjacent vertex ranges are merged into a single draw call.
+ */
+public class RenderQueue {
+    /**
+     * Records draws into a buffer owned by a single thread
+     */
+    public static class Recorder {
+        /**
+         * Records a draw without a transform
+         *
+         * @param vao vertex array to draw
+         * @param material textures to bind; It may be null if the shader doesn't use any textures.
+         * @param mode GL_TRIANGLES, GL_LINES, etc.
+         * @param first first vertex
+         * @param count number of vertices
+         * @param depth distance to the camera; Draws with the same state are drawn front to back.
+         */
+        public void draw(VAO vao, Material material, int mode, int first, int count, float depth) {
+            draw(vao, material, mode, first, count, depth, null, 0, null, 0);
+        }
+
+        /**
+         * Records an instanced draw without a transform. Instanced draws are never merged.
+         *
+         * @param vao vertex array to draw
+         * @param material textures to bind; It may be null if the shader doesn't use any textures.
+         * @param mode GL_TRIANGLES, GL_LINES, etc.
+         * @param first first vertex
+         * @param count number of vertices
+         * @param instances number of instances
+         * @param depth distance to the camera; Draws with the same state are drawn front to back.
+         */
+        public void drawInstanced(
+            VAO vao, Material material, int mode, int first, int count, int instances, float depth
+        ) {
+            draw(vao, material, mode, first, count, depth, null, 0, null, 0);
+            this.instances[size - 1] = instances;
+        }
+
+        /**
+         * Records a draw. The matrices are copied, so the arrays can be modified after recording.
+         *
+         * @param vao vertex array to draw
+         * @param material textures to bind; It may be null if the shader doesn't use any textures.
+         * @param mode GL_TRIANGLES, GL_LINES, etc.
+         * @param first first vertex
+         * @param count number of vertices
+         * @param depth distance to the camera; Draws with the same state are drawn front to back.
+         * @param model array containing the model matrix (column major) or null
+         * @param modelOffset index of the first value of the model matrix
+         * @param normal array containing the normal matrix (column major) or null
+         * @param normalOffset index of the first value of the normal matrix
+         */
+        public void draw(
+            VAO vao, Material material, int mode, int first, int count, float depth, float[] model, int modelOffset,
+            float[] normal, int normalOffset
+        ) {
+            if (size == keys.length)
+                allocate(Math.max(64, size * 2));
+
+            int i = size++;
+
+            keys[i] = makeKey(vao, material, depth);
+            vaos[i] = vao;
+            materials[i] = material;
+            modes[i] = mode;
+            firsts[i] = first;
+            counts[i] = count;
+            instances[i] = 0;
+            hasTransform[i] = model != null;
+
+            if (model != null) {
+                System.arraycopy(model, modelOffset, transforms, i * CommandList.TRANSFORM_SIZE, 16);
+                System.arraycopy(normal, normalOffset, transforms, i * CommandList.TRANSFORM_SIZE + 16, 9);
+            }
+        }
+
+        /**
+         * Records a uniform which is set before the draws are executed. The values are copied.
+         *
+         * @param shader shader which contains the uniform
+         * @param name name of the uniform
+         * @param values values; 1, 2, 3 or 4 values set a float or vector, 9 a mat3 and 16 a mat4
+         */
+        public void setUniform(Shader shader, String name, float... values) {
+            if (numUniforms + 1 == uniformOffsets.length) {
+                uniformShaders = Arrays.copyOf(uniformShaders, uniformOffsets.length * 2);
+                uniformNames = Arrays.copyOf(uniformNames, uniformOffsets.length * 2);
+                uniformOffsets = Arrays.copyOf(uniformOffsets, uniformOffsets.length * 2);
+            }
+
+            int offset = uniformOffsets[numUniforms];
+
+            if (offset + values.length > uniformValues.length)
+                uniformValues = Arrays.copyOf(uniformValues, Math.max(64, (offset + values.length) * 2));
+
+            System.arraycopy(values, 0, uniformValues, offset, values.length);
+
+            uniformShaders[numUniforms] = shader;
+            uniformNames[numUniforms] = name;
+            uniformOffsets[++numUniforms] = offset + values.length;
+        }
+
+        /**
+         * Records a mat4 uniform which is set before the draws are executed
+         *
+         * @param shader shader which contains the uniform
+         * @param name name of the uniform
+         * @param value matrix
+         */
+        public void setUniform(Shader shader, String name, Matrix4fc value) {
+            setUniform(shader, name, value.get(new float[16]));
+        }
+
+        /**
+         * Records a vec3 uniform which is set before the draws are executed
+         *
+         * @param shader shader which contains the uniform
+         * @param name name of the uniform
+         * @param value vector
+         */
+        public void setUniform(Shader shader, String name, Vector3fc value) {
+            setUniform(shader, name, value.x(), value.y(), value.z());
+        }
+
+        /**
+         * @return number of recorded draws
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Removes all recorded draws
+         */
+        public void clear() {
+            Arrays.fill(vaos, 0, size, null);
+            Arrays.fill(materials, 0, size, null);
+            Arrays.fill(uniformShaders, 0, numUniforms, null);
+            Arrays.fill(uniformNames, 0, numUniforms, null);
+            size = 0;
+            numUniforms = 0;
+        }
+
+        /**
+         * @return if the thread which owns the recorder has ended, so nothing can be recorded anymore
+         */
+        private boolean isOrphaned() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        /**
+         * Grows the buffers
+         *
+         * @param capacity new number of draws
+         */
+        private void allocate(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+            vaos = Arrays.copyOf(vaos, capacity);
+            materials = Arrays.copyOf(materials, capacity);
+            modes = Arrays.copyOf(modes, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            instances = Arrays.copyOf(instances, capacity);
+            hasTransform = Arrays.copyOf(hasTransform, capacity);
+            transforms = Arrays.copyOf(transforms, capacity * CommandList.TRANSFORM_SIZE);
+        }
+
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        private int size = 0;
+        private long[] keys = new long[0];
+        private VAO[] vaos = new VAO[0];
+        private Material[] materials = new Material[0];
+        private int[] modes = new int[0];
+        private int[] firsts = new int[0];
+        private int[] counts = new int[0];
+        private int[] instances = new int[0];
+        private boolean[] hasTransform = new boolean[0];
+        private float[] transforms = new float[0];
+
+        private int numUniforms = 0;
+        private Shader[] uniformShaders = new Shader[4];
+        private String[] uniformNames = new String[4];
+        private int[] uniformOffsets = new int[4];
+        private float[] uniformValues = new float[0];
+    }
+
+    /**
+     * Creates a queue which uploads the transforms of the draws to the given uniforms
+     *
+     * @param modelName name of the mat4 uniform which receives the model matrix
+     * @param normalName name of the mat3 uniform which receives the normal matrix
+     */
+    public RenderQueue(String modelName, String normalName) {
+        this.modelName = modelName;
+        this.normalName = normalName;
+    }
+
+    /**
+     * Returns the recorder of the calling thread. It is created on first use.
+     *
+     * @return recorder of the calling thread
+     */
+    public Recorder getRecorder() {
+        return recorder.get();
+    }
+
+    /**
+     * Sorts and draws everything recorded by all threads and clears the recorders afterwards. Recording must not
+     * happen while this is executing.
+     */
+    public void execute() {
+        build(commands);
+        commands.execute();
+    }
+
+    /**
+     * Copies everything recorded by all threads into a command list, sorts it and clears the recorders. The recorders
+     * of threads which ended are dropped after their draws were copied, so worker pools which replace their threads
+     * don't accumulate recorders. This doesn't touch OpenGL, so it can be called on any thread. Recording must not
+     * happen while this is executing.
+     *
+     * @param list list which receives the draws
+     */
+    public void build(CommandList list) {
+        int numDraws = 0, numUniforms = 0, numUniformValues = 0;
+
+        for (Recorder rec : recorders) {
+            numDraws += rec.size;
+            numUniforms += rec.numUniforms;
+            numUniformValues += rec.uniformOffsets[rec.numUniforms];
+        }
+
+        list.reset(modelName, normalName, numDraws, numUniforms, numUniformValues);
+
+        int offset = 0, uniformOffset = 0, valueOffset = 0;
+
+        for (Recorder rec : recorders) {
+            int n = rec.size;
+
+            System.arraycopy(rec.keys, 0, list.keys, offset, n);
+            System.arraycopy(rec.vaos, 0, list.vaos, offset, n);
+            System.arraycopy(rec.materials, 0, list.materials, offset, n);
+            System.arraycopy(rec.modes, 0, list.modes, offset, n);
+            System.arraycopy(rec.firsts, 0, list.firsts, offset, n);
+            System.arraycopy(rec.counts, 0, list.counts, offset, n);
+            System.arraycopy(rec.instances, 0, list.instances, offset, n);
+            System.arraycopy(rec.hasTransform, 0, list.hasTransform, offset, n);
+            System.arraycopy(
+                rec.transforms, 0, list.transforms, offset * CommandList.TRANSFORM_SIZE, n * CommandList.TRANSFORM_SIZE
+            );
+
+            int u = rec.numUniforms;
+            int values = rec.uniformOffsets[u];
+
+            System.arraycopy(rec.uniformShaders, 0, list.uniformShaders, uniformOffset, u);
+            System.arraycopy(rec.uniformNames, 0, list.uniformNames, uniformOffset, u);
+            System.arraycopy(rec.uniformValues, 0, list.uniformValues, valueOffset, values);
+
+            for (int i = 0; i < u; ++i)
+                list.uniformOffsets[uniformOffset + i + 1] = valueOffset + rec.uniformOffsets[i + 1];
+
+            rec.clear();
+            offset += n;
+            uniformOffset += u;
+            valueOffset += values;
+        }
+
+        recorders.removeIf(Recorder::isOrphaned);
+
+        list.size = numDraws;
+        list.numUniforms = numUniforms;
+        list.sort();
+    }
+
+    /**
+     * @return number of draws recorded for the last execution
+     */
+    public int getNumDraws() {
+        return commands.size();
+    }
+
+    /**
+     * @return number of draw calls issued by the last execution
+     */
+    public int getNumDrawCalls() {
+        return commands.getNumDrawCalls();
+    }
+
+    /**
+     * @return number of program changes in the last execution
+     */
+    public int getNumProgramChanges() {
+        return commands.getNumProgramChanges();
+    }
+
+    /**
+     * @return number of material changes in the last execution
+     */
+    public int getNumMaterialChanges() {
+        return commands.getNumMaterialChanges();
+    }
+
+    /**
+     * Builds the sort key of a draw
+     *
+     * @param vao vertex array to draw
+     * @param material textures to bind or null
+     * @param depth distance to the camera
+     * @return sort key
+     */
+    private static long makeKey(VAO vao, Material material, float depth) {
+        long program = vao.getShader().getProgram() & 0xFFF;
+        long materialId = material != null ? material.getId() & 0xFFFF : 0;
+        long vaoId = vao.getId() & 0xFFF;
+
+        return program << 52 | materialId << 36 | vaoId << 24 | depthBits(depth);
+    }
+
+    /**
+     * @param depth distance to the camera
+     * @return the 24 bits of the sort key which order the draws by depth
+     */
+    static long depthBits(float depth) {
+        // The bits of positive floats keep their order when compared as integers
+        return Float.floatToIntBits(Math.max(depth, 0)) >>> 7 & 0xFFFFFF;
+    }
+
+    private final String modelName;
+    private final String normalName;
+    private final CommandList commands = new CommandList();
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(() -> {
+        Recorder rec = new Recorder();
+        recorders.add(rec);
+        return rec;
+    });
+}
@@ -13,6 +13,7 @@ import java.io.Closeable;
 import java.nio.FloatBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import static org.lwjgl.opengl.GL33.*;
 import static org.lwjgl.system.MemoryStack.stackPush;
@@ -26,13 +27,15 @@ import static org.lwjgl.system.MemoryStack.stackPush;
  */
 public class Shader implements Closeable {
     private class TextureEntry {
-        TextureEntry(int index, Texture texture) {
+        TextureEntry(int index, Texture texture, int target) {
             this.index = index;
             this.texture = texture;
+            this.target = target;
         }
 
         int index;
         Texture texture;
+        int target;
     }
 
     /**
@@ -70,6 +73,8 @@ public class Shader implements Closeable {
             glDeleteShader(shdvert);
 
             program = prog;
+            vertSource = vert;
+            fragSource = frag;
         } catch (Throwable th) {
             glDeleteShader(shdvert);
             glDeleteShader(shdfrag);
@@ -78,6 +83,18 @@ public class Shader implements Closeable {
         }
     }
 
+    /**
+     * Create shader from vertex and fragment GLSL code with preprocessor definitions. The definitions are inserted
+     * after the #version line of both shaders, so variants can be selected with #ifdef.
+     *
+     * @param vert code for vertex shader
+     * @param frag code for fragment shader
+     * @param defines names which are defined
+     */
+    public Shader(String vert, String frag, String... defines) {
+        this(addDefines(vert, defines), addDefines(frag, defines));
+    }
+
     /**
      * Sets the uniform to one or more floats
      *
@@ -86,7 +103,10 @@ public class Shader implements Closeable {
      */
     public void setFloat(String name, float... values) {
         glUseProgram(program);
-        glUniform1fv(glGetUniformLocation(program, name), values);
+        glUniform1fv(getUniformLocation(name), values);
+
+        if (FrameCapture.isActive())
+            FrameCapture.uniform(this, name, GL_FLOAT, values, 0, values.length);
     }
 
     /**
@@ -104,7 +124,10 @@ public class Shader implements Closeable {
             for (Vector2f vec : values)
                 vec.get(data);
 
-            glUniform2fv(glGetUniformLocation(program, name), data);
+            glUniform2fv(getUniformLocation(name), data);
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, GL_FLOAT_VEC2, data, false);
         }
     }
 
@@ -123,7 +146,10 @@ public class Shader implements Closeable {
             for (Vector3f vec : values)
                 vec.get(data);
 
-            glUniform3fv(glGetUniformLocation(program, name), data);
+            glUniform3fv(getUniformLocation(name), data);
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, GL_FLOAT_VEC3, data, false);
         }
     }
 
@@ -142,7 +168,10 @@ public class Shader implements Closeable {
             for (Vector4f vec : values)
                 vec.get(data);
 
-            glUniform4fv(glGetUniformLocation(program, name), data);
+            glUniform4fv(getUniformLocation(name), data);
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, GL_FLOAT_VEC4, data, false);
         }
     }
 
@@ -169,7 +198,10 @@ public class Shader implements Closeable {
         try (MemoryStack stack = stackPush()) {
             FloatBuffer data = stack.mallocFloat(9);
             value.get(data);
-            glUniformMatrix3fv(glGetUniformLocation(program, name), transpose, data);
+            glUniformMatrix3fv(getUniformLocation(name), transpose, data);
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, GL_FLOAT_MAT3, data, transpose);
         }
     }
 
@@ -196,10 +228,67 @@ public class Shader implements Closeable {
         try (MemoryStack stack = stackPush()) {
             FloatBuffer data = stack.mallocFloat(16);
             value.get(data);
-            glUniformMatrix4fv(glGetUniformLocation(program, name), transpose, data);
+            glUniformMatrix4fv(getUniformLocation(name), transpose, data);
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, GL_FLOAT_MAT4, data, transpose);
+        }
+    }
+
+    /**
+     * Sets the uniform to one mat3 stored in an array (column major)
+     *
+     * @param name name of the uniform
+     * @param values array containing the matrix
+     * @param offset index of the first value of the matrix
+     */
+    public void setMat3(String name, float[] values, int offset) {
+        glUseProgram(program);
+
+        try (MemoryStack stack = stackPush()) {
+            FloatBuffer data = stack.mallocFloat(9);
+            data.put(values, offset, 9).flip();
+            glUniformMatrix3fv(getUniformLocation(name), false, data);
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, GL_FLOAT_MAT3, data, false);
         }
     }
 
+    /**
+     * Sets the uniform to one mat4 stored in an array (column major)
+     *
+     * @param name name of the uniform
+     * @param values array containing the matrix
+     * @param offset index of the first value of the matrix
+     */
+    public void setMat4(String name, float[] values, int offset) {
+        glUseProgram(program);
+
+        try (MemoryStack stack = stackPush()) {
+            FloatBuffer data = stack.mallocFloat(16);
+            data.put(values, offset, 16).flip();
+            glUniformMatrix4fv(getUniformLocation(name), false, data);
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, GL_FLOAT_MAT4, data, false);
+        }
+    }
+
+    /**
+     * Sets the uniform to one or more ints
+     *
+     * @param name name of the uniform
+     * @param values values
+     */
+    public void setInt(String name, int... values) {
+        glUseProgram(program);
+        glUniform1iv(getUniformLocation(name), values);
+
+        if (FrameCapture.isActive())
+            FrameCapture.uniform(this, name, values);
+    }
+
     /**
      * Sets the uniform (sampler) to the texture
      *
@@ -207,61 +296,234 @@ public class Shader implements Closeable {
      * @param texture texture to be assigned
      */
     public void setTexture(String name, Texture texture) {
+        setTexture(name, texture, GL_TEXTURE_2D);
+    }
+
+    /**
+     * Sets the uniform (sampler) to a texture which is bound to another target than GL_TEXTURE_2D
+     *
+     * @param name name of the uniform
+     * @param texture texture to be assigned
+     * @param target GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BUFFER, etc.
+     */
+    public void setTexture(String name, Texture texture, int target) {
+        if (FrameCapture.isActive())
+            FrameCapture.setTexture(this, name, texture, target);
+
         TextureEntry entry = textures.get(name);
 
-        if (entry != null && entry.texture == texture)
+        if (entry != null && entry.texture == texture && entry.target == target)
             return;
 
         if (entry == null) {
-            int loc = glGetUniformLocation(program, name);
+            int loc = getUniformLocation(name);
 
             if (loc >= 0) {
                 if (numIndices >= GL_MAX_TEXTURE_UNITS)
                     throw new RuntimeException("too many textures set");
 
-                textures.put(name, new TextureEntry(numIndices, texture));
+                textures.put(name, new TextureEntry(numIndices, texture, target));
 
                 glUseProgram(program);
                 glUniform1i(loc, numIndices);
 
                 ++numIndices;
             }
-        } else
+        } else {
             entry.texture = texture;
+            entry.target = target;
+        }
     }
 
     /**
-     * Decreases the reference count and destroys the resource when it hits zero
+     * Decreases the reference count and schedules the destruction of the resource on the {@link DeletionQueue
+     * DeletionQueue} when it hits zero. Can be called on any thread.
      */
     @Override
     public void close() {
-        if (references == 0) {
-            glDeleteProgram(program);
+        if (references.release()) {
+            int name = program;
             program = 0;
+            DeletionQueue.enqueue(() -> glDeleteProgram(name));
         }
-
-        --references;
     }
 
     /**
      * Increases the reference count
      */
     public void addRef() {
-        ++references;
+        references.addRef();
     }
 
     /**
      * Bind shader and textures
      */
     protected void use() {
+        if (FrameCapture.isActive())
+            FrameCapture.use(this);
+
         glUseProgram(program);
 
         textures.forEach((s, entry) -> {
             glActiveTexture(GL_TEXTURE0 + entry.index);
-            entry.texture.bind(GL_TEXTURE_2D);
+            entry.texture.bind(entry.target);
         });
     }
 
+    /**
+     * Sets a uniform from values stored in an array. The type is derived from the number of values.
+     *
+     * @param name name of the uniform
+     * @param values array containing the values
+     * @param offset index of the first value
+     * @param count number of values; 1, 2, 3 or 4 for float and vectors, 9 for mat3 and 16 for mat4
+     */
+    protected void setUniform(String name, float[] values, int offset, int count) {
+        glUseProgram(program);
+
+        try (MemoryStack stack = stackPush()) {
+            FloatBuffer data = stack.mallocFloat(count);
+            data.put(values, offset, count).flip();
+
+            int loc = getUniformLocation(name);
+
+            switch (count) {
+            case 1: glUniform1fv(loc, data); break;
+            case 2: glUniform2fv(loc, data); break;
+            case 3: glUniform3fv(loc, data); break;
+            case 4: glUniform4fv(loc, data); break;
+            case 9: glUniformMatrix3fv(loc, false, data); break;
+            case 16: glUniformMatrix4fv(loc, false, data); break;
+            default: throw new IllegalArgumentException("unsupported number of uniform values: " + count);
+            }
+
+            if (FrameCapture.isActive())
+                FrameCapture.uniform(this, name, values, offset, count);
+        }
+    }
+
+    /**
+     * Binds only the program without touching the textures
+     */
+    protected void useProgram() {
+        glUseProgram(program);
+    }
+
+    /**
+     * Assigns a texture to a sampler and binds it immediately. The program must be in use.
+     *
+     * @param name name of the uniform
+     * @param texture texture to be bound
+     */
+    protected void bindTexture(String name, Texture texture) {
+        TextureEntry previous = textures.get(name);
+        bindTexture(name, texture, previous != null ? previous.target : GL_TEXTURE_2D);
+    }
+
+    /**
+     * Assigns a texture to a sampler and binds it immediately to the given target. The program must be in use.
+     *
+     * @param name name of the uniform
+     * @param texture texture to be bound
+     * @param target GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY, etc.
+     */
+    protected void bindTexture(String name, Texture texture, int target) {
+        setTexture(name, texture, target);
+
+        TextureEntry entry = textures.get(name);
+
+        if (entry != null) {
+            glActiveTexture(GL_TEXTURE0 + entry.index);
+            texture.bind(entry.target);
+        }
+
+        if (FrameCapture.isActive())
+            FrameCapture.bindTexture(this, name, texture, target);
+    }
+
+    /**
+     * @return GLSL code of the vertex shader including the definitions
+     */
+    String getVertexSource() {
+        return vertSource;
+    }
+
+    /**
+     * @return GLSL code of the fragment shader including the definitions
+     */
+    String getFragmentSource() {
+        return fragSource;
+    }
+
+    /**
+     * @return names of the samplers which have a texture assigned
+     */
+    Set<String> getTextureNames() {
+        return textures.keySet();
+    }
+
+    /**
+     * @param name name of the sampler
+     * @return texture assigned to the sampler
+     */
+    Texture getTexture(String name) {
+        return textures.get(name).texture;
+    }
+
+    /**
+     * @param name name of the sampler
+     * @return target the texture is bound to
+     */
+    int getTextureTarget(String name) {
+        return textures.get(name).target;
+    }
+
+    /**
+     * @return OpenGL name of the program
+     */
+    protected int getProgram() {
+        return program;
+    }
+
+    /**
+     * Looks up the location of a uniform. The locations are cached, since they don't change after linking.
+     *
+     * @param name name of the uniform
+     * @return location of the uniform or -1 if it doesn't exist
+     */
+    private int getUniformLocation(String name) {
+        Integer loc = uniformLocations.get(name);
+
+        if (loc == null) {
+            loc = glGetUniformLocation(program, name);
+            uniformLocations.put(name, loc);
+        }
+
+        return loc;
+    }
+
+    /**
+     * Inserts preprocessor definitions after the #version line
+     *
+     * @param code GLSL code
+     * @param defines names which are defined
+     * @return modified code
+     */
+    private static String addDefines(String code, String... defines) {
+        StringBuilder lines = new StringBuilder();
+
+        for (String define : defines)
+            lines.append("#define ").append(define).append('\n');
+
+        int version = code.indexOf("#version");
+        int pos = version >= 0 ? code.indexOf('\n', version) + 1 : 0;
+
+        if (version >= 0 && pos == 0)
+            return code + '\n' + lines;
+
+        return code.substring(0, pos) + lines + code.substring(pos);
+    }
+
     /**
      * @param name name of the attribute
      * @return location of the attribute
@@ -270,8 +532,11 @@ public class Shader implements Closeable {
         return glGetAttribLocation(program, name);
     }
 
-    private int references = 0;
+    private final RefCount references = new RefCount(this);
     private int program;
+    private String vertSource;
+    private String fragSource;
     private int numIndices = 0;
     private Map<String, TextureEntry> textures = new HashMap<>();
+    private Map<String, Integer> uniformLocations = new HashMap<>();
 }
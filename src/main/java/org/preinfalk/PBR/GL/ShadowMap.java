@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.lwjgl.system.MemoryStack;
+import org.preinfalk.PBR.Scene.ShadowCascades;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.system.MemoryStack.stackPush;
+
+/**
+ * Shadow maps of {@link ShadowCascades ShadowCascades}, which are stored as layers of a single depth texture array.
+ *
+ * The casters of every cascade are recorded by a {@link FramePipeline.Stage Stage} into a separate queue, usually with
+ * the vertex arrays of a depth-only shader and its uViewProjection uniform set to the matrix of the cascade. Only
+ * cascades which are due have to be recorded. At the end of the stage {@link #build() build} sorts them into command
+ * lists, which are drawn when the pipeline synchronizes its resources, right before the prepared frame is replayed.
+ * Shaders created with the CASCADED_SHADOWS definition receive the texture and the matrices of the drawn cascades.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class ShadowMap implements FramePipeline.Resource, Closeable {
+    /**
+     * Creates the texture array and the framebuffer
+     *
+     * @param cascades cascades which provide the matrices
+     * @param modelName name of the mat4 uniform which receives the model matrix of a caster
+     * @param normalName name of the mat3 uniform which receives the normal matrix of a caster
+     */
+    public ShadowMap(ShadowCascades cascades, String modelName, String normalName) {
+        this.cascades = cascades;
+
+        int n = cascades.getNumCascades(), resolution = cascades.getResolution();
+
+        queues = new RenderQueue[n];
+        lists = new CommandList[n];
+        matrixNames = new String[n];
+
+        for (int c = 0; c < n; ++c) {
+            queues[c] = new RenderQueue(modelName, normalName);
+            lists[c] = new CommandList();
+            matrixNames[c] = "uShadowMatrices[" + c + "]";
+        }
+
+        texture = new Texture();
+
+        try {
+            texture.bind(GL_TEXTURE_2D_ARRAY);
+            glTexImage3D(
+                GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT24, resolution, resolution, n, 0, GL_DEPTH_COMPONENT,
+                GL_FLOAT, (ByteBuffer) null
+            );
+
+            // Depth comparison with bilinear filtering gives 2x2 PCF for free
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+
+            framebuffer = glGenFramebuffers();
+            glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+            glDrawBuffer(GL_NONE);
+            glReadBuffer(GL_NONE);
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        } catch (Throwable th) {
+            texture.close();
+            throw th;
+        }
+    }
+
+    /**
+     * Assigns the shadow map to a shader
+     *
+     * @param shader shader which was created with the CASCADED_SHADOWS definition
+     */
+    public void addShader(Shader shader) {
+        shader.setTexture("uShadowMap", texture, GL_TEXTURE_2D_ARRAY);
+        shader.setInt("uNumCascades", cascades.getNumCascades());
+        shaders.add(shader);
+    }
+
+    /**
+     * Returns the recorder of the calling thread for a cascade
+     *
+     * @param cascade index of the cascade
+     * @return recorder for the casters of the cascade
+     */
+    public RenderQueue.Recorder getRecorder(int cascade) {
+        return queues[cascade].getRecorder();
+    }
+
+    /**
+     * Sorts the recorded casters into command lists. It doesn't touch OpenGL and has to be called at the end of the
+     * stage.
+     */
+    public void build() {
+        for (int c = 0; c < queues.length; ++c)
+            queues[c].build(lists[c]);
+    }
+
+    /**
+     * Draws the due cascades and updates the matrices of the shaders. The framebuffer and the viewport are restored
+     * afterwards.
+     */
+    @Override
+    public void synchronize() {
+        int viewportX, viewportY, viewportWidth, viewportHeight;
+        int previous = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer viewport = stack.mallocInt(4);
+            glGetIntegerv(GL_VIEWPORT, viewport);
+            viewportX = viewport.get(0);
+            viewportY = viewport.get(1);
+            viewportWidth = viewport.get(2);
+            viewportHeight = viewport.get(3);
+        }
+
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glViewport(0, 0, cascades.getResolution(), cascades.getResolution());
+
+        // Slope scaled bias against shadow acne
+        glEnable(GL_POLYGON_OFFSET_FILL);
+        glPolygonOffset(POLYGON_OFFSET_FACTOR, POLYGON_OFFSET_UNITS);
+
+        float[] matrices = cascades.getMatrices();
+
+        for (int c = 0; c < lists.length; ++c) {
+            if (!cascades.isDue(c))
+                continue;
+
+            glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, texture.getId(), 0, c);
+            glClear(GL_DEPTH_BUFFER_BIT);
+            lists[c].execute();
+
+            for (Shader shader : shaders)
+                shader.setMat4(matrixNames[c], matrices, c * 16);
+        }
+
+        glDisable(GL_POLYGON_OFFSET_FILL);
+        glBindFramebuffer(GL_FRAMEBUFFER, previous);
+        glViewport(viewportX, viewportY, viewportWidth, viewportHeight);
+    }
+
+    /**
+     * Frees the texture, the framebuffer and the command lists
+     */
+    @Override
+    public void close() {
+        glDeleteFramebuffers(framebuffer);
+        texture.close();
+
+        for (CommandList list : lists)
+            list.close();
+    }
+
+    private static final float POLYGON_OFFSET_FACTOR = 2.0f;
+    private static final float POLYGON_OFFSET_UNITS = 4.0f;
+
+    private final ShadowCascades cascades;
+    private final RenderQueue[] queues;
+    private final CommandList[] lists;
+    private final String[] matrixNames;
+    private final List<Shader> shaders = new ArrayList<>();
+    private final Texture texture;
+    private final int framebuffer;
+}
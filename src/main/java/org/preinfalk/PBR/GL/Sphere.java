@@ -9,6 +9,8 @@ package org.preinfalk.PBR.GL;
 import org.joml.Vector3f;
 
 import java.io.Closeable;
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
 
 import static org.lwjgl.opengl.GL33.GL_FLOAT;
 
@@ -18,6 +20,11 @@ import static org.lwjgl.opengl.GL33.GL_FLOAT;
  * It must be closed with {@link #close() close} when done working with it.
  */
 public class Sphere extends Mesh implements Closeable {
+    /**
+     * Minimum number of steps of a level of detail
+     */
+    public static final int MIN_STEPS = 8;
+
     /**
      * Creates a sphere
      *
@@ -28,70 +35,151 @@ public class Sphere extends Mesh implements Closeable {
      * @param createTexCoords add texture coordinates to mesh
      */
     public Sphere(Vector3f pos, Vector3f radius, int steps, boolean createNormals, boolean createTexCoords) {
+        this(pos, radius, steps, 1, createNormals, createTexCoords);
+    }
+
+    /**
+     * Creates a sphere with levels of detail. Each level halves the steps of the previous one, all levels are stored
+     * one after another in the same buffer.
+     *
+     * @param pos position of the center
+     * @param radius radius of the sphere
+     * @param steps determines the amount of vertices used by the most detailed level
+     * @param numLods maximum number of levels of detail; Levels with less than {@link #MIN_STEPS MIN_STEPS} steps are
+     *                omitted.
+     * @param createNormals add normals to mesh
+     * @param createTexCoords add texture coordinates to mesh
+     */
+    public Sphere(
+        Vector3f pos, Vector3f radius, int steps, int numLods, boolean createNormals, boolean createTexCoords
+    ) {
         hasNormals = createNormals;
         hasTexCoords = createTexCoords;
 
-        int subSteps = (steps + 1) / 2;
-        numVertices = 6 * steps * subSteps;
+        float maxRadius = Math.max(radius.x, Math.max(radius.y, radius.z));
+        bounds = new Bounds(new Vector3f(pos).sub(radius), new Vector3f(pos).add(radius), pos, maxRadius);
+
+        while (numLods > 1 && steps >> (numLods - 1) < MIN_STEPS)
+            --numLods;
+
+        lodFirst = new int[numLods];
+        lodCount = new int[numLods];
+        lodError = new float[numLods];
+
+        for (int lod = 0; lod < numLods; ++lod) {
+            int lodSteps = steps >> lod;
+
+            lodFirst[lod] = numVertices;
+            lodCount[lod] = 6 * lodSteps * ((lodSteps + 1) / 2);
+            numVertices += lodCount[lod];
+
+            // Largest distance between an edge and the real sphere
+            lodError[lod] = maxRadius * (float) (1 - Math.cos(Math.PI / lodSteps));
+        }
+
         buffer = new Buffer(getVertexSize() * numVertices);
 
         try {
-            for (float i = 0; i < steps; ++i) {
-                float cos0 = (float) Math.cos(2 * Math.PI * i / steps);
-                float sin0 = (float) Math.sin(2 * Math.PI * i / steps);
-                float cos1 = (float) Math.cos(2 * Math.PI * (i + 1) / steps);
-                float sin1 = (float) Math.sin(2 * Math.PI * (i + 1) / steps);
-
-                for (float j = 0; j < subSteps; ++j) {
-                    float subCos0 = (float) Math.cos(Math.PI * j / subSteps);
-                    float subSin0 = (float) Math.sin(Math.PI * j / subSteps);
-                    float subCos1 = (float) Math.cos(Math.PI * (j + 1) / subSteps);
-                    float subSin1 = (float) Math.sin(Math.PI * (j + 1) / subSteps);
-
-                    addVertex(pos, radius.x * cos0 * subSin0, radius.y * sin0 * subSin0, -radius.z * subCos0, i / steps, 1 - j / subSteps);
-                    addVertex(pos, radius.x * cos1 * subSin0, radius.y * sin1 * subSin0, -radius.z * subCos0, (i + 1) / steps, 1 - j / subSteps);
-                    addVertex(pos, radius.x * cos1 * subSin1, radius.y * sin1 * subSin1, -radius.z * subCos1, (i + 1) / steps, 1 - (j + 1) / subSteps);
-
-                    addVertex(pos, radius.x * cos1 * subSin1, radius.y * sin1 * subSin1, -radius.z * subCos1, (i + 1) / steps, 1 - (j + 1) / subSteps);
-                    addVertex(pos, radius.x * cos0 * subSin1, radius.y * sin0 * subSin1, -radius.z * subCos1, i / steps, 1 - (j + 1) / subSteps);
-                    addVertex(pos, radius.x * cos0 * subSin0, radius.y * sin0 * subSin0, -radius.z * subCos0, i / steps, 1 - j / subSteps);
-                }
-            }
+            FloatBuffer data = buffer.getData().asFloatBuffer();
+
+            for (int lod = 0; lod < numLods; ++lod)
+                addSphere(data, lodFirst[lod], pos, radius, steps >> lod);
         } catch (Throwable th) {
             buffer.close();
             throw th;
         }
+    }
+
+    /**
+     * Writes the triangles of a sphere into the buffer. The sines and cosines are calculated once per ring and
+     * segment, the segments are written in parallel into separate ranges of the buffer.
+     *
+     * @param out memory of the buffer
+     * @param firstVertex index of the first vertex to write
+     * @param pos position of the center
+     * @param radius radius of the sphere
+     * @param steps determines the amount of vertices used
+     */
+    private void addSphere(FloatBuffer out, int firstVertex, Vector3f pos, Vector3f radius, int steps) {
+        int subSteps = (steps + 1) / 2;
+        int vertexFloats = getVertexSize() / 4;
+
+        float[] cos = new float[steps + 1], sin = new float[steps + 1];
+        float[] subCos = new float[subSteps + 1], subSin = new float[subSteps + 1];
+
+        for (int i = 0; i <= steps; ++i) {
+            cos[i] = (float) Math.cos(2 * Math.PI * i / steps);
+            sin[i] = (float) Math.sin(2 * Math.PI * i / steps);
+        }
+
+        for (int j = 0; j <= subSteps; ++j) {
+            subCos[j] = (float) Math.cos(Math.PI * j / subSteps);
+            subSin[j] = (float) Math.sin(Math.PI * j / subSteps);
+        }
+
+        IntStream segments = IntStream.range(0, steps);
+
+        if (6 * steps * subSteps >= PARALLEL_THRESHOLD)
+            segments = segments.parallel();
+
+        segments.forEach(i -> {
+            int o = (firstVertex + 6 * subSteps * i) * vertexFloats;
+            float u0 = (float) i / steps, u1 = (float) (i + 1) / steps;
+
+            for (int j = 0; j < subSteps; ++j) {
+                float v0 = 1 - (float) j / subSteps, v1 = 1 - (float) (j + 1) / subSteps;
 
-        buffer.flip();
+                o = putVertex(out, o, pos, radius, cos[i], sin[i], subCos[j], subSin[j], u0, v0);
+                o = putVertex(out, o, pos, radius, cos[i + 1], sin[i + 1], subCos[j], subSin[j], u1, v0);
+                o = putVertex(out, o, pos, radius, cos[i + 1], sin[i + 1], subCos[j + 1], subSin[j + 1], u1, v1);
+
+                o = putVertex(out, o, pos, radius, cos[i + 1], sin[i + 1], subCos[j + 1], subSin[j + 1], u1, v1);
+                o = putVertex(out, o, pos, radius, cos[i], sin[i], subCos[j + 1], subSin[j + 1], u0, v1);
+                o = putVertex(out, o, pos, radius, cos[i], sin[i], subCos[j], subSin[j], u0, v0);
+            }
+        });
     }
 
     /**
-     * Adds a vertex to the buffer. The normal is calculated by normalizing the offset
+     * Writes a vertex into the buffer. The normal is calculated by normalizing the offset from the center.
      *
-     * @param center center; It gets added to the offset.
-     * @param x x offset
-     * @param y y offset
-     * @param z z offset
+     * @param out memory of the buffer
+     * @param o index of the first float of the vertex
+     * @param center center of the sphere
+     * @param radius radius of the sphere
+     * @param cos cosine of the segment angle
+     * @param sin sine of the segment angle
+     * @param subCos cosine of the ring angle
+     * @param subSin sine of the ring angle
      * @param tx x texture coordinate
      * @param ty y texture coordinate
+     * @return index of the first float of the next vertex
      */
-    private void addVertex(Vector3f center, float x, float y, float z, float tx, float ty) {
-        buffer.putFloat(center.x + x);
-        buffer.putFloat(center.y + y);
-        buffer.putFloat(center.z + z);
+    private int putVertex(
+        FloatBuffer out, int o, Vector3f center, Vector3f radius, float cos, float sin, float subCos, float subSin,
+        float tx, float ty
+    ) {
+        float x = radius.x * cos * subSin, y = radius.y * sin * subSin, z = -radius.z * subCos;
+
+        out.put(o++, center.x + x);
+        out.put(o++, center.y + y);
+        out.put(o++, center.z + z);
 
         if (hasNormals) {
-            Vector3f normal = new Vector3f(x, y, z).normalize();
+            float len = (float) Math.sqrt(x * x + y * y + z * z);
+            float inv = len > 0 ? 1 / len : 0;
 
-            buffer.putFloat(normal.x);
-            buffer.putFloat(normal.y);
-            buffer.putFloat(normal.z);
+            out.put(o++, x * inv);
+            out.put(o++, y * inv);
+            out.put(o++, z * inv);
         }
 
         if (hasTexCoords) {
-            buffer.putFloat(tx);
-            buffer.putFloat(ty);
+            out.put(o++, tx);
+            out.put(o++, ty);
         }
+
+        return o;
     }
 
     /**
@@ -147,6 +235,36 @@ public class Sphere extends Mesh implements Closeable {
         return numVertices;
     }
 
+    @Override
+    public int getNumElements() {
+        return lodCount[0];
+    }
+
+    @Override
+    public int getNumLods() {
+        return lodFirst.length;
+    }
+
+    @Override
+    public int getLodFirst(int lod) {
+        return lodFirst[lod];
+    }
+
+    @Override
+    public int getLodCount(int lod) {
+        return lodCount[lod];
+    }
+
+    @Override
+    public float getLodError(int lod) {
+        return lodError[lod];
+    }
+
+    @Override
+    public Bounds getBounds() {
+        return bounds;
+    }
+
     /**
      * Close internal buffer
      */
@@ -155,8 +273,14 @@ public class Sphere extends Mesh implements Closeable {
         buffer.close();
     }
 
+    private static final int PARALLEL_THRESHOLD = 16384;
+
     private Buffer buffer;
-    private int numVertices;
+    private Bounds bounds;
+    private int numVertices = 0;
+    private int[] lodFirst;
+    private int[] lodCount;
+    private float[] lodError;
     private boolean hasNormals;
     private boolean hasTexCoords;
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Vector3f;
+
+import java.io.Closeable;
+
+import static org.lwjgl.opengl.GL33.GL_FLOAT;
+import static org.lwjgl.opengl.GL33.GL_TRIANGLE_STRIP;
+
+/**
+ * Set of spheres which are drawn as impostors instead of meshes, e.g. for grids of material previews.
+ *
+ * Every sphere is a camera facing quad of four vertices (Impostor.vert), which is drawn instanced without vertex
+ * buffers. The fragment shader (PBR.frag with the IMPOSTOR definition) intersects the ray through the pixel with the
+ * sphere, writes its depth and derives the normal, the texture coordinates and the tangent frame analytically, so the
+ * silhouette is exact at any size and the texture coordinates match the {@link Sphere Sphere} mesh. The material
+ * layer of each sphere is passed as the instance attribute inMaterial.
+ *
+ * The spheres don't cast shadows, and they are drawn with their own shader in a depth pre-pass, since the depth they
+ * write has to be calculated exactly the same way in both passes.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class SphereImpostors implements Closeable {
+    /**
+     * Creates the instance buffer and the vertex array
+     *
+     * @param shader shader created from Impostor.vert and PBR.frag with the IMPOSTOR definition
+     * @param spheres center (x, y, z) and radius of each sphere in world space
+     * @param layers layer of the material of each sphere in the texture arrays
+     */
+    public SphereImpostors(Shader shader, float[] spheres, float[] layers) {
+        count = layers.length;
+
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY), max = new Vector3f(Float.NEGATIVE_INFINITY);
+        buffer = new Buffer(count * INSTANCE_SIZE);
+
+        try {
+            for (int i = 0; i < count; ++i) {
+                float x = spheres[i * 4], y = spheres[i * 4 + 1], z = spheres[i * 4 + 2], r = spheres[i * 4 + 3];
+
+                buffer.putFloat(x).putFloat(y).putFloat(z).putFloat(r).putFloat(layers[i]);
+                min.min(new Vector3f(x - r, y - r, z - r));
+                max.max(new Vector3f(x + r, y + r, z + r));
+            }
+
+            buffer.flip();
+            bounds = count > 0 ? new Bounds(min, max) : new Bounds(new Vector3f(), new Vector3f());
+
+            vao = new VAO(shader);
+            vao.bindInstanceBuffer(buffer, "inSphere", 4, GL_FLOAT, false, INSTANCE_SIZE, 0);
+            vao.bindInstanceBuffer(buffer, "inMaterial", 1, GL_FLOAT, false, INSTANCE_SIZE, 16);
+        } catch (Throwable th) {
+            close();
+            throw th;
+        }
+    }
+
+    /**
+     * Records a draw of all spheres
+     *
+     * @param recorder recorder of the render queue
+     * @param material textures of the material library
+     * @param depth distance of the spheres to the camera
+     */
+    public void record(RenderQueue.Recorder recorder, Material material, float depth) {
+        if (count > 0)
+            recorder.drawInstanced(vao, material, GL_TRIANGLE_STRIP, 0, 4, count, depth);
+    }
+
+    /**
+     * @return world space bounds of all spheres
+     */
+    public Bounds getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return number of spheres
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Frees the vertex array and the instance buffer
+     */
+    @Override
+    public void close() {
+        if (vao != null)
+            vao.close();
+
+        buffer.close();
+    }
+
+    /**
+     * Size of the data of a sphere in bytes: center, radius and material layer
+     */
+    private static final int INSTANCE_SIZE = 20;
+
+    private final int count;
+    private final Buffer buffer;
+    private Bounds bounds = null;
+    private VAO vao = null;
+}
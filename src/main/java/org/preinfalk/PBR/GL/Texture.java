@@ -16,6 +16,7 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 
 import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL45.*;
 import static org.lwjgl.stb.STBImage.*;
 import static org.lwjgl.system.MemoryUtil.memAlloc;
 import static org.lwjgl.system.MemoryUtil.memFree;
@@ -163,6 +164,14 @@ public class Texture implements Closeable {
      * @param height height of the image
      */
     public void loadRaw(ByteBuffer buffer, int width, int height) {
+        if (FrameCapture.isActive())
+            FrameCapture.loadTexture(this, buffer, width, height);
+
+        if (Backend.isModern()) {
+            loadImmutable(buffer, width, height);
+            return;
+        }
+
         glBindTexture(GL_TEXTURE_2D, texture);
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
         glGenerateMipmap(GL_TEXTURE_2D);
@@ -174,23 +183,50 @@ public class Texture implements Closeable {
     }
 
     /**
-     * Decreases the reference count and destroys the resource when it hits zero
+     * Loads raw image data into immutable storage with direct state access (OpenGL 4.5). The storage can't be
+     * respecified, so every load replaces the OpenGL texture, including the one created by the constructor.
+     *
+     * @param buffer buffer containing the data
+     * @param width width of the image
+     * @param height height of the image
+     */
+    private void loadImmutable(ByteBuffer buffer, int width, int height) {
+        if (texture != 0) {
+            int name = texture;
+            DeletionQueue.enqueue(() -> glDeleteTextures(name));
+        }
+
+        texture = glCreateTextures(GL_TEXTURE_2D);
+
+        int levels = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+        glTextureStorage2D(texture, levels, GL_RGBA8, width, height);
+        glTextureSubImage2D(texture, 0, 0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
+        glGenerateTextureMipmap(texture);
+
+        glTextureParameteri(texture, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTextureParameteri(texture, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glTextureParameteri(texture, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTextureParameteri(texture, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    }
+
+    /**
+     * Decreases the reference count and schedules the destruction of the resource on the {@link DeletionQueue
+     * DeletionQueue} when it hits zero. Can be called on any thread.
      */
     @Override
     public void close() {
-        if (references == 0) {
-            glDeleteTextures(texture);
+        if (references.release()) {
+            int name = texture;
             texture = 0;
+            DeletionQueue.enqueue(() -> glDeleteTextures(name));
         }
-
-        --references;
     }
 
     /**
      * Increases the reference count
      */
     public void addRef() {
-        ++references;
+        references.addRef();
     }
 
     /**
@@ -204,6 +240,24 @@ public class Texture implements Closeable {
         glBindTexture(target, texture);
     }
 
-    private int references = 0;
+    /**
+     * @return OpenGL name of the texture
+     */
+    protected int getId() {
+        return texture;
+    }
+
+    /**
+     * Exchanges the OpenGL textures of two objects, e.g. after copying the content into a larger texture
+     *
+     * @param other texture to exchange the OpenGL texture with
+     */
+    protected void swap(Texture other) {
+        int t = texture;
+        texture = other.texture;
+        other.texture = t;
+    }
+
+    private final RefCount references = new RefCount(this);
     private int texture;
 }
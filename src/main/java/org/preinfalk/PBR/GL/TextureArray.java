@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.lwjgl.system.MemoryStack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.stb.STBImage.*;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Array of equally sized RGBA images, which are sampled with a sampler2DArray.
+ *
+ * The mipmaps are regenerated the next time the texture is bound after a layer changed. The number of layers can be
+ * changed, the content of the remaining layers is copied on the GPU. It has to be assigned to shaders with the
+ * GL_TEXTURE_2D_ARRAY target.
+ *
+ * It contains a reference counter which can be in/decreased. When the resource hits 0 it is freed. To increase it call
+ * {@link #addRef() addRef}, to decrease it {@link #close() close}.
+ */
+public class TextureArray extends Texture {
+    /**
+     * Creates an array with undefined content
+     *
+     * @param width width of the layers
+     * @param height height of the layers
+     * @param layers number of layers
+     */
+    public TextureArray(int width, int height, int layers) {
+        this.width = width;
+        this.height = height;
+        this.layers = layers;
+
+        try {
+            allocate(this, layers);
+        } catch (Throwable th) {
+            super.close();
+            throw th;
+        }
+    }
+
+    /**
+     * Sets the content of a layer
+     *
+     * @param layer index of the layer
+     * @param buffer RGBA image (unsigned bytes) with the size of the layers
+     */
+    public void setLayer(int layer, ByteBuffer buffer) {
+        super.bind(GL_TEXTURE_2D_ARRAY);
+        glTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, layer, width, height, 1, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
+        changed = true;
+    }
+
+    /**
+     * Sets the content of a layer from an image file
+     *
+     * @param layer index of the layer
+     * @param stream stream of the image file; The image must have the size of the layers.
+     */
+    public void setLayer(int layer, InputStream stream) {
+        ByteBuffer file = read(stream);
+
+        try {
+            loadLayer(layer, file);
+        } finally {
+            memFree(file);
+        }
+    }
+
+    /**
+     * Sets the content of a layer from an image file in memory, e.g. an entry of an asset archive
+     *
+     * @param layer index of the layer
+     * @param file content of the image file; The image must have the size of the layers.
+     */
+    public void loadLayer(int layer, ByteBuffer file) {
+        ByteBuffer image = null;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer w = stack.mallocInt(1);
+            IntBuffer h = stack.mallocInt(1);
+            IntBuffer comp = stack.mallocInt(1);
+
+            stbi_set_flip_vertically_on_load(true);
+            image = stbi_load_from_memory(file, w, h, comp, 4);
+
+            if (image == null)
+                throw new RuntimeException("Failed to load a texture file\n" + stbi_failure_reason());
+
+            if (w.get(0) != width || h.get(0) != height) {
+                throw new IllegalArgumentException(
+                    "Image size " + w.get(0) + "x" + h.get(0) + " doesn't match the layer size " + width + "x" + height
+                );
+            }
+
+            setLayer(layer, image);
+        } finally {
+            if (image != null)
+                stbi_image_free(image);
+        }
+    }
+
+    /**
+     * Copies the content of a layer to another layer
+     *
+     * @param src index of the layer to copy
+     * @param dst index of the layer to overwrite
+     */
+    public void copyLayer(int src, int dst) {
+        copyLayers(this, this, src, dst, 1);
+        changed = true;
+    }
+
+    /**
+     * Changes the number of layers. The first min(layers, getLayers()) layers keep their content.
+     *
+     * @param layers new number of layers
+     */
+    public void resize(int layers) {
+        if (layers == this.layers)
+            return;
+
+        Texture resized = new Texture();
+
+        try {
+            allocate(resized, layers);
+            copyLayers(this, resized, 0, 0, Math.min(layers, this.layers));
+            swap(resized);
+        } finally {
+            resized.close();
+        }
+
+        this.layers = layers;
+        changed = true;
+    }
+
+    /**
+     * @return width of the layers
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the layers
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of layers
+     */
+    public int getLayers() {
+        return layers;
+    }
+
+    /**
+     * Regenerates the mipmaps if a layer changed and binds the texture
+     *
+     * @param target GL_TEXTURE_2D_ARRAY
+     */
+    @Override
+    protected void bind(int target) {
+        super.bind(target);
+
+        if (changed) {
+            changed = false;
+            glGenerateMipmap(GL_TEXTURE_2D_ARRAY);
+        }
+    }
+
+    /**
+     * Allocates the storage of a texture with the size of the layers
+     *
+     * @param texture texture to allocate
+     * @param layers number of layers
+     */
+    private void allocate(Texture texture, int layers) {
+        texture.bind(GL_TEXTURE_2D_ARRAY);
+        glTexImage3D(
+            GL_TEXTURE_2D_ARRAY, 0, GL_RGBA8, width, height, layers, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null
+        );
+
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    }
+
+    /**
+     * Copies the first mipmap level of layers by attaching them to a read framebuffer
+     *
+     * @param src texture to copy from
+     * @param dst texture to copy to
+     * @param srcLayer first layer to copy
+     * @param dstLayer first layer to overwrite
+     * @param count number of layers
+     */
+    private void copyLayers(Texture src, Texture dst, int srcLayer, int dstLayer, int count) {
+        int previous = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+        int framebuffer = glGenFramebuffers();
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, framebuffer);
+        dst.bind(GL_TEXTURE_2D_ARRAY);
+
+        for (int i = 0; i < count; ++i) {
+            glFramebufferTextureLayer(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, src.getId(), 0, srcLayer + i);
+            glCopyTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, dstLayer + i, 0, 0, width, height);
+        }
+
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, previous);
+        glDeleteFramebuffers(framebuffer);
+    }
+
+    /**
+     * Reads a stream into native memory
+     *
+     * @param stream stream to read
+     * @return buffer which has to be freed with memFree
+     */
+    private static ByteBuffer read(InputStream stream) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[65536];
+
+        try {
+            for (int n; (n = stream.read(chunk)) > 0; )
+                bytes.write(chunk, 0, n);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        ByteBuffer buffer = memAlloc(bytes.size());
+        buffer.put(bytes.toByteArray()).flip();
+        return buffer;
+    }
+
+    private final int width;
+    private final int height;
+    private int layers;
+    private boolean changed = false;
+}
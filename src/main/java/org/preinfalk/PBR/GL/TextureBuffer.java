@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Buffer texture, which gives shaders indexed access to the content of a {@link Buffer Buffer} through a
+ * samplerBuffer (texelFetch).
+ *
+ * The content is written with {@link #getData() getData} and uploaded the next time the texture is bound. It has to be
+ * assigned to shaders with {@link Shader#setTexture(String, Texture, int) setTexture} and the GL_TEXTURE_BUFFER target.
+ *
+ * It contains a reference counter which can be in/decreased. When the resource hits 0 it is freed. To increase it call
+ * {@link #addRef() addRef}, to decrease it {@link #close() close}.
+ */
+public class TextureBuffer extends Texture {
+    /**
+     * Creates a buffer texture
+     *
+     * @param size size of the buffer in bytes
+     * @param internalFormat format of the texels, e.g. GL_RGBA32F or GL_R32UI
+     */
+    public TextureBuffer(int size, int internalFormat) {
+        this(new Buffer(size, GL_STREAM_DRAW), internalFormat);
+    }
+
+    /**
+     * Creates a buffer texture which takes over a reference of a buffer
+     *
+     * @param buffer buffer which contains the texels
+     * @param internalFormat format of the texels, e.g. GL_RGBA32F or GL_R32UI
+     */
+    TextureBuffer(Buffer buffer, int internalFormat) {
+        this.buffer = buffer;
+        this.internalFormat = internalFormat;
+
+        try {
+            buffer.bind(GL_TEXTURE_BUFFER);
+            super.bind(GL_TEXTURE_BUFFER);
+            glTexBuffer(GL_TEXTURE_BUFFER, internalFormat, buffer.getId());
+        } catch (Throwable th) {
+            buffer.close();
+            super.close();
+            throw th;
+        }
+    }
+
+    /**
+     * Returns the memory of the buffer for absolute writes. It must not be called while the texture is being bound.
+     *
+     * @return view of the memory in native byte order
+     */
+    public ByteBuffer getData() {
+        return buffer.getData();
+    }
+
+    /**
+     * Decreases the reference count and destroys the resource when it hits zero
+     */
+    @Override
+    public void close() {
+        buffer.close();
+        super.close();
+    }
+
+    /**
+     * Increases the reference count
+     */
+    @Override
+    public void addRef() {
+        buffer.addRef();
+        super.addRef();
+    }
+
+    /**
+     * Uploads the modified data and binds the texture
+     *
+     * @param target GL_TEXTURE_BUFFER
+     */
+    @Override
+    protected void bind(int target) {
+        buffer.bind(GL_TEXTURE_BUFFER);
+        super.bind(target);
+    }
+
+    /**
+     * @return buffer which contains the texels
+     */
+    Buffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return format of the texels
+     */
+    int getInternalFormat() {
+        return internalFormat;
+    }
+
+    private final Buffer buffer;
+    private final int internalFormat;
+}
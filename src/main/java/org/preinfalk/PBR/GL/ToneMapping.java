@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Vector2f;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Post processing pass which maps the linear radiance of a {@link HdrFramebuffer HdrFramebuffer} to the default
+ * framebuffer.
+ *
+ * The colors are scaled by the exposure, tonemapped and written into an sRGB backbuffer, which applies the gamma
+ * correction. With auto exposure the logarithm of the luminance is drawn into a small texture, whose mipmaps reduce it
+ * to the average over the whole image. The last level is copied into a pixel buffer and read a few frames later, once
+ * its fence is signaled, so the CPU never waits for the GPU. The exposure adapts smoothly to the average.
+ *
+ * It must be closed with {@link #close() close} when done working with it.
+ */
+public class ToneMapping implements Closeable {
+    /**
+     * Creates the pass
+     *
+     * @param source framebuffer which contains the scene
+     * @param luminanceShader shader which writes the logarithm of the luminance of uHdr (Fullscreen.vert and
+     *                        Luminance.frag)
+     * @param toneMapShader shader which tonemaps uHdr scaled by uExposure (Fullscreen.vert and ToneMap.frag)
+     */
+    public ToneMapping(HdrFramebuffer source, Shader luminanceShader, Shader toneMapShader) {
+        this.source = source;
+        this.luminanceShader = luminanceShader;
+        this.toneMapShader = toneMapShader;
+
+        luminanceShader.setTexture("uHdr", source.getTexture());
+        toneMapShader.setTexture("uHdr", source.getTexture());
+        toneMapShader.setFloat("uExposure", exposure);
+
+        // The full screen triangle is generated from gl_VertexID, so the vertex arrays have no buffers
+        luminanceVao = new VAO(luminanceShader);
+        toneMapVao = new VAO(toneMapShader);
+        luminance = new Texture();
+
+        luminance.bind(GL_TEXTURE_2D);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_R16F, LUMINANCE_SIZE, LUMINANCE_SIZE, 0, GL_RED, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glGenerateMipmap(GL_TEXTURE_2D);
+
+        luminanceFramebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, luminanceFramebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, luminance.getId(), 0);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+
+        glGenBuffers(readBuffers);
+
+        for (int buffer : readBuffers) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer);
+            glBufferData(GL_PIXEL_PACK_BUFFER, 4, GL_STREAM_READ);
+        }
+
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    /**
+     * Sets the exposure, which is used until auto exposure changes it
+     *
+     * @param exposure factor applied to the radiance before tonemapping
+     */
+    public void setExposure(float exposure) {
+        this.exposure = exposure;
+        toneMapShader.setFloat("uExposure", exposure);
+    }
+
+    /**
+     * @return current exposure
+     */
+    public float getExposure() {
+        return exposure;
+    }
+
+    /**
+     * @param autoExposure if the exposure adapts to the average luminance
+     */
+    public void setAutoExposure(boolean autoExposure) {
+        this.autoExposure = autoExposure;
+    }
+
+    /**
+     * Checks if auto exposure still changes the exposure. This is the case until the first measurement was read and
+     * while the exposure is further than 1% away from its target, so viewers which only redraw on changes have to keep
+     * drawing.
+     *
+     * @return if the exposure is adapting
+     */
+    public boolean isAdapting() {
+        return autoExposure && (Float.isNaN(target) || Math.abs(target - exposure) > 0.01f * target);
+    }
+
+    /**
+     * Resolves the source, measures the luminance and draws the tonemapped image into the default framebuffer
+     */
+    public void draw() {
+        boolean depthTest = glIsEnabled(GL_DEPTH_TEST);
+        glDisable(GL_DEPTH_TEST);
+
+        source.resolve();
+        updateScale();
+
+        if (autoExposure)
+            measure();
+
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glViewport(0, 0, source.getWidth(), source.getHeight());
+        glEnable(GL_FRAMEBUFFER_SRGB);
+        toneMapVao.draw(GL_TRIANGLES, 0, 3);
+        glDisable(GL_FRAMEBUFFER_SRGB);
+
+        if (depthTest)
+            glEnable(GL_DEPTH_TEST);
+    }
+
+    /**
+     * Frees the vertex arrays, the texture, the framebuffer and the pixel buffers
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < fences.length; ++i) {
+            if (fences[i] != 0)
+                glDeleteSync(fences[i]);
+        }
+
+        glDeleteBuffers(readBuffers);
+        glDeleteFramebuffers(luminanceFramebuffer);
+        luminance.close();
+        luminanceVao.close();
+        toneMapVao.close();
+    }
+
+    /**
+     * Passes the part of the source which contains the scene to the shaders, so it is scaled up to the whole screen
+     */
+    private void updateScale() {
+        float scaleX = (float) source.getRenderWidth() / source.getWidth();
+        float scaleY = (float) source.getRenderHeight() / source.getHeight();
+
+        if (scaleX == scale.x && scaleY == scale.y)
+            return;
+
+        scale.set(scaleX, scaleY);
+        luminanceShader.setVec2("uScale", scale);
+        toneMapShader.setVec2("uScale", scale);
+    }
+
+    /**
+     * Adapts the exposure to finished measurements and starts a new one
+     */
+    private void measure() {
+        for (int i = 0; i < fences.length; ++i) {
+            int slot = (next + i) % fences.length;
+
+            if (fences[slot] == 0)
+                continue;
+
+            int status = glClientWaitSync(fences[slot], 0, 0);
+
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED)
+                continue;
+
+            glDeleteSync(fences[slot]);
+            fences[slot] = 0;
+
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, readBuffers[slot]);
+            ByteBuffer data = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, 4, GL_MAP_READ_BIT);
+
+            if (data != null) {
+                adapt((float) Math.exp(data.order(ByteOrder.nativeOrder()).getFloat(0)));
+                glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+            }
+        }
+
+        // Draw the logarithm of the luminance and average it with the mipmaps
+        glBindFramebuffer(GL_FRAMEBUFFER, luminanceFramebuffer);
+        glViewport(0, 0, LUMINANCE_SIZE, LUMINANCE_SIZE);
+        luminanceVao.draw(GL_TRIANGLES, 0, 3);
+
+        luminance.bind(GL_TEXTURE_2D);
+        glGenerateMipmap(GL_TEXTURE_2D);
+
+        // Skip the measurement while all pixel buffers are still in flight
+        if (fences[next] == 0) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, readBuffers[next]);
+            glGetTexImage(GL_TEXTURE_2D, LUMINANCE_LEVELS - 1, GL_RED, GL_FLOAT, 0L);
+            fences[next] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            next = (next + 1) % fences.length;
+        }
+
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    /**
+     * Moves the exposure towards the value which maps the average luminance to middle gray
+     *
+     * @param average geometric mean of the luminance
+     */
+    private void adapt(float average) {
+        target = Math.max(MIN_EXPOSURE, Math.min(KEY / Math.max(average, 1e-4f), MAX_EXPOSURE));
+        setExposure(exposure + (target - exposure) * ADAPTATION);
+    }
+
+    private static final int LUMINANCE_SIZE = 256;
+    private static final int LUMINANCE_LEVELS = 9;
+
+    /**
+     * Luminance to which the average is mapped (middle gray)
+     */
+    private static final float KEY = 0.18f;
+    private static final float MIN_EXPOSURE = 0.05f;
+    private static final float MAX_EXPOSURE = 20.0f;
+
+    /**
+     * Fraction of the difference to the target exposure which is applied per measurement
+     */
+    private static final float ADAPTATION = 0.05f;
+
+    private final HdrFramebuffer source;
+    private final Shader luminanceShader;
+    private final Shader toneMapShader;
+    private final Vector2f scale = new Vector2f();
+    private final VAO luminanceVao;
+    private final VAO toneMapVao;
+    private final Texture luminance;
+    private final int luminanceFramebuffer;
+    private final int[] readBuffers = new int[3];
+    private final long[] fences = new long[3];
+    private int next = 0;
+    private float exposure = 1.0f;
+    private float target = Float.NaN;
+    private boolean autoExposure = true;
+}
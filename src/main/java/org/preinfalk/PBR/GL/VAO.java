@@ -10,17 +10,46 @@ import java.io.Closeable;
 import java.util.ArrayList;
 
 import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL43.glMultiDrawElementsIndirect;
 
 /**
  * Vertex Array Object which binds the buffer to the shader.
  *
  * It keeps track of the resources, so the buffer or shader can be closed.
  *
+ * With OpenGL 4.5 indexed vertex arrays whose shader has the uint attribute inDrawId can be drawn with multi-draw
+ * indirect by a {@link CommandList CommandList}. The attribute receives the base instance of each draw.
+ *
  * It contains a reference counter which can be in/decreased. When the resource hits 0 it is freed. To increase it call
  * {@link #addRef() addRef}, to decrease it {@link #close() close}. If the object is stored in a class, the reference
  * counter should be increased and decreased when destroying said class.
  */
 public class VAO implements Closeable {
+    /**
+     * Attribute bound to a buffer, which is kept so the vertex array can be recreated, e.g. by {@link FrameReplay
+     * FrameReplay}
+     */
+    static class Binding {
+        Binding(Buffer buffer, String name, int size, int type, boolean normalized, int stride, long pointer) {
+            this.buffer = buffer;
+            this.name = name;
+            this.size = size;
+            this.type = type;
+            this.normalized = normalized;
+            this.stride = stride;
+            this.pointer = pointer;
+        }
+
+        final Buffer buffer;
+        final String name;
+        final int size;
+        final int type;
+        final boolean normalized;
+        final int stride;
+        final long pointer;
+        boolean instanced = false;
+    }
+
     /**
      * @param shader shader to be used for drawing
      */
@@ -48,32 +77,197 @@ public class VAO implements Closeable {
 
         buffers.add(buffer);
         buffer.addRef();
+        bindings.add(new Binding(buffer, name, size, type, normalized, stride, pointer));
 
         int loc = shader.getAttribLocation(name);
+
+        // The attribute isn't used by the shader
+        if (loc < 0)
+            return;
+
         glVertexAttribPointer(loc, size, type, normalized, stride, pointer);
         glEnableVertexAttribArray(loc);
     }
 
+    /**
+     * Binds a buffer to an attribute which advances once per instance instead of once per vertex. Draws which aren't
+     * instanced read the values of the first instance.
+     *
+     * @param buffer buffer to bind
+     * @param name name of the attribute
+     * @param size number of values
+     * @param type type of value; see {@link #bindBuffer bindBuffer}
+     * @param normalized normalize input (convert values to a range from -1 to 1)
+     * @param stride value which is added to the pointer for each instance
+     * @param pointer offset to data in first instance
+     */
+    public void bindInstanceBuffer(
+        Buffer buffer, String name, int size, int type, boolean normalized, int stride, long pointer
+    ) {
+        bindBuffer(buffer, name, size, type, normalized, stride, pointer);
+        bindings.get(bindings.size() - 1).instanced = true;
+
+        int loc = shader.getAttribLocation(name);
+
+        if (loc >= 0)
+            glVertexAttribDivisor(loc, 1);
+
+        instanced = true;
+    }
+
+    /**
+     * Binds a buffer containing unsigned int indices. Afterwards first and count of the draw calls refer to indices
+     * instead of vertices.
+     *
+     * @param buffer buffer to bind
+     */
+    public void bindIndexBuffer(Buffer buffer) {
+        glBindVertexArray(vao);
+        buffer.bind(GL_ELEMENT_ARRAY_BUFFER);
+
+        buffers.add(buffer);
+        buffer.addRef();
+
+        indexBuffer = buffer;
+        indexed = true;
+    }
+
     /**
      * @param mode GL_POINTS, GL_LINE_STRIP, GL_LINE_LOOP, GL_LINES, GL_LINE_STRIP_ADJACENCY, GL_LINES_ADJACENCY,
      *             GL_TRIANGLE_STRIP, GL_TRIANGLE_FAN, GL_TRIANGLES, GL_TRIANGLE_STRIP_ADJACENCY and GL_TRIANGLES_ADJACENCY
-     * @param first first vertex
-     * @param count number of vertices
+     * @param first first vertex or index if an index buffer is bound
+     * @param count number of vertices or indices if an index buffer is bound
      */
     public void draw(int mode, int first, int count) {
         shader.use();
         glBindVertexArray(vao);
-        glDrawArrays(mode, first, count);
+        drawBound(mode, first, count);
+    }
+
+    /**
+     * Draws several instances of the vertices. Attributes bound with {@link #bindInstanceBuffer bindInstanceBuffer}
+     * advance once per instance.
+     *
+     * @param mode GL_TRIANGLES, GL_LINES, etc.
+     * @param first first vertex or index if an index buffer is bound
+     * @param count number of vertices or indices if an index buffer is bound
+     * @param instances number of instances
+     */
+    public void drawInstanced(int mode, int first, int count, int instances) {
+        shader.use();
+        glBindVertexArray(vao);
+        drawBoundInstanced(mode, first, count, instances);
+    }
+
+    /**
+     * Issues an instanced draw call for the already bound vertex array
+     *
+     * @param mode GL_TRIANGLES, GL_LINES, etc.
+     * @param first first vertex or index if an index buffer is bound
+     * @param count number of vertices or indices if an index buffer is bound
+     * @param instances number of instances
+     */
+    protected void drawBoundInstanced(int mode, int first, int count, int instances) {
+        if (FrameCapture.isActive())
+            FrameCapture.draw(this, mode, first, count, instances);
+
+        if (indexed)
+            glDrawElementsInstanced(mode, count, GL_UNSIGNED_INT, first * 4L, instances);
+        else
+            glDrawArraysInstanced(mode, first, count, instances);
+    }
+
+    /**
+     * Checks if the vertex array can be drawn with {@link #drawIndirect drawIndirect}. This is the case with OpenGL 4.5
+     * for indexed vertex arrays without instanced attributes, since the base instance offsets them, whose shader has
+     * the attribute inDrawId. The draw ids are bound the first time the check succeeds.
+     *
+     * @return if indirect draws are supported
+     */
+    protected boolean supportsIndirect() {
+        if (drawIdsBound)
+            return true;
+
+        if (!indexed || instanced || !Backend.isModern())
+            return false;
+
+        // The location is cached, since the check runs for every draw of a command list
+        if (drawIdLocation == UNKNOWN_LOCATION)
+            drawIdLocation = shader.getAttribLocation(DRAW_ID_ATTRIBUTE);
+
+        if (drawIdLocation < 0)
+            return false;
+
+        glBindVertexArray(vao);
+        glBindBuffer(GL_ARRAY_BUFFER, Backend.getDrawIds());
+        glVertexAttribIPointer(drawIdLocation, 1, GL_UNSIGNED_INT, 0, 0);
+        glEnableVertexAttribArray(drawIdLocation);
+        glVertexAttribDivisor(drawIdLocation, 1);
+
+        drawIdsBound = true;
+        return true;
     }
 
     /**
-     * Decreases the reference count and destroys the resource when it hits zero
+     * Issues indirect draw calls for the already bound vertex array. The commands are read from the buffer bound to
+     * GL_DRAW_INDIRECT_BUFFER.
+     *
+     * @param mode GL_TRIANGLES, GL_LINES, etc.
+     * @param offset offset of the first command in bytes
+     * @param count number of tightly packed commands
+     */
+    protected void drawIndirect(int mode, long offset, int count) {
+        glMultiDrawElementsIndirect(mode, GL_UNSIGNED_INT, offset, count, 0);
+    }
+
+    /**
+     * Binds the vertex array without touching the shader
+     */
+    protected void bind() {
+        glBindVertexArray(vao);
+    }
+
+    /**
+     * Issues the draw call for the already bound vertex array
+     *
+     * @param mode GL_TRIANGLES, GL_LINES, etc.
+     * @param first first vertex or index if an index buffer is bound
+     * @param count number of vertices or indices if an index buffer is bound
+     */
+    protected void drawBound(int mode, int first, int count) {
+        if (FrameCapture.isActive())
+            FrameCapture.draw(this, mode, first, count, 0);
+
+        if (indexed)
+            glDrawElements(mode, count, GL_UNSIGNED_INT, first * 4L);
+        else
+            glDrawArrays(mode, first, count);
+    }
+
+    /**
+     * @return shader which is used for drawing
+     */
+    protected Shader getShader() {
+        return shader;
+    }
+
+    /**
+     * @return OpenGL name of the vertex array
+     */
+    protected int getId() {
+        return vao;
+    }
+
+    /**
+     * Decreases the reference count and schedules the destruction of the resource on the {@link DeletionQueue
+     * DeletionQueue} when it hits zero. Can be called on any thread.
      */
     @Override
     public void close() {
-        if (references == 0) {
-            glDeleteVertexArrays(vao);
+        if (references.release()) {
+            int name = vao;
             vao = 0;
+            DeletionQueue.enqueue(() -> glDeleteVertexArrays(name));
 
             shader.close();
             shader = null;
@@ -82,20 +276,34 @@ public class VAO implements Closeable {
                 buffer.close();
 
             buffers.clear();
+            bindings.clear();
+            indexBuffer = null;
         }
-
-        --references;
     }
 
     /**
      * Increases the reference count
      */
     public void addRef() {
-        ++references;
+        references.addRef();
     }
 
-    private int references = 0;
+    /**
+     * Name of the attribute which receives the base instance of indirect draws
+     */
+    private static final String DRAW_ID_ATTRIBUTE = "inDrawId";
+    private static final int UNKNOWN_LOCATION = -2;
+
+    private final RefCount references = new RefCount(this);
     private int vao;
     private Shader shader;
+    private boolean indexed = false;
+    private boolean instanced = false;
+    private boolean drawIdsBound = false;
+    private int drawIdLocation = UNKNOWN_LOCATION;
     private ArrayList<Buffer> buffers = new ArrayList<>();
+
+    // Attributes and index buffer in the order they were bound
+    final ArrayList<Binding> bindings = new ArrayList<>();
+    Buffer indexBuffer = null;
 }
@@ -9,16 +9,23 @@ package org.preinfalk.PBR.GL;
 import org.joml.Vector2f;
 import org.lwjgl.glfw.GLFWCursorPosCallback;
 import org.lwjgl.glfw.GLFWMouseButtonCallback;
+import org.lwjgl.glfw.GLFWWindowRefreshCallback;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GLCapabilities;
 
 import java.io.Closeable;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL.createCapabilities;
 
 /**
- * GLFW window which has OpenGL capabilities
+ * GLFW window which has OpenGL capabilities.
+ *
+ * Viewers which only redraw when something changed can block in {@link #waitEvents(double) waitEvents} instead of
+ * polling, and check {@link #needsRedraw() needsRedraw} for exposed or resized contents. The frame rate can be capped
+ * with {@link #setFrameRateLimit(double) setFrameRateLimit} and vertical synchronization is controlled with
+ * {@link #setSwapInterval(int) setSwapInterval}.
  */
 public class Window implements Closeable {
     /**
@@ -29,6 +36,18 @@ public class Window implements Closeable {
      * @param name title of the window
      */
     public Window(int width, int height, String name) {
+        this(width, height, name, true);
+    }
+
+    /**
+     * Creates a GLFW Window, which can be hidden, e.g. for tools which only need the OpenGL context
+     *
+     * @param width width of the window
+     * @param height height of the window
+     * @param name title of the window
+     * @param visible if the window is shown
+     */
+    public Window(int width, int height, String name, boolean visible) {
         if (glfwInitialized == 0 && !glfwInit())
             throw new RuntimeException("failed to initialize GLFW");
 
@@ -38,7 +57,10 @@ public class Window implements Closeable {
             glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
             glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
             glfwWindowHint(GLFW_RESIZABLE, 0);
-            glfwWindowHint(GLFW_SAMPLES, 2);
+            glfwWindowHint(GLFW_VISIBLE, visible ? GLFW_TRUE : GLFW_FALSE);
+            // Multisampling happens in the HDR framebuffer, the backbuffer only receives the tonemapped image
+            glfwWindowHint(GLFW_SAMPLES, 0);
+            glfwWindowHint(GLFW_SRGB_CAPABLE, GLFW_TRUE);
 
             window = glfwCreateWindow(width, height, name, 0, 0);
 
@@ -55,8 +77,21 @@ public class Window implements Closeable {
             glfwSetMouseButtonCallback(window, new GLFWMouseButtonCallback() {
                 @Override
                 public void invoke(long window, int button, int action, int mods) {
-                    if (button == GLFW_MOUSE_BUTTON_LEFT)
-                        mouseDown = action != GLFW_RELEASE;
+                    if (button != GLFW_MOUSE_BUTTON_LEFT)
+                        return;
+
+                    mouseDown = action != GLFW_RELEASE;
+
+                    Vector2f position = mousePosition;
+                    int type = mouseDown ? InputRing.BUTTON_DOWN : InputRing.BUTTON_UP;
+                    input.push(type, position.x, position.y, System.nanoTime());
+                }
+            });
+
+            glfwSetWindowRefreshCallback(window, new GLFWWindowRefreshCallback() {
+                @Override
+                public void invoke(long window) {
+                    redraw = true;
                 }
             });
 
@@ -64,6 +99,7 @@ public class Window implements Closeable {
                 @Override
                 public void invoke(long window, double xpos, double ypos) {
                     mousePosition = new Vector2f((float) xpos, (float) ypos);
+                    input.push(InputRing.CURSOR, (float) xpos, (float) ypos, System.nanoTime());
                 }
             });
         } catch (Throwable th) {
@@ -80,6 +116,16 @@ public class Window implements Closeable {
         GL.setCapabilities(capabilities);
     }
 
+    /**
+     * Checks if the context supports OpenGL 4.5, so the resources use direct state access, immutable storage and
+     * multi-draw indirect. The system property pbr.gl33=true forces the OpenGL 3.3 paths.
+     *
+     * @return if the OpenGL 4.5 paths are used
+     */
+    public boolean isModern() {
+        return Backend.isModern(capabilities);
+    }
+
     /**
      * Polls the events and checks if the window should be closed
      * @return if the window should be closed
@@ -89,13 +135,75 @@ public class Window implements Closeable {
         return glfwWindowShouldClose(window);
     }
 
+    /**
+     * Waits until an event arrives or the timeout expires, processes the events and checks if the window should be
+     * closed. The thread sleeps in the meantime.
+     *
+     * @param timeout maximum time to wait in seconds
+     * @return if the window should be closed
+     */
+    public boolean waitEvents(double timeout) {
+        glfwWaitEventsTimeout(timeout);
+        return glfwWindowShouldClose(window);
+    }
+
+    /**
+     * Checks if the contents of the window were damaged, e.g. because it was uncovered, and resets the flag
+     *
+     * @return if the window has to be redrawn
+     */
+    public boolean needsRedraw() {
+        boolean result = redraw;
+        redraw = false;
+        return result;
+    }
+
+    /**
+     * Sets the number of vertical blanks to wait for before swapping. The context of the window must be current.
+     *
+     * @param interval 0 disables vertical synchronization, 1 synchronizes with every refresh of the screen
+     */
+    public void setSwapInterval(int interval) {
+        glfwSwapInterval(interval);
+    }
+
+    /**
+     * Limits the number of frames per second; {@link #swap() swap} sleeps until the next frame is due
+     *
+     * @param fps maximum frames per second; 0 disables the limit
+     */
+    public void setFrameRateLimit(double fps) {
+        frameInterval = fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
     /**
      * Swaps the backbuffer and frontbuffer
      */
     public void swap() {
+        if (frameInterval > 0) {
+            long now = System.nanoTime();
+
+            // Frames which were late don't shorten the following ones
+            if (nextFrame - now > 0)
+                sleepUntil(nextFrame);
+
+            nextFrame = Math.max(nextFrame, now) + frameInterval;
+        }
+
         glfwSwapBuffers(window);
     }
 
+    /**
+     * Returns the ring which receives the mouse events of the window. The events are pushed while the events are
+     * processed ({@link #pollEvents() pollEvents} or {@link #waitEvents(double) waitEvents}), and one consumer may read
+     * them.
+     *
+     * @return input events
+     */
+    public InputRing getInput() {
+        return input;
+    }
+
     /**
      * @return current mouse location inside the window
      */
@@ -111,10 +219,13 @@ public class Window implements Closeable {
     }
 
     /**
-     * Destroys the window
+     * Runs the pending deletions of the {@link DeletionQueue DeletionQueue} and destroys the window
      */
     @Override
     public void close() {
+        glfwMakeContextCurrent(window);
+        DeletionQueue.drain();
+        Backend.release();
         glfwDestroyWindow(window);
 
         --glfwInitialized;
@@ -122,10 +233,31 @@ public class Window implements Closeable {
             glfwTerminate();
     }
 
+    /**
+     * Sleeps until the deadline; The last part is spun, as sleeping is too coarse.
+     *
+     * @param deadline time of {@link System#nanoTime() nanoTime} to wake up at
+     */
+    private static void sleepUntil(long deadline) {
+        for (long remaining; (remaining = deadline - System.nanoTime()) > 0; ) {
+            if (remaining > SPIN_TIME)
+                LockSupport.parkNanos(remaining - SPIN_TIME);
+            else
+                Thread.yield();
+        }
+    }
+
+    private static final long SPIN_TIME = 1000000;
+    private static final int INPUT_CAPACITY = 1024;
+
     private static int glfwInitialized = 0;
 
     private long window;
     private GLCapabilities capabilities;
-    private Vector2f mousePosition = new Vector2f();
-    private boolean mouseDown;
+    private long frameInterval = 0;
+    private long nextFrame = 0;
+    private boolean redraw = true;
+    private final InputRing input = new InputRing(INPUT_CAPACITY);
+    private volatile Vector2f mousePosition = new Vector2f();
+    private volatile boolean mouseDown;
 }
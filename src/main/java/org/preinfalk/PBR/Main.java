@@ -7,12 +7,24 @@
 package org.preinfalk.PBR;
 
 import org.joml.*;
+import org.preinfalk.PBR.Asset.AssetArchive;
+import org.preinfalk.PBR.Asset.AssetManager;
+import org.preinfalk.PBR.Asset.CubeGenerator;
 import org.preinfalk.PBR.GL.*;
+import org.preinfalk.PBR.Scene.BoundingVolumeHierarchy;
+import org.preinfalk.PBR.Scene.ClusterGrid;
+import org.preinfalk.PBR.Scene.Frustum;
+import org.preinfalk.PBR.Scene.LightList;
+import org.preinfalk.PBR.Scene.LodSelector;
+import org.preinfalk.PBR.Scene.ProbeGrid;
+import org.preinfalk.PBR.Scene.SceneGraph;
+import org.preinfalk.PBR.Scene.ShadowCascades;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.Math;
-import java.util.Scanner;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 import static org.lwjgl.opengl.GL33.*;
 
@@ -33,36 +45,111 @@ public class Main {
             stack.add(wnd);
             wnd.makeCurrent();
 
-            // Load all the textures
-            Texture baseColor = new Texture(new FileInputStream("dist/scuffed-plastic-alb.png"));
-            stack.add(baseColor);
+            // Read and preprocess the shaders and decode the material maps on worker threads
+            AssetManager assets = new AssetManager();
+            stack.add(assets);
 
-            Texture metallic = new Texture(new FileInputStream("dist/scuffed-plastic-metal.png"));
-            stack.add(metallic);
+            // The deferred variant only writes a G-buffer, which the lighting shader shades with the same lights
+            CompletableFuture<Shader> pbrShader = DEFERRED_SHADING
+                ? assets.loadShader("/PBR.vert", "/PBR.frag", "MATERIAL_ARRAY", "GBUFFER")
+                : assets.loadShader(
+                    "/PBR.vert", "/PBR.frag", "CLUSTERED_LIGHTS", "CASCADED_SHADOWS", "LIGHT_PROBES", "MATERIAL_ARRAY"
+                );
+            CompletableFuture<Shader> lightingShaderAsset = DEFERRED_SHADING
+                ? assets.loadShader(
+                    "/Fullscreen.vert", "/PBR.frag", "CLUSTERED_LIGHTS", "CASCADED_SHADOWS", "LIGHT_PROBES", "DEFERRED"
+                )
+                : pbrShader;
+            CompletableFuture<Shader> depthShaderAsset = assets.loadShader("/Depth.vert", "/Depth.frag");
 
-            Texture normal = new Texture(new FileInputStream("dist/scuffed-plastic-normal.png"));
-            stack.add(normal);
+            // Material previews are spheres ray traced on camera facing quads, shaded like the mesh
+            CompletableFuture<Shader> impostorShaderAsset = PREVIEW_GRID == 0
+                ? null
+                : DEFERRED_SHADING
+                ? assets.loadShader("/Impostor.vert", "/PBR.frag", "MATERIAL_ARRAY", "GBUFFER", "IMPOSTOR")
+                : assets.loadShader(
+                    "/Impostor.vert", "/PBR.frag", "CLUSTERED_LIGHTS", "CASCADED_SHADOWS", "LIGHT_PROBES",
+                    "MATERIAL_ARRAY", "IMPOSTOR"
+                );
 
-            Texture roughness = new Texture(new FileInputStream("dist/scuffed-plastic-rough.png"));
-            stack.add(roughness);
+            // With OpenGL 4.5 the shadow casters read their transforms from a buffer and are drawn indirectly
+            CompletableFuture<Shader> casterShaderAsset = wnd.isModern()
+                ? assets.loadShader("/Depth.vert", "/Depth.frag", "INDIRECT_TRANSFORMS")
+                : depthShaderAsset;
+            CompletableFuture<Shader> luminanceShaderAsset = assets.loadShader("/Fullscreen.vert", "/Luminance.frag");
+            CompletableFuture<Shader> toneMapShaderAsset = assets.loadShader("/Fullscreen.vert", "/ToneMap.frag");
+            CompletableFuture<Shader> reduceShaderAsset = assets.loadShader("/Fullscreen.vert", "/DepthReduce.frag");
+
+            // The maps of the material are decoded in the background and added to the layers of the material library
+            MaterialLibrary materials = new MaterialLibrary(2048, 2048, 1);
+            stack.add(materials);
+
+            // The distribution packs the maps into an archive; Without one they are read from the loose files.
+            AssetArchive archive = Files.exists(Paths.get(ASSET_ARCHIVE))
+                ? new AssetArchive(Paths.get(ASSET_ARCHIVE))
+                : null;
+
+            if (archive != null)
+                stack.add(archive);
+
+            CompletableFuture<Integer> plasticAsset = archive != null
+                ? assets.loadMaterial(
+                    materials, archive, "scuffed-plastic-alb.png", "scuffed-plastic-normal.png",
+                    "scuffed-plastic-metal.png", "scuffed-plastic-rough.png"
+                )
+                : assets.loadMaterial(
+                    materials, Paths.get("dist/scuffed-plastic-alb.png"), Paths.get("dist/scuffed-plastic-normal.png"),
+                    Paths.get("dist/scuffed-plastic-metal.png"), Paths.get("dist/scuffed-plastic-rough.png")
+                );
 
             // Create mesh
-            // Mesh mesh = new Sphere(new Vector3f(), new Vector3f(1), 128, true, true);
-            Mesh mesh = new Cube(new Vector3f(), new Vector3f(1), true, true);
+            // Mesh mesh = new IndexedMesh(new SphereGenerator(new Vector3f(), new Vector3f(1), 128));
+            Mesh mesh = new IndexedMesh(new CubeGenerator(new Vector3f(), new Vector3f(1), 1));
             stack.add(mesh);
 
             // Create and setup shader
-            Shader shader = new Shader(getResource("/PBR.vert"), getResource("/PBR.frag"));
-            stack.add(shader);
+            Shader shader = assets.await(pbrShader);
+            Shader lightingShader = assets.await(lightingShaderAsset);
+
+            Vector3f lightDir = new Vector3f(0, 0, -1);
+            lightingShader.setVec3("uLightDir", lightDir);
+
+            Vector3f lightColor = new Vector3f(1);
+            lightingShader.setVec3("uLightColor", lightColor);
+
+            // Place a ring of colored point lights around the mesh
+            LightList lights = new LightList();
+
+            for (int i = 0; i < NUM_LIGHTS; ++i) {
+                float angle = (float) (2 * Math.PI * i / NUM_LIGHTS);
+                Vector3f color = new Vector3f(
+                    0.5f + 0.5f * (float) Math.cos(angle), 0.5f + 0.5f * (float) Math.cos(angle + 2.1f),
+                    0.5f + 0.5f * (float) Math.cos(angle + 4.2f)
+                );
+
+                lights.addPointLight(
+                    new Vector3f(2.5f * (float) Math.cos(angle), 2.5f * (float) Math.sin(angle), 0), color.mul(4), 2
+                );
+            }
 
-            shader.setVec3("uLightDir", new Vector3f(0, 0, -1));
+            // Assign the lights to clusters of the view frustum, which are looked up in the shader
+            ClusterGrid clusters = new ClusterGrid(16, 9, 24)
+                .setProjection((float) Math.toRadians(45.0f), 640.0f / 480.0f, 0.01f, 100.0f);
 
-            shader.setVec3("uLightColor", new Vector3f(1));
+            ClusteredLighting clusteredLighting = new ClusteredLighting(clusters, lights, NUM_LIGHTS, 65536);
+            stack.add(clusteredLighting);
+            clusteredLighting.addShader(lightingShader);
+            clusteredLighting.setViewport(640, 480);
 
-            shader.setTexture("uAlbedo", baseColor);
-            shader.setTexture("uNormalMap", normal);
-            shader.setTexture("uMetallicMap", metallic);
-            shader.setTexture("uRoughnessMap", roughness);
+            // The ambient light comes from a grid of probes around the mesh, which see the light reflected by it
+            ProbeGrid probes = new ProbeGrid(new Vector3f(-3), new Vector3f(3), 7, 7, 7, 3.0f);
+            ProbeVolume probeVolume = new ProbeVolume(probes);
+            stack.add(probeVolume);
+            probeVolume.addShader(lightingShader);
+
+            // All materials of the library share the texture arrays
+            Material material = materials.getMaterial();
+            int plastic = assets.await(plasticAsset);
 
             // Bind mesh and shader to Vertex Array Object (VAO)
             VAO vao = new VAO(shader);
@@ -70,59 +157,454 @@ public class Main {
             mesh.bindPosition(vao, "inPos");
             mesh.bindNormal(vao, "inNormal");
             mesh.bindTexCoord(vao, "inTexCoord");
+            mesh.bindIndices(vao);
 
-            glEnable(GL_DEPTH_TEST);
+            // The layer of the material is a per-instance attribute
+            Buffer materialLayers = new Buffer(4);
+            stack.add(materialLayers);
+            materialLayers.putFloat(materials.getLayer(plastic)).flip();
+            vao.bindInstanceBuffer(materialLayers, "inMaterial", 1, GL_FLOAT, false, 0, 0);
 
-            Vector2f last = wnd.getMousePosition();
-            Vector3f cameraPos = new Vector3f(5, 0, 0);
-            Quaternionf quat = new Quaternionf();
+            // A grid of preview spheres behind the mesh, four vertices each
+            Shader impostorShader = PREVIEW_GRID > 0 ? assets.await(impostorShaderAsset) : null;
+            float[] spheres = new float[PREVIEW_GRID * PREVIEW_GRID * 4];
+            float[] layers = new float[PREVIEW_GRID * PREVIEW_GRID];
+            float spacing = 3.5f / Math.max(PREVIEW_GRID, 1);
 
-            while (!wnd.pollEvents()) {
-                glClearColor(0.8f, 0.8f, 0.8f, 1.0f);
-                glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+            for (int i = 0; i < layers.length; ++i) {
+                spheres[i * 4] = -3;
+                spheres[i * 4 + 1] = ((i % PREVIEW_GRID) - (PREVIEW_GRID - 1) * 0.5f) * spacing;
+                spheres[i * 4 + 2] = ((i / PREVIEW_GRID) - (PREVIEW_GRID - 1) * 0.5f) * spacing;
+                spheres[i * 4 + 3] = spacing * 0.4f;
+                layers[i] = materials.getLayer(plastic);
+            }
+
+            SphereImpostors previews = impostorShader != null
+                ? new SphereImpostors(impostorShader, spheres, layers)
+                : null;
+            float[] previewBox = new float[6];
 
-                // Calculate rotation of mesh based on the coordinates of the mouse
-                Vector2f now = wnd.getMousePosition();
-                Vector2f delta = new Vector2f(now).sub(last);
-                last = now;
+            if (previews != null) {
+                stack.add(previews);
 
-                if (wnd.isMouseDown()) {
-                    quat.premul(new Quaternionf().fromAxisAngleDeg(0, 1, 0, delta.y));
-                    quat.premul(new Quaternionf().fromAxisAngleDeg(0, 0, 1, delta.x));
-                    quat.normalize();
+                Vector3fc min = previews.getBounds().getMin(), max = previews.getBounds().getMax();
+                previewBox[0] = (min.x() + max.x()) * 0.5f;
+                previewBox[1] = (min.y() + max.y()) * 0.5f;
+                previewBox[2] = (min.z() + max.z()) * 0.5f;
+                previewBox[3] = (max.x() - min.x()) * 0.5f;
+                previewBox[4] = (max.y() - min.y()) * 0.5f;
+                previewBox[5] = (max.z() - min.z()) * 0.5f;
+
+                if (!DEFERRED_SHADING) {
+                    impostorShader.setVec3("uLightDir", lightDir);
+                    impostorShader.setVec3("uLightColor", lightColor);
+                    clusteredLighting.addShader(impostorShader);
+                    probeVolume.addShader(impostorShader);
                 }
+            }
+
+            // Fill the depth buffer with a position-only shader first, so the PBR shader runs once per pixel
+            Shader depthShader = assets.await(depthShaderAsset);
+
+            VAO depthVao = new VAO(depthShader);
+            stack.add(depthVao);
+            mesh.bindPosition(depthVao, "inPos");
+            mesh.bindIndices(depthVao);
+
+            Shader casterShader = assets.await(casterShaderAsset);
+            VAO casterVao = casterShader != depthShader ? new VAO(casterShader) : depthVao;
+
+            if (casterVao != depthVao) {
+                stack.add(casterVao);
+                mesh.bindPosition(casterVao, "inPos");
+                mesh.bindIndices(casterVao);
+            }
+
+            DepthPrepass depthPrepass = new DepthPrepass();
+            stack.add(depthPrepass);
+            depthPrepass.add(vao, depthVao);
+
+            // Create scene with a rotatable root node and the mesh attached to it
+            SceneGraph scene = new SceneGraph();
+            int root = scene.addNode(SceneGraph.NO_PARENT);
+            int meshNode = scene.addNode(root);
+
+            // Keep track of the bounds of the mesh for frustum culling
+            BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy();
+            int meshObject = bvh.add();
+            int[] visible = new int[1];
+            Frustum frustum = new Frustum();
+
+            // Choose the level of detail of the mesh so its error stays below one pixel of the render resolution
+            LodSelector lodSelector = new LodSelector(1.0f, 0.25f);
+
+            // Draws are recorded into the queue on worker threads and submitted on this thread
+            RenderQueue queue = new RenderQueue("uModel", "uNormalMat");
+            FramePipeline pipeline = new FramePipeline(queue);
+            stack.add(pipeline);
+            pipeline.addResource(clusteredLighting);
+            pipeline.addResource(probeVolume);
+
+            if (DEPTH_PREPASS)
+                pipeline.setDepthPrepass(depthPrepass);
+
+            // Shadows of the directional light; The casters are drawn with the depth-only vertex arrays.
+            ShadowCascades cascades = new ShadowCascades(4, 1024).setRange(20.0f, 0.75f, 20.0f);
+            ShadowMap shadowMap = new ShadowMap(cascades, "uModel", "uNormalMat");
+            stack.add(shadowMap);
+            shadowMap.addShader(lightingShader);
+
+            if (impostorShader != null && !DEFERRED_SHADING)
+                shadowMap.addShader(impostorShader);
+
+            pipeline.addResource(shadowMap);
+            Frustum shadowFrustum = new Frustum();
+
+            // The scene is drawn with 4x MSAA into a floating point framebuffer and tonemapped into the backbuffer
+            HdrFramebuffer hdr = new HdrFramebuffer(640, 480, 4, GL_R11F_G11F_B10F);
+            stack.add(hdr);
+
+            Shader luminanceShader = assets.await(luminanceShaderAsset);
+            Shader toneMapShader = assets.await(toneMapShaderAsset);
+
+            DeferredShading deferred = DEFERRED_SHADING ? new DeferredShading(hdr, lightingShader) : null;
+
+            if (deferred != null)
+                stack.add(deferred);
+
+            ToneMapping toneMapping = new ToneMapping(hdr, luminanceShader, toneMapShader);
+            stack.add(toneMapping);
 
-                // Calculate View Projection, Model and Normal matrix
+            // Fragment bound frames draw fewer pixels, which the tone mapping scales up to the window
+            DynamicResolution resolution = new DynamicResolution(hdr, GPU_BUDGET);
+            stack.add(resolution);
+            lodSelector.setProjection((float) Math.toRadians(45.0f), hdr.getRenderHeight());
+
+            // Objects behind the depth of earlier frames are culled
+            OcclusionDepth occlusion = new OcclusionDepth(hdr, assets.await(reduceShaderAsset), 160, 120);
+            stack.add(occlusion);
+            pipeline.addResource(occlusion);
+
+            // The deferred geometry pass only writes the depth into the G-buffer before the resources are synchronized
+            if (deferred != null)
+                occlusion.setDepthSource(deferred.getFramebuffer());
+
+            glEnable(GL_DEPTH_TEST);
+
+            Vector3f cameraPos = new Vector3f(5, 0, 0);
+
+            // Prepares a frame: Update the scene, cull it and record the draws with their uniforms
+            FramePipeline.Stage stage = q -> {
+                // Calculate View Projection matrix and update the Model and Normal matrices of the scene
+                Matrix4f matView = new Matrix4f().lookAt(cameraPos, new Vector3f(), new Vector3f(0, 0, 1));
                 Matrix4f matVP = new Matrix4f()
                         .perspective((float) Math.toRadians(45.0f), 640.0f / 480.0f, 0.01f, 100.0f)
-                        .lookAt(cameraPos, new Vector3f(), new Vector3f(0, 0, 1));
+                        .mul(matView);
+
+                scene.update();
+
+                if (scene.hasChanged(meshNode)) {
+                    // The probes around the old and the new place of the mesh are baked again
+                    probes.invalidate(bvh, meshObject);
+                    bvh.setBounds(meshObject, mesh.getBounds(), scene.getWorldMatrices(), meshNode * 16);
+                    probes.invalidate(bvh, meshObject);
+                }
+
+                probes.bake(bvh, lights, lightDir, lightColor);
+
+                clusters.build(lights, matView);
+
+                RenderQueue.Recorder recorder = q.getRecorder();
+                recorder.setUniform(shader, "uViewProjection", matVP);
+                recorder.setUniform(depthShader, "uViewProjection", matVP);
+                recorder.setUniform(lightingShader, "uView", matView);
+                recorder.setUniform(lightingShader, "uCamPos", cameraPos);
+
+                if (DEFERRED_SHADING)
+                    recorder.setUniform(lightingShader, "uInvViewProjection", new Matrix4f(matVP).invert());
+
+                if (impostorShader != null) {
+                    recorder.setUniform(impostorShader, "uViewProjection", matVP);
+                    recorder.setUniform(impostorShader, "uCamPos", cameraPos);
+
+                    if (!DEFERRED_SHADING)
+                        recorder.setUniform(impostorShader, "uView", matView);
+                }
+
+                float[] world = scene.getWorldMatrices();
+                int o = meshNode * 16;
+                int lod = lodSelector.select(meshObject, mesh, world, o, cameraPos);
+
+                occlusion.setViewProjection(matVP);
 
-                Matrix4f matModel = new Matrix4f().rotate(quat);
+                if (bvh.cull(frustum.set(matVP), occlusion.getCuller(), visible) > 0) {
+                    float depth = cameraPos.distance(world[o + 12], world[o + 13], world[o + 14]);
+
+                    recorder.draw(
+                        vao, material, GL_TRIANGLES, mesh.getLodFirst(lod), mesh.getLodCount(lod), depth, world, o,
+                        scene.getNormalMatrices(), meshNode * 9
+                    );
+                }
+
+                // The frustum was set by the culling above
+                if (previews != null) {
+                    float[] b = previewBox;
+
+                    if (frustum.testBox(b[0], b[1], b[2], b[3], b[4], b[5]) != Frustum.OUTSIDE)
+                        previews.record(recorder, material, cameraPos.distance(b[0], b[1], b[2]));
+                }
+
+                // Record the casters of the cascades which are updated in this frame
+                cascades.update(matView, (float) Math.toRadians(45.0f), 640.0f / 480.0f, 0.01f, lightDir);
+
+                for (int c = 0; c < cascades.getNumCascades(); ++c) {
+                    if (!cascades.isDue(c))
+                        continue;
+
+                    Matrix4f matLight = new Matrix4f().set(cascades.getMatrices(), c * 16);
+                    RenderQueue.Recorder casters = shadowMap.getRecorder(c);
+                    casters.setUniform(casterShader, "uViewProjection", matLight);
+
+                    if (bvh.cull(shadowFrustum.set(matLight), visible) > 0) {
+                        casters.draw(
+                            casterVao, null, GL_TRIANGLES, mesh.getLodFirst(lod), mesh.getLodCount(lod), 0, world, o,
+                            scene.getNormalMatrices(), meshNode * 9
+                        );
+                    }
+                }
+
+                shadowMap.build();
+            };
+
+            wnd.setSwapInterval(1);
+            wnd.setFrameRateLimit(MAX_FPS);
+
+            // Number of frames which still have to be drawn until the image shows the last change
+            int pendingFrames = 0;
+
+            // At most one frame is queued on the GPU, so the input is read right before the frame which uses it
+            FramePacer pacer = new FramePacer(MAX_QUEUED_FRAMES);
+            stack.add(pacer);
+
+            InputRing input = wnd.getInput();
+            Drag drag = new Drag(wnd.getMousePosition());
+
+            // Rotation of the root which the stage prepares the frame with, and the one of the frame replayed next
+            Quaternionf sceneRotation = new Quaternionf(), preparedRotation = new Quaternionf();
+            Matrix4f latchedRotation = new Matrix4f();
+
+            // The replayed frame was prepared an iteration earlier, so the events are processed again right before its
+            // draws are issued and the mesh is rotated by everything which moved since then (late latching). The scene
+            // only receives the rotation for the next frame, since the stage reads it meanwhile. The shadow casters
+            // keep the prepared rotation like the cascades which aren't due keep older ones.
+            pipeline.setLatch(list -> {
+                wnd.pollEvents();
+                drag.read(input);
+
+                if (!drag.getRotation().equals(preparedRotation)) {
+                    Quaternionf difference = preparedRotation.conjugate(new Quaternionf()).premul(drag.getRotation());
+                    list.premultiplyTransforms(latchedRotation.rotation(difference));
+                }
+            });
 
-                Matrix3f matNormal = new Matrix3f();
-                matModel.get3x3(matNormal);
+            // Started with -Dpbr.capture=file the first frames are recorded for the replay benchmark (Replay)
+            if (CAPTURE_FILE != null)
+                FrameCapture.start(Paths.get(CAPTURE_FILE), CAPTURE_FRAMES);
 
-                shader.setMat4("uViewProjection", matVP);
-                shader.setMat4("uModel", matModel);
-                shader.setMat3("uNormalMat", matNormal);
-                shader.setVec3("uCamPos", cameraPos);
+            while (!(RENDER_ON_DEMAND && pendingFrames == 0 ? wnd.waitEvents(IDLE_TIMEOUT) : wnd.pollEvents())) {
+                // Rotate the mesh by all mouse movements since the last frame, including those read by the latch
+                drag.read(input);
 
-                vao.draw(GL_TRIANGLES, 0, mesh.getNumVertices());
+                if (!drag.getRotation().equals(sceneRotation)) {
+                    // Only the depth which the mesh leaves is discarded, the rest keeps culling
+                    Vector3f boxCenter = new Vector3f(), boxExtent = new Vector3f();
+                    bvh.getBox(meshObject, boxCenter, boxExtent);
+                    occlusion.invalidate(boxCenter, boxExtent);
 
+                    sceneRotation.set(drag.getRotation());
+                    scene.setRotation(root, sceneRotation);
+                    pendingFrames = SETTLE_FRAMES;
+                }
+
+                if (wnd.needsRedraw() || toneMapping.isAdapting() || assets.isLoading())
+                    pendingFrames = Math.max(pendingFrames, SETTLE_FRAMES);
+
+                if (RENDER_ON_DEMAND && pendingFrames == 0) {
+                    // Resources released by other threads are still deleted while idle
+                    DeletionQueue.drain();
+                    continue;
+                }
+
+                --pendingFrames;
+                FrameCapture.beginFrame();
+
+                if (resolution.update()) {
+                    clusteredLighting.setViewport(hdr.getRenderWidth(), hdr.getRenderHeight());
+                    lodSelector.setProjection((float) Math.toRadians(45.0f), hdr.getRenderHeight());
+                }
+
+                resolution.begin();
+                hdr.bind();
+                glClearColor(0.8f, 0.8f, 0.8f, 1.0f);
+                glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+
+                if (deferred != null)
+                    deferred.bind();
+
+                // Prepare the next frame while the previous one is drawn
+                pipeline.render(stage);
+                preparedRotation.set(sceneRotation);
+
+                if (deferred != null)
+                    deferred.draw();
+
+                resolution.end();
+
+                toneMapping.draw();
+                FrameCapture.endFrame();
                 wnd.swap();
+
+                // The frame shows all input which was read until its latch
+                pacer.frameSubmitted(drag.takeInputTime());
+                pacer.waitForFrame();
             }
         }
-    }
 
+        // Only reported when started with -Dpbr.trackLeaks=true
+        for (Throwable leak : RefCount.getLeaks())
+            leak.printStackTrace();
+    }
 
     /**
-     * Loads the content of a resource as a string
-     *
-     * @param file file name of the resource
-     * @return content of the resource
+     * Rotation of the mesh by dragging it with the left mouse button
      */
-    private static String getResource(String file) {
-        Scanner s = new Scanner(Main.class.getResourceAsStream(file)).useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
+    private static class Drag {
+        /**
+         * @param cursor current position of the cursor
+         */
+        Drag(Vector2fc cursor) {
+            last.set(cursor);
+        }
+
+        /**
+         * Reads all events of the ring and rotates by the movements while the button is held
+         *
+         * @param input events of the window
+         */
+        void read(InputRing input) {
+            Vector2f delta = new Vector2f();
+
+            while (input.next()) {
+                if (dragging && input.getType() == InputRing.CURSOR) {
+                    delta.add(input.getX() - last.x, input.getY() - last.y);
+
+                    if (inputTime == 0)
+                        inputTime = input.getTime();
+                }
+
+                if (input.getType() != InputRing.CURSOR)
+                    dragging = input.getType() == InputRing.BUTTON_DOWN;
+
+                last.set(input.getX(), input.getY());
+            }
+
+            if (delta.x != 0 || delta.y != 0) {
+                rotation.premul(new Quaternionf().fromAxisAngleDeg(0, 1, 0, delta.y));
+                rotation.premul(new Quaternionf().fromAxisAngleDeg(0, 0, 1, delta.x));
+                rotation.normalize();
+            }
+        }
+
+        /**
+         * @return rotation from all movements read so far
+         */
+        Quaternionfc getRotation() {
+            return rotation;
+        }
+
+        /**
+         * Returns the time of the oldest movement since the last call, which is the input a frame waited for longest
+         *
+         * @return time ({@link System#nanoTime() nanoTime}) or 0 if nothing moved
+         */
+        long takeInputTime() {
+            long time = inputTime;
+            inputTime = 0;
+            return time;
+        }
+
+        private final Vector2f last = new Vector2f();
+        private final Quaternionf rotation = new Quaternionf();
+        private boolean dragging = false;
+        private long inputTime = 0;
     }
+
+
+    /**
+     * Number of point lights around the mesh
+     */
+    private static final int NUM_LIGHTS = 64;
+
+    /**
+     * Draw a depth pre-pass before shading
+     */
+    private static final boolean DEPTH_PREPASS = true;
+
+    /**
+     * Draw the scene into a G-buffer and shade each pixel once afterwards instead of shading while drawing. It pays
+     * off with a lot of overdraw or lights per pixel; compare the GPU time of both (DynamicResolution.getTime).
+     */
+    private static final boolean DEFERRED_SHADING = false;
+
+    /**
+     * Only draw when the scene, the window or the exposure changed and sleep otherwise
+     */
+    private static final boolean RENDER_ON_DEMAND = true;
+
+    /**
+     * Frames drawn after a change: The pipeline shows a frame one frame after it was prepared, and the farthest
+     * shadow cascade is only updated every 4 frames.
+     */
+    private static final int SETTLE_FRAMES = 6;
+
+    /**
+     * Budget for the GPU time of the scene in milliseconds, which dynamic resolution keeps the frames within
+     */
+    private static final float GPU_BUDGET = 8;
+
+    /**
+     * Maximum number of frames in flight on the GPU
+     */
+    private static final int MAX_QUEUED_FRAMES = 1;
+
+    /**
+     * Maximum time in seconds to sleep while idle
+     */
+    private static final double IDLE_TIMEOUT = 0.5;
+
+    /**
+     * Upper limit of the frame rate; 0 disables it
+     */
+    private static final double MAX_FPS = 144;
+
+    /**
+     * Number of material preview spheres per side of the grid behind the mesh, which are drawn as impostors
+     * (-Dpbr.previewGrid); 0 disables the grid
+     */
+    private static final int PREVIEW_GRID = Math.max(Integer.getInteger("pbr.previewGrid", 5), 0);
+
+    /**
+     * Asset archive written by the packAssets task of the build
+     */
+    private static final String ASSET_ARCHIVE = "dist/assets.pak";
+
+    /**
+     * File the first frames are captured into (-Dpbr.capture); null disables capturing
+     */
+    private static final String CAPTURE_FILE = System.getProperty("pbr.capture");
+
+    /**
+     * Number of frames which are captured (-Dpbr.captureFrames)
+     */
+    private static final int CAPTURE_FRAMES = Integer.getInteger("pbr.captureFrames", 1);
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR;
+
+import org.preinfalk.PBR.Asset.AssetArchive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Packs a directory into an {@link AssetArchive AssetArchive} and checks the result (the packAssets task of the build)
+ */
+public class Pack {
+    /**
+     * Main function of the packer
+     *
+     * @param args directory to pack and path of the archive
+     * @throws IOException thrown if a file cannot be read or the archive cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Pack <directory> <archive>");
+            System.exit(1);
+        }
+
+        Path archive = Paths.get(args[1]);
+
+        if (archive.getParent() != null)
+            Files.createDirectories(archive.getParent());
+
+        AssetArchive.PackResult result = AssetArchive.pack(Paths.get(args[0]), archive);
+
+        System.out.printf(
+            "%d entries (%d compressed), %d of %d bytes%n", result.getEntries(), result.getCompressed(),
+            result.getArchiveSize(), result.getOriginalSize());
+
+        // Read the archive back, so a broken archive fails the build instead of the application
+        try (AssetArchive check = new AssetArchive(archive)) {
+            List<String> corrupt = check.verify();
+
+            if (!corrupt.isEmpty()) {
+                System.err.println("Corrupt entries: " + String.join(", ", corrupt));
+                System.exit(1);
+            }
+        }
+    }
+}
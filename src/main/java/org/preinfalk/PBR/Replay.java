@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR;
+
+import org.preinfalk.PBR.GL.FrameReplay;
+import org.preinfalk.PBR.GL.ResourceStack;
+import org.preinfalk.PBR.GL.Window;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Replays frames captured with -Dpbr.capture=file as a benchmark in a hidden window and prints their timings
+ */
+public class Replay {
+    /**
+     * Main function of the replay benchmark
+     *
+     * @param args capture file and optionally the number of iterations (default 100)
+     * @throws IOException thrown if the capture cannot be read or a Closeable interface fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: Replay <capture file> [iterations]");
+            System.exit(1);
+        }
+
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        try (ResourceStack stack = new ResourceStack()) {
+            // The frames are drawn offscreen, so the window is only needed for its context
+            Window wnd = new Window(64, 64, "Replay", false);
+            stack.add(wnd);
+            wnd.makeCurrent();
+
+            FrameReplay replay = new FrameReplay(Paths.get(args[0]));
+            stack.add(replay);
+
+            // The first run warms up the driver (shader compilation, uploads) and isn't reported
+            replay.run(1);
+            replay.run(iterations);
+
+            System.out.printf(
+                "%d frames at %dx%d, %d iterations%n", replay.getNumFrames(), replay.getWidth(), replay.getHeight(),
+                iterations);
+            System.out.println("frame     CPU avg    min    max     GPU avg    min    max   (ms)");
+
+            for (int f = 0; f < replay.getNumFrames(); ++f) {
+                long[] cpu = column(replay.getCpuTimes(), f);
+                long[] gpu = column(replay.getGpuTimes(), f);
+
+                System.out.printf(
+                    "%5d  %10.3f %6.3f %6.3f  %10.3f %6.3f %6.3f%n", f, average(cpu), min(cpu), max(cpu),
+                    average(gpu), min(gpu), max(gpu));
+            }
+
+            // The most expensive draw calls of all frames
+            Integer[] calls = new Integer[replay.getNumCalls()];
+
+            for (int i = 0; i < calls.length; ++i)
+                calls[i] = i;
+
+            Arrays.sort(calls, Comparator.comparingLong(replay::getCallTime).reversed());
+
+            System.out.println("slowest draw calls (GPU ms)");
+
+            for (int i = 0; i < Math.min(calls.length, SLOWEST_CALLS); ++i) {
+                System.out.printf(
+                    "%8.3f  %s%n", replay.getCallTime(calls[i]) * 1e-6, replay.getCallDescription(calls[i]));
+            }
+        }
+    }
+
+    /**
+     * @param times times indexed by iteration and frame
+     * @param frame index of the frame
+     * @return times of the frame in all iterations
+     */
+    private static long[] column(long[][] times, int frame) {
+        long[] column = new long[times.length];
+
+        for (int i = 0; i < times.length; ++i)
+            column[i] = times[i][frame];
+
+        return column;
+    }
+
+    /**
+     * @param times times in nanoseconds
+     * @return average in milliseconds
+     */
+    private static double average(long[] times) {
+        return Arrays.stream(times).average().orElse(0) * 1e-6;
+    }
+
+    /**
+     * @param times times in nanoseconds
+     * @return minimum in milliseconds
+     */
+    private static double min(long[] times) {
+        return Arrays.stream(times).min().orElse(0) * 1e-6;
+    }
+
+    /**
+     * @param times times in nanoseconds
+     * @return maximum in milliseconds
+     */
+    private static double max(long[] times) {
+        return Arrays.stream(times).max().orElse(0) * 1e-6;
+    }
+
+    /**
+     * Number of draw calls which are listed
+     */
+    private static final int SLOWEST_CALLS = 10;
+}
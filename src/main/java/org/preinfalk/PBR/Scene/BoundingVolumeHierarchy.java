@@ -0,0 +1,557 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.preinfalk.PBR.GL.Bounds;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over the world space boxes of the objects in a scene.
+ *
+ * The boxes are stored in flat center and extent arrays, which are sorted so that each node of the tree covers a
+ * contiguous range of them. When objects move, {@link #refit() refit} only recalculates the nodes above the moved
+ * objects. Adding objects requires the tree to be rebuilt, which happens automatically on the next refit or cull.
+ * When objects moved far, calling {@link #build() build} again restores the quality of the tree.
+ *
+ * Rays can be cast against the boxes with {@link #raycast raycast}, which doesn't modify the tree, so several threads
+ * can cast rays at the same time as long as it isn't changed meanwhile.
+ */
+public class BoundingVolumeHierarchy {
+    /**
+     * Adds an object with an empty box at the origin
+     *
+     * @return index of the object
+     */
+    public int add() {
+        if (size == cx.length)
+            allocateObjects(Math.max(16, size * 2));
+
+        int object = size++;
+
+        slotOfObject[object] = object;
+        objectOfSlot[object] = object;
+        cx[object] = cy[object] = cz[object] = 0;
+        ex[object] = ey[object] = ez[object] = 0;
+
+        needsBuild = true;
+        return object;
+    }
+
+    /**
+     * Sets the world space box of an object
+     *
+     * @param object index of the object
+     * @param centerX x center of the box
+     * @param centerY y center of the box
+     * @param centerZ z center of the box
+     * @param extentX half x size of the box
+     * @param extentY half y size of the box
+     * @param extentZ half z size of the box
+     */
+    public void setBox(
+        int object, float centerX, float centerY, float centerZ, float extentX, float extentY, float extentZ
+    ) {
+        int slot = slotOfObject[object];
+
+        cx[slot] = centerX;
+        cy[slot] = centerY;
+        cz[slot] = centerZ;
+        ex[slot] = extentX;
+        ey[slot] = extentY;
+        ez[slot] = extentZ;
+
+        if (!needsBuild) {
+            nodeDirty[leafOfSlot[slot]] = true;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Sets the box of an object by transforming the local bounds of its mesh
+     *
+     * @param object index of the object
+     * @param bounds local bounds of the mesh
+     * @param matrices array containing the world matrix (column major), e.g. {@link SceneGraph#getWorldMatrices()}
+     * @param offset index of the first value of the matrix
+     */
+    public void setBounds(int object, Bounds bounds, float[] matrices, int offset) {
+        Vector3fc min = bounds.getMin();
+        Vector3fc max = bounds.getMax();
+        float[] m = matrices;
+        int o = offset;
+
+        float lx = (min.x() + max.x()) * 0.5f, ly = (min.y() + max.y()) * 0.5f, lz = (min.z() + max.z()) * 0.5f;
+        float hx = (max.x() - min.x()) * 0.5f, hy = (max.y() - min.y()) * 0.5f, hz = (max.z() - min.z()) * 0.5f;
+
+        setBox(
+            object,
+            m[o] * lx + m[o + 4] * ly + m[o + 8] * lz + m[o + 12],
+            m[o + 1] * lx + m[o + 5] * ly + m[o + 9] * lz + m[o + 13],
+            m[o + 2] * lx + m[o + 6] * ly + m[o + 10] * lz + m[o + 14],
+            Math.abs(m[o]) * hx + Math.abs(m[o + 4]) * hy + Math.abs(m[o + 8]) * hz,
+            Math.abs(m[o + 1]) * hx + Math.abs(m[o + 5]) * hy + Math.abs(m[o + 9]) * hz,
+            Math.abs(m[o + 2]) * hx + Math.abs(m[o + 6]) * hy + Math.abs(m[o + 10]) * hz
+        );
+    }
+
+    /**
+     * Gets the world space box of an object
+     *
+     * @param object index of the object
+     * @param center receives the center of the box
+     * @param extent receives the half size of the box
+     */
+    public void getBox(int object, Vector3f center, Vector3f extent) {
+        int slot = slotOfObject[object];
+
+        center.set(cx[slot], cy[slot], cz[slot]);
+        extent.set(ex[slot], ey[slot], ez[slot]);
+    }
+
+    /**
+     * @return number of objects
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rebuilds the tree from scratch by splitting the objects at the median of the longest axis
+     */
+    public void build() {
+        // Every leaf holds at least half of LEAF_SIZE objects, so this is an upper bound for the number of nodes
+        allocateNodes(2 * (size / (LEAF_SIZE / 2)) + 1);
+        numNodes = 1;
+        depth = 0;
+        buildNode(0, 0, size, 0);
+
+        Arrays.fill(nodeDirty, 0, numNodes, false);
+        needsBuild = false;
+        dirty = false;
+    }
+
+    /**
+     * Recalculates the boxes of all nodes above objects which moved since the last refit
+     */
+    public void refit() {
+        if (needsBuild) {
+            build();
+            return;
+        }
+
+        if (!dirty)
+            return;
+
+        // Children always have a higher index than their parent
+        for (int node = numNodes - 1; node >= 0; --node) {
+            int l = left[node];
+
+            if (l < 0) {
+                if (nodeDirty[node])
+                    fitLeaf(node);
+            } else if (nodeDirty[l] || nodeDirty[l + 1]) {
+                fitInner(node);
+                nodeDirty[node] = true;
+                nodeDirty[l] = false;
+                nodeDirty[l + 1] = false;
+            }
+        }
+
+        nodeDirty[0] = false;
+        dirty = false;
+    }
+
+    /**
+     * Collects all objects whose box is at least partially inside of the frustum
+     *
+     * @param frustum frustum to test against
+     * @param visible array which receives the indices of the visible objects; It must be able to hold all objects.
+     * @return number of visible objects
+     */
+    public int cull(Frustum frustum, int[] visible) {
+        return cull(frustum, null, visible);
+    }
+
+    /**
+     * Collects all objects whose box is at least partially inside of the frustum and not occluded. Occluded nodes are
+     * skipped with all their children.
+     *
+     * @param frustum frustum to test against
+     * @param occlusion depth of an earlier frame to test against or null
+     * @param visible array which receives the indices of the visible objects; It must be able to hold all objects.
+     * @return number of visible objects
+     */
+    public int cull(Frustum frustum, OcclusionCuller occlusion, int[] visible) {
+        refit();
+
+        if (occlusion != null && !occlusion.isValid())
+            occlusion = null;
+
+        if (size == 0)
+            return 0;
+
+        int numVisible = 0;
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+
+            float nx = (maxX[node] + minX[node]) * 0.5f, hx = (maxX[node] - minX[node]) * 0.5f;
+            float ny = (maxY[node] + minY[node]) * 0.5f, hy = (maxY[node] - minY[node]) * 0.5f;
+            float nz = (maxZ[node] + minZ[node]) * 0.5f, hz = (maxZ[node] - minZ[node]) * 0.5f;
+
+            int result = frustum.testBox(nx, ny, nz, hx, hy, hz);
+
+            if (result == Frustum.OUTSIDE)
+                continue;
+
+            if (occlusion != null && occlusion.isOccluded(nx, ny, nz, hx, hy, hz))
+                continue;
+
+            if (result == Frustum.INSIDE) {
+                for (int i = first[node], end = first[node] + count[node]; i < end; ++i) {
+                    if (occlusion == null || !isOccluded(occlusion, i))
+                        visible[numVisible++] = objectOfSlot[i];
+                }
+            } else if (left[node] < 0) {
+                int start = numVisible;
+                int end = frustum.cull(cx, cy, cz, ex, ey, ez, first[node], count[node], visible, numVisible);
+
+                for (int i = start; i < end; ++i) {
+                    if (occlusion == null || !isOccluded(occlusion, visible[i]))
+                        visible[numVisible++] = objectOfSlot[visible[i]];
+                }
+            } else {
+                stack[stackSize++] = left[node];
+                stack[stackSize++] = left[node] + 1;
+            }
+        }
+
+        return numVisible;
+    }
+
+    /**
+     * Finds the closest box hit by a ray. Boxes containing the origin are ignored, so rays can start inside of objects.
+     * The tree must be up to date (see {@link #refit() refit}).
+     *
+     * @param originX x origin of the ray
+     * @param originY y origin of the ray
+     * @param originZ z origin of the ray
+     * @param dirX x direction of the ray
+     * @param dirY y direction of the ray
+     * @param dirZ z direction of the ray
+     * @param maxDistance distance beyond which hits are ignored, in units of the direction
+     * @param normal receives the normal of the face which was hit; It's left untouched when nothing is hit.
+     * @return distance to the hit in units of the direction or {@link Float#POSITIVE_INFINITY POSITIVE_INFINITY}
+     */
+    public float raycast(
+        float originX, float originY, float originZ, float dirX, float dirY, float dirZ, float maxDistance,
+        Vector3f normal
+    ) {
+        if (size == 0 || needsBuild)
+            return Float.POSITIVE_INFINITY;
+
+        float invX = 1 / dirX, invY = 1 / dirY, invZ = 1 / dirZ;
+        float closest = maxDistance;
+        int hitAxis = -1;
+
+        // At most one sibling per level waits while descending; The stack is local, so threads can cast concurrently
+        int[] todo = new int[depth + 2];
+        int stackSize = 0;
+        todo[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = todo[--stackSize];
+
+            float nx = Math.min((minX[node] - originX) * invX, (maxX[node] - originX) * invX);
+            float ny = Math.min((minY[node] - originY) * invY, (maxY[node] - originY) * invY);
+            float nz = Math.min((minZ[node] - originZ) * invZ, (maxZ[node] - originZ) * invZ);
+            float fx = Math.max((minX[node] - originX) * invX, (maxX[node] - originX) * invX);
+            float fy = Math.max((minY[node] - originY) * invY, (maxY[node] - originY) * invY);
+            float fz = Math.max((minZ[node] - originZ) * invZ, (maxZ[node] - originZ) * invZ);
+            float near = Math.max(nx, Math.max(ny, nz)), far = Math.min(fx, Math.min(fy, fz));
+
+            if (far < Math.max(near, 0) || near >= closest)
+                continue;
+
+            if (left[node] >= 0) {
+                todo[stackSize++] = left[node];
+                todo[stackSize++] = left[node] + 1;
+                continue;
+            }
+
+            for (int i = first[node], end = first[node] + count[node]; i < end; ++i) {
+                nx = Math.min((cx[i] - ex[i] - originX) * invX, (cx[i] + ex[i] - originX) * invX);
+                ny = Math.min((cy[i] - ey[i] - originY) * invY, (cy[i] + ey[i] - originY) * invY);
+                nz = Math.min((cz[i] - ez[i] - originZ) * invZ, (cz[i] + ez[i] - originZ) * invZ);
+                fx = Math.max((cx[i] - ex[i] - originX) * invX, (cx[i] + ex[i] - originX) * invX);
+                fy = Math.max((cy[i] - ey[i] - originY) * invY, (cy[i] + ey[i] - originY) * invY);
+                fz = Math.max((cz[i] - ez[i] - originZ) * invZ, (cz[i] + ez[i] - originZ) * invZ);
+                near = Math.max(nx, Math.max(ny, nz));
+                far = Math.min(fx, Math.min(fy, fz));
+
+                // Boxes behind the origin or containing it are skipped
+                if (near <= 0 || far < near || near >= closest)
+                    continue;
+
+                closest = near;
+                hitAxis = near == nx ? 0 : near == ny ? 1 : 2;
+            }
+        }
+
+        if (hitAxis < 0)
+            return Float.POSITIVE_INFINITY;
+
+        // The ray enters through the face pointing against it
+        switch (hitAxis) {
+        case 0: normal.set(-Math.signum(dirX), 0, 0); break;
+        case 1: normal.set(0, -Math.signum(dirY), 0); break;
+        default: normal.set(0, 0, -Math.signum(dirZ)); break;
+        }
+
+        return closest;
+    }
+
+    /**
+     * @param occlusion depth to test against
+     * @param slot slot of the object
+     * @return if the box of the object is occluded
+     */
+    private boolean isOccluded(OcclusionCuller occlusion, int slot) {
+        return occlusion.isOccluded(cx[slot], cy[slot], cz[slot], ex[slot], ey[slot], ez[slot]);
+    }
+
+    /**
+     * Builds an already allocated node for a range of objects and all its children
+     *
+     * @param node index of the node
+     * @param start first slot
+     * @param end slot after the last one
+     * @param level distance of the node from the root
+     */
+    private void buildNode(int node, int start, int end, int level) {
+        depth = Math.max(depth, level);
+        first[node] = start;
+        count[node] = end - start;
+
+        if (end - start <= LEAF_SIZE) {
+            left[node] = -1;
+
+            for (int i = start; i < end; ++i)
+                leafOfSlot[i] = node;
+
+            fitLeaf(node);
+            return;
+        }
+
+        // Split at the median of the longest axis of the centers
+        float loX = Float.POSITIVE_INFINITY, loY = Float.POSITIVE_INFINITY, loZ = Float.POSITIVE_INFINITY;
+        float hiX = Float.NEGATIVE_INFINITY, hiY = Float.NEGATIVE_INFINITY, hiZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = start; i < end; ++i) {
+            loX = Math.min(loX, cx[i]);
+            loY = Math.min(loY, cy[i]);
+            loZ = Math.min(loZ, cz[i]);
+            hiX = Math.max(hiX, cx[i]);
+            hiY = Math.max(hiY, cy[i]);
+            hiZ = Math.max(hiZ, cz[i]);
+        }
+
+        float[] axis;
+
+        if (hiX - loX >= hiY - loY && hiX - loX >= hiZ - loZ)
+            axis = cx;
+        else if (hiY - loY >= hiZ - loZ)
+            axis = cy;
+        else
+            axis = cz;
+
+        int mid = (start + end) >>> 1;
+        select(axis, start, end - 1, mid);
+
+        // Both children are allocated next to each other and after their parent
+        int l = numNodes;
+        numNodes += 2;
+        left[node] = l;
+
+        buildNode(l, start, mid, level + 1);
+        buildNode(l + 1, mid, end, level + 1);
+        fitInner(node);
+    }
+
+    /**
+     * Reorders the slots so the element at index k is the one which would be there when sorted (quickselect)
+     *
+     * @param axis center array to compare
+     * @param lo first slot
+     * @param hi last slot
+     * @param k slot to select
+     */
+    private void select(float[] axis, int lo, int hi, int k) {
+        while (hi > lo) {
+            float pivot = axis[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+
+            while (i <= j) {
+                while (axis[i] < pivot)
+                    ++i;
+
+                while (axis[j] > pivot)
+                    --j;
+
+                if (i <= j)
+                    swap(i++, j--);
+            }
+
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    /**
+     * Swaps two slots
+     *
+     * @param a first slot
+     * @param b second slot
+     */
+    private void swap(int a, int b) {
+        float t;
+        t = cx[a]; cx[a] = cx[b]; cx[b] = t;
+        t = cy[a]; cy[a] = cy[b]; cy[b] = t;
+        t = cz[a]; cz[a] = cz[b]; cz[b] = t;
+        t = ex[a]; ex[a] = ex[b]; ex[b] = t;
+        t = ey[a]; ey[a] = ey[b]; ey[b] = t;
+        t = ez[a]; ez[a] = ez[b]; ez[b] = t;
+
+        int objA = objectOfSlot[a], objB = objectOfSlot[b];
+        objectOfSlot[a] = objB;
+        objectOfSlot[b] = objA;
+        slotOfObject[objA] = b;
+        slotOfObject[objB] = a;
+    }
+
+    /**
+     * Recalculates the box of a leaf from its objects
+     *
+     * @param node index of the leaf
+     */
+    private void fitLeaf(int node) {
+        float loX = Float.POSITIVE_INFINITY, loY = Float.POSITIVE_INFINITY, loZ = Float.POSITIVE_INFINITY;
+        float hiX = Float.NEGATIVE_INFINITY, hiY = Float.NEGATIVE_INFINITY, hiZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = first[node], end = first[node] + count[node]; i < end; ++i) {
+            loX = Math.min(loX, cx[i] - ex[i]);
+            loY = Math.min(loY, cy[i] - ey[i]);
+            loZ = Math.min(loZ, cz[i] - ez[i]);
+            hiX = Math.max(hiX, cx[i] + ex[i]);
+            hiY = Math.max(hiY, cy[i] + ey[i]);
+            hiZ = Math.max(hiZ, cz[i] + ez[i]);
+        }
+
+        minX[node] = loX;
+        minY[node] = loY;
+        minZ[node] = loZ;
+        maxX[node] = hiX;
+        maxY[node] = hiY;
+        maxZ[node] = hiZ;
+    }
+
+    /**
+     * Recalculates the box of an inner node from its children
+     *
+     * @param node index of the inner node
+     */
+    private void fitInner(int node) {
+        int l = left[node], r = l + 1;
+
+        minX[node] = Math.min(minX[l], minX[r]);
+        minY[node] = Math.min(minY[l], minY[r]);
+        minZ[node] = Math.min(minZ[l], minZ[r]);
+        maxX[node] = Math.max(maxX[l], maxX[r]);
+        maxY[node] = Math.max(maxY[l], maxY[r]);
+        maxZ[node] = Math.max(maxZ[l], maxZ[r]);
+    }
+
+    /**
+     * Grows the object arrays
+     *
+     * @param capacity new number of objects
+     */
+    private void allocateObjects(int capacity) {
+        cx = Arrays.copyOf(cx, capacity);
+        cy = Arrays.copyOf(cy, capacity);
+        cz = Arrays.copyOf(cz, capacity);
+        ex = Arrays.copyOf(ex, capacity);
+        ey = Arrays.copyOf(ey, capacity);
+        ez = Arrays.copyOf(ez, capacity);
+        objectOfSlot = Arrays.copyOf(objectOfSlot, capacity);
+        slotOfObject = Arrays.copyOf(slotOfObject, capacity);
+        leafOfSlot = Arrays.copyOf(leafOfSlot, capacity);
+    }
+
+    /**
+     * Grows the node arrays if they are too small
+     *
+     * @param capacity minimum number of nodes
+     */
+    private void allocateNodes(int capacity) {
+        if (left.length >= capacity)
+            return;
+
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        minZ = Arrays.copyOf(minZ, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+        maxZ = Arrays.copyOf(maxZ, capacity);
+        first = Arrays.copyOf(first, capacity);
+        count = Arrays.copyOf(count, capacity);
+        left = Arrays.copyOf(left, capacity);
+        nodeDirty = Arrays.copyOf(nodeDirty, capacity);
+        stack = new int[capacity];
+    }
+
+    private static final int LEAF_SIZE = 8;
+
+    private int size = 0;
+    private int numNodes = 0;
+    private int depth = 0;
+    private boolean needsBuild = false;
+    private boolean dirty = false;
+
+    // Object boxes sorted by slot
+    private float[] cx = new float[0];
+    private float[] cy = new float[0];
+    private float[] cz = new float[0];
+    private float[] ex = new float[0];
+    private float[] ey = new float[0];
+    private float[] ez = new float[0];
+    private int[] objectOfSlot = new int[0];
+    private int[] slotOfObject = new int[0];
+    private int[] leafOfSlot = new int[0];
+
+    // Nodes; The right child is always stored after the left one
+    private float[] minX = new float[0];
+    private float[] minY = new float[0];
+    private float[] minZ = new float[0];
+    private float[] maxX = new float[0];
+    private float[] maxY = new float[0];
+    private float[] maxZ = new float[0];
+    private int[] first = new int[0];
+    private int[] count = new int[0];
+    private int[] left = new int[0];
+    private boolean[] nodeDirty = new boolean[0];
+    private int[] stack = new int[0];
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Matrix4fc;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Grid of clusters (froxels) which divides the view frustum into screen tiles and depth slices and assigns lights to
+ * every cluster they touch.
+ *
+ * The slices are spaced logarithmically between the near and far plane, so clusters have roughly the same extent in
+ * every direction. The first slice reaches from the camera to the end of the first slice. Cluster (x, y, z) has the
+ * index (z * tilesY + y) * tilesX + x, with tile (0, 0) in the lower left corner of the viewport.
+ *
+ * Lights are tested with their bounding sphere against the bounding box of a cluster in view space. The bounding box
+ * is separable into intervals of x, y and z, so the lights are first filtered per slice, then per row and only the
+ * remaining ones per tile. Slices are processed in parallel.
+ */
+public class ClusterGrid {
+    /**
+     * Creates a grid
+     *
+     * @param tilesX number of tiles in horizontal direction
+     * @param tilesY number of tiles in vertical direction
+     * @param slices number of depth slices
+     */
+    public ClusterGrid(int tilesX, int tilesY, int slices) {
+        if (tilesX < 1 || tilesY < 1 || slices < 1)
+            throw new IllegalArgumentException("A cluster grid needs at least one cluster");
+
+        this.tilesX = tilesX;
+        this.tilesY = tilesY;
+        this.slices = slices;
+
+        minX = new float[slices * tilesX];
+        maxX = new float[slices * tilesX];
+        minY = new float[slices * tilesY];
+        maxY = new float[slices * tilesY];
+        sliceNear = new float[slices];
+        sliceFar = new float[slices];
+
+        offsets = new int[getNumClusters()];
+        counts = new int[getNumClusters()];
+        sliceIndices = new int[slices][];
+        sliceCounts = new int[slices];
+    }
+
+    /**
+     * Sets the perspective projection and precomputes the bounds of the clusters
+     *
+     * @param fovY vertical field of view in radians
+     * @param aspect aspect ratio (width / height)
+     * @param near distance of the near plane
+     * @param far distance of the far plane
+     * @return itself
+     */
+    public ClusterGrid setProjection(float fovY, float aspect, float near, float far) {
+        float tanY = (float) Math.tan(fovY / 2), tanX = tanY * aspect;
+        double logRatio = Math.log(far / near);
+
+        sliceScale = (float) (slices / logRatio);
+        sliceBias = (float) (-Math.log(near) * slices / logRatio);
+
+        for (int z = 0; z < slices; ++z) {
+            float n = z == 0 ? 0 : (float) (near * Math.exp(logRatio * z / slices));
+            float f = (float) (near * Math.exp(logRatio * (z + 1) / slices));
+
+            sliceNear[z] = n;
+            sliceFar[z] = f;
+
+            setIntervals(minX, maxX, z * tilesX, tilesX, tanX, n, f);
+            setIntervals(minY, maxY, z * tilesY, tilesY, tanY, n, f);
+        }
+
+        return this;
+    }
+
+    /**
+     * Assigns the lights to the clusters
+     *
+     * @param lights lights in world space
+     * @param view view matrix of the camera
+     */
+    public void build(LightList lights, Matrix4fc view) {
+        int n = lights.size();
+        float[] p = lights.getPositions();
+
+        if (viewLights.length < n * 4)
+            viewLights = new float[n * 4];
+
+        for (int i = 0; i < n; ++i) {
+            int o = i * 4;
+            float x = p[o], y = p[o + 1], z = p[o + 2];
+
+            viewLights[o] = view.m00() * x + view.m10() * y + view.m20() * z + view.m30();
+            viewLights[o + 1] = view.m01() * x + view.m11() * y + view.m21() * z + view.m31();
+            viewLights[o + 2] = view.m02() * x + view.m12() * y + view.m22() * z + view.m32();
+            viewLights[o + 3] = p[o + 3];
+        }
+
+        if (n * slices < PARALLEL_THRESHOLD) {
+            for (int z = 0; z < slices; ++z)
+                buildSlice(z, n);
+        } else
+            IntStream.range(0, slices).parallel().forEach(z -> buildSlice(z, n));
+
+        // Concatenate the lists of the slices
+        int total = 0;
+
+        for (int z = 0; z < slices; ++z)
+            total += sliceCounts[z];
+
+        if (indices.length < total)
+            indices = new int[total];
+
+        numIndices = 0;
+
+        for (int z = 0; z < slices; ++z) {
+            int first = z * tilesX * tilesY;
+
+            for (int c = first; c < first + tilesX * tilesY; ++c)
+                offsets[c] += numIndices;
+
+            System.arraycopy(sliceIndices[z], 0, indices, numIndices, sliceCounts[z]);
+            numIndices += sliceCounts[z];
+        }
+    }
+
+    /**
+     * @return number of clusters
+     */
+    public int getNumClusters() {
+        return tilesX * tilesY * slices;
+    }
+
+    /**
+     * @return number of tiles in horizontal direction
+     */
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    /**
+     * @return number of tiles in vertical direction
+     */
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    /**
+     * @return number of depth slices
+     */
+    public int getSlices() {
+        return slices;
+    }
+
+    /**
+     * Returns the scale of the slice calculation; The slice of a view depth d is floor(log(d) * scale + bias).
+     *
+     * @return scale
+     */
+    public float getSliceScale() {
+        return sliceScale;
+    }
+
+    /**
+     * Returns the bias of the slice calculation; The slice of a view depth d is floor(log(d) * scale + bias).
+     *
+     * @return bias
+     */
+    public float getSliceBias() {
+        return sliceBias;
+    }
+
+    /**
+     * @return index of the first light index of each cluster
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * @return number of lights of each cluster
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * Returns the light indices of all clusters. Only the first {@link #getNumIndices() getNumIndices} entries are
+     * valid.
+     *
+     * @return light indices
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return number of light indices
+     */
+    public int getNumIndices() {
+        return numIndices;
+    }
+
+    /**
+     * Assigns the lights to the clusters of a slice. The offsets are relative to the lights of the slice.
+     *
+     * @param z index of the slice
+     * @param numLights number of lights
+     */
+    private void buildSlice(int z, int numLights) {
+        float[] l = viewLights;
+        int[] candidates = new int[numLights];
+        float[] candidateDist = new float[numLights];
+        int numCandidates = 0;
+
+        // Lights touching the depth range of the slice; The camera looks down -z.
+        for (int i = 0; i < numLights; ++i) {
+            float r = l[i * 4 + 3];
+            float d = distance(-l[i * 4 + 2], sliceNear[z], sliceFar[z]);
+
+            if (d * d < r * r) {
+                candidates[numCandidates] = i;
+                candidateDist[numCandidates++] = d * d;
+            }
+        }
+
+        int[] list = sliceIndices[z] != null ? sliceIndices[z] : new int[Math.max(16, numCandidates)];
+        int size = 0;
+        int[] row = new int[numCandidates];
+        float[] rowDist = new float[numCandidates];
+
+        for (int y = 0; y < tilesY; ++y) {
+            int numRow = 0;
+            float y0 = minY[z * tilesY + y], y1 = maxY[z * tilesY + y];
+
+            for (int c = 0; c < numCandidates; ++c) {
+                int i = candidates[c];
+                float r = l[i * 4 + 3];
+                float d = distance(l[i * 4 + 1], y0, y1);
+                float dist = candidateDist[c] + d * d;
+
+                if (dist < r * r) {
+                    row[numRow] = i;
+                    rowDist[numRow++] = dist;
+                }
+            }
+
+            for (int x = 0; x < tilesX; ++x) {
+                int cluster = (z * tilesY + y) * tilesX + x;
+                float x0 = minX[z * tilesX + x], x1 = maxX[z * tilesX + x];
+
+                offsets[cluster] = size;
+
+                for (int c = 0; c < numRow; ++c) {
+                    int i = row[c];
+                    float r = l[i * 4 + 3];
+                    float d = distance(l[i * 4], x0, x1);
+
+                    if (rowDist[c] + d * d < r * r) {
+                        if (size == list.length)
+                            list = Arrays.copyOf(list, list.length * 2);
+
+                        list[size++] = i;
+                    }
+                }
+
+                counts[cluster] = size - offsets[cluster];
+            }
+        }
+
+        sliceIndices[z] = list;
+        sliceCounts[z] = size;
+    }
+
+    /**
+     * Calculates the view space intervals of the tiles along one axis
+     *
+     * @param min lower bounds
+     * @param max upper bounds
+     * @param offset index of the first tile
+     * @param tiles number of tiles
+     * @param tan tangent of half the field of view along the axis
+     * @param near near distance of the slice
+     * @param far far distance of the slice
+     */
+    private static void setIntervals(
+        float[] min, float[] max, int offset, int tiles, float tan, float near, float far
+    ) {
+        for (int i = 0; i < tiles; ++i) {
+            float t0 = (2.0f * i / tiles - 1) * tan, t1 = (2.0f * (i + 1) / tiles - 1) * tan;
+
+            min[offset + i] = Math.min(t0 * near, t0 * far);
+            max[offset + i] = Math.max(t1 * near, t1 * far);
+        }
+    }
+
+    /**
+     * @param value value
+     * @param min lower bound of the interval
+     * @param max upper bound of the interval
+     * @return distance of the value to the interval
+     */
+    private static float distance(float value, float min, float max) {
+        return value < min ? min - value : value > max ? value - max : 0;
+    }
+
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final int tilesX;
+    private final int tilesY;
+    private final int slices;
+    private final float[] minX;
+    private final float[] maxX;
+    private final float[] minY;
+    private final float[] maxY;
+    private final float[] sliceNear;
+    private final float[] sliceFar;
+    private float sliceScale = 0;
+    private float sliceBias = 0;
+
+    private final int[] offsets;
+    private final int[] counts;
+    private final int[][] sliceIndices;
+    private final int[] sliceCounts;
+    private float[] viewLights = new float[0];
+    private int[] indices = new int[0];
+    private int numIndices = 0;
+}
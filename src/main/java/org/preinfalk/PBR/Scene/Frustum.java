@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Matrix4fc;
+
+import java.util.Arrays;
+
+/**
+ * View frustum consisting of six planes, which are extracted from a view projection matrix.
+ *
+ * The planes are stored as separate component arrays, so boxes can be tested in tight loops without branches. The
+ * batch test {@link #cull(float[], float[], float[], float[], float[], float[], int, int, int[], int) cull} works on
+ * boxes stored as flat center and extent arrays.
+ */
+public class Frustum {
+    /**
+     * Box is completely outside of the frustum
+     */
+    public static final int OUTSIDE = 0;
+
+    /**
+     * Box intersects at least one plane of the frustum
+     */
+    public static final int INTERSECT = 1;
+
+    /**
+     * Box is completely inside of the frustum
+     */
+    public static final int INSIDE = 2;
+
+    /**
+     * Extracts the planes from the matrix
+     *
+     * @param viewProjection view projection matrix (same as uViewProjection in the shader)
+     * @return itself
+     */
+    public Frustum set(Matrix4fc viewProjection) {
+        Matrix4fc m = viewProjection;
+
+        setPlane(0, m.m03() + m.m00(), m.m13() + m.m10(), m.m23() + m.m20(), m.m33() + m.m30()); // left
+        setPlane(1, m.m03() - m.m00(), m.m13() - m.m10(), m.m23() - m.m20(), m.m33() - m.m30()); // right
+        setPlane(2, m.m03() + m.m01(), m.m13() + m.m11(), m.m23() + m.m21(), m.m33() + m.m31()); // bottom
+        setPlane(3, m.m03() - m.m01(), m.m13() - m.m11(), m.m23() - m.m21(), m.m33() - m.m31()); // top
+        setPlane(4, m.m03() + m.m02(), m.m13() + m.m12(), m.m23() + m.m22(), m.m33() + m.m32()); // near
+        setPlane(5, m.m03() - m.m02(), m.m13() - m.m12(), m.m23() - m.m22(), m.m33() - m.m32()); // far
+
+        return this;
+    }
+
+    /**
+     * Tests a box against the frustum
+     *
+     * @param cx x center of the box
+     * @param cy y center of the box
+     * @param cz z center of the box
+     * @param ex half x size of the box
+     * @param ey half y size of the box
+     * @param ez half z size of the box
+     * @return {@link #OUTSIDE OUTSIDE}, {@link #INTERSECT INTERSECT} or {@link #INSIDE INSIDE}
+     */
+    public int testBox(float cx, float cy, float cz, float ex, float ey, float ez) {
+        int result = INSIDE;
+
+        for (int i = 0; i < 6; ++i) {
+            float d = planeX[i] * cx + planeY[i] * cy + planeZ[i] * cz + planeW[i];
+            float r = absX[i] * ex + absY[i] * ey + absZ[i] * ez;
+
+            if (d + r < 0)
+                return OUTSIDE;
+
+            if (d - r < 0)
+                result = INTERSECT;
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests a sphere against the frustum
+     *
+     * @param cx x center of the sphere
+     * @param cy y center of the sphere
+     * @param cz z center of the sphere
+     * @param radius radius of the sphere
+     * @return if the sphere is at least partially inside of the frustum
+     */
+    public boolean testSphere(float cx, float cy, float cz, float radius) {
+        for (int i = 0; i < 6; ++i) {
+            if (planeX[i] * cx + planeY[i] * cy + planeZ[i] * cz + planeW[i] < -radius)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests a range of boxes against the frustum and writes the indices of the visible ones into an array.
+     *
+     * The distances are calculated in a branch-free loop over the arrays, so it can be vectorized by the JIT.
+     *
+     * @param cx x centers of the boxes
+     * @param cy y centers of the boxes
+     * @param cz z centers of the boxes
+     * @param ex half x sizes of the boxes
+     * @param ey half y sizes of the boxes
+     * @param ez half z sizes of the boxes
+     * @param first index of the first box
+     * @param count number of boxes
+     * @param visible array which receives the indices of the visible boxes
+     * @param numVisible number of indices already stored in visible
+     * @return new number of indices stored in visible
+     */
+    public int cull(
+        float[] cx, float[] cy, float[] cz, float[] ex, float[] ey, float[] ez, int first, int count, int[] visible,
+        int numVisible
+    ) {
+        if (distances.length < count)
+            distances = new float[Math.max(count, distances.length * 2)];
+
+        float[] dist = distances;
+
+        Arrays.fill(dist, 0, count, Float.POSITIVE_INFINITY);
+
+        for (int p = 0; p < 6; ++p) {
+            float px = planeX[p], py = planeY[p], pz = planeZ[p], pw = planeW[p];
+            float ax = absX[p], ay = absY[p], az = absZ[p];
+
+            for (int i = 0; i < count; ++i) {
+                int j = first + i;
+                float d = px * cx[j] + py * cy[j] + pz * cz[j] + pw + ax * ex[j] + ay * ey[j] + az * ez[j];
+                dist[i] = Math.min(dist[i], d);
+            }
+        }
+
+        for (int i = 0; i < count; ++i) {
+            if (dist[i] >= 0)
+                visible[numVisible++] = first + i;
+        }
+
+        return numVisible;
+    }
+
+    /**
+     * Normalizes and stores a plane
+     *
+     * @param i index of the plane
+     * @param x x component of the normal
+     * @param y y component of the normal
+     * @param z z component of the normal
+     * @param w distance
+     */
+    private void setPlane(int i, float x, float y, float z, float w) {
+        float len = (float) Math.sqrt(x * x + y * y + z * z);
+        float inv = len != 0 ? 1 / len : 0;
+
+        planeX[i] = x * inv;
+        planeY[i] = y * inv;
+        planeZ[i] = z * inv;
+        planeW[i] = w * inv;
+        absX[i] = Math.abs(planeX[i]);
+        absY[i] = Math.abs(planeY[i]);
+        absZ[i] = Math.abs(planeZ[i]);
+    }
+
+    private float[] planeX = new float[6];
+    private float[] planeY = new float[6];
+    private float[] planeZ = new float[6];
+    private float[] planeW = new float[6];
+    private float[] absX = new float[6];
+    private float[] absY = new float[6];
+    private float[] absZ = new float[6];
+    private float[] distances = new float[0];
+}
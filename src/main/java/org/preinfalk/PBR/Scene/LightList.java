@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Vector3fc;
+
+import java.util.Arrays;
+
+/**
+ * List of point and spot lights in world space.
+ *
+ * The lights are stored in flat arrays: position and radius, color and the cosine of the outer cone angle, direction
+ * and the cosine of the inner cone angle (four floats each). Point lights have an outer cosine of {@link #POINT POINT}.
+ * A light contributes nothing beyond its radius.
+ */
+public class LightList {
+    /**
+     * Outer cone cosine of point lights
+     */
+    public static final float POINT = -2;
+
+    /**
+     * Adds a point light
+     *
+     * @param position position in world space
+     * @param color color multiplied with the intensity
+     * @param radius distance at which the light fades out completely
+     * @return index of the light
+     */
+    public int addPointLight(Vector3fc position, Vector3fc color, float radius) {
+        int light = add();
+
+        setPosition(light, position.x(), position.y(), position.z());
+        setColor(light, color.x(), color.y(), color.z());
+        setRadius(light, radius);
+        colors[light * 4 + 3] = POINT;
+        directions[light * 4 + 2] = -1;
+        directions[light * 4 + 3] = POINT;
+
+        return light;
+    }
+
+    /**
+     * Adds a spot light
+     *
+     * @param position position in world space
+     * @param direction direction of the cone axis in world space
+     * @param color color multiplied with the intensity
+     * @param radius distance at which the light fades out completely
+     * @param innerAngle angle from the axis in radians up to which the light has full intensity
+     * @param outerAngle angle from the axis in radians beyond which the light has no intensity
+     * @return index of the light
+     */
+    public int addSpotLight(
+        Vector3fc position, Vector3fc direction, Vector3fc color, float radius, float innerAngle, float outerAngle
+    ) {
+        int light = add();
+
+        setPosition(light, position.x(), position.y(), position.z());
+        setDirection(light, direction.x(), direction.y(), direction.z());
+        setColor(light, color.x(), color.y(), color.z());
+        setRadius(light, radius);
+        colors[light * 4 + 3] = (float) Math.cos(outerAngle);
+        directions[light * 4 + 3] = (float) Math.cos(innerAngle);
+
+        return light;
+    }
+
+    /**
+     * @param light index of the light
+     * @param x x position in world space
+     * @param y y position in world space
+     * @param z z position in world space
+     */
+    public void setPosition(int light, float x, float y, float z) {
+        positions[light * 4] = x;
+        positions[light * 4 + 1] = y;
+        positions[light * 4 + 2] = z;
+    }
+
+    /**
+     * @param light index of the light
+     * @param radius distance at which the light fades out completely
+     */
+    public void setRadius(int light, float radius) {
+        positions[light * 4 + 3] = radius;
+    }
+
+    /**
+     * @param light index of the light
+     * @param r red intensity
+     * @param g green intensity
+     * @param b blue intensity
+     */
+    public void setColor(int light, float r, float g, float b) {
+        colors[light * 4] = r;
+        colors[light * 4 + 1] = g;
+        colors[light * 4 + 2] = b;
+    }
+
+    /**
+     * @param light index of the light
+     * @param x x direction in world space
+     * @param y y direction in world space
+     * @param z z direction in world space
+     */
+    public void setDirection(int light, float x, float y, float z) {
+        float len = (float) Math.sqrt(x * x + y * y + z * z);
+
+        directions[light * 4] = x / len;
+        directions[light * 4 + 1] = y / len;
+        directions[light * 4 + 2] = z / len;
+    }
+
+    /**
+     * @return number of lights
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return position (xyz) and radius (w) of all lights
+     */
+    public float[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return color (rgb) and outer cone cosine (w) of all lights
+     */
+    public float[] getColors() {
+        return colors;
+    }
+
+    /**
+     * @return direction (xyz) and inner cone cosine (w) of all lights
+     */
+    public float[] getDirections() {
+        return directions;
+    }
+
+    /**
+     * Appends a light and grows the arrays if necessary
+     *
+     * @return index of the light
+     */
+    private int add() {
+        if (size * 4 == positions.length) {
+            int capacity = Math.max(16, size * 2) * 4;
+            positions = Arrays.copyOf(positions, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            directions = Arrays.copyOf(directions, capacity);
+        }
+
+        return size++;
+    }
+
+    private int size = 0;
+    private float[] positions = new float[0];
+    private float[] colors = new float[0];
+    private float[] directions = new float[0];
+}
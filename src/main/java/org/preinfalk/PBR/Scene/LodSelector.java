@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Vector3fc;
+import org.preinfalk.PBR.GL.Bounds;
+import org.preinfalk.PBR.GL.Mesh;
+
+import java.util.Arrays;
+
+/**
+ * Selects the level of detail of meshes by projecting their geometric error onto the screen.
+ *
+ * The coarsest level whose error stays below a threshold in pixels is used. To avoid popping back and forth at the
+ * threshold, a coarser level is only chosen once its error drops below the threshold reduced by the hysteresis. The
+ * selected level is remembered per object, so objects are identified by consecutive indices.
+ */
+public class LodSelector {
+    /**
+     * Creates a selector
+     *
+     * @param threshold maximum projected error in pixels
+     * @param hysteresis fraction of the threshold by which the error has to fall below it before switching to a coarser
+     *                   level
+     */
+    public LodSelector(float threshold, float hysteresis) {
+        this.threshold = threshold;
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Sets the projection which is used to convert errors into pixels. It may be changed while levels are selected on
+     * other threads, e.g. when the render resolution changes.
+     *
+     * @param fovY vertical field of view in radians
+     * @param viewportHeight height of the viewport in pixels
+     * @return itself
+     */
+    public LodSelector setProjection(float fovY, int viewportHeight) {
+        pixelsPerUnit = viewportHeight / (2 * (float) Math.tan(fovY / 2));
+        return this;
+    }
+
+    /**
+     * Selects the level of detail of an object
+     *
+     * @param object index of the object
+     * @param mesh mesh of the object
+     * @param distance distance from the camera to the closest point of the object
+     * @param scale scale of the object
+     * @return level of detail
+     */
+    public int select(int object, Mesh mesh, float distance, float scale) {
+        if (object >= current.length)
+            current = Arrays.copyOf(current, Math.max(object + 1, current.length * 2));
+
+        int numLods = mesh.getNumLods();
+        int lod = Math.min(current[object], numLods - 1);
+        float pixels = scale * pixelsPerUnit / Math.max(distance, MIN_DISTANCE);
+
+        while (lod > 0 && mesh.getLodError(lod) * pixels > threshold)
+            --lod;
+
+        while (lod + 1 < numLods && mesh.getLodError(lod + 1) * pixels < threshold * (1 - hysteresis))
+            ++lod;
+
+        current[object] = lod;
+        return lod;
+    }
+
+    /**
+     * Selects the level of detail of an object. The distance is measured to the bounding sphere transformed by the
+     * world matrix of the object.
+     *
+     * @param object index of the object
+     * @param mesh mesh of the object
+     * @param matrices world matrices of the scene (column major)
+     * @param offset index of the first element of the world matrix of the object
+     * @param camera position of the camera
+     * @return level of detail
+     */
+    public int select(int object, Mesh mesh, float[] matrices, int offset, Vector3fc camera) {
+        float[] m = matrices;
+        int o = offset;
+        Bounds bounds = mesh.getBounds();
+        Vector3fc c = bounds.getCenter();
+
+        float x = m[o] * c.x() + m[o + 4] * c.y() + m[o + 8] * c.z() + m[o + 12];
+        float y = m[o + 1] * c.x() + m[o + 5] * c.y() + m[o + 9] * c.z() + m[o + 13];
+        float z = m[o + 2] * c.x() + m[o + 6] * c.y() + m[o + 10] * c.z() + m[o + 14];
+
+        // Largest scale of the axes
+        float scale = (float) Math.sqrt(Math.max(
+            m[o] * m[o] + m[o + 1] * m[o + 1] + m[o + 2] * m[o + 2], Math.max(
+                m[o + 4] * m[o + 4] + m[o + 5] * m[o + 5] + m[o + 6] * m[o + 6],
+                m[o + 8] * m[o + 8] + m[o + 9] * m[o + 9] + m[o + 10] * m[o + 10]
+            )
+        ));
+
+        float distance = camera.distance(x, y, z) - bounds.getRadius() * scale;
+        return select(object, mesh, distance, scale);
+    }
+
+    private static final float MIN_DISTANCE = 1e-3f;
+
+    private final float threshold;
+    private final float hysteresis;
+    private volatile float pixelsPerUnit = 1;
+    private int[] current = new int[0];
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Matrix4fc;
+
+/**
+ * Tests boxes against a hierarchical depth buffer (Hi-Z) of an earlier frame.
+ *
+ * The depth of the earlier frame is reduced into a pyramid whose texels contain the farthest depth of the texels they
+ * cover. A box is projected with the view projection matrix of that frame, and the pyramid level on which its screen
+ * rectangle covers about 2x2 texels is searched for the farthest depth. If the nearest point of the box is behind it,
+ * the box is occluded.
+ *
+ * The test only culls what it can prove: Boxes which cross the near plane or leave the area of the depth buffer are
+ * visible, the rectangle is grown by one texel, and without depth (e.g. after {@link #clear() clear}) everything is
+ * visible. When an object which could occlude others moves, the rectangle of its old box is discarded with
+ * {@link #clearBox clearBox}, so the objects behind it aren't occluded by it any more. Occluded objects are tested
+ * again every frame, so they reappear as soon as depth without their occluders arrives.
+ */
+public class OcclusionCuller {
+    /**
+     * Sets the depth buffer to test against and builds the pyramid
+     *
+     * @param depth window space depths (0 = near, 1 = far) of the rows from bottom to top
+     * @param width width of the depth buffer
+     * @param height height of the depth buffer
+     * @param viewProjection view projection matrix which the depth was drawn with
+     */
+    public void setDepth(float[] depth, int width, int height, Matrix4fc viewProjection) {
+        int numLevels = 1;
+
+        for (int w = width, h = height; w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2)
+            ++numLevels;
+
+        if (levels == null || levels.length != numLevels || widths[0] != width || heights[0] != height) {
+            levels = new float[numLevels][];
+            widths = new int[numLevels];
+            heights = new int[numLevels];
+
+            for (int l = 0, w = width, h = height; l < numLevels; ++l, w = (w + 1) / 2, h = (h + 1) / 2) {
+                levels[l] = new float[w * h];
+                widths[l] = w;
+                heights[l] = h;
+            }
+        }
+
+        System.arraycopy(depth, 0, levels[0], 0, width * height);
+
+        for (int l = 1; l < numLevels; ++l)
+            reduce(levels[l - 1], widths[l - 1], heights[l - 1], levels[l], widths[l], heights[l]);
+
+        viewProjection.get(matrix);
+        valid = true;
+    }
+
+    /**
+     * Discards the depth, so no box is occluded until the next {@link #setDepth setDepth}
+     */
+    public void clear() {
+        valid = false;
+    }
+
+    /**
+     * Discards the depth in the screen rectangle of a box by setting it to the far plane on all levels of the pyramid,
+     * so boxes behind it aren't occluded in that area. The rest of the depth stays valid. Boxes which cross the near
+     * plane discard all depth.
+     *
+     * @param centerX x center of the box
+     * @param centerY y center of the box
+     * @param centerZ z center of the box
+     * @param extentX half x size of the box
+     * @param extentY half y size of the box
+     * @param extentZ half z size of the box
+     */
+    public void clearBox(float centerX, float centerY, float centerZ, float extentX, float extentY, float extentZ) {
+        if (!valid)
+            return;
+
+        float[] m = matrix;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+
+        for (int corner = 0; corner < 8; ++corner) {
+            float x = (corner & 1) == 0 ? centerX - extentX : centerX + extentX;
+            float y = (corner & 2) == 0 ? centerY - extentY : centerY + extentY;
+            float z = (corner & 4) == 0 ? centerZ - extentZ : centerZ + extentZ;
+
+            float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+
+            if (w <= NEAR_W) {
+                clear();
+                return;
+            }
+
+            float nx = (m[0] * x + m[4] * y + m[8] * z + m[12]) / w;
+            float ny = (m[1] * x + m[5] * y + m[9] * z + m[13]) / w;
+
+            minX = Math.min(minX, nx);
+            maxX = Math.max(maxX, nx);
+            minY = Math.min(minY, ny);
+            maxY = Math.max(maxY, ny);
+        }
+
+        // Grown by one texel like the tested rectangles
+        int width = widths[0], height = heights[0];
+        int x0 = Math.max((int) Math.floor((minX * 0.5f + 0.5f) * width) - 1, 0);
+        int x1 = Math.min((int) Math.floor((maxX * 0.5f + 0.5f) * width) + 1, width - 1);
+        int y0 = Math.max((int) Math.floor((minY * 0.5f + 0.5f) * height) - 1, 0);
+        int y1 = Math.min((int) Math.floor((maxY * 0.5f + 0.5f) * height) + 1, height - 1);
+
+        // The farthest depth of a texel of a coarser level is the far plane as soon as it covers a cleared texel
+        for (int l = 0; l < levels.length; ++l) {
+            float[] depth = levels[l];
+            int w = widths[l];
+
+            for (int y = y0 >> l; y <= y1 >> l; ++y) {
+                for (int x = x0 >> l; x <= x1 >> l; ++x)
+                    depth[y * w + x] = 1;
+            }
+        }
+    }
+
+    /**
+     * @return if boxes can be occluded
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Checks if a box is hidden behind the depth buffer. It only reads the pyramid, so it can be called on multiple
+     * threads.
+     *
+     * @param centerX x center of the box
+     * @param centerY y center of the box
+     * @param centerZ z center of the box
+     * @param extentX half x size of the box
+     * @param extentY half y size of the box
+     * @param extentZ half z size of the box
+     * @return true if the box is occluded
+     */
+    public boolean isOccluded(
+        float centerX, float centerY, float centerZ, float extentX, float extentY, float extentZ
+    ) {
+        if (!valid)
+            return false;
+
+        float[] m = matrix;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+
+        for (int corner = 0; corner < 8; ++corner) {
+            float x = (corner & 1) == 0 ? centerX - extentX : centerX + extentX;
+            float y = (corner & 2) == 0 ? centerY - extentY : centerY + extentY;
+            float z = (corner & 4) == 0 ? centerZ - extentZ : centerZ + extentZ;
+
+            float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+
+            // Crosses the near plane
+            if (w <= NEAR_W)
+                return false;
+
+            float nx = (m[0] * x + m[4] * y + m[8] * z + m[12]) / w;
+            float ny = (m[1] * x + m[5] * y + m[9] * z + m[13]) / w;
+            float nz = (m[2] * x + m[6] * y + m[10] * z + m[14]) / w;
+
+            minX = Math.min(minX, nx);
+            maxX = Math.max(maxX, nx);
+            minY = Math.min(minY, ny);
+            maxY = Math.max(maxY, ny);
+            minZ = Math.min(minZ, nz);
+        }
+
+        // Parts outside of the depth buffer are unknown
+        if (minX < -1 || maxX > 1 || minY < -1 || maxY > 1)
+            return false;
+
+        int width = widths[0], height = heights[0];
+        int x0 = Math.max((int) ((minX * 0.5f + 0.5f) * width) - 1, 0);
+        int x1 = Math.min((int) ((maxX * 0.5f + 0.5f) * width) + 1, width - 1);
+        int y0 = Math.max((int) ((minY * 0.5f + 0.5f) * height) - 1, 0);
+        int y1 = Math.min((int) ((maxY * 0.5f + 0.5f) * height) + 1, height - 1);
+
+        // Level on which the rectangle covers at most 3x3 texels
+        int size = Math.max(x1 - x0, y1 - y0);
+        int level = Math.min(size > 1 ? 31 - Integer.numberOfLeadingZeros(size - 1) : 0, levels.length - 1);
+
+        float[] depth = levels[level];
+        int w = widths[level];
+        float farthest = 0;
+
+        for (int y = y0 >> level; y <= y1 >> level; ++y) {
+            for (int x = x0 >> level; x <= x1 >> level; ++x)
+                farthest = Math.max(farthest, depth[y * w + x]);
+        }
+
+        return minZ * 0.5f + 0.5f > farthest + DEPTH_BIAS;
+    }
+
+    /**
+     * Writes the farthest depth of each 2x2 block of a level into the next level
+     *
+     * @param src finer level
+     * @param srcWidth width of the finer level
+     * @param srcHeight height of the finer level
+     * @param dst coarser level
+     * @param dstWidth width of the coarser level
+     * @param dstHeight height of the coarser level
+     */
+    private static void reduce(float[] src, int srcWidth, int srcHeight, float[] dst, int dstWidth, int dstHeight) {
+        for (int y = 0; y < dstHeight; ++y) {
+            int sy0 = y * 2, sy1 = Math.min(sy0 + 1, srcHeight - 1);
+
+            for (int x = 0; x < dstWidth; ++x) {
+                int sx0 = x * 2, sx1 = Math.min(sx0 + 1, srcWidth - 1);
+
+                dst[y * dstWidth + x] = Math.max(
+                    Math.max(src[sy0 * srcWidth + sx0], src[sy0 * srcWidth + sx1]),
+                    Math.max(src[sy1 * srcWidth + sx0], src[sy1 * srcWidth + sx1])
+                );
+            }
+        }
+    }
+
+    /**
+     * Smallest w of a corner in front of the camera
+     */
+    private static final float NEAR_W = 1e-4f;
+
+    /**
+     * Difference in window space depth which is required for occlusion
+     */
+    private static final float DEPTH_BIAS = 1e-5f;
+
+    private final float[] matrix = new float[16];
+    private float[][] levels;
+    private int[] widths;
+    private int[] heights;
+    private boolean valid = false;
+}
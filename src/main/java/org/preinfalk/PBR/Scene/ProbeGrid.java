@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Irradiance volume: A grid of light probes, which store the indirect light arriving from all directions as L2
+ * spherical harmonics (9 RGB coefficients).
+ *
+ * A probe is baked by casting a fixed set of rays, evenly distributed over the sphere, against the boxes of a {@link
+ * BoundingVolumeHierarchy BoundingVolumeHierarchy}. A ray hitting a box returns the light which the box reflects
+ * diffusely (with a uniform albedo) from the directional light and the point and spot lights, without shadows. A ray
+ * leaving the range returns the sky color. The radiance is projected onto the spherical harmonics and convolved with
+ * the cosine lobe, so a shader gets the irradiance for a normal by evaluating the 9 basis functions. Direct light isn't
+ * included, since the shader already calculates it.
+ *
+ * Only the probes which were invalidated are baked again, in parallel. Objects only affect the probes within the range
+ * of the rays, so {@link #invalidate(BoundingVolumeHierarchy, int) invalidating} the old and the new box of a moved
+ * object is enough. Changed lights require {@link #invalidate() invalidating} the whole grid.
+ *
+ * The coefficients are stored like a 3D texture with 7 RGBA blocks along z: Texel (x, y, z + k * countZ) holds the
+ * values 4 * k to 4 * k + 3 of the probe (x, y, z), whose 28 values are the coefficients in the order of the basis
+ * functions with interleaved RGB and one value of padding.
+ */
+public class ProbeGrid {
+    /**
+     * Creates a grid which needs to be baked completely
+     *
+     * @param min lower corner of the grid in world space, where the first probe is placed
+     * @param max upper corner of the grid in world space, where the last probe is placed
+     * @param countX number of probes in x direction
+     * @param countY number of probes in y direction
+     * @param countZ number of probes in z direction
+     * @param range length of the rays; Objects farther away don't affect a probe.
+     */
+    public ProbeGrid(Vector3fc min, Vector3fc max, int countX, int countY, int countZ, float range) {
+        if (countX < 2 || countY < 2 || countZ < 2)
+            throw new IllegalArgumentException("A probe grid needs at least two probes in every direction");
+
+        this.min.set(min);
+        this.countX = countX;
+        this.countY = countY;
+        this.countZ = countZ;
+        this.range = range;
+
+        scale.set(countX - 1, countY - 1, countZ - 1).div(new Vector3f(max).sub(min));
+
+        coefficients = new float[getNumProbes() * VALUES];
+        dirty = new boolean[getNumProbes()];
+        Arrays.fill(dirty, true);
+        numDirty = getNumProbes();
+
+        // Fibonacci sphere; Every direction covers the same solid angle
+        for (int s = 0; s < SAMPLES; ++s) {
+            float z = 1 - (2 * s + 1) / (float) SAMPLES;
+            float r = (float) Math.sqrt(1 - z * z);
+            double phi = s * GOLDEN_ANGLE;
+
+            directions[s * 3] = r * (float) Math.cos(phi);
+            directions[s * 3 + 1] = r * (float) Math.sin(phi);
+            directions[s * 3 + 2] = z;
+
+            evaluateBasis(directions[s * 3], directions[s * 3 + 1], z, basis, s * 9);
+        }
+    }
+
+    /**
+     * Sets the radiance of rays which don't hit anything
+     *
+     * @param color linear radiance
+     * @return itself
+     */
+    public ProbeGrid setSkyColor(Vector3fc color) {
+        skyColor.set(color);
+        invalidate();
+        return this;
+    }
+
+    /**
+     * Sets the diffuse albedo of all objects
+     *
+     * @param albedo fraction of the light which is reflected
+     * @return itself
+     */
+    public ProbeGrid setAlbedo(float albedo) {
+        this.albedo = albedo;
+        invalidate();
+        return this;
+    }
+
+    /**
+     * Marks all probes to be baked again, e.g. after lights changed
+     */
+    public void invalidate() {
+        Arrays.fill(dirty, true);
+        numDirty = getNumProbes();
+    }
+
+    /**
+     * Marks the probes which can see the current box of an object to be baked again. Called before and after moving
+     * the object, this covers its old and new place.
+     *
+     * @param bvh hierarchy containing the object
+     * @param object index of the object
+     */
+    public void invalidate(BoundingVolumeHierarchy bvh, int object) {
+        Vector3f center = new Vector3f(), extent = new Vector3f();
+        bvh.getBox(object, center, extent);
+        invalidate(center, extent);
+    }
+
+    /**
+     * Marks the probes within the range of a box to be baked again
+     *
+     * @param center center of the box in world space
+     * @param extent half size of the box
+     */
+    public void invalidate(Vector3fc center, Vector3fc extent) {
+        int loX = toProbe(center.x() - extent.x() - range, min.x(), scale.x(), countX, true);
+        int loY = toProbe(center.y() - extent.y() - range, min.y(), scale.y(), countY, true);
+        int loZ = toProbe(center.z() - extent.z() - range, min.z(), scale.z(), countZ, true);
+        int hiX = toProbe(center.x() + extent.x() + range, min.x(), scale.x(), countX, false);
+        int hiY = toProbe(center.y() + extent.y() + range, min.y(), scale.y(), countY, false);
+        int hiZ = toProbe(center.z() + extent.z() + range, min.z(), scale.z(), countZ, false);
+
+        for (int z = loZ; z <= hiZ; ++z) {
+            for (int y = loY; y <= hiY; ++y) {
+                for (int x = loX; x <= hiX; ++x) {
+                    int probe = (z * countY + y) * countX + x;
+
+                    if (!dirty[probe]) {
+                        dirty[probe] = true;
+                        ++numDirty;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bakes the invalidated probes
+     *
+     * @param bvh boxes of the objects in world space
+     * @param lights point and spot lights in world space
+     * @param lightDir direction of the directional light
+     * @param lightColor color of the directional light
+     * @return number of probes which were baked
+     */
+    public int bake(BoundingVolumeHierarchy bvh, LightList lights, Vector3fc lightDir, Vector3fc lightColor) {
+        if (numDirty == 0)
+            return 0;
+
+        int[] probes = new int[numDirty];
+        int n = 0;
+
+        for (int i = 0; i < dirty.length; ++i) {
+            if (dirty[i])
+                probes[n++] = i;
+        }
+
+        // Casting rays doesn't modify the hierarchy, so it's brought up to date first
+        bvh.refit();
+
+        Vector3f toLight = new Vector3f(lightDir).negate().normalize();
+
+        if (n * SAMPLES < PARALLEL_THRESHOLD) {
+            for (int probe : probes)
+                bakeProbe(probe, bvh, lights, toLight, lightColor);
+        } else
+            IntStream.of(probes).parallel().forEach(probe -> bakeProbe(probe, bvh, lights, toLight, lightColor));
+
+        Arrays.fill(dirty, false);
+        numDirty = 0;
+        ++version;
+
+        return n;
+    }
+
+    /**
+     * @return number of probes
+     */
+    public int getNumProbes() {
+        return countX * countY * countZ;
+    }
+
+    /**
+     * @return number of probes in x direction
+     */
+    public int getCountX() {
+        return countX;
+    }
+
+    /**
+     * @return number of probes in y direction
+     */
+    public int getCountY() {
+        return countY;
+    }
+
+    /**
+     * @return number of probes in z direction
+     */
+    public int getCountZ() {
+        return countZ;
+    }
+
+    /**
+     * @return position of the first probe in world space
+     */
+    public Vector3fc getMin() {
+        return min;
+    }
+
+    /**
+     * @return probe spacings per world unit, which map a position relative to the first probe to probe coordinates
+     */
+    public Vector3fc getScale() {
+        return scale;
+    }
+
+    /**
+     * @return coefficients of all probes in the 3D texture layout (see above)
+     */
+    public float[] getCoefficients() {
+        return coefficients;
+    }
+
+    /**
+     * @return number which is increased whenever probes were baked
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Casts the rays of a probe and stores its convolved coefficients
+     *
+     * @param probe index of the probe
+     * @param bvh boxes of the objects
+     * @param lights point and spot lights
+     * @param toLight normalized direction towards the directional light
+     * @param lightColor color of the directional light
+     */
+    private void bakeProbe(
+        int probe, BoundingVolumeHierarchy bvh, LightList lights, Vector3fc toLight, Vector3fc lightColor
+    ) {
+        int x = probe % countX, y = probe / countX % countY, z = probe / (countX * countY);
+        float px = min.x() + x / scale.x(), py = min.y() + y / scale.y(), pz = min.z() + z / scale.z();
+
+        float[] sh = new float[27];
+        Vector3f normal = new Vector3f();
+        Vector3f radiance = new Vector3f();
+
+        for (int s = 0; s < SAMPLES; ++s) {
+            float dx = directions[s * 3], dy = directions[s * 3 + 1], dz = directions[s * 3 + 2];
+            float t = bvh.raycast(px, py, pz, dx, dy, dz, range, normal);
+
+            if (t == Float.POSITIVE_INFINITY)
+                radiance.set(skyColor);
+            else
+                shade(px + dx * t, py + dy * t, pz + dz * t, normal, lights, toLight, lightColor, radiance);
+
+            for (int i = 0; i < 9; ++i) {
+                float b = basis[s * 9 + i];
+
+                sh[i * 3] += radiance.x * b;
+                sh[i * 3 + 1] += radiance.y * b;
+                sh[i * 3 + 2] += radiance.z * b;
+            }
+        }
+
+        // Monte Carlo weight of a sample and convolution with the cosine lobe
+        float weight = (float) (4 * Math.PI / SAMPLES);
+
+        for (int i = 0; i < 9; ++i) {
+            float band = i == 0 ? BAND0 : i < 4 ? BAND1 : BAND2;
+
+            for (int c = 0; c < 3; ++c)
+                sh[i * 3 + c] *= weight * band;
+        }
+
+        // Scatter the 28 values into the blocks of the texture layout
+        int texel = (z * countY + y) * countX + x, blockSize = getNumProbes();
+
+        for (int k = 0; k < VALUES / 4; ++k) {
+            for (int c = 0; c < 4; ++c) {
+                int value = k * 4 + c;
+                coefficients[(texel + k * blockSize) * 4 + c] = value < 27 ? sh[value] : 0;
+            }
+        }
+    }
+
+    /**
+     * Calculates the light reflected diffusely by a surface
+     *
+     * @param x x position of the surface
+     * @param y y position of the surface
+     * @param z z position of the surface
+     * @param normal normal of the surface
+     * @param lights point and spot lights
+     * @param toLight normalized direction towards the directional light
+     * @param lightColor color of the directional light
+     * @param radiance receives the reflected radiance
+     */
+    private void shade(
+        float x, float y, float z, Vector3fc normal, LightList lights, Vector3fc toLight, Vector3fc lightColor,
+        Vector3f radiance
+    ) {
+        float ndotl = Math.max(normal.dot(toLight), 0);
+        radiance.set(lightColor).mul(ndotl);
+
+        float[] p = lights.getPositions(), c = lights.getColors(), d = lights.getDirections();
+
+        for (int i = 0, n = lights.size(); i < n; ++i) {
+            int o = i * 4;
+            float lx = p[o] - x, ly = p[o + 1] - y, lz = p[o + 2] - z;
+            float dist2 = Math.max(lx * lx + ly * ly + lz * lz, 1e-4f);
+            float radius2 = p[o + 3] * p[o + 3];
+
+            if (dist2 >= radius2)
+                continue;
+
+            float inv = (float) (1 / Math.sqrt(dist2));
+            lx *= inv;
+            ly *= inv;
+            lz *= inv;
+
+            ndotl = normal.x() * lx + normal.y() * ly + normal.z() * lz;
+
+            if (ndotl <= 0)
+                continue;
+
+            // Same falloff and cone as the shader
+            float window = 1 - (dist2 / radius2) * (dist2 / radius2);
+            float attenuation = window * window / dist2 * ndotl;
+
+            if (c[o + 3] >= -1)
+                attenuation *= smoothstep(c[o + 3], d[o + 3], -(lx * d[o] + ly * d[o + 1] + lz * d[o + 2]));
+
+            radiance.add(c[o] * attenuation, c[o + 1] * attenuation, c[o + 2] * attenuation);
+        }
+
+        radiance.mul((float) (albedo / Math.PI));
+    }
+
+    /**
+     * Evaluates the 9 real spherical harmonics basis functions of bands 0 to 2
+     *
+     * @param x x of the normalized direction
+     * @param y y of the normalized direction
+     * @param z z of the normalized direction
+     * @param dest array which receives the values
+     * @param offset index of the first value
+     */
+    private static void evaluateBasis(float x, float y, float z, float[] dest, int offset) {
+        dest[offset] = 0.282095f;
+        dest[offset + 1] = 0.488603f * y;
+        dest[offset + 2] = 0.488603f * z;
+        dest[offset + 3] = 0.488603f * x;
+        dest[offset + 4] = 1.092548f * x * y;
+        dest[offset + 5] = 1.092548f * y * z;
+        dest[offset + 6] = 0.315392f * (3 * z * z - 1);
+        dest[offset + 7] = 1.092548f * x * z;
+        dest[offset + 8] = 0.546274f * (x * x - y * y);
+    }
+
+    /**
+     * Converts a world coordinate to the index of a probe, rounding outwards
+     *
+     * @param value world coordinate
+     * @param min coordinate of the first probe
+     * @param scale probes per world unit
+     * @param count number of probes
+     * @param lower round down for the lower bound, up for the upper bound
+     * @return index of the probe clamped to the grid
+     */
+    private static int toProbe(float value, float min, float scale, int count, boolean lower) {
+        float probe = (value - min) * scale;
+        int index = (int) (lower ? Math.floor(probe) : Math.ceil(probe));
+
+        return Math.max(0, Math.min(index, count - 1));
+    }
+
+    /**
+     * @param edge0 value at which the result is 0
+     * @param edge1 value at which the result is 1
+     * @param x value to interpolate
+     * @return Hermite interpolation like GLSL's smoothstep
+     */
+    private static float smoothstep(float edge0, float edge1, float x) {
+        float t = Math.max(0, Math.min((x - edge0) / (edge1 - edge0), 1));
+        return t * t * (3 - 2 * t);
+    }
+
+    /**
+     * Number of rays per probe
+     */
+    private static final int SAMPLES = 128;
+
+    /**
+     * Number of values per probe; 27 coefficients and one value of padding
+     */
+    private static final int VALUES = 28;
+
+    /**
+     * Number of rays below which the probes are baked on the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
+    // Convolution of the bands with the clamped cosine
+    private static final float BAND0 = (float) Math.PI;
+    private static final float BAND1 = (float) (2 * Math.PI / 3);
+    private static final float BAND2 = (float) (Math.PI / 4);
+
+    private final Vector3f min = new Vector3f();
+    private final Vector3f scale = new Vector3f();
+    private final int countX;
+    private final int countY;
+    private final int countZ;
+    private final float range;
+    private final Vector3f skyColor = new Vector3f(0.03f);
+    private float albedo = 0.5f;
+
+    // Ray directions and the basis functions evaluated for them
+    private final float[] directions = new float[SAMPLES * 3];
+    private final float[] basis = new float[SAMPLES * 9];
+
+    private final float[] coefficients;
+    private final boolean[] dirty;
+    private int numDirty;
+    private int version = 0;
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Quaternionfc;
+import org.joml.Vector3fc;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Scene graph which stores the transforms of its nodes in flat arrays (structure of arrays).
+ *
+ * Nodes are referenced by their index. A node can only be added after its parent, so the arrays are always sorted
+ * parent-before-child and the world matrices can be calculated in a single pass. Only nodes whose local transform or
+ * whose parent changed are recalculated by {@link #update() update}. Large scenes are updated level by level, where
+ * all nodes of one level are processed in parallel.
+ *
+ * The world matrices are stored column major with 16 floats per node and the normal matrices with 9 floats per node.
+ * They can be passed directly to {@link org.preinfalk.PBR.GL.Shader#setMat4(String, float[], int) Shader.setMat4} and
+ * {@link org.preinfalk.PBR.GL.Shader#setMat3(String, float[], int) Shader.setMat3}.
+ */
+public class SceneGraph {
+    /**
+     * Parent index of root nodes
+     */
+    public static final int NO_PARENT = -1;
+
+    /**
+     * Creates an empty scene graph
+     */
+    public SceneGraph() {
+        this(64);
+    }
+
+    /**
+     * Creates an empty scene graph
+     *
+     * @param capacity number of nodes which can be added before the arrays have to grow
+     */
+    public SceneGraph(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Adds a node with an identity transform
+     *
+     * @param parent index of the parent node or {@link #NO_PARENT NO_PARENT}
+     * @return index of the new node
+     */
+    public int addNode(int parent) {
+        if (parent != NO_PARENT && (parent < 0 || parent >= size))
+            throw new IllegalArgumentException("invalid parent node " + parent);
+
+        if (size == parents.length)
+            allocate(size * 2);
+
+        int node = size++;
+
+        parents[node] = parent;
+        depths[node] = parent == NO_PARENT ? 0 : depths[parent] + 1;
+
+        setPosition(node, 0, 0, 0);
+        setRotation(node, 0, 0, 0, 1);
+        setScale(node, 1, 1, 1);
+
+        levelsChanged = true;
+        return node;
+    }
+
+    /**
+     * Sets the position of a node relative to its parent
+     *
+     * @param node index of the node
+     * @param x x position
+     * @param y y position
+     * @param z z position
+     */
+    public void setPosition(int node, float x, float y, float z) {
+        positions[node * 3] = x;
+        positions[node * 3 + 1] = y;
+        positions[node * 3 + 2] = z;
+        markDirty(node);
+    }
+
+    /**
+     * Sets the position of a node relative to its parent
+     *
+     * @param node index of the node
+     * @param position position
+     */
+    public void setPosition(int node, Vector3fc position) {
+        setPosition(node, position.x(), position.y(), position.z());
+    }
+
+    /**
+     * Sets the rotation of a node relative to its parent
+     *
+     * @param node index of the node
+     * @param x x component of the normalized quaternion
+     * @param y y component of the normalized quaternion
+     * @param z z component of the normalized quaternion
+     * @param w w component of the normalized quaternion
+     */
+    public void setRotation(int node, float x, float y, float z, float w) {
+        rotations[node * 4] = x;
+        rotations[node * 4 + 1] = y;
+        rotations[node * 4 + 2] = z;
+        rotations[node * 4 + 3] = w;
+        markDirty(node);
+    }
+
+    /**
+     * Sets the rotation of a node relative to its parent
+     *
+     * @param node index of the node
+     * @param rotation normalized quaternion
+     */
+    public void setRotation(int node, Quaternionfc rotation) {
+        setRotation(node, rotation.x(), rotation.y(), rotation.z(), rotation.w());
+    }
+
+    /**
+     * Sets the scale of a node relative to its parent
+     *
+     * @param node index of the node
+     * @param x x scale
+     * @param y y scale
+     * @param z z scale
+     */
+    public void setScale(int node, float x, float y, float z) {
+        scales[node * 3] = x;
+        scales[node * 3 + 1] = y;
+        scales[node * 3 + 2] = z;
+        markDirty(node);
+    }
+
+    /**
+     * Sets the scale of a node relative to its parent
+     *
+     * @param node index of the node
+     * @param scale scale
+     */
+    public void setScale(int node, Vector3fc scale) {
+        setScale(node, scale.x(), scale.y(), scale.z());
+    }
+
+    /**
+     * @param node index of the node
+     * @return index of the parent node or {@link #NO_PARENT NO_PARENT}
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Recalculates the world and normal matrices of all nodes which changed since the last update
+     */
+    public void update() {
+        if (!dirty) {
+            if (anyChanged) {
+                Arrays.fill(changed, 0, size, false);
+                anyChanged = false;
+            }
+
+            return;
+        }
+
+        dirty = false;
+        anyChanged = true;
+
+        if (size < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < size; ++i)
+                updateNode(i);
+
+            return;
+        }
+
+        if (levelsChanged)
+            sortLevels();
+
+        for (int level = 0; level + 1 < levelOffsets.length; ++level) {
+            int start = levelOffsets[level];
+            int end = levelOffsets[level + 1];
+
+            if (end - start < PARALLEL_THRESHOLD) {
+                for (int i = start; i < end; ++i)
+                    updateNode(levelOrder[i]);
+            } else
+                IntStream.range(start, end).parallel().forEach(i -> updateNode(levelOrder[i]));
+        }
+    }
+
+    /**
+     * @param node index of the node
+     * @return if the world matrix of the node was recalculated by the last {@link #update() update}
+     */
+    public boolean hasChanged(int node) {
+        return changed[node];
+    }
+
+    /**
+     * Returns the world matrices of all nodes. The matrix of a node starts at index * 16.
+     *
+     * The array is reallocated when nodes are added, so it shouldn't be kept across additions.
+     *
+     * @return world matrices (column major)
+     */
+    public float[] getWorldMatrices() {
+        return worldMatrices;
+    }
+
+    /**
+     * Returns the normal matrices of all nodes. The matrix of a node starts at index * 9.
+     *
+     * The array is reallocated when nodes are added, so it shouldn't be kept across additions.
+     *
+     * @return normal matrices (column major)
+     */
+    public float[] getNormalMatrices() {
+        return normalMatrices;
+    }
+
+    /**
+     * Flags a node to be recalculated on the next update
+     *
+     * @param node index of the node
+     */
+    private void markDirty(int node) {
+        localDirty[node] = true;
+        dirty = true;
+    }
+
+    /**
+     * Recalculates the world matrix of a node if its local transform or its parent's world matrix changed. The parent
+     * must already be updated.
+     *
+     * @param node index of the node
+     */
+    private void updateNode(int node) {
+        int parent = parents[node];
+
+        if (!localDirty[node] && (parent == NO_PARENT || !changed[parent])) {
+            changed[node] = false;
+            return;
+        }
+
+        localDirty[node] = false;
+        changed[node] = true;
+
+        // Local matrix (translation * rotation * scale)
+        float qx = rotations[node * 4], qy = rotations[node * 4 + 1];
+        float qz = rotations[node * 4 + 2], qw = rotations[node * 4 + 3];
+        float sx = scales[node * 3], sy = scales[node * 3 + 1], sz = scales[node * 3 + 2];
+
+        float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+        float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+        float wx = qw * qx, wy = qw * qy, wz = qw * qz;
+
+        float l00 = (1 - 2 * (yy + zz)) * sx, l01 = 2 * (xy + wz) * sx, l02 = 2 * (xz - wy) * sx;
+        float l10 = 2 * (xy - wz) * sy, l11 = (1 - 2 * (xx + zz)) * sy, l12 = 2 * (yz + wx) * sy;
+        float l20 = 2 * (xz + wy) * sz, l21 = 2 * (yz - wx) * sz, l22 = (1 - 2 * (xx + yy)) * sz;
+        float l30 = positions[node * 3], l31 = positions[node * 3 + 1], l32 = positions[node * 3 + 2];
+
+        float[] m = worldMatrices;
+        int o = node * 16;
+
+        if (parent == NO_PARENT) {
+            m[o] = l00; m[o + 1] = l01; m[o + 2] = l02; m[o + 3] = 0;
+            m[o + 4] = l10; m[o + 5] = l11; m[o + 6] = l12; m[o + 7] = 0;
+            m[o + 8] = l20; m[o + 9] = l21; m[o + 10] = l22; m[o + 11] = 0;
+            m[o + 12] = l30; m[o + 13] = l31; m[o + 14] = l32; m[o + 15] = 1;
+        } else {
+            // World matrix (parent * local), both matrices are affine
+            int p = parent * 16;
+            float p00 = m[p], p01 = m[p + 1], p02 = m[p + 2];
+            float p10 = m[p + 4], p11 = m[p + 5], p12 = m[p + 6];
+            float p20 = m[p + 8], p21 = m[p + 9], p22 = m[p + 10];
+            float p30 = m[p + 12], p31 = m[p + 13], p32 = m[p + 14];
+
+            m[o] = p00 * l00 + p10 * l01 + p20 * l02;
+            m[o + 1] = p01 * l00 + p11 * l01 + p21 * l02;
+            m[o + 2] = p02 * l00 + p12 * l01 + p22 * l02;
+            m[o + 3] = 0;
+            m[o + 4] = p00 * l10 + p10 * l11 + p20 * l12;
+            m[o + 5] = p01 * l10 + p11 * l11 + p21 * l12;
+            m[o + 6] = p02 * l10 + p12 * l11 + p22 * l12;
+            m[o + 7] = 0;
+            m[o + 8] = p00 * l20 + p10 * l21 + p20 * l22;
+            m[o + 9] = p01 * l20 + p11 * l21 + p21 * l22;
+            m[o + 10] = p02 * l20 + p12 * l21 + p22 * l22;
+            m[o + 11] = 0;
+            m[o + 12] = p00 * l30 + p10 * l31 + p20 * l32 + p30;
+            m[o + 13] = p01 * l30 + p11 * l31 + p21 * l32 + p31;
+            m[o + 14] = p02 * l30 + p12 * l31 + p22 * l32 + p32;
+            m[o + 15] = 1;
+        }
+
+        // Normal matrix (inverse transpose of the upper 3x3 part)
+        float a = m[o], b = m[o + 1], c = m[o + 2];
+        float d = m[o + 4], e = m[o + 5], f = m[o + 6];
+        float g = m[o + 8], h = m[o + 9], i = m[o + 10];
+
+        float c00 = e * i - f * h, c01 = f * g - d * i, c02 = d * h - e * g;
+        float det = a * c00 + b * c01 + c * c02;
+        float s = det != 0 ? 1 / det : 0;
+
+        float[] n = normalMatrices;
+        int k = node * 9;
+
+        n[k] = c00 * s; n[k + 1] = c01 * s; n[k + 2] = c02 * s;
+        n[k + 3] = (c * h - b * i) * s; n[k + 4] = (a * i - c * g) * s; n[k + 5] = (b * g - a * h) * s;
+        n[k + 6] = (b * f - c * e) * s; n[k + 7] = (c * d - a * f) * s; n[k + 8] = (a * e - b * d) * s;
+    }
+
+    /**
+     * Sorts the node indices by their depth, so every level can be processed independently
+     */
+    private void sortLevels() {
+        int numLevels = 0;
+
+        for (int i = 0; i < size; ++i)
+            numLevels = Math.max(numLevels, depths[i] + 1);
+
+        levelOffsets = new int[numLevels + 1];
+
+        for (int i = 0; i < size; ++i)
+            ++levelOffsets[depths[i] + 1];
+
+        for (int i = 0; i < numLevels; ++i)
+            levelOffsets[i + 1] += levelOffsets[i];
+
+        levelOrder = new int[size];
+        int[] next = Arrays.copyOf(levelOffsets, numLevels);
+
+        for (int i = 0; i < size; ++i)
+            levelOrder[next[depths[i]]++] = i;
+
+        levelsChanged = false;
+    }
+
+    /**
+     * Grows all arrays to the given capacity
+     *
+     * @param capacity new number of nodes
+     */
+    private void allocate(int capacity) {
+        positions = Arrays.copyOf(positions, capacity * 3);
+        rotations = Arrays.copyOf(rotations, capacity * 4);
+        scales = Arrays.copyOf(scales, capacity * 3);
+        parents = Arrays.copyOf(parents, capacity);
+        depths = Arrays.copyOf(depths, capacity);
+        localDirty = Arrays.copyOf(localDirty, capacity);
+        changed = Arrays.copyOf(changed, capacity);
+        worldMatrices = Arrays.copyOf(worldMatrices, capacity * 16);
+        normalMatrices = Arrays.copyOf(normalMatrices, capacity * 9);
+    }
+
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private int size = 0;
+    private boolean dirty = false;
+    private boolean anyChanged = false;
+    private boolean levelsChanged = false;
+
+    private float[] positions = new float[0];
+    private float[] rotations = new float[0];
+    private float[] scales = new float[0];
+    private int[] parents = new int[0];
+    private int[] depths = new int[0];
+    private boolean[] localDirty = new boolean[0];
+    private boolean[] changed = new boolean[0];
+    private float[] worldMatrices = new float[0];
+    private float[] normalMatrices = new float[0];
+
+    private int[] levelOrder = new int[0];
+    private int[] levelOffsets = new int[0];
+}
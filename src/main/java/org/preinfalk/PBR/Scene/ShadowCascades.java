@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.Scene;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ * Splits the view frustum into cascades and calculates a shadow matrix for the directional light per cascade.
+ *
+ * The split distances blend logarithmic and uniform splits. Every cascade covers the bounding sphere of its part of the
+ * frustum, so the size of the cascade doesn't change when the camera rotates, and its origin is snapped to whole
+ * texels, so the shadow edges don't shimmer when the camera moves. Casters between the light and the cascade are
+ * included by moving the near plane towards the light.
+ *
+ * Far cascades cover large areas with few texels, so they don't have to be rendered every frame. Cascade c (c > 0) is
+ * only updated every 2^(c - 1) frames, with the updates of different cascades spread over the frames. The matrix of a
+ * cascade only changes when it is updated, so it always matches the content of its shadow map.
+ */
+public class ShadowCascades {
+    /**
+     * Maximum number of cascades (same as MAX_CASCADES in the shader)
+     */
+    public static final int MAX_CASCADES = 4;
+
+    /**
+     * Creates the cascades
+     *
+     * @param numCascades number of cascades from 1 to {@link #MAX_CASCADES MAX_CASCADES}
+     * @param resolution width and height of the shadow map of a cascade in texels
+     */
+    public ShadowCascades(int numCascades, int resolution) {
+        if (numCascades < 1 || numCascades > MAX_CASCADES)
+            throw new IllegalArgumentException("The number of cascades must be from 1 to " + MAX_CASCADES);
+
+        this.numCascades = numCascades;
+        this.resolution = resolution;
+
+        matrices = new float[numCascades * 16];
+        splits = new float[numCascades + 1];
+        due = new boolean[numCascades];
+        interval = new int[numCascades];
+
+        for (int c = 0; c < numCascades; ++c)
+            interval[c] = c == 0 ? 1 : 1 << (c - 1);
+    }
+
+    /**
+     * Sets how the frustum is split
+     *
+     * @param distance distance from the camera up to which shadows are drawn
+     * @param lambda blend factor between uniform (0) and logarithmic (1) splits
+     * @param casterDistance distance behind a cascade (towards the light) up to which casters are included
+     * @return itself
+     */
+    public ShadowCascades setRange(float distance, float lambda, float casterDistance) {
+        this.distance = distance;
+        this.lambda = lambda;
+        this.casterDistance = casterDistance;
+        return this;
+    }
+
+    /**
+     * Sets how often a cascade is updated
+     *
+     * @param cascade index of the cascade
+     * @param frames number of frames between two updates
+     * @return itself
+     */
+    public ShadowCascades setUpdateInterval(int cascade, int frames) {
+        interval[cascade] = Math.max(frames, 1);
+        return this;
+    }
+
+    /**
+     * Decides which cascades are due and calculates their matrices
+     *
+     * @param view view matrix of the camera
+     * @param fovY vertical field of view in radians
+     * @param aspect aspect ratio (width / height)
+     * @param near distance of the near plane
+     * @param lightDir direction of the light
+     */
+    public void update(Matrix4fc view, float fovY, float aspect, float near, Vector3fc lightDir) {
+        float tanY = (float) Math.tan(fovY / 2), tanX = tanY * aspect;
+        float k2 = tanX * tanX + tanY * tanY;
+
+        Matrix4f inverse = view.invertAffine(new Matrix4f());
+        Vector3f position = inverse.getTranslation(new Vector3f());
+        Vector3f forward = new Vector3f(-inverse.m20(), -inverse.m21(), -inverse.m22()).normalize();
+
+        // Rotation of the light; It never changes, so snapping in light space is stable.
+        Vector3f up = Math.abs(lightDir.z()) < 0.9f ? new Vector3f(0, 0, 1) : new Vector3f(0, 1, 0);
+        Matrix4f lightView = new Matrix4f().setLookAt(new Vector3f(), lightDir, up);
+
+        splits[0] = near;
+
+        for (int c = 1; c <= numCascades; ++c) {
+            float uniform = near + (distance - near) * c / numCascades;
+            float log = near * (float) Math.pow(distance / near, (float) c / numCascades);
+            splits[c] = uniform + (log - uniform) * lambda;
+        }
+
+        for (int c = 0; c < numCascades; ++c) {
+            // All cascades are drawn in the first frame, so no shadow map is used before it was drawn
+            due[c] = frame == 0 || (frame + c) % interval[c] == 0;
+
+            if (!due[c])
+                continue;
+
+            // Bounding sphere of the part of the frustum between the splits
+            float n = splits[c], f = splits[c + 1];
+            float d = Math.min((n + f) / 2 * (1 + k2), f);
+            float radius = (float) Math.sqrt((f - d) * (f - d) + f * f * k2);
+
+            // Round the radius up, so the texel size stays the same when the projection changes slightly
+            radius = (float) Math.ceil(radius * 16) / 16;
+
+            Vector3f center = lightView.transformPosition(new Vector3f(forward).mul(d).add(position));
+            float texel = 2 * radius / resolution;
+
+            center.x = (float) Math.floor(center.x / texel) * texel;
+            center.y = (float) Math.floor(center.y / texel) * texel;
+
+            // The camera of the light looks down -z of the light space
+            new Matrix4f()
+                .setOrtho(
+                    center.x - radius, center.x + radius, center.y - radius, center.y + radius,
+                    -center.z - radius - casterDistance, -center.z + radius
+                )
+                .mul(lightView)
+                .get(matrices, c * 16);
+        }
+
+        ++frame;
+    }
+
+    /**
+     * @return number of cascades
+     */
+    public int getNumCascades() {
+        return numCascades;
+    }
+
+    /**
+     * @return width and height of the shadow map of a cascade in texels
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @param cascade index of the cascade
+     * @return if the cascade has to be rendered after the last {@link #update update}
+     */
+    public boolean isDue(int cascade) {
+        return due[cascade];
+    }
+
+    /**
+     * Returns the view projection matrices of the light. The matrix of cascade c starts at index c * 16.
+     *
+     * @return matrices (column major)
+     */
+    public float[] getMatrices() {
+        return matrices;
+    }
+
+    /**
+     * Returns the split distances; Cascade c reaches from split c to split c + 1.
+     *
+     * @return distances from the camera
+     */
+    public float[] getSplits() {
+        return splits;
+    }
+
+    private final int numCascades;
+    private final int resolution;
+    private final float[] matrices;
+    private final float[] splits;
+    private final boolean[] due;
+    private final int[] interval;
+    private float distance = 50;
+    private float lambda = 0.75f;
+    private float casterDistance = 50;
+    private long frame = 0;
+}
@@ -0,0 +1,6 @@
+// Empty fragment shader for the depth pre-pass; only the depth is written.
+
+#version 330 core
+
+void main() {
+}
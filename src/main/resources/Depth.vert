@@ -0,0 +1,34 @@
+// Position-only vertex shader for the depth pre-pass
+// gl_Position has to be calculated exactly like in PBR.vert, so the main pass can use GL_EQUAL.
+// The INDIRECT_TRANSFORMS variant reads the model matrix from a buffer texture, so it is only used for shadows.
+
+#version 330 core
+
+in vec3 inPos;
+
+invariant gl_Position;
+
+uniform mat4 uViewProjection;
+
+#ifdef INDIRECT_TRANSFORMS
+// Index of the draw in the command list (base instance of the indirect draw)
+in uint inDrawId;
+// 7 texels per draw; the columns of the model matrix and of the normal matrix
+uniform samplerBuffer uTransforms;
+#else
+uniform mat4 uModel;
+#endif
+
+void main() {
+#ifdef INDIRECT_TRANSFORMS
+    int base = int(inDrawId) * 7;
+    mat4 uModel = mat4(
+        texelFetch(uTransforms, base), texelFetch(uTransforms, base + 1), texelFetch(uTransforms, base + 2),
+        texelFetch(uTransforms, base + 3)
+    );
+#endif
+
+    vec3 worldPos = vec3(uModel * vec4(inPos, 1.0));
+
+    gl_Position = uViewProjection * vec4(worldPos, 1.0);
+}
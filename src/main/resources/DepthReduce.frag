@@ -0,0 +1,23 @@
+// Writes the farthest depth of the block of uDepth which the texel covers, so the occlusion test stays conservative
+
+#version 330 core
+
+out float outDepth;
+
+uniform sampler2D uDepth;
+uniform vec2 uRatio;
+uniform vec2 uRenderSize;
+
+void main() {
+    vec2 texel = floor(gl_FragCoord.xy);
+    ivec2 start = ivec2(floor(texel * uRatio));
+    ivec2 end = min(ivec2(ceil((texel + 1.0) * uRatio)), ivec2(uRenderSize));
+    float depth = 0.0;
+
+    for (int y = start.y; y < end.y; ++y) {
+        for (int x = start.x; x < end.x; ++x)
+            depth = max(depth, texelFetch(uDepth, ivec2(x, y), 0).r);
+    }
+
+    outDepth = depth;
+}
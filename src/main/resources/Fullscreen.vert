@@ -0,0 +1,12 @@
+// Full screen triangle for post processing passes; It is drawn with three vertices and no vertex buffers.
+
+#version 330 core
+
+out vec2 vTexCoord;
+
+void main() {
+    // (0, 0), (2, 0) and (0, 2) in texture coordinates cover the whole screen
+    vTexCoord = vec2((gl_VertexID << 1) & 2, gl_VertexID & 2);
+
+    gl_Position = vec4(vTexCoord * 2.0 - 1.0, 0.0, 1.0);
+}
@@ -0,0 +1,45 @@
+// Camera facing quad of a sphere impostor (PBR.frag with the IMPOSTOR definition); It is drawn as a triangle strip
+// with four vertices per instance and no vertex buffers.
+
+#version 330 core
+
+// center and radius of the sphere (per instance)
+in vec4 inSphere;
+
+// point of the quad, which the fragment shader casts a ray through
+out vec3 vRayPos;
+flat out vec4 vSphere;
+
+#ifdef MATERIAL_ARRAY
+// layer of the material in the texture arrays (per instance)
+in float inMaterial;
+flat out float vMaterial;
+#endif
+
+uniform mat4 uViewProjection;
+uniform vec3 uCamPos;
+
+void main() {
+    // (-1, -1), (1, -1), (-1, 1) and (1, 1)
+    vec2 corner = vec2(gl_VertexID & 1, gl_VertexID >> 1) * 2.0 - 1.0;
+
+    vec3 toCamera = uCamPos - inSphere.xyz;
+    float dist = length(toCamera);
+    vec3 axis = toCamera / dist;
+
+    vec3 up = abs(axis.z) < 0.999 ? vec3(0.0, 0.0, 1.0) : vec3(1.0, 0.0, 0.0);
+    vec3 right = normalize(cross(up, axis));
+    up = cross(axis, right);
+
+    // the quad passes through the center, where the cone of rays touching the sphere is wider than the radius
+    float size = inSphere.w * dist * inversesqrt(max(dist * dist - inSphere.w * inSphere.w, 1e-6));
+
+    vRayPos = inSphere.xyz + (right * corner.x + up * corner.y) * size;
+    vSphere = inSphere;
+
+#ifdef MATERIAL_ARRAY
+    vMaterial = inMaterial;
+#endif
+
+    gl_Position = uViewProjection * vec4(vRayPos, 1.0);
+}
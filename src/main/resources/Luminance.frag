@@ -0,0 +1,21 @@
+// Writes the logarithm of the luminance, so the mipmaps contain the geometric mean
+
+#version 330 core
+
+in vec2 vTexCoord;
+
+out float outLuminance;
+
+uniform sampler2D uHdr;
+uniform vec2 uScale;
+
+// Maps the screen to the part of uHdr which contains the scene, without filtering in texels outside of it
+vec2 getCoord() {
+    return min(vTexCoord * uScale, uScale - 0.5 / vec2(textureSize(uHdr, 0)));
+}
+
+void main() {
+    float luminance = dot(texture(uHdr, getCoord()).rgb, vec3(0.2126, 0.7152, 0.0722));
+
+    outLuminance = log(max(luminance, 1e-4));
+}
@@ -1,27 +1,127 @@
 // Original code is from Joey De Vries (learnopengl.com)
-// All the input, output and uniform names were changed, AO was removed and only one directional light is used.
+// All the input, output and uniform names were changed, AO was removed and one directional light is used,
+// optionally with cascaded shadows and together with clustered point and spot lights.
+// With LIGHT_PROBES the ambient light comes from a grid of spherical harmonics probes instead of a constant.
+// The IMPOSTOR variant (with Impostor.vert) intersects the ray through the fragment with an analytic sphere and shades
+// the hit with the same texture coordinates as the Sphere mesh; It can be combined with GBUFFER.
+// The GBUFFER variant only writes the surface into a G-buffer, the DEFERRED variant (with Fullscreen.vert) shades it.
 // Source (24.11.2018): https://learnopengl.com/code_viewer_gh.php?code=src/6.pbr/1.2.lighting_textured/1.2.pbr.fs
 
 #version 330 core
 
+#ifdef DEFERRED
+// surface of the pixel; albedo as stored in the albedo map, octahedral normal, metallic and roughness, depth
+uniform sampler2D uGAlbedo;
+uniform sampler2D uGNormal;
+uniform sampler2D uGMaterial;
+uniform sampler2D uGDepth;
+
+uniform mat4 uInvViewProjection;
+// size of a pixel in normalized screen coordinates
+uniform vec2 uInvViewport;
+
+// reconstructed from the depth
+vec3 vWorldPos;
+#elif defined(IMPOSTOR)
+// point on the quad and center and radius of the sphere
+in vec3 vRayPos;
+flat in vec4 vSphere;
+
+uniform mat4 uViewProjection;
+
+// calculated from the hit on the sphere
+vec2 vTexCoord;
+vec3 vWorldPos;
+vec3 vNormal;
+// gradients of the texture coordinates without the jump at the seam
+vec2 vTexCoordDx;
+vec2 vTexCoordDy;
+#else
 in vec2 vTexCoord;
 in vec3 vWorldPos;
 in vec3 vNormal;
+#endif
 
+#ifdef GBUFFER
+layout(location = 0) out vec4 outAlbedo;
+layout(location = 1) out vec2 outNormal;
+layout(location = 2) out vec2 outMaterial;
+#else
 out vec4 outColor;
+#endif
 
+#ifndef DEFERRED
 // material parameters
+#ifdef MATERIAL_ARRAY
+// one layer per material
+flat in float vMaterial;
+
+uniform sampler2DArray uAlbedo;
+uniform sampler2DArray uNormalMap;
+uniform sampler2DArray uMetallicMap;
+uniform sampler2DArray uRoughnessMap;
+
+#define MATERIAL_COORD vec3(vTexCoord, vMaterial)
+#else
 uniform sampler2D uAlbedo;
 uniform sampler2D uNormalMap;
 uniform sampler2D uMetallicMap;
 uniform sampler2D uRoughnessMap;
 
+#define MATERIAL_COORD vTexCoord
+#endif
+
+#ifdef IMPOSTOR
+#define SAMPLE_MATERIAL(map) textureGrad(map, MATERIAL_COORD, vTexCoordDx, vTexCoordDy)
+#else
+#define SAMPLE_MATERIAL(map) texture(map, MATERIAL_COORD)
+#endif
+#endif
+
 uniform vec3 uLightDir;
 uniform vec3 uLightColor;
 
 uniform vec3 uCamPos;
 
+#ifdef CLUSTERED_LIGHTS
+// three texels per light: position and radius, color and cosine of the outer cone (-2 for point lights),
+// direction and cosine of the inner cone
+uniform samplerBuffer uLights;
+// offset into uLightIndices and number of lights per cluster
+uniform usamplerBuffer uClusters;
+uniform usamplerBuffer uLightIndices;
+uniform int uNumLights;
+
+uniform int uClusterCount[3];
+// tiles per pixel
+uniform vec2 uClusterScale;
+// slice = log(depth) * x + y
+uniform vec2 uClusterSlice;
+
+uniform mat4 uView;
+#endif
+
+#ifdef CASCADED_SHADOWS
+#define MAX_CASCADES 4
+
+// one layer per cascade
+uniform sampler2DArrayShadow uShadowMap;
+uniform mat4 uShadowMatrices[MAX_CASCADES];
+uniform int uNumCascades;
+#endif
+
+#ifdef LIGHT_PROBES
+// irradiance volume; 7 RGBA blocks along z holding the 27 convolved L2 spherical harmonics coefficients per probe
+uniform sampler3D uProbes;
+uniform int uProbeCount[3];
+// position of the first probe
+uniform vec3 uProbeMin;
+// probes per world unit
+uniform vec3 uProbeScale;
+#endif
+
 const float PI = 3.14159265359;
+#ifndef DEFERRED
 // ----------------------------------------------------------------------------
 // Easy trick to get tangent-normals to world-space to keep PBR code simplified.
 // Don't worry if you don't get what's going on; you generally want to do normal
@@ -29,20 +129,53 @@ const float PI = 3.14159265359;
 // technique somewhere later in the normal mapping tutorial.
 vec3 getvNormalFromMap()
 {
-    vec3 tangentvNormal = texture(uNormalMap, vTexCoord).xyz * 2.0 - 1.0;
+    vec3 tangentvNormal = SAMPLE_MATERIAL(uNormalMap).xyz * 2.0 - 1.0;
 
+    vec3 N   = normalize(vNormal);
+#ifdef IMPOSTOR
+    // the same orientation as the derivatives give for the Sphere mesh, against the direction of the longitude
+    vec3 T  = length(N.xy) > 1e-4 ? normalize(vec3(N.y, -N.x, 0.0)) : vec3(0.0, -1.0, 0.0);
+#else
     vec3 Q1  = dFdx(vWorldPos);
     vec3 Q2  = dFdy(vWorldPos);
     vec2 st1 = dFdx(vTexCoord);
     vec2 st2 = dFdy(vTexCoord);
 
-    vec3 N   = normalize(vNormal);
     vec3 T  = normalize(Q1*st2.t - Q2*st1.t);
+#endif
     vec3 B  = -normalize(cross(N, T));
     mat3 TBN = mat3(T, B, N);
 
     return normalize(TBN * tangentvNormal);
 }
+#endif
+#if defined(GBUFFER) || defined(DEFERRED)
+// ----------------------------------------------------------------------------
+vec2 signNotZero(vec2 v)
+{
+    return vec2(v.x >= 0.0 ? 1.0 : -1.0, v.y >= 0.0 ? 1.0 : -1.0);
+}
+// ----------------------------------------------------------------------------
+// octahedral mapping of a unit vector to [0, 1]^2; The lower hemisphere is folded over the diagonals.
+vec2 encodeNormal(vec3 n)
+{
+    n /= abs(n.x) + abs(n.y) + abs(n.z);
+    vec2 e = n.z >= 0.0 ? n.xy : (1.0 - abs(n.yx)) * signNotZero(n.xy);
+
+    return e * 0.5 + 0.5;
+}
+// ----------------------------------------------------------------------------
+vec3 decodeNormal(vec2 e)
+{
+    e = e * 2.0 - 1.0;
+    vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+
+    if (n.z < 0.0)
+        n.xy = (1.0 - abs(n.yx)) * signNotZero(n.xy);
+
+    return normalize(n);
+}
+#endif
 // ----------------------------------------------------------------------------
 float DistributionGGX(vec3 N, vec3 H, float roughness)
 {
@@ -84,24 +217,59 @@ vec3 fresnelSchlick(float cosTheta, vec3 F0)
     return F0 + (1.0 - F0) * pow(1.0 - cosTheta, 5.0);
 }
 // ----------------------------------------------------------------------------
-void main()
+#ifdef CASCADED_SHADOWS
+// fraction of the directional light reaching the fragment; The first cascade containing the fragment is used.
+float getShadow()
 {
-    vec3 albedo     = pow(texture(uAlbedo, vTexCoord).rgb, vec3(2.2));
-    float metallic  = texture(uMetallicMap, vTexCoord).r;
-    float roughness = texture(uRoughnessMap, vTexCoord).r;
+    for (int i = 0; i < uNumCascades; ++i) {
+        vec4 pos = uShadowMatrices[i] * vec4(vWorldPos, 1.0);
+        vec3 coord = pos.xyz * 0.5 + 0.5;
 
-    vec3 N = getvNormalFromMap();
-    vec3 V = normalize(uCamPos - vWorldPos);
+        if (all(greaterThan(coord, vec3(0.0))) && all(lessThan(coord, vec3(1.0))))
+            return texture(uShadowMap, vec4(coord.xy, float(i), coord.z));
+    }
 
-    // calculate reflectance at normal incidence; if dia-electric (like plastic) use F0
-    // of 0.04 and if it's a metal, use the albedo color as F0 (metallic workflow)
-    vec3 F0 = vec3(0.04);
-    F0 = mix(F0, albedo, metallic);
+    return 1.0;
+}
+#endif
+// ----------------------------------------------------------------------------
+#ifdef LIGHT_PROBES
+// irradiance for the normal, interpolated trilinearly between the probes around the fragment
+vec3 getProbeIrradiance(vec3 N)
+{
+    vec3 count = vec3(uProbeCount[0], uProbeCount[1], uProbeCount[2]);
+    vec3 size = vec3(count.xy, count.z * 7.0);
+
+    // texel coordinates in the first block; clamping to the texel centers keeps the filter inside of a block
+    vec3 t = clamp((vWorldPos - uProbeMin) * uProbeScale, vec3(0.0), count - 1.0) + 0.5;
+
+    vec4 c0 = texture(uProbes, t / size);
+    vec4 c1 = texture(uProbes, (t + vec3(0.0, 0.0, count.z)) / size);
+    vec4 c2 = texture(uProbes, (t + vec3(0.0, 0.0, count.z * 2.0)) / size);
+    vec4 c3 = texture(uProbes, (t + vec3(0.0, 0.0, count.z * 3.0)) / size);
+    vec4 c4 = texture(uProbes, (t + vec3(0.0, 0.0, count.z * 4.0)) / size);
+    vec4 c5 = texture(uProbes, (t + vec3(0.0, 0.0, count.z * 5.0)) / size);
+    vec4 c6 = texture(uProbes, (t + vec3(0.0, 0.0, count.z * 6.0)) / size);
+
+    // basis functions of bands 0 to 2; the coefficients are already convolved with the cosine lobe
+    vec3 irradiance = c0.xyz * 0.282095
+        + vec3(c0.w, c1.xy) * 0.488603 * N.y
+        + vec3(c1.zw, c2.x) * 0.488603 * N.z
+        + c2.yzw * 0.488603 * N.x
+        + c3.xyz * 1.092548 * N.x * N.y
+        + vec3(c3.w, c4.xy) * 1.092548 * N.y * N.z
+        + vec3(c4.zw, c5.x) * 0.315392 * (3.0 * N.z * N.z - 1.0)
+        + c5.yzw * 1.092548 * N.x * N.z
+        + c6.xyz * 0.546274 * (N.x * N.x - N.y * N.y);
 
-    // calculate per-light radiance
-    vec3 L = normalize(-uLightDir);
+    return max(irradiance, vec3(0.0));
+}
+#endif
+// ----------------------------------------------------------------------------
+// outgoing radiance of one light with direction L and incoming radiance
+vec3 shade(vec3 N, vec3 V, vec3 L, vec3 radiance, vec3 albedo, float metallic, float roughness, vec3 F0)
+{
     vec3 H = normalize(V + L);
-    vec3 radiance = uLightColor;
 
     // Cook-Torrance BRDF
     float NDF = DistributionGGX(N, H, roughness);
@@ -126,19 +294,138 @@ void main()
     // scale light by NdotL
     float NdotL = max(dot(N, L), 0.0);
 
-    // add to outgoing radiance Lo
-    vec3 Lo = (kD * albedo / PI + specular) * radiance * NdotL;  // note that we already multiplied the BRDF by the Fresnel (kS) so we won't multiply by kS again
+    return (kD * albedo / PI + specular) * radiance * NdotL;  // note that we already multiplied the BRDF by the Fresnel (kS) so we won't multiply by kS again
+}
+// ----------------------------------------------------------------------------
+void main()
+{
+#ifdef IMPOSTOR
+    // closest intersection of the ray from the camera with the sphere
+    vec3 dir = normalize(vRayPos - uCamPos);
+    vec3 offset = uCamPos - vSphere.xyz;
+    float b = dot(offset, dir);
+    float h = b * b - dot(offset, offset) + vSphere.w * vSphere.w;
+    float t = -b - sqrt(max(h, 0.0));
+
+    // fragments which miss are discarded only after the derivatives, which the neighbours need
+    vWorldPos = uCamPos + dir * t;
+    vNormal = (vWorldPos - vSphere.xyz) / vSphere.w;
+
+    // longitude and latitude like the Sphere mesh
+    float longitude = atan(vNormal.y, vNormal.x) / (2.0 * PI);
+    vTexCoord = vec2(fract(longitude), acos(clamp(vNormal.z, -1.0, 1.0)) / PI);
+
+    // fract jumps at longitude 0 and longitude itself at 0.5, so the smaller gradients of both are used
+    vec2 gradX = vec2(dFdx(vTexCoord.x), dFdx(longitude));
+    vec2 gradY = vec2(dFdy(vTexCoord.x), dFdy(longitude));
+    bool seam = abs(gradX.x) + abs(gradY.x) > abs(gradX.y) + abs(gradY.y);
+
+    vTexCoordDx = vec2(seam ? gradX.y : gradX.x, dFdx(vTexCoord.y));
+    vTexCoordDy = vec2(seam ? gradY.y : gradY.x, dFdy(vTexCoord.y));
 
+    if (h < 0.0 || t < 0.0)
+        discard;
+
+    vec4 clip = uViewProjection * vec4(vWorldPos, 1.0);
+    gl_FragDepth = clip.z / clip.w * 0.5 + 0.5;
+#endif
+
+#ifdef DEFERRED
+    ivec2 texel = ivec2(gl_FragCoord.xy);
+    float sceneDepth = texelFetch(uGDepth, texel, 0).r;
+
+    // nothing was drawn, so the background of the target stays
+    if (sceneDepth == 1.0)
+        discard;
+
+    // the depth is written as well, so later passes can test against the scene
+    gl_FragDepth = sceneDepth;
+
+    vec4 clip = uInvViewProjection * vec4(vec3(gl_FragCoord.xy * uInvViewport, sceneDepth) * 2.0 - 1.0, 1.0);
+    vWorldPos = clip.xyz / clip.w;
+
+    vec2 surface    = texelFetch(uGMaterial, texel, 0).rg;
+    vec3 albedo     = pow(texelFetch(uGAlbedo, texel, 0).rgb, vec3(2.2));
+    float metallic  = surface.r;
+    float roughness = surface.g;
+
+    vec3 N = decodeNormal(texelFetch(uGNormal, texel, 0).rg);
+#elif defined(GBUFFER)
+    // the albedo keeps the encoding of the map, which is more precise in the dark range
+    outAlbedo   = vec4(SAMPLE_MATERIAL(uAlbedo).rgb, 1.0);
+    outNormal   = encodeNormal(getvNormalFromMap());
+    outMaterial = vec2(SAMPLE_MATERIAL(uMetallicMap).r, SAMPLE_MATERIAL(uRoughnessMap).r);
+}
+#else
+    vec3 albedo     = pow(SAMPLE_MATERIAL(uAlbedo).rgb, vec3(2.2));
+    float metallic  = SAMPLE_MATERIAL(uMetallicMap).r;
+    float roughness = SAMPLE_MATERIAL(uRoughnessMap).r;
+
+    vec3 N = getvNormalFromMap();
+#endif
+
+#ifndef GBUFFER
+    vec3 V = normalize(uCamPos - vWorldPos);
+
+    // calculate reflectance at normal incidence; if dia-electric (like plastic) use F0
+    // of 0.04 and if it's a metal, use the albedo color as F0 (metallic workflow)
+    vec3 F0 = vec3(0.04);
+    F0 = mix(F0, albedo, metallic);
+
+    // directional light
+    vec3 Lo = shade(N, V, normalize(-uLightDir), uLightColor, albedo, metallic, roughness, F0);
+
+#ifdef CASCADED_SHADOWS
+    Lo *= getShadow();
+#endif
+
+#ifdef CLUSTERED_LIGHTS
+    // find the cluster of the fragment
+    float depth = -(uView * vec4(vWorldPos, 1.0)).z;
+    int slice = int(log(max(depth, 1e-6)) * uClusterSlice.x + uClusterSlice.y);
+    ivec3 cluster = ivec3(ivec2(gl_FragCoord.xy * uClusterScale), slice);
+    cluster = clamp(cluster, ivec3(0), ivec3(uClusterCount[0], uClusterCount[1], uClusterCount[2]) - 1);
+
+    uvec2 range = texelFetch(uClusters, (cluster.z * uClusterCount[1] + cluster.y) * uClusterCount[0] + cluster.x).xy;
+
+    for (uint i = 0u; i < range.y; ++i) {
+        int light = int(texelFetch(uLightIndices, int(range.x + i)).r);
+
+        if (light >= uNumLights)
+            continue;
+
+        vec4 position  = texelFetch(uLights, light * 3);
+        vec4 color     = texelFetch(uLights, light * 3 + 1);
+        vec4 direction = texelFetch(uLights, light * 3 + 2);
+
+        vec3 toLight = position.xyz - vWorldPos;
+        float dist2 = max(dot(toLight, toLight), 1e-4);
+        vec3 L = toLight * inversesqrt(dist2);
+
+        // inverse square falloff, windowed to reach zero at the radius
+        float window = clamp(1.0 - pow(dist2 / (position.w * position.w), 2.0), 0.0, 1.0);
+        float attenuation = window * window / dist2;
+
+        // spot cone; point lights have an outer cosine below -1
+        if (color.w >= -1.0)
+            attenuation *= smoothstep(color.w, direction.w, dot(-L, direction.xyz));
+
+        Lo += shade(N, V, L, color.rgb * attenuation, albedo, metallic, roughness, F0);
+    }
+#endif
+
+#ifdef LIGHT_PROBES
+    // indirect diffuse light of the surroundings
+    vec3 ambient = getProbeIrradiance(N) / PI * albedo;
+#else
     // ambient lighting (note that the next IBL tutorial will replace
     // this ambient lighting with environment lighting).
     vec3 ambient = vec3(0.03) * albedo;
+#endif
 
     vec3 color = ambient + Lo;
 
-    // HDR tonemapping
-    color = color / (color + vec3(1.0));
-    // gamma correct
-    color = pow(color, vec3(1.0/2.2));
-
+    // linear radiance; tonemapping and gamma correction are done by the post processing (ToneMap.frag)
     outColor = vec4(color, 1.0);
 }
+#endif
@@ -12,14 +12,47 @@ out vec2 vTexCoord;
 out vec3 vWorldPos;
 out vec3 vNormal;
 
+#ifdef MATERIAL_ARRAY
+// layer of the material in the texture arrays (per instance)
+in float inMaterial;
+flat out float vMaterial;
+#endif
+
+// The depth pre-pass (Depth.vert) has to produce exactly the same positions
+invariant gl_Position;
+
 uniform mat4 uViewProjection;
+
+#ifdef INDIRECT_TRANSFORMS
+// Index of the draw in the command list (base instance of the indirect draw)
+in uint inDrawId;
+// 7 texels per draw; the columns of the model matrix and of the normal matrix
+uniform samplerBuffer uTransforms;
+#else
 uniform mat4 uModel;
 uniform mat3 uNormalMat;
+#endif
 
 void main() {
+#ifdef INDIRECT_TRANSFORMS
+    int base = int(inDrawId) * 7;
+    mat4 uModel = mat4(
+        texelFetch(uTransforms, base), texelFetch(uTransforms, base + 1), texelFetch(uTransforms, base + 2),
+        texelFetch(uTransforms, base + 3)
+    );
+    mat3 uNormalMat = mat3(
+        texelFetch(uTransforms, base + 4).xyz, texelFetch(uTransforms, base + 5).xyz,
+        texelFetch(uTransforms, base + 6).xyz
+    );
+#endif
+
     vTexCoord = inTexCoord;
     vWorldPos = vec3(uModel * vec4(inPos, 1.0));
     vNormal = uNormalMat * inNormal;
 
+#ifdef MATERIAL_ARRAY
+    vMaterial = inMaterial;
+#endif
+
     gl_Position = uViewProjection * vec4(vWorldPos, 1.0);
 }
@@ -0,0 +1,25 @@
+// Maps the linear radiance to the display; The sRGB framebuffer applies the gamma correction.
+
+#version 330 core
+
+in vec2 vTexCoord;
+
+out vec4 outColor;
+
+uniform sampler2D uHdr;
+uniform vec2 uScale;
+uniform float uExposure;
+
+// Maps the screen to the part of uHdr which contains the scene, without filtering in texels outside of it
+vec2 getCoord() {
+    return min(vTexCoord * uScale, uScale - 0.5 / vec2(textureSize(uHdr, 0)));
+}
+
+void main() {
+    vec3 color = texture(uHdr, getCoord()).rgb * uExposure;
+
+    // HDR tonemapping
+    color = color / (color + vec3(1.0));
+
+    outColor = vec4(color, 1.0);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 Florian Preinfalk
+ *
+ * Small PBR example based on the tutorials from learnopengl.com
+ */
+
+package org.preinfalk.PBR.GL;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the front to back order of the depth pre-pass and the late latched transforms
+ */
+public class CommandListTest {
+    /**
+     * Depths of 2 and more set the highest depth bit, which must not end up in the sign bit of the depth order
+     */
+    @Test
+    public void sortsFrontToBack() {
+        float[] depths = { 10, 3, 0.5f, 1.5f };
+        long[] order = new long[depths.length];
+
+        for (int i = 0; i < depths.length; ++i) {
+            long key = (long) (i + 1) << 24 | RenderQueue.depthBits(depths[i]);
+            order[i] = CommandList.depthOrderKey(key, i);
+            assertTrue(order[i] >= 0);
+        }
+
+        Arrays.sort(order);
+
+        int[] draws = new int[order.length];
+
+        for (int i = 0; i < order.length; ++i)
+            draws[i] = (int) (order[i] & ((1 << 27) - 1));
+
+        assertArrayEquals(new int[] { 2, 3, 1, 0 }, draws);
+    }
+
+    /**
+     * Only draws with a transform are moved, and their normal matrices follow the model matrices
+     */
+    @Test
+    public void premultipliesTransforms() {
+        Matrix4f model = new Matrix4f().translation(1, 2, 3).rotateX(0.5f).scale(2, 1, 1);
+        Matrix4f latch = new Matrix4f().rotationZ(1.25f);
+
+        CommandList list = new CommandList();
+        list.size = 2;
+        list.hasTransform = new boolean[] { true, false };
+        list.transforms = new float[2 * CommandList.TRANSFORM_SIZE];
+        model.get(list.transforms, 0);
+        model.normal(new Matrix3f()).get(list.transforms, 16);
+        model.get(list.transforms, CommandList.TRANSFORM_SIZE);
+
+        list.premultiplyTransforms(latch);
+
+        Matrix4f moved = new Matrix4f(latch).mul(model);
+        float[] expected = new float[2 * CommandList.TRANSFORM_SIZE];
+        moved.get(expected, 0);
+        moved.normal(new Matrix3f()).get(expected, 16);
+        model.get(expected, CommandList.TRANSFORM_SIZE);
+
+        assertArrayEquals(expected, list.transforms, 1e-5f);
+    }
+}